@@ -0,0 +1,69 @@
+package org.example.loadbalancer.jmh;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import static org.example.loadbalancer.lb.util.Helper.closeChannel;
+
+/*
+ * In-process backend for the benchmarks. Reads a request until the client half-closes, then answers with as many bytes
+ * as it received and closes. Answering only after EOF means a client can write a large payload without reading at
+ * the same time, and having the backend close first keeps TIME_WAIT sockets off the benchmark's ephemeral ports.
+ */
+public class EchoBackend implements AutoCloseable {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final ServerSocket serverSocket;
+
+    public EchoBackend() throws IOException {
+        serverSocket = new ServerSocket(0, 1024, InetAddress.getLoopbackAddress());
+        Thread.ofVirtual().name("echo-backend-" + serverSocket.getLocalPort()).start(this::acceptLoop);
+    }
+
+    public InetSocketAddress getAddress() {
+        return new InetSocketAddress(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort());
+    }
+
+    @Override
+    public void close() {
+        closeChannel(serverSocket);
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                final Socket socket = serverSocket.accept();
+                Thread.ofVirtual().start(() -> answer(socket));
+            } catch (IOException e) {
+                // Closed
+            }
+        }
+    }
+
+    private static void answer(Socket socket) {
+        final byte[] chunk = new byte[CHUNK_SIZE];
+        try (socket) {
+            final InputStream in = socket.getInputStream();
+            long received = 0;
+            int len;
+            while ((len = in.read(chunk)) >= 0) {
+                received += len;
+            }
+
+            final OutputStream out = socket.getOutputStream();
+            while (received > 0) {
+                final int size = (int) Math.min(received, chunk.length);
+                out.write(chunk, 0, size);
+                received -= size;
+            }
+        } catch (IOException e) {
+            // The client went away, nothing to answer
+        }
+    }
+}
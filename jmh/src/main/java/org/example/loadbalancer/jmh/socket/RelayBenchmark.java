@@ -0,0 +1,103 @@
+package org.example.loadbalancer.jmh.socket;
+
+import org.example.loadbalancer.jmh.EchoBackend;
+import org.example.loadbalancer.lb.buffer.BufferPool;
+import org.example.loadbalancer.lb.socket.EventLoopGroup;
+import org.example.loadbalancer.lb.socket.RelayMode;
+import org.example.loadbalancer.lb.socket.SocketHandler;
+import org.example.loadbalancer.lb.socket.SocketHandlerThreadFactory;
+import org.example.loadbalancer.lb.strategy.BackendStats;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+import static org.example.loadbalancer.lb.util.Helper.closeChannel;
+
+/*
+ * One whole relayed exchange over loopback per operation: the client connects, sends the payload and half-closes, the
+ * relay carries it to an in-process backend which answers with the same number of bytes, and the client reads the
+ * answer to the end. Covers the connect, both copy paths and the half-close handling of each relay implementation.
+ *
+ * SINGLE_ROUND_TRIP is left out, it only relays one read and can't carry payloads bigger than its buffer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RelayBenchmark {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // A RelayMode, or EVENT_LOOP for the selector engine
+    @Param({"STREAMING", "NIO_POOLED", "EVENT_LOOP"})
+    public String relay;
+
+    @Param({"1024", "65536", "1048576"})
+    public int payloadBytes;
+
+    private EchoBackend backend;
+    private ServerSocketChannel frontend;
+    private SocketHandlerThreadFactory factory;
+    private EventLoopGroup eventLoopGroup;
+    private ByteBuffer payload;
+    private ByteBuffer response;
+
+    @Setup
+    public void setup() throws IOException {
+        backend = new EchoBackend();
+        frontend = ServerSocketChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+
+        final BufferPool bufferPool = new BufferPool(BUFFER_SIZE, 1024);
+        if ("EVENT_LOOP".equals(relay)) {
+            eventLoopGroup = new EventLoopGroup(1, bufferPool, BUFFER_SIZE);
+        } else {
+            factory = new SocketHandlerThreadFactory(RelayMode.valueOf(relay), bufferPool, new BackendStats());
+        }
+
+        payload = ByteBuffer.allocateDirect(payloadBytes);
+        response = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (eventLoopGroup != null) {
+            eventLoopGroup.close();
+        }
+        closeChannel(frontend);
+        backend.close();
+    }
+
+    @Benchmark
+    public long relay() throws IOException {
+        try (SocketChannel client = SocketChannel.open(frontend.getLocalAddress())) {
+            final SocketChannel accepted = frontend.accept();
+            if (eventLoopGroup != null) {
+                eventLoopGroup.register(accepted, backend.getAddress());
+            } else {
+                final SocketHandler handler = factory.createSocketHandlerThread(accepted.socket(), backend.getAddress(), BUFFER_SIZE);
+                Thread.ofVirtual().start(handler::runThread);
+            }
+
+            payload.clear();
+            while (payload.hasRemaining()) {
+                client.write(payload);
+            }
+            client.shutdownOutput();
+
+            long received = 0;
+            int len;
+            while ((len = client.read(response.clear())) >= 0) {
+                received += len;
+            }
+            return received;
+        }
+    }
+}
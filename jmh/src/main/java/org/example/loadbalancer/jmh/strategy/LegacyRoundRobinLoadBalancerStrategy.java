@@ -0,0 +1,29 @@
+package org.example.loadbalancer.jmh.strategy;
+
+import org.example.loadbalancer.lb.strategy.LoadBalancerStrategy;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+
+/*
+ * Copy of the original RoundRobinLoadBalancerStrategy with a plain int index, kept as a baseline for the benchmarks.
+ * It is not thread safe, under contention the index can run past the end of the list.
+ */
+public class LegacyRoundRobinLoadBalancerStrategy implements LoadBalancerStrategy {
+
+    private final List<InetSocketAddress> servers;
+    private int currentIndex = 0;
+
+    public LegacyRoundRobinLoadBalancerStrategy(List<InetSocketAddress> servers) {
+        this.servers = servers;
+    }
+
+    @Override
+    public InetSocketAddress selectDestinationServer() {
+        if (currentIndex >= servers.size()) {
+            currentIndex = 0;
+        }
+
+        return servers.get(currentIndex++);
+    }
+}
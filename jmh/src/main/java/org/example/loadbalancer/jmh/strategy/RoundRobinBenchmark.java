@@ -0,0 +1,56 @@
+package org.example.loadbalancer.jmh.strategy;
+
+import org.example.loadbalancer.lb.strategy.LoadBalancerStrategy;
+import org.example.loadbalancer.lb.strategy.algorithms.RoundRobinLoadBalancerStrategy;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Contended selection throughput of the atomic round-robin strategy against the original int based version.
+ * Both are hammered by the same number of threads sharing one instance, as the acceptor threads do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class RoundRobinBenchmark {
+
+    @Param({"4", "64"})
+    public int serverCount;
+
+    private LoadBalancerStrategy legacy;
+    private LoadBalancerStrategy atomic;
+
+    @Setup
+    public void setup() {
+        final List<InetSocketAddress> servers = new ArrayList<>();
+        for (int i = 0; i < serverCount; i++) {
+            servers.add(new InetSocketAddress(InetAddress.getLoopbackAddress(), 8000 + i));
+        }
+        legacy = new LegacyRoundRobinLoadBalancerStrategy(servers);
+        atomic = new RoundRobinLoadBalancerStrategy(servers);
+    }
+
+    @Benchmark
+    public InetSocketAddress legacyRoundRobin() {
+        try {
+            return legacy.selectDestinationServer();
+        } catch (IndexOutOfBoundsException e) {
+            // The unsynchronised index raced past the end of the list, this is the bug being replaced
+            return null;
+        }
+    }
+
+    @Benchmark
+    public InetSocketAddress atomicRoundRobin() {
+        return atomic.selectDestinationServer();
+    }
+}
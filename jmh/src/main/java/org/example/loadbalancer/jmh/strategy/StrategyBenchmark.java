@@ -0,0 +1,97 @@
+package org.example.loadbalancer.jmh.strategy;
+
+import org.example.loadbalancer.lb.LoadBalancerConfig;
+import org.example.loadbalancer.lb.strategy.BackendStats;
+import org.example.loadbalancer.lb.strategy.LoadBalancerStrategy;
+import org.example.loadbalancer.lb.strategy.LoadBalancerStrategyFactory;
+import org.example.loadbalancer.lb.strategy.LoadBalancerStrategyType;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Contended selection throughput of every strategy. One instance is shared by all the benchmark threads, as it is by
+ * the acceptor threads, and each selection opens and closes a connection against the chosen server so the load aware
+ * strategies see their counters move.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class StrategyBenchmark {
+
+    @Param({"ROUND_ROBIN", "WEIGHTED_ROUND_ROBIN", "RANDOM", "LEAST_CONNECTIONS", "P2C", "LEAST_RESPONSE_TIME", "CONSISTENT_HASH"})
+    public String strategyType;
+
+    @Param({"4", "64"})
+    public int serverCount;
+
+    private LoadBalancerStrategy strategy;
+    private BackendStats backendStats;
+
+    @Setup
+    public void setup() {
+        final List<InetSocketAddress> servers = new ArrayList<>();
+        final Map<InetSocketAddress, Integer> weights = new HashMap<>();
+        for (int i = 0; i < serverCount; i++) {
+            final InetSocketAddress server = new InetSocketAddress(InetAddress.getLoopbackAddress(), 8000 + i);
+            servers.add(server);
+            weights.put(server, 1 + i % 4);
+        }
+
+        final LoadBalancerConfig config = new LoadBalancerConfig();
+        config.setLoadBalancerStrategyType(LoadBalancerStrategyType.valueOf(strategyType));
+        config.setServers(servers);
+        config.setServerWeights(weights);
+
+        backendStats = new BackendStats();
+        for (InetSocketAddress server : servers) {
+            // Give the latency aware strategy something to tell the servers apart by
+            backendStats.get(server).recordResponseLatency(TimeUnit.MICROSECONDS.toNanos(100 + 10L * (server.getPort() % 10)));
+        }
+        strategy = LoadBalancerStrategyFactory.createLoadBalancerStrategy(config, backendStats);
+    }
+
+    @Benchmark
+    public InetSocketAddress select(Clients clients) {
+        final InetSocketAddress server = strategy.selectDestinationServer(clients.next());
+        final BackendStats.ServerStats serverStats = backendStats.get(server);
+        serverStats.connectionOpened();
+        serverStats.connectionClosed();
+        return server;
+    }
+
+    /*
+     * Client addresses for one benchmark thread, so consistent hashing spreads over the ring as it would in production
+     */
+    @State(Scope.Thread)
+    public static class Clients {
+
+        private final InetSocketAddress[] addresses = new InetSocketAddress[1024];
+        private int next;
+
+        @Setup
+        public void setup() throws UnknownHostException {
+            final ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < addresses.length; i++) {
+                final byte[] ip = {10, (byte) random.nextInt(256), (byte) random.nextInt(256), (byte) random.nextInt(256)};
+                addresses[i] = new InetSocketAddress(InetAddress.getByAddress(ip), 1024 + random.nextInt(60_000));
+            }
+        }
+
+        InetSocketAddress next() {
+            return addresses[next++ & (addresses.length - 1)];
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package org.example.loadbalancer.lb;
+
+import org.example.loadbalancer.jmh.EchoBackend;
+import org.example.loadbalancer.lb.buffer.BufferPool;
+import org.example.loadbalancer.lb.socket.EngineType;
+import org.example.loadbalancer.lb.socket.EventLoopGroup;
+import org.example.loadbalancer.lb.socket.SocketHandlerThreadFactory;
+import org.example.loadbalancer.lb.strategy.BackendStats;
+import org.example.loadbalancer.lb.strategy.LoadBalancerStrategy;
+import org.example.loadbalancer.lb.strategy.LoadBalancerStrategyFactory;
+import org.example.loadbalancer.lb.strategy.LoadBalancerStrategyType;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.example.loadbalancer.lb.util.Helper.closeChannel;
+
+/*
+ * Accept to first byte through a real LoadBalancer in front of two in-process backends: connect, send a one byte
+ * request and wait for the first byte of the answer. Sampled so the percentiles show up as well as the mean.
+ *
+ * Lives in the lb package so it can start and stop the LB the same way LoadBalancerTest does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class LoadBalancerBenchmark {
+
+    @Param({"THREAD_PER_CONNECTION", "EVENT_LOOP"})
+    public String engine;
+
+    private EchoBackend backend1;
+    private EchoBackend backend2;
+    private EventLoopGroup eventLoopGroup;
+    private LoadBalancer loadBalancer;
+    private Thread lbThread;
+    private int port;
+
+    @Setup
+    public void setup() throws IOException, InterruptedException {
+        backend1 = new EchoBackend();
+        backend2 = new EchoBackend();
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+
+        final LoadBalancerConfig config = new LoadBalancerConfig();
+        config.setPort(port);
+        config.setLoadBalancerStrategyType(LoadBalancerStrategyType.ROUND_ROBIN);
+        config.setServers(List.of(backend1.getAddress(), backend2.getAddress()));
+        config.setEngineType(EngineType.valueOf(engine));
+
+        final BackendStats backendStats = new BackendStats();
+        final LoadBalancerStrategy lbStrategy = LoadBalancerStrategyFactory.createLoadBalancerStrategy(config, backendStats);
+        final BufferPool bufferPool = new BufferPool(config.getBufferSizeBytes(), config.getBufferPoolMaxBuffers());
+        final SocketHandlerThreadFactory factory = new SocketHandlerThreadFactory(config.getRelayMode(), bufferPool, backendStats);
+        if (config.getEngineType() == EngineType.EVENT_LOOP) {
+            eventLoopGroup = new EventLoopGroup(config.getEventLoopThreads(), bufferPool, config.getBufferSizeBytes());
+        }
+
+        loadBalancer = new LoadBalancer(config, lbStrategy, factory, eventLoopGroup, backendStats);
+        lbThread = Thread.ofPlatform().name("lb").daemon().start(loadBalancer::run);
+
+        // run() health checks the backends before it binds, wait until it takes connections
+        while (true) {
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+                socket.shutdownOutput();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        loadBalancer.setAbort(true);
+        // Wake the accept loop up so it sees the abort
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            socket.shutdownOutput();
+        } catch (IOException e) {
+            // Already gone
+        }
+        lbThread.join(TimeUnit.SECONDS.toMillis(5));
+
+        if (eventLoopGroup != null) {
+            eventLoopGroup.close();
+        }
+        backend1.close();
+        backend2.close();
+    }
+
+    @Benchmark
+    public int firstByte(Connection connection) throws IOException {
+        connection.socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        connection.socket.setTcpNoDelay(true);
+        connection.socket.getOutputStream().write(1);
+        connection.socket.shutdownOutput();
+        return connection.socket.getInputStream().read();
+    }
+
+    /*
+     * The client socket of one operation. It is read to the end and closed outside the measured time, the backend
+     * closes first so the client ports don't pile up in TIME_WAIT.
+     */
+    @State(Scope.Thread)
+    public static class Connection {
+
+        private Socket socket;
+
+        @TearDown(Level.Invocation)
+        public void close() throws IOException {
+            if (socket == null) {
+                return;
+            }
+            try {
+                final InputStream in = socket.getInputStream();
+                while (in.read() >= 0) {
+                    // Drain until the LB passes the backend's close on
+                }
+            } finally {
+                closeChannel(socket);
+                socket = null;
+            }
+        }
+    }
+}
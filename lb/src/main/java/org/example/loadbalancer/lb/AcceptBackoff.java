@@ -0,0 +1,75 @@
+package org.example.loadbalancer.lb;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/*
+ * Backoff of one acceptor thread whose accept() keeps failing, typically because the process or the system is out of
+ * file descriptors (EMFILE/ENFILE). Retrying straight away would spin the thread at 100% CPU without ever getting
+ * anywhere, so every failure in a row doubles the wait up to MAX_DELAY_MS and a successful accept resets it.
+ *
+ * Failures are only logged once per MAX_DELAY_MS, with the number of failures since the last line.
+ *
+ * Only used by its own acceptor thread, so nothing is synchronized.
+ */
+class AcceptBackoff {
+
+    static final long MIN_DELAY_MS = 5;
+    static final long MAX_DELAY_MS = 1000;
+
+    // System.nanoTime() or a fake clock for tests
+    private final LongSupplier clock;
+
+    // Wait before the next accept, 0 while accepting works
+    private long delayMs = 0;
+    // Failures since the last one that was logged
+    private int unlogged = 0;
+    private long loggedAt;
+    private boolean loggedOnce = false;
+
+    AcceptBackoff() {
+        this(System::nanoTime);
+    }
+
+    /**
+     * @param clock Returns the current time in nanoseconds
+     */
+    AcceptBackoff(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Count a failed accept
+     *
+     * @return How long to wait before accepting again, in milliseconds
+     */
+    long failed() {
+        delayMs = delayMs == 0 ? MIN_DELAY_MS : Math.min(delayMs * 2, MAX_DELAY_MS);
+        unlogged++;
+        return delayMs;
+    }
+
+    /**
+     * Call after failed(), at most one failure per MAX_DELAY_MS gets logged
+     *
+     * @return Failures to report in the log line, 0 if nothing should be logged this time
+     */
+    int takeFailuresToLog() {
+        final long now = clock.getAsLong();
+        if (loggedOnce && now - loggedAt < TimeUnit.MILLISECONDS.toNanos(MAX_DELAY_MS)) {
+            return 0;
+        }
+        loggedOnce = true;
+        loggedAt = now;
+        final int failures = unlogged;
+        unlogged = 0;
+        return failures;
+    }
+
+    /**
+     * Accepting works again, the next failure starts from MIN_DELAY_MS
+     */
+    void succeeded() {
+        delayMs = 0;
+    }
+}
@@ -0,0 +1,106 @@
+package org.example.loadbalancer.lb;
+
+import org.example.loadbalancer.lb.resolver.BackendResolver;
+import org.example.loadbalancer.lb.socket.BackendConnectionPool;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Applies a changed backend list to a running load balancer, whether the config file was edited or the DNS answers
+ * for one of its names changed. The list is resolved again, the connection pool starts warming the new servers and
+ * the LoadBalancer swaps them in and drains the ones that are gone. The pool keeps a server another listener still
+ * uses.
+ *
+ * Updates are applied one at a time. A list where nothing resolves is ignored, it's more likely a typo or a DNS
+ * outage than a request to turn every backend off. So is a list with a malformed entry, and DNS refreshes keep
+ * resolving the last list that was applied.
+ */
+class BackendUpdater {
+
+    private final LoadBalancer loadBalancer;
+    private final BackendConnectionPool backendPool;
+    private final BackendResolver resolver;
+
+    // Comma separated <HOST>:<PORT>[:<WEIGHT>], as last applied
+    private String serverSpec;
+    // Servers last handed to the LB
+    private List<InetSocketAddress> servers;
+    // Used by HTTP routes, kept in the pool whatever the list says
+    private final List<InetSocketAddress> routeServers;
+
+    /**
+     * @param loadBalancer Running LB
+     * @param backendPool Pool to add new servers to and remove old ones from
+     * @param resolver Expands each host into one endpoint per address
+     * @param serverSpec Backend servers the LB was started with
+     * @param servers What serverSpec resolved to at startup
+     * @param routeServers Servers of the HTTP routes, empty if there are none
+     */
+    BackendUpdater(LoadBalancer loadBalancer, BackendConnectionPool backendPool, BackendResolver resolver, String serverSpec,
+                   List<InetSocketAddress> servers, List<InetSocketAddress> routeServers) {
+        this.loadBalancer = loadBalancer;
+        this.backendPool = backendPool;
+        this.resolver = resolver;
+        this.serverSpec = serverSpec;
+        this.servers = servers;
+        this.routeServers = routeServers;
+    }
+
+    /**
+     * @param serverSpec New comma separated <HOST>:<PORT>[:<WEIGHT>]
+     */
+    synchronized void update(String serverSpec) {
+        if (apply(serverSpec)) {
+            this.serverSpec = serverSpec;
+        }
+    }
+
+    /**
+     * Resolve the current list again, called when the addresses of one of its names change
+     */
+    synchronized void refresh() {
+        apply(serverSpec);
+    }
+
+    /**
+     * @param spec Comma separated <HOST>:<PORT>[:<WEIGHT>]
+     * @return false if the list was ignored and the LB kept its servers
+     */
+    private boolean apply(String spec) {
+        final Map<InetSocketAddress, Integer> weights = new HashMap<>();
+        final List<InetSocketAddress> newServers;
+        try {
+            newServers = Main.parseServers(spec, resolver, weights);
+        } catch (IllegalArgumentException e) {
+            System.out.printf("%s, keeping %s%n", e.getMessage(), servers);
+            return false;
+        }
+        if (newServers.isEmpty()) {
+            System.out.printf("None of the backend servers in '%s' could be resolved, keeping %s%n", spec, servers);
+            return false;
+        }
+
+        // The pool is shared with the other listeners and counts every listener using a server, so only the servers
+        // this list gains or loses go to it. A route's servers were counted at startup and stay counted.
+        final List<InetSocketAddress> added = new ArrayList<>(newServers);
+        added.removeAll(servers);
+        added.removeAll(routeServers);
+        for (InetSocketAddress server : added) {
+            backendPool.addServer(server);
+        }
+        loadBalancer.updateServers(newServers, weights);
+
+        final List<InetSocketAddress> removed = new ArrayList<>(servers);
+        removed.removeAll(newServers);
+        removed.removeAll(routeServers);
+        for (InetSocketAddress server : removed) {
+            backendPool.removeServer(server);
+        }
+        servers = newServers;
+        return true;
+    }
+}
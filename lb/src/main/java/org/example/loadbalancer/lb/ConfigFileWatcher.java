@@ -0,0 +1,150 @@
+package org.example.loadbalancer.lb;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/*
+ * Watches a properties file and hands its contents over every time it changes.
+ *
+ * The directory is watched rather than the file, editors and config management tools tend to write a new file and
+ * rename it over the old one. Events are debounced, a save is often several writes, and the file is only handed over
+ * when what it holds actually changed. A file that can't be read is reported and skipped, the last good contents stay
+ * in use. So are contents the listener throws on, and the watcher carries on with the next change.
+ */
+public class ConfigFileWatcher implements AutoCloseable {
+
+    // Time to wait after an event for the writes that usually follow it
+    private static final long DEBOUNCE_MS = 100;
+
+    private final Path file;
+    private final Consumer<Properties> onChange;
+    private final WatchService watchService;
+
+    private Properties current;
+    private volatile Thread watcherThread;
+
+    /**
+     * @param file Properties file to watch
+     * @param onChange Called on the watcher thread with the new contents of the file
+     * @throws IOException If the file can't be read or its directory can't be watched
+     */
+    public ConfigFileWatcher(Path file, Consumer<Properties> onChange) throws IOException {
+        this.file = file.toAbsolutePath();
+        this.onChange = onChange;
+        this.current = load(this.file);
+        this.watchService = this.file.getFileSystem().newWatchService();
+        this.file.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+    }
+
+    /**
+     * @return What the file held when it was last read
+     */
+    public synchronized Properties getCurrent() {
+        return current;
+    }
+
+    /**
+     * Start watching on a daemon thread
+     */
+    public void start() {
+        watcherThread = Thread.ofPlatform().name("config-watcher").daemon().start(this::watchLoop);
+    }
+
+    @Override
+    public void close() {
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            // Closing anyway
+        }
+        final Thread watcher = watcherThread;
+        if (watcher != null) {
+            watcher.interrupt();
+        }
+    }
+
+    /**
+     * Read the file again and call the listener if it changed
+     *
+     * @return true if the listener was called
+     * @throws RuntimeException Whatever the listener threw, the current contents are kept
+     */
+    synchronized boolean reload() {
+        final Properties properties;
+        try {
+            properties = load(file);
+        } catch (IOException e) {
+            System.out.printf("Unable to read %s, keeping the current config (%s)%n", file, e.getMessage());
+            return false;
+        }
+
+        if (properties.equals(current)) {
+            return false;
+        }
+        System.out.printf("Reloading %s%n", file);
+        onChange.accept(properties);
+        current = properties;
+        return true;
+    }
+
+    /**
+     * @param file Properties file
+     * @return Its contents
+     * @throws IOException If it can't be read
+     */
+    public static Properties load(Path file) throws IOException {
+        final Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        return properties;
+    }
+
+    private void watchLoop() {
+        try {
+            while (true) {
+                final WatchKey key = watchService.take();
+                boolean changed = containsFile(key);
+                key.reset();
+
+                // Swallow the rest of this save
+                WatchKey next;
+                while ((next = watchService.poll(DEBOUNCE_MS, TimeUnit.MILLISECONDS)) != null) {
+                    changed |= containsFile(next);
+                    next.reset();
+                }
+
+                if (changed) {
+                    try {
+                        reload();
+                    } catch (RuntimeException e) {
+                        System.out.printf("Unable to apply %s, keeping the current config (%s)%n", file, e);
+                    }
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Closed
+        }
+    }
+
+    private boolean containsFile(WatchKey key) {
+        boolean found = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || file.getFileName().equals(event.context())) {
+                found = true;
+            }
+        }
+        return found;
+    }
+}
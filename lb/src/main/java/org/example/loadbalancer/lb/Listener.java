@@ -0,0 +1,43 @@
+package org.example.loadbalancer.lb;
+
+/*
+ * One frontend of the load balancer: the address and protocol it listens on, in its config, and the named pool of
+ * backend servers it balances over. Every listener runs a LoadBalancer of its own, and shares the executor, buffer
+ * pool, health checker and metrics with the others.
+ */
+class Listener {
+
+    private final LoadBalancerConfig config;
+    // Backend servers the config was resolved from, null if they never change
+    private final String serverSpec;
+    // Config file property the servers are reloaded from
+    private final String serversProperty;
+
+    /**
+     * @param config Config of this listener with its backend servers already resolved
+     * @param serverSpec Backend servers the config was resolved from, null if they never change
+     * @param serversProperty Config file property the servers are reloaded from
+     */
+    Listener(LoadBalancerConfig config, String serverSpec, String serversProperty) {
+        this.config = config;
+        this.serverSpec = serverSpec;
+        this.serversProperty = serversProperty;
+    }
+
+    LoadBalancerConfig getConfig() {
+        return config;
+    }
+
+    String getServerSpec() {
+        return serverSpec;
+    }
+
+    String getServersProperty() {
+        return serversProperty;
+    }
+
+    @Override
+    public String toString() {
+        return config.getListenerName() + " " + config.getBindAddress() + ":" + config.getPort() + " " + config.getRelayMode();
+    }
+}
@@ -1,118 +1,464 @@
 package org.example.loadbalancer.lb;
 
+import org.example.loadbalancer.lb.admission.Admission;
+import org.example.loadbalancer.lb.admission.AdmissionController;
+import org.example.loadbalancer.lb.health.HealthChecker;
+import org.example.loadbalancer.lb.health.OutlierDetector;
+import org.example.loadbalancer.lb.http.BackendSelector;
+import org.example.loadbalancer.lb.http.HttpHead;
+import org.example.loadbalancer.lb.http.HttpRoute;
+import org.example.loadbalancer.lb.http.HttpRouter;
+import org.example.loadbalancer.lb.log.Log;
+import org.example.loadbalancer.lb.metrics.LoadBalancerMetrics;
+import org.example.loadbalancer.lb.metrics.MetricsRegistry;
+import org.example.loadbalancer.lb.proxy.ProxyProtocol;
+import org.example.loadbalancer.lb.socket.DatagramRelay;
+import org.example.loadbalancer.lb.socket.EventLoopGroup;
+import org.example.loadbalancer.lb.socket.FlowSelector;
+import org.example.loadbalancer.lb.socket.RelayMode;
+import org.example.loadbalancer.lb.socket.RelayOutcome;
+import org.example.loadbalancer.lb.socket.RelayTimeouts;
+import org.example.loadbalancer.lb.socket.SelectedBackend;
 import org.example.loadbalancer.lb.socket.SocketHandlerThreadAbstractFactory;
+import org.example.loadbalancer.lb.strategy.BackendStats;
 import org.example.loadbalancer.lb.strategy.LoadBalancerStrategy;
+import org.example.loadbalancer.lb.strategy.LoadBalancerStrategyFactory;
+import org.example.loadbalancer.lb.strategy.algorithms.WeightedRoundRobinLoadBalancerStrategy;
 import org.example.loadbalancer.lb.util.Ping;
 
 import java.io.IOException;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
 import java.nio.channels.ServerSocketChannel;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
 
-public class LoadBalancer {
+import static org.example.loadbalancer.lb.util.Helper.closeChannel;
 
-    // Each socket will be handled by a separate lightweight virtual thread, rather than a regular thread pool
-    // This will allow more long term sockets without exhausting a regular thread pool.
-    private final ExecutorService threadExecutor = Executors.newVirtualThreadPerTaskExecutor();
+public class LoadBalancer {
 
-    // Used to run regular task that will ping servers for health
-    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1, Thread.ofVirtual().factory());
+    // How often a drain checks whether the relays it waits on have finished
+    private static final long DRAIN_POLL_MS = 100;
 
-    // List of back-end server that are unreachable or have errors + timestamp of when error was seen
-    private final Map<InetSocketAddress, Long> unhealthyServers = new ConcurrentHashMap<>();
+    // Each socket will be handled by a separate lightweight virtual thread, rather than a regular thread pool
+    // This will allow more long term sockets without exhausting a regular thread pool. Shared by every listener.
+    private final ExecutorService threadExecutor;
 
     // Config for this LB
     private final LoadBalancerConfig config;
 
-    // LB algorithm we are using
-    private final LoadBalancerStrategy lbStrategy;
+    // LB algorithm we are using, replaced as a whole when the backend servers change
+    private volatile LoadBalancerStrategy lbStrategy;
+
+    // Backend servers taking new connections, replaced together with the strategy
+    private volatile List<InetSocketAddress> servers;
+
+    // HTTP mode only, sends requests for a host or path to their own servers, the rest go to servers above
+    private final HttpRouter httpRouter;
+
+    // Strategy of every HTTP route, told about health changes just like lbStrategy
+    private final Map<HttpRoute, LoadBalancerStrategy> routeStrategies = new HashMap<>();
+
+    // Servers of the HTTP routes, they stay health checked while routes use them whatever servers says
+    private final Set<InetSocketAddress> routeServers = new HashSet<>();
+
+    // Picks the backend of every request in HTTP mode
+    private final BackendSelector requestBalancer = new RequestBalancer();
+
+    // Picks the backend of every new flow in UDP mode
+    private final FlowSelector flowBalancer = new FlowBalancer();
 
     // Used to create the socket threads
     private final SocketHandlerThreadAbstractFactory socketHandlerThreadFactory;
 
+    // Selector based event loops, only used when the config asks for EngineType.EVENT_LOOP
+    private final EventLoopGroup eventLoopGroup;
+
+    // PROXY headers of the event loop relays, threads get theirs from the factory
+    private final ProxyProtocol proxyProtocol;
+
+    // Live per-backend counters, shared with strategies that balance on load
+    private final BackendStats backendStats;
+
     // Ping handler used to detect back-end servers, this can be replaced by unit tests
     private LoadBalancerPing pinger = new Ping();
 
+    // Decides which back-end servers are up, probes through whichever pinger is set when they run
+    private final HealthChecker healthChecker;
+
+    // false when the checker is shared by every listener, whoever created it starts and closes it
+    private final boolean ownsHealthChecker;
+
+    // Ejects back-end servers whose relays keep failing, even while they still pass health checks
+    private final OutlierDetector outlierDetector;
+
+    // Connection caps and accept rate limit, checked by the acceptors before anything is spent on a connection
+    private final AdmissionController admission;
+
+    // Accept loop counters and backend health, relays report to it through the RelayListener they were given
+    private final LoadBalancerMetrics metrics;
+
+    // Closes relays that are still running once a drain runs out of time
+    private final RelayTimeouts timeouts;
+
+    // Bound by run(), closed by shutdown() to stop the acceptors
+    private volatile ServerSocketChannel serverChannel;
+
+    // UDP mode only, started by run() and told to stop taking new flows by shutdown()
+    private volatile DatagramRelay datagramRelay;
+
+    // Set once the outage warning is out, so a full outage logs one line rather than one per connection. Cleared when
+    // any of our servers comes back.
+    private final AtomicBoolean outageLogged = new AtomicBoolean();
+
     // Used by unit test to control flow
-    private boolean abort = false;
+    private volatile boolean abort = false;
 
     public LoadBalancer(LoadBalancerConfig config, LoadBalancerStrategy lbStrategy, SocketHandlerThreadAbstractFactory factory) {
+        this(config, lbStrategy, factory, null, new BackendStats());
+    }
+
+    public LoadBalancer(LoadBalancerConfig config, LoadBalancerStrategy lbStrategy, SocketHandlerThreadAbstractFactory factory,
+                        EventLoopGroup eventLoopGroup, BackendStats backendStats) {
+        this(config, lbStrategy, factory, eventLoopGroup, backendStats, new LoadBalancerMetrics(new MetricsRegistry(), config.getAllServers(), backendStats));
+    }
+
+    public LoadBalancer(LoadBalancerConfig config, LoadBalancerStrategy lbStrategy, SocketHandlerThreadAbstractFactory factory,
+                        EventLoopGroup eventLoopGroup, BackendStats backendStats, LoadBalancerMetrics metrics) {
+        this(config, lbStrategy, factory, eventLoopGroup, backendStats, metrics, RelayTimeouts.none());
+    }
+
+    public LoadBalancer(LoadBalancerConfig config, LoadBalancerStrategy lbStrategy, SocketHandlerThreadAbstractFactory factory,
+                        EventLoopGroup eventLoopGroup, BackendStats backendStats, LoadBalancerMetrics metrics, RelayTimeouts timeouts) {
+        this(config, lbStrategy, factory, eventLoopGroup, backendStats, metrics, timeouts, null, Executors.newVirtualThreadPerTaskExecutor());
+    }
+
+    /**
+     * @param config Config of this listener, its servers are replaced by updateServers()
+     * @param lbStrategy Strategy over the listener's servers
+     * @param factory Creates the relays
+     * @param eventLoopGroup Event loops to relay on, null for a virtual thread per connection
+     * @param backendStats Per-backend counters, shared by every listener
+     * @param metrics Metrics, shared by every listener
+     * @param timeouts Relay deadlines, shared by every listener
+     * @param healthChecker Checker shared by every listener and already holding this one's servers, null to create one
+     *                      of its own that run() starts and closes
+     * @param threadExecutor Runs the relays, shared by every listener
+     */
+    public LoadBalancer(LoadBalancerConfig config, LoadBalancerStrategy lbStrategy, SocketHandlerThreadAbstractFactory factory,
+                        EventLoopGroup eventLoopGroup, BackendStats backendStats, LoadBalancerMetrics metrics, RelayTimeouts timeouts,
+                        HealthChecker healthChecker, ExecutorService threadExecutor) {
         this.config = config;
+        this.threadExecutor = threadExecutor;
         this.lbStrategy = lbStrategy;
+        this.servers = config.getServers();
+        this.timeouts = timeouts;
         this.socketHandlerThreadFactory = factory;
+        this.eventLoopGroup = eventLoopGroup;
+        this.proxyProtocol = new ProxyProtocol(config.getProxyProtocolSend(), config.isProxyProtocolAccept());
+        this.backendStats = backendStats;
+        this.metrics = metrics;
+        this.outlierDetector = new OutlierDetector(config.getAllServers(), config);
+        this.outlierDetector.addListener(this::serverStateChanged);
+        this.admission = new AdmissionController(config.getMaxConnections(), config.getMaxConnectionsPerClient(),
+                config.getMaxConnectionsPerBackend(), config.getAcceptRatePerSecond(), config.getAcceptBurst());
+        // Goes through the field so tests can swap the pinger before run(). UDP backends have no TCP port to probe, they
+        // always pass and only the outlier detector takes them out.
+        final LoadBalancerPing probe = config.getRelayMode() == RelayMode.UDP
+                ? (server, timeoutMs) -> true : (server, timeoutMs) -> pinger.pingServer(server, timeoutMs);
+        this.ownsHealthChecker = healthChecker == null;
+        this.healthChecker = healthChecker != null ? healthChecker : new HealthChecker(config.getAllServers(), probe,
+                config.getBackendPingIntervalMs(), config.getBackendPingTimeoutMs(), config.getBackendRiseCount(), config.getBackendFallCount());
+        this.healthChecker.addListener(this::serverStateChanged);
+
+        this.httpRouter = new HttpRouter(config.getHttpRoutes());
+        for (HttpRoute route : config.getHttpRoutes()) {
+            routeStrategies.put(route, LoadBalancerStrategyFactory.createLoadBalancerStrategy(config, route.getServers(), backendStats));
+            routeServers.addAll(route.getServers());
+        }
     }
 
     void run() {
+        if (config.getRelayMode() == RelayMode.UDP) {
+            runDatagrams();
+            return;
+        }
 
-        // Check if any servers are offline before starting the LB
-        pingAllServers(config.getServers());
+        // Check if any servers are offline before starting the LB, a shared checker was checked by whoever created it
+        if (ownsHealthChecker) {
+            System.out.printf("Checking for unhealthy servers%n");
+            healthChecker.checkAll();
+        }
 
         try (final ServerSocketChannel socketChannel = ServerSocketChannel.open()) {
             final ServerSocket serverSocket = socketChannel.socket();
-            serverSocket.bind(new InetSocketAddress("localhost", config.getPort()));
+            serverSocket.bind(new InetSocketAddress(config.getBindAddress(), config.getPort()));
+
+            // Set before checking abort, so a shutdown() racing with us either sees the channel or we see the flag
+            serverChannel = socketChannel;
+            if (!abort) {
+                // Start accepting connections from clients
+                processClientConnections(serverSocket);
+            }
+
+            // Let the relays that are still running finish before we return and everything is closed
+            drainAll();
+
+        } catch (IOException e) {
+            System.out.printf("Error starting load balancer on %s port %d (%s)%n", config.getBindAddress(), config.getPort(), e.getMessage());
+        } finally {
+            if (ownsHealthChecker) {
+                healthChecker.close();
+            }
+        }
+    }
 
-            // Start accepting connections from clients
-            processClientConnections(lbStrategy, serverSocket);
+    /**
+     * UDP version of run(), relays datagrams on the calling thread until shutdown() and the flows have drained. There
+     * are no health checks, backends that answer with ICMP port unreachable fail their flows and the outlier detector
+     * ejects them on that.
+     */
+    private void runDatagrams() {
+        try (final DatagramChannel channel = DatagramChannel.open()) {
+            channel.bind(new InetSocketAddress(config.getBindAddress(), config.getPort()));
+            final DatagramRelay relay = socketHandlerThreadFactory.createDatagramRelay(channel, flowBalancer, config.getUdpFlowIdleTimeoutMs(),
+                    config.getUdpMaxFlows(), config.getUdpBatchSize(), metrics.getRegistry());
+
+            // Set before checking abort, so a shutdown() racing with us either sees the relay or we see the flag
+            datagramRelay = relay;
+            if (abort) {
+                relay.stopNewFlows();
+            }
+            relay.run();
+            System.out.println("Exit LoadBalancer thread");
 
         } catch (IOException e) {
-            System.out.printf("Error starting load balancer on port %d (%s)%n", config.getPort(), e.getMessage());
+            System.out.printf("Error starting load balancer on %s UDP port %d (%s)%n", config.getBindAddress(), config.getPort(), e.getMessage());
+        } finally {
+            if (ownsHealthChecker) {
+                healthChecker.close();
+            }
         }
     }
 
     /**
      * Accept incoming client connections, load balancer routing is delegated to the provided LoadBalancerStrategy instance.
-     * Each socket is offloaded to a virtual thread for processing, problematic servers are taken offline and a periodic task
-     * is run to ping and check if they're back online.
+     * Each socket is offloaded to a virtual thread for processing, problematic servers are taken offline and the health
+     * checker keeps probing every server in the background to see if they're back online.
+     * Extra acceptor threads share the same server socket when the config asks for more than one, the calling thread
+     * is always one of them.
      *
-     * @param lbStrategy A LoadBalancerStrategy, e.g. RoundRobin
      * @param serverSocket The bound server socket/port clients will connect on
-     * @throws IOException Thrown if there is a problem accepting connections
      */
-    private void processClientConnections(LoadBalancerStrategy lbStrategy, ServerSocket serverSocket) throws IOException {
+    private void processClientConnections(ServerSocket serverSocket) {
 
-        // Check unhealthy servers every few seconds
-        scheduler.scheduleAtFixedRate(() -> pingAllServers(config.getServers()),
-                config.getBackendPingIntervalMs(),
-                config.getBackendPingIntervalMs(),
-                TimeUnit.MILLISECONDS);
+        // Check servers every few seconds
+        if (ownsHealthChecker) {
+            healthChecker.start();
+        }
+
+        for (int i = 1; i < config.getAcceptorThreads(); i++) {
+            Thread.ofPlatform().name("lb-acceptor-" + i).daemon().start(() -> acceptClientConnections(serverSocket));
+        }
+        acceptClientConnections(serverSocket);
+
+        System.out.println("Exit LoadBalancer thread");
+
+    }
+
+    /**
+     * Accept loop run by each acceptor thread. A backend is only chosen once a client has actually connected, and
+     * nothing on this thread waits on health checks. At the connection limit the acceptor stops accepting until a
+     * connection closes, connections over the rate or per-client limit are closed as soon as they are accepted.
+     *
+     * @param serverSocket The bound server socket/port clients will connect on
+     */
+    private void acceptClientConnections(ServerSocket serverSocket) {
+        final AcceptBackoff backoff = new AcceptBackoff();
 
         // Accept TCP connections
         do {
+            // Backpressure, a full LB leaves new clients in the kernel's accept queue rather than taking them on
+            try {
+                if (admission.awaitConnectionSlot()) {
+                    metrics.acceptPaused();
+                    if (Log.isDebugEnabled()) {
+                        Log.debug("Paused accepting at %d open connections", config.getMaxConnections());
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                admission.releaseConnectionSlot();
+                if (serverSocket.isClosed()) {
+                    // Another acceptor has shut the LB down
+                    return;
+                }
+                // Most likely out of file descriptors, which retrying straight away won't fix
+                final long delayMs = backoff.failed();
+                final int failures = backoff.takeFailuresToLog();
+                if (failures > 0) {
+                    System.out.printf("Error accepting connection on port %d (%s), %d failures, retrying in %dms%n", config.getPort(),
+                            e.getMessage(), failures, delayMs);
+                }
+                try {
+                    Thread.sleep(delayMs);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                continue;
+            }
+            backoff.succeeded();
+            metrics.connectionAccepted();
+
+            final InetSocketAddress clientAddress = (InetSocketAddress) socket.getRemoteSocketAddress();
+            final InetAddress client = clientAddress != null ? clientAddress.getAddress() : null;
+            final Admission admitted = admission.admit(client);
+            if (admitted != Admission.ADMITTED) {
+                if (Log.isDebugEnabled()) {
+                    Log.debug("Shedding connection from %s (%s)", clientAddress, admitted);
+                }
+                metrics.connectionShed(admitted);
+                shed(socket);
+                admission.releaseConnectionSlot();
+                continue;
+            }
 
-            if (getBackendServerAvailability() >= 1) {
-                // Find the next healthy backend server to route the request to
-                final InetSocketAddress targetServer = lbStrategy.selectDestinationServer();
+            if (config.getRelayMode() == RelayMode.HTTP) {
+                // Backends are picked per request, by the handler
+                dispatchHttp(socket).whenCompleteAsync((outcome, throwable) -> {
+                    admission.releaseClient(client);
+                    admission.releaseConnectionSlot();
+                    if (throwable != null) {
+                        System.out.printf("HTTP relay for %s failed (%s)%n", clientAddress, throwable.getMessage());
+                    }
+                });
+                continue;
+            }
 
-                if (!isServerHealthy(targetServer)) {
-                    // not online, ask LoadBalancerStrategy to give us a different backend server
-                    continue;
+            // Find the next healthy backend server with room to route the request to
+            final SelectedBackend selected = selectHealthyServer(lbStrategy, servers, clientAddress);
+
+            if (selected == null) {
+                // Until at least 1 backend comes up we can only close accepted sockets
+                // In this case we'd want to trigger a critical alert against our monitoring systems, the rejection
+                // counter is what to alert on since this can happen for every connection of a flood
+                if (Log.isDebugEnabled()) {
+                    Log.debug("Rejected connection from %s, no backend available", clientAddress);
                 }
+                metrics.connectionRejected();
+                closeChannel(socket);
+                admission.releaseClient(client);
+                admission.releaseConnectionSlot();
+                continue;
+            }
 
-                final Socket socket = serverSocket.accept();
+            if (Log.isDebugEnabled()) {
+                Log.debug("Routing connection to server: %s", selected);
+            }
 
-                System.out.println("Routing connection to server: " + targetServer);
+            // Start relaying the socket, the connection counts against the server until the relay completes
+            final InetSocketAddress targetServer = selected.getServer();
+            final BackendStats.ServerStats serverStats = backendStats.get(targetServer);
+            serverStats.connectionOpened();
+            final CompletableFuture<RelayOutcome> future = dispatch(socket, targetServer);
+
+            // Let the outlier detector judge the server on how the relay ended
+            future.whenCompleteAsync((outcome, throwable) -> {
+                serverStats.connectionClosed();
+                admission.releaseBackend(targetServer);
+                admission.releaseClient(client);
+                admission.releaseConnectionSlot();
+                recordRelayOutcome(outcome, throwable, selected);
+            });
 
-                // Start a thread to process the socket
-                final CompletableFuture<Boolean> future = CompletableFuture
-                        .supplyAsync(() -> socketHandlerThreadFactory.createSocketHandlerThread(socket, targetServer, config.getBufferSizeBytes()).runThread(), threadExecutor);
+        } while (!abort && !Thread.currentThread().isInterrupted());
+    }
 
-                // When the thread aborts prematurely or returned false, assume there is something wrong with the server and mark it unhealthy
-                future.whenCompleteAsync((result, throwable) -> markServerUnhealthy(result, throwable, targetServer));
+    /**
+     * Ask the strategy for a healthy server. Strategies may return servers we know are unhealthy, so give up after one
+     * attempt per configured server rather than spinning. A server coming out of ejection gets this connection as its
+     * trial before the strategy is asked. Servers at their connection cap are passed over, the one returned has already
+     * counted the connection against its cap.
+     *
+     * @param strategy Strategy to ask, read once by the caller since a reload may swap it
+     * @param candidates Servers the strategy balances over
+     * @param clientAddress Address of the connected client, for strategies that route on it
+     * @return A healthy server, carrying the trial if it is one, or null if none could be found
+     */
+    private SelectedBackend selectHealthyServer(LoadBalancerStrategy strategy, List<InetSocketAddress> candidates, InetSocketAddress clientAddress) {
+        if (!isAnyServerAvailable(candidates)) {
+            return null;
+        }
 
-            } else {
-                // Until at least 1 backend comes up we can only close accepted sockets
-                // In this case we'd want to trigger a critical alert against our monitoring systems
+        final OutlierDetector.Trial trial = outlierDetector.pollTrial(server -> candidates.contains(server) && healthChecker.isHealthy(server));
+        if (trial != null) {
+            if (admission.tryAcquireBackend(trial.getServer())) {
+                return new SelectedBackend(trial.getServer(), trial);
+            }
+            // At its cap, a later connection gets to be the trial rather than leaving the server ejected for good
+            outlierDetector.releaseTrial(trial);
+        }
 
-                final Socket socket = serverSocket.accept();
-                System.out.println("rejected connection: " + socket.getRemoteSocketAddress());
-                socket.close();
+        for (int i = 0; i < candidates.size(); i++) {
+            final InetSocketAddress targetServer = strategy.selectDestinationServer(clientAddress);
+            if (isServerHealthy(targetServer) && admission.tryAcquireBackend(targetServer)) {
+                return new SelectedBackend(targetServer);
             }
+        }
+        return null;
+    }
 
-        } while (!abort && !Thread.currentThread().isInterrupted());
+    /**
+     * Hand an accepted socket over to whichever engine the config selected
+     *
+     * @param socket Accepted client socket
+     * @param targetServer Backend server chosen for this socket
+     * @return Completes with how the relay ended (or exceptionally if it could not be started)
+     */
+    private CompletableFuture<RelayOutcome> dispatch(Socket socket, InetSocketAddress targetServer) {
+        if (eventLoopGroup != null) {
+            return eventLoopGroup.register(socket.getChannel(), targetServer, proxyProtocol);
+        }
 
-        System.out.println("Exit LoadBalancer thread");
+        // Start a thread to process the socket
+        return CompletableFuture.supplyAsync(() -> socketHandlerThreadFactory.createSocketHandlerThread(socket, targetServer, config.getBufferSizeBytes()).runThread(), threadExecutor);
+    }
 
+    /**
+     * Start an HTTP relay for an accepted socket, it picks a backend for every request through requestBalancer. Always
+     * runs on a virtual thread, whichever engine the config selected.
+     *
+     * @param socket Accepted client socket
+     * @return Completes once the client connection has closed
+     */
+    private CompletableFuture<RelayOutcome> dispatchHttp(Socket socket) {
+        return CompletableFuture.supplyAsync(() -> socketHandlerThreadFactory.createHttpSocketHandlerThread(socket, requestBalancer, config.getBufferSizeBytes()).runThread(), threadExecutor);
+    }
+
+    /**
+     * Close a connection admission control turned away. Resetting rather than closing gracefully frees the socket
+     * straight away instead of leaving it in TIME_WAIT on our side, which matters most during a flood.
+     *
+     * @param socket Accepted client socket
+     */
+    private static void shed(Socket socket) {
+        try {
+            socket.setSoLinger(true, 0);
+        } catch (IOException e) {
+            // Closed normally below
+        }
+        closeChannel(socket);
     }
 
     /**
@@ -122,64 +468,281 @@ public class LoadBalancer {
      * @return true for healthy
      */
     private boolean isServerHealthy(InetSocketAddress targetServer) {
-        return !unhealthyServers.containsKey(targetServer);
+        return healthChecker.isHealthy(targetServer) && !outlierDetector.isEjected(targetServer);
     }
 
     /**
-     * Check how many back-end servers are online, if none then ping them
-     * @return number of active BE servers
+     * Called by both the health checker and the outlier detector, a server only takes traffic while both agree it
+     * should. Synchronized so the strategy sees the changes for a server in order. A health checker shared by every
+     * listener reports the servers of the other listeners' pools too, those are none of our business.
+     *
+     * @param server Backend server address
+     * @param healthy New state as seen by the caller, ignored in favour of the combined state
      */
-    private int getBackendServerAvailability() {
-        int available = config.getServers().size() - unhealthyServers.size();
+    private synchronized void serverStateChanged(InetSocketAddress server, boolean healthy) {
+        if (!servers.contains(server) && !routeServers.contains(server)) {
+            return;
+        }
+
+        final boolean serverHealthy = isServerHealthy(server);
+        if (serverHealthy) {
+            outageLogged.set(false);
+        }
+        lbStrategy.serverHealthChanged(server, serverHealthy);
+        for (LoadBalancerStrategy routeStrategy : routeStrategies.values()) {
+            routeStrategy.serverHealthChanged(server, serverHealthy);
+        }
+        metrics.serverHealthChanged(server, serverHealthy);
+    }
 
-        if (available <= 0) {
-            // all backend servers are down, there's not much we can do except warn a human and ping all server in case any are back up again
-            System.out.printf("WARNING: All %d backend servers are unhealthy, attempting to ping them...%n", config.getServers().size());
-            pingAllServers(config.getServers());
+    /**
+     * Check if any of the back-end servers a connection could go to is online, if none then ping them in the
+     * background. Only the candidates count, the health checker is shared with the other listeners and the HTTP routes.
+     *
+     * @param candidates Servers the connection is balanced over
+     * @return true if at least one of them is healthy
+     */
+    private boolean isAnyServerAvailable(List<InetSocketAddress> candidates) {
+        for (InetSocketAddress server : candidates) {
+            if (healthChecker.isHealthy(server)) {
+                return true;
+            }
         }
 
-        return available;
+        // all backend servers are down, there's not much we can do except warn a human and ping all server in case any are back up again.
+        // Every connection that finds them down is counted in lb_connections_rejected_total, the log only gets the first.
+        if (outageLogged.compareAndSet(false, true)) {
+            System.out.printf("WARNING: All %d backend servers are unhealthy, attempting to ping them...%n", candidates.size());
+        } else if (Log.isDebugEnabled()) {
+            Log.debug("All %d backend servers are still unhealthy", candidates.size());
+        }
+        healthChecker.requestCheckAll();
+        return false;
     }
 
     /**
-     * Socket thread indicated that something went wrong with the connection, e.g. connection refused. This callback will mark the server as unhealthy
+     * Socket thread finished, pass on how it went so servers that keep failing get ejected. Client side failures are
+     * ignored by the outlier detector, so one flaky client can't take a healthy server out.
      *
-     * @param result Result from the CompletableFuture, false for error, true for end of stream
-     * @param throwable Exception if there is one (maybe null)
-     * @param targetServer Server being marked unhealthy
+     * @param outcome Result from the CompletableFuture
+     * @param throwable Exception if the relay could not be run at all (maybe null)
+     * @param backend Server the relay went to, with its trial if it was one
      */
-    private void markServerUnhealthy(Boolean result, Throwable throwable, InetSocketAddress targetServer) {
-        if (result == false || throwable != null) {
-            final String message = throwable != null ? throwable.getMessage() : "Socket thread was aborted";
-            System.out.printf("Taking backend server offline %s (%s)%n", targetServer, message);
-            unhealthyServers.put(targetServer, System.currentTimeMillis());
+    private void recordRelayOutcome(RelayOutcome outcome, Throwable throwable, SelectedBackend backend) {
+        if (throwable != null) {
+            System.out.printf("Relay to backend server %s failed (%s)%n", backend.getServer(), throwable.getMessage());
+            outcome = RelayOutcome.BACKEND_ERROR;
+        }
+        if (backend.getTrial() != null) {
+            outlierDetector.record(backend.getTrial(), outcome);
+        } else {
+            outlierDetector.record(backend.getServer(), outcome);
         }
     }
 
     /**
-     * Check all the given servers and mark them online or unhealthy.
-     * @param servers List of servers provided by config
+     * Swap in a new list of backend servers without stopping. Added servers are probed once before they take any
+     * traffic. The strategy is rebuilt for the new list, told which servers are down, and swapped in as a whole, so an
+     * acceptor sees either the old servers or the new ones, never a mix. When only the weights of a weighted round-robin
+     * strategy changed they are set on the running strategy instead. Removed servers take no new connections and
+     * get drainTimeoutMs to finish the relays they still have before those are closed. Servers HTTP routes use keep
+     * being health checked and taking the route's requests either way.
+     *
+     * @param newServers Resolved backend servers, the first time a server appears decides its place
+     * @param weights Weight of every server, for the strategies that use them
      */
-    private void pingAllServers(List<InetSocketAddress> servers) {
-        System.out.printf("Checking for unhealthy servers%n");
-        for (InetSocketAddress address : servers) {
-            markServerOnlineOrOffline(address);
+    synchronized void updateServers(List<InetSocketAddress> newServers, Map<InetSocketAddress, Integer> weights) {
+        final List<InetSocketAddress> current = servers;
+        final List<InetSocketAddress> added = new ArrayList<>(newServers);
+        added.removeAll(current);
+        final List<InetSocketAddress> removed = new ArrayList<>(current);
+        removed.removeAll(newServers);
+        if (added.isEmpty() && removed.isEmpty() && newServers.equals(current) && weights.equals(config.getServerWeights())) {
+            return;
+        }
+
+        // Only weights changed, a weighted strategy takes them as they are and keeps its place in the cycle
+        if (newServers.equals(current) && lbStrategy instanceof WeightedRoundRobinLoadBalancerStrategy weighted) {
+            final Map<InetSocketAddress, Integer> changed = new HashMap<>();
+            for (InetSocketAddress server : newServers) {
+                final int weight = weights.getOrDefault(server, 1);
+                if (weight != weighted.getWeight(server)) {
+                    weighted.setWeight(server, weight);
+                    changed.put(server, weight);
+                }
+            }
+            config.setServerWeights(Map.copyOf(weights));
+            System.out.printf("Backend server weights updated %s%n", changed);
+            return;
+        }
+
+        for (InetSocketAddress server : added) {
+            if (routeServers.contains(server)) {
+                continue;
+            }
+            // Already in another listener's pool, its metrics and health carry on as they are
+            if (!healthChecker.isChecking(server)) {
+                metrics.addServer(server);
+            }
+            outlierDetector.addServer(server);
+            healthChecker.addServer(server);
+        }
+
+        config.setServers(List.copyOf(newServers));
+        config.setServerWeights(Map.copyOf(weights));
+        final LoadBalancerStrategy strategy = LoadBalancerStrategyFactory.createLoadBalancerStrategy(config, backendStats);
+        for (InetSocketAddress server : newServers) {
+            if (!isServerHealthy(server)) {
+                strategy.serverHealthChanged(server, false);
+                // Probed before it was one of our servers, so serverStateChanged() didn't pass it on
+                metrics.serverHealthChanged(server, false);
+            }
         }
+        lbStrategy = strategy;
+        servers = config.getServers();
+
+        for (InetSocketAddress server : removed) {
+            if (routeServers.contains(server)) {
+                continue;
+            }
+            outlierDetector.removeServer(server);
+            // Still in another listener's pool, whose connections to it must be left alone
+            if (healthChecker.removeServer(server)) {
+                metrics.removeServer(server);
+                drain(server);
+            }
+        }
+        System.out.printf("Backend servers updated, added %s, removed %s%n", added, removed);
     }
 
     /**
-     * Mark a single server online or unhealthy by pinging it
+     * Stop accepting connections. run() then waits up to drainTimeoutMs for the open relays to finish, closes the ones
+     * that are left and returns. Safe to call from any thread, e.g. a shutdown hook.
+     */
+    void shutdown() {
+        abort = true;
+        closeChannel(serverChannel);
+
+        // Replies go back out through the UDP channel, so it stays open while the flows drain
+        final DatagramRelay relay = datagramRelay;
+        if (relay != null) {
+            relay.stopNewFlows();
+            Thread.ofVirtual().name("drain-udp").start(this::drainAll);
+        }
+    }
+
+    /**
+     * Wait in the background for the relays to a removed server to finish, and close whatever is still open once
+     * drainTimeoutMs has passed. Nothing is closed if the server was added back in the meantime.
      *
-     * @param address Backend server address
+     * @param server Backend server that has been removed
      */
-    private void markServerOnlineOrOffline(InetSocketAddress address) {
-        if (pinger.pingServer(address, config.getBackendPingTimeoutMs())) {
-            // Server is reachable again
-            unhealthyServers.remove(address);
-            System.out.printf("Server marked online: %s %n", address);
+    private void drain(InetSocketAddress server) {
+        final BackendStats.ServerStats serverStats = backendStats.get(server);
+        if (serverStats.getActiveConnections() == 0) {
+            return;
+        }
+
+        Thread.ofVirtual().name("drain-" + server).start(() -> {
+            System.out.printf("Draining %d connections to %s%n", serverStats.getActiveConnections(), server);
+            if (awaitDrained(serverStats::getActiveConnections)) {
+                System.out.printf("Drained %s%n", server);
+            } else if (!servers.contains(server)) {
+                System.out.printf("Closed %d connections to %s still open after %dms%n", timeouts.abort(server), server,
+                        config.getDrainTimeoutMs());
+            }
+        });
+    }
+
+    /**
+     * Wait for every relay to finish, closing the ones still open after drainTimeoutMs
+     */
+    private void drainAll() {
+        final long active = backendStats.getTotalActiveConnections();
+        if (active == 0) {
+            return;
+        }
+
+        System.out.printf("Waiting up to %dms for %d connections to finish%n", config.getDrainTimeoutMs(), active);
+        if (awaitDrained(backendStats::getTotalActiveConnections)) {
+            System.out.println("All connections finished");
         } else {
-            unhealthyServers.put(address, System.currentTimeMillis());
-            System.out.printf("Server marked offline: %s %n", address);
+            System.out.printf("Closed %d connections still open after %dms%n", timeouts.abortAll(), config.getDrainTimeoutMs());
+        }
+    }
+
+    /**
+     * @param active Number of relays still running
+     * @return true if they all finished within drainTimeoutMs
+     */
+    private boolean awaitDrained(LongSupplier active) {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(config.getDrainTimeoutMs());
+        while (active.getAsLong() > 0) {
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            try {
+                Thread.sleep(DRAIN_POLL_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Backend selection for HTTP relays, every request goes through the same health, outlier and admission checks as a
+     * connection does in the other modes
+     */
+    private class RequestBalancer implements BackendSelector {
+
+        @Override
+        public SelectedBackend select(ByteBuffer buffer, HttpHead head, InetSocketAddress clientAddress) {
+            final HttpRoute route = httpRouter.route(buffer, head);
+            final SelectedBackend backend = route != null
+                    ? selectHealthyServer(routeStrategies.get(route), route.getServers(), clientAddress)
+                    : selectHealthyServer(lbStrategy, servers, clientAddress);
+            if (backend == null) {
+                metrics.connectionRejected();
+                return null;
+            }
+
+            backendStats.get(backend.getServer()).connectionOpened();
+            return backend;
+        }
+
+        @Override
+        public void finished(SelectedBackend backend, RelayOutcome outcome) {
+            backendStats.get(backend.getServer()).connectionClosed();
+            admission.releaseBackend(backend.getServer());
+            recordRelayOutcome(outcome, null, backend);
+        }
+    }
+
+    /*
+     * Backend selection for UDP flows, a new flow goes through the same health, outlier and admission checks as a
+     * connection does
+     */
+    private class FlowBalancer implements FlowSelector {
+
+        @Override
+        public SelectedBackend select(InetSocketAddress clientAddress) {
+            final SelectedBackend backend = selectHealthyServer(lbStrategy, servers, clientAddress);
+            if (backend == null) {
+                metrics.connectionRejected();
+                return null;
+            }
+
+            backendStats.get(backend.getServer()).connectionOpened();
+            return backend;
+        }
+
+        @Override
+        public void finished(SelectedBackend backend, RelayOutcome outcome) {
+            backendStats.get(backend.getServer()).connectionClosed();
+            admission.releaseBackend(backend.getServer());
+            recordRelayOutcome(outcome, null, backend);
         }
     }
 
@@ -1,21 +1,125 @@
 package org.example.loadbalancer.lb;
 
+import org.example.loadbalancer.lb.http.HttpRoute;
+import org.example.loadbalancer.lb.log.LogLevel;
+import org.example.loadbalancer.lb.proxy.ProxyProtocolVersion;
+import org.example.loadbalancer.lb.socket.EngineType;
+import org.example.loadbalancer.lb.socket.RelayMode;
 import org.example.loadbalancer.lb.strategy.LoadBalancerStrategyType;
 
 import java.net.InetSocketAddress;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 // Holds config needed by LB, a future addition might be to include a Lombok builder to improve readability
-public class LoadBalancerConfig {
+public class LoadBalancerConfig implements Cloneable {
 
+    // Names the listener in logs, every listener has its own config
+    private String listenerName = "default";
+    // "0.0.0.0" or "::" listens on every interface
+    private String bindAddress = "localhost";
     private int port;
+    // Serves /metrics, 0 turns it off
+    private int adminPort = 9090;
     private LoadBalancerStrategyType loadBalancerStrategyType;
     private List<InetSocketAddress> servers;
+    private Map<InetSocketAddress, Integer> serverWeights = Map.of();
+    private RelayMode relayMode = RelayMode.STREAMING;
+    private EngineType engineType = EngineType.THREAD_PER_CONNECTION;
+    private int eventLoopThreads = Runtime.getRuntime().availableProcessors();
+    private int acceptorThreads = 1;
+    private double consistentHashLoadFactor = 0;
+    // Off by default, pre-connecting breaks backends that speak first (see BackendConnectionPool)
+    private int backendPoolMinIdle = 0;
+    // Connections HTTP mode may keep open to every backend between requests
+    private int backendPoolMaxIdle = 64;
+    // HTTP mode only, requests matching none of these go to the servers above. Route servers are backends as well.
+    private List<HttpRoute> httpRoutes = List.of();
+    // TLS termination on the listener, off while no keystore is set. The keystore holds the certificate and its key.
+    private String tlsKeyStorePath = null;
+    private String tlsKeyStoreType = "PKCS12";
+    private String tlsKeyStorePassword = "";
+    // Half the cores at most go to handshakes, the rest stay free for relaying
+    private int tlsHandshakeThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    private int tlsHandshakeQueue = 1024;
+    private int tlsHandshakeTimeoutMs = 10_000;
+    private int tlsSessionCacheSize = 20_480;
+    private int tlsSessionTimeoutS = 86_400;
+    // PROXY protocol, STREAMING and NIO_POOLED only, HTTP can accept it but adds X-Forwarded-For instead of sending it
+    private ProxyProtocolVersion proxyProtocolSend = ProxyProtocolVersion.NONE;
+    private boolean proxyProtocolAccept = false;
+    // UDP mode only. A flow is closed after this long without a datagram, DNS style request/response flows go quiet fast
+    private int udpFlowIdleTimeoutMs = 30_000;
+    private int udpMaxFlows = 100_000;
+    private int udpBatchSize = 64;
+    // Admission control, 0 turns a limit off. Clients behind one NAT share an address, so there's no per-client cap by default
+    private int maxConnections = 10_000;
+    private int maxConnectionsPerClient = 0;
+    private int maxConnectionsPerBackend = 0;
+    private int acceptRatePerSecond = 0;
+    // Relay timeouts, 0 turns one off
+    private int idleTimeoutMs = 300_000;
+    private int maxConnectionLifetimeMs = 0;
+    // How long removed backends, and everything on shutdown, get to finish their relays before they are closed
+    private int drainTimeoutMs = 30_000;
+    private LogLevel logLevel = LogLevel.INFO;
+    // null turns the access log off
+    private String accessLogPath = null;
 
     // Harcoded for now, but would come from a config file and would be tuned after load testing
     private int backendPingIntervalMs = 15_000;
     private int backendPingTimeoutMs = 500;
+    private int backendRiseCount = 2;
+    private int backendFallCount = 3;
+    private int backendConnectTimeoutMs = 1_000;
+    private int backendPoolMaxIdleMs = 30_000;
+    private int dnsRefreshMs = 30_000;
+    private int outlierConsecutiveConnectFailures = 5;
+    private double outlierErrorRateThreshold = 0.5;
+    private int outlierMinRequests = 20;
+    private int outlierWindowMs = 10_000;
+    private int outlierBaseEjectionMs = 30_000;
+    private int outlierMaxEjectionMs = 300_000;
+    private int outlierMaxEjectionPercent = 50;
     private int bufferSizeBytes = 128 * 1024;
+    private int bufferPoolMaxBuffers = 1024;
+    private int latencyDecayMs = 10_000;
+    private int accessLogBufferSize = 16 * 1024;
+    private int acceptBurst = 200;
+    private int timerTickMs = 100;
+    private int timerTicksPerWheel = 512;
+
+    /**
+     * @return Copy to configure another listener with, the lists and maps in it are shared until replaced
+     */
+    public LoadBalancerConfig copy() {
+        try {
+            return (LoadBalancerConfig) clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public void setListenerName(String listenerName) {
+        this.listenerName = listenerName;
+    }
+
+    public String getListenerName() {
+        return listenerName;
+    }
+
+    /**
+     * @param bindAddress Host name or address the listener binds to, "0.0.0.0" or "::" for every interface
+     */
+    public void setBindAddress(String bindAddress) {
+        this.bindAddress = bindAddress;
+    }
+
+    public String getBindAddress() {
+        return bindAddress;
+    }
 
     public void setPort(int port) {
         this.port = port;
@@ -33,6 +137,14 @@ public class LoadBalancerConfig {
         return loadBalancerStrategyType;
     }
 
+    public void setAdminPort(int adminPort) {
+        this.adminPort = adminPort;
+    }
+
+    public int getAdminPort() {
+        return adminPort;
+    }
+
     public void setServers(List<InetSocketAddress> servers) {
         this.servers = servers;
     }
@@ -41,6 +153,338 @@ public class LoadBalancerConfig {
         return servers;
     }
 
+    public void setServerWeights(Map<InetSocketAddress, Integer> serverWeights) {
+        this.serverWeights = serverWeights;
+    }
+
+    public Map<InetSocketAddress, Integer> getServerWeights() {
+        return serverWeights;
+    }
+
+    public void setRelayMode(RelayMode relayMode) {
+        this.relayMode = relayMode;
+    }
+
+    public RelayMode getRelayMode() {
+        return relayMode;
+    }
+
+    public void setEngineType(EngineType engineType) {
+        this.engineType = engineType;
+    }
+
+    public EngineType getEngineType() {
+        return engineType;
+    }
+
+    public void setEventLoopThreads(int eventLoopThreads) {
+        this.eventLoopThreads = eventLoopThreads;
+    }
+
+    public int getEventLoopThreads() {
+        return eventLoopThreads;
+    }
+
+    public void setAcceptorThreads(int acceptorThreads) {
+        this.acceptorThreads = acceptorThreads;
+    }
+
+    public int getAcceptorThreads() {
+        return acceptorThreads;
+    }
+
+    /**
+     * @param consistentHashLoadFactor Bounded load for CONSISTENT_HASH, e.g. 1.25 caps a server at 125% of the average. 0 means unbounded
+     */
+    public void setConsistentHashLoadFactor(double consistentHashLoadFactor) {
+        this.consistentHashLoadFactor = consistentHashLoadFactor;
+    }
+
+    public double getConsistentHashLoadFactor() {
+        return consistentHashLoadFactor;
+    }
+
+    /**
+     * @param backendPoolMinIdle Warm connections to keep open to every backend server, 0 turns pre-warming off
+     */
+    public void setBackendPoolMinIdle(int backendPoolMinIdle) {
+        this.backendPoolMinIdle = backendPoolMinIdle;
+    }
+
+    public int getBackendPoolMinIdle() {
+        return backendPoolMinIdle;
+    }
+
+    /**
+     * @param backendPoolMaxIdle Idle connections HTTP mode may keep to every backend server for reuse
+     */
+    public void setBackendPoolMaxIdle(int backendPoolMaxIdle) {
+        this.backendPoolMaxIdle = backendPoolMaxIdle;
+    }
+
+    public int getBackendPoolMaxIdle() {
+        return backendPoolMaxIdle;
+    }
+
+    /**
+     * @param httpRoutes Host and path prefix routes for RelayMode.HTTP
+     */
+    public void setHttpRoutes(List<HttpRoute> httpRoutes) {
+        this.httpRoutes = httpRoutes;
+    }
+
+    public List<HttpRoute> getHttpRoutes() {
+        return httpRoutes;
+    }
+
+    /**
+     * @param tlsKeyStorePath Keystore with the certificate and key clients are served, null turns TLS off
+     */
+    public void setTlsKeyStorePath(String tlsKeyStorePath) {
+        this.tlsKeyStorePath = tlsKeyStorePath;
+    }
+
+    public String getTlsKeyStorePath() {
+        return tlsKeyStorePath;
+    }
+
+    /**
+     * @param tlsKeyStoreType PKCS12 or JKS
+     */
+    public void setTlsKeyStoreType(String tlsKeyStoreType) {
+        this.tlsKeyStoreType = tlsKeyStoreType;
+    }
+
+    public String getTlsKeyStoreType() {
+        return tlsKeyStoreType;
+    }
+
+    /**
+     * @param tlsKeyStorePassword Password of the keystore and of the key in it
+     */
+    public void setTlsKeyStorePassword(String tlsKeyStorePassword) {
+        this.tlsKeyStorePassword = tlsKeyStorePassword;
+    }
+
+    public String getTlsKeyStorePassword() {
+        return tlsKeyStorePassword;
+    }
+
+    /**
+     * @param tlsHandshakeThreads Threads the CPU heavy part of TLS handshakes runs on
+     */
+    public void setTlsHandshakeThreads(int tlsHandshakeThreads) {
+        this.tlsHandshakeThreads = tlsHandshakeThreads;
+    }
+
+    public int getTlsHandshakeThreads() {
+        return tlsHandshakeThreads;
+    }
+
+    /**
+     * @param tlsHandshakeQueue Handshake tasks that may wait for a thread, connections handshaking beyond that are closed
+     */
+    public void setTlsHandshakeQueue(int tlsHandshakeQueue) {
+        this.tlsHandshakeQueue = tlsHandshakeQueue;
+    }
+
+    public int getTlsHandshakeQueue() {
+        return tlsHandshakeQueue;
+    }
+
+    /**
+     * @param tlsHandshakeTimeoutMs Longest a client may take over its handshake, 0 turns the timeout off
+     */
+    public void setTlsHandshakeTimeoutMs(int tlsHandshakeTimeoutMs) {
+        this.tlsHandshakeTimeoutMs = tlsHandshakeTimeoutMs;
+    }
+
+    public int getTlsHandshakeTimeoutMs() {
+        return tlsHandshakeTimeoutMs;
+    }
+
+    /**
+     * @param tlsSessionCacheSize Sessions kept for resumption, 0 for no limit
+     */
+    public void setTlsSessionCacheSize(int tlsSessionCacheSize) {
+        this.tlsSessionCacheSize = tlsSessionCacheSize;
+    }
+
+    public int getTlsSessionCacheSize() {
+        return tlsSessionCacheSize;
+    }
+
+    /**
+     * @param tlsSessionTimeoutS How long after its handshake a session can still be resumed
+     */
+    public void setTlsSessionTimeoutS(int tlsSessionTimeoutS) {
+        this.tlsSessionTimeoutS = tlsSessionTimeoutS;
+    }
+
+    public int getTlsSessionTimeoutS() {
+        return tlsSessionTimeoutS;
+    }
+
+    /**
+     * @param proxyProtocolSend PROXY header sent to backends ahead of every client's bytes, NONE for no header
+     */
+    public void setProxyProtocolSend(ProxyProtocolVersion proxyProtocolSend) {
+        this.proxyProtocolSend = proxyProtocolSend;
+    }
+
+    public ProxyProtocolVersion getProxyProtocolSend() {
+        return proxyProtocolSend;
+    }
+
+    /**
+     * @param proxyProtocolAccept true if every client connection starts with a PROXY header from an upstream proxy,
+     *                            connections without one are closed
+     */
+    public void setProxyProtocolAccept(boolean proxyProtocolAccept) {
+        this.proxyProtocolAccept = proxyProtocolAccept;
+    }
+
+    public boolean isProxyProtocolAccept() {
+        return proxyProtocolAccept;
+    }
+
+    /**
+     * @param udpFlowIdleTimeoutMs Longest a UDP flow may go without a datagram either way, 0 keeps flows open until shutdown
+     */
+    public void setUdpFlowIdleTimeoutMs(int udpFlowIdleTimeoutMs) {
+        this.udpFlowIdleTimeoutMs = udpFlowIdleTimeoutMs;
+    }
+
+    public int getUdpFlowIdleTimeoutMs() {
+        return udpFlowIdleTimeoutMs;
+    }
+
+    /**
+     * @param udpMaxFlows Open UDP flows, datagrams from new clients are dropped beyond that. 0 means unlimited
+     */
+    public void setUdpMaxFlows(int udpMaxFlows) {
+        this.udpMaxFlows = udpMaxFlows;
+    }
+
+    public int getUdpMaxFlows() {
+        return udpMaxFlows;
+    }
+
+    /**
+     * @param udpBatchSize Datagrams read from one socket per wakeup before the others get a turn
+     */
+    public void setUdpBatchSize(int udpBatchSize) {
+        this.udpBatchSize = udpBatchSize;
+    }
+
+    public int getUdpBatchSize() {
+        return udpBatchSize;
+    }
+
+    /**
+     * @return servers followed by the servers only HTTP routes use, everything that is health checked and pooled
+     */
+    public List<InetSocketAddress> getAllServers() {
+        final Set<InetSocketAddress> all = new LinkedHashSet<>(servers);
+        for (HttpRoute route : httpRoutes) {
+            all.addAll(route.getServers());
+        }
+        return List.copyOf(all);
+    }
+
+    /**
+     * @param maxConnections Open client connections before the LB stops accepting, 0 means unlimited
+     */
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * @param maxConnectionsPerClient Open connections from one client address, more are closed straight away. 0 means unlimited
+     */
+    public void setMaxConnectionsPerClient(int maxConnectionsPerClient) {
+        this.maxConnectionsPerClient = maxConnectionsPerClient;
+    }
+
+    public int getMaxConnectionsPerClient() {
+        return maxConnectionsPerClient;
+    }
+
+    /**
+     * @param maxConnectionsPerBackend Open connections to one backend server, a full server is skipped. 0 means unlimited
+     */
+    public void setMaxConnectionsPerBackend(int maxConnectionsPerBackend) {
+        this.maxConnectionsPerBackend = maxConnectionsPerBackend;
+    }
+
+    public int getMaxConnectionsPerBackend() {
+        return maxConnectionsPerBackend;
+    }
+
+    /**
+     * @param acceptRatePerSecond New connections admitted per second, more are closed straight away. 0 means unlimited
+     */
+    public void setAcceptRatePerSecond(int acceptRatePerSecond) {
+        this.acceptRatePerSecond = acceptRatePerSecond;
+    }
+
+    public int getAcceptRatePerSecond() {
+        return acceptRatePerSecond;
+    }
+
+    /**
+     * @param idleTimeoutMs Relays that read nothing in either direction for this long are closed, 0 means never
+     */
+    public void setIdleTimeoutMs(int idleTimeoutMs) {
+        this.idleTimeoutMs = idleTimeoutMs;
+    }
+
+    public int getIdleTimeoutMs() {
+        return idleTimeoutMs;
+    }
+
+    /**
+     * @param maxConnectionLifetimeMs Relays open for this long are closed however busy they are, 0 means never
+     */
+    public void setMaxConnectionLifetimeMs(int maxConnectionLifetimeMs) {
+        this.maxConnectionLifetimeMs = maxConnectionLifetimeMs;
+    }
+
+    public int getMaxConnectionLifetimeMs() {
+        return maxConnectionLifetimeMs;
+    }
+
+    /**
+     * @param drainTimeoutMs Time relays get to finish after their backend is removed or the LB is shut down
+     */
+    public void setDrainTimeoutMs(int drainTimeoutMs) {
+        this.drainTimeoutMs = drainTimeoutMs;
+    }
+
+    public int getDrainTimeoutMs() {
+        return drainTimeoutMs;
+    }
+
+    public int getTimerTickMs() {
+        return timerTickMs;
+    }
+
+    public int getTimerTicksPerWheel() {
+        return timerTicksPerWheel;
+    }
+
+    public int getAcceptBurst() {
+        return acceptBurst;
+    }
+
+    public void setBackendPingIntervalMs(int backendPingIntervalMs) {
+        this.backendPingIntervalMs = backendPingIntervalMs;
+    }
+
     public int getBackendPingIntervalMs() {
         return backendPingIntervalMs;
     }
@@ -49,7 +493,118 @@ public class LoadBalancerConfig {
         return backendPingTimeoutMs;
     }
 
+    public int getBackendRiseCount() {
+        return backendRiseCount;
+    }
+
+    public int getBackendFallCount() {
+        return backendFallCount;
+    }
+
+    public void setBackendConnectTimeoutMs(int backendConnectTimeoutMs) {
+        this.backendConnectTimeoutMs = backendConnectTimeoutMs;
+    }
+
+    public int getBackendConnectTimeoutMs() {
+        return backendConnectTimeoutMs;
+    }
+
+    public int getBackendPoolMaxIdleMs() {
+        return backendPoolMaxIdleMs;
+    }
+
+    public int getDnsRefreshMs() {
+        return dnsRefreshMs;
+    }
+
+    public void setOutlierConsecutiveConnectFailures(int outlierConsecutiveConnectFailures) {
+        this.outlierConsecutiveConnectFailures = outlierConsecutiveConnectFailures;
+    }
+
+    public int getOutlierConsecutiveConnectFailures() {
+        return outlierConsecutiveConnectFailures;
+    }
+
+    /**
+     * @param outlierErrorRateThreshold Fraction of failed relays in the window that ejects a server, e.g. 0.5
+     */
+    public void setOutlierErrorRateThreshold(double outlierErrorRateThreshold) {
+        this.outlierErrorRateThreshold = outlierErrorRateThreshold;
+    }
+
+    public double getOutlierErrorRateThreshold() {
+        return outlierErrorRateThreshold;
+    }
+
+    public void setOutlierMinRequests(int outlierMinRequests) {
+        this.outlierMinRequests = outlierMinRequests;
+    }
+
+    public int getOutlierMinRequests() {
+        return outlierMinRequests;
+    }
+
+    public void setOutlierWindowMs(int outlierWindowMs) {
+        this.outlierWindowMs = outlierWindowMs;
+    }
+
+    public int getOutlierWindowMs() {
+        return outlierWindowMs;
+    }
+
+    public void setOutlierBaseEjectionMs(int outlierBaseEjectionMs) {
+        this.outlierBaseEjectionMs = outlierBaseEjectionMs;
+    }
+
+    public int getOutlierBaseEjectionMs() {
+        return outlierBaseEjectionMs;
+    }
+
+    public void setOutlierMaxEjectionMs(int outlierMaxEjectionMs) {
+        this.outlierMaxEjectionMs = outlierMaxEjectionMs;
+    }
+
+    public int getOutlierMaxEjectionMs() {
+        return outlierMaxEjectionMs;
+    }
+
+    public void setOutlierMaxEjectionPercent(int outlierMaxEjectionPercent) {
+        this.outlierMaxEjectionPercent = outlierMaxEjectionPercent;
+    }
+
+    public int getOutlierMaxEjectionPercent() {
+        return outlierMaxEjectionPercent;
+    }
+
     public int getBufferSizeBytes() {
         return bufferSizeBytes;
     }
+
+    public int getBufferPoolMaxBuffers() {
+        return bufferPoolMaxBuffers;
+    }
+
+    public int getLatencyDecayMs() {
+        return latencyDecayMs;
+    }
+
+    public void setLogLevel(LogLevel logLevel) {
+        this.logLevel = logLevel;
+    }
+
+    public LogLevel getLogLevel() {
+        return logLevel;
+    }
+
+    public void setAccessLogPath(String accessLogPath) {
+        this.accessLogPath = accessLogPath;
+    }
+
+    public String getAccessLogPath() {
+        return accessLogPath;
+    }
+
+    public int getAccessLogBufferSize() {
+        return accessLogBufferSize;
+    }
 }
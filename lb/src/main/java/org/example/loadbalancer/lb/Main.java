@@ -1,43 +1,720 @@
 package org.example.loadbalancer.lb;
 
+import org.example.loadbalancer.lb.buffer.BufferPool;
+import org.example.loadbalancer.lb.health.HealthChecker;
+import org.example.loadbalancer.lb.http.HttpRoute;
+import org.example.loadbalancer.lb.log.AccessLog;
+import org.example.loadbalancer.lb.log.Log;
+import org.example.loadbalancer.lb.metrics.LoadBalancerMetrics;
+import org.example.loadbalancer.lb.metrics.MetricsRegistry;
+import org.example.loadbalancer.lb.metrics.MetricsServer;
+import org.example.loadbalancer.lb.proxy.ProxyProtocol;
+import org.example.loadbalancer.lb.proxy.ProxyProtocolVersion;
+import org.example.loadbalancer.lb.resolver.BackendResolver;
+import org.example.loadbalancer.lb.socket.BackendConnectionPool;
+import org.example.loadbalancer.lb.socket.EngineType;
+import org.example.loadbalancer.lb.socket.EventLoopGroup;
+import org.example.loadbalancer.lb.socket.RelayListener;
+import org.example.loadbalancer.lb.socket.RelayMode;
+import org.example.loadbalancer.lb.socket.RelayTimeouts;
 import org.example.loadbalancer.lb.socket.SocketHandlerThreadFactory;
+import org.example.loadbalancer.lb.strategy.BackendStats;
 import org.example.loadbalancer.lb.strategy.LoadBalancerStrategy;
 import org.example.loadbalancer.lb.strategy.LoadBalancerStrategyFactory;
 import org.example.loadbalancer.lb.strategy.LoadBalancerStrategyType;
+import org.example.loadbalancer.lb.timer.HashedWheelTimer;
+import org.example.loadbalancer.lb.tls.TlsTerminator;
+import org.example.loadbalancer.lb.util.Ping;
 
+import javax.net.ssl.SSLContext;
+import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
-import static org.example.loadbalancer.lb.util.Helper.getInetSocketAddress;
+import static org.example.loadbalancer.lb.util.Helper.getServerHost;
+import static org.example.loadbalancer.lb.util.Helper.getServerPort;
+import static org.example.loadbalancer.lb.util.Helper.getServerWeight;
 
 // main() entry point for load balancer with argument parsing
 public class Main {
+
+    // Property holding the backend servers when they come from a config file
+    private static final String SERVERS_PROPERTY = "servers";
+    // Relay mode from a config file, e.g. mode=http
+    private static final String MODE_PROPERTY = "mode";
+    // Address the default listener binds to, e.g. bind=0.0.0.0
+    private static final String BIND_PROPERTY = "bind";
+    // Strategy of the default listener, e.g. strategy=least_connections
+    private static final String STRATEGY_PROPERTY = "strategy";
+    // HTTP routes from a config file, route.<NAME>.match=[HOST][/PATH_PREFIX] and route.<NAME>.servers=<SERVERS>
+    private static final String ROUTE_PREFIX = "route.";
+    private static final String ROUTE_MATCH_SUFFIX = ".match";
+    private static final String ROUTE_SERVERS_SUFFIX = ".servers";
+    // TLS termination from a config file, a keystore turns it on
+    private static final String TLS_KEYSTORE_PROPERTY = "tls.keystore";
+    private static final String TLS_KEYSTORE_TYPE_PROPERTY = "tls.keystore.type";
+    private static final String TLS_KEYSTORE_PASSWORD_PROPERTY = "tls.keystore.password";
+    // PROXY protocol from a config file, proxy.send=none|v1|v2 and proxy.accept=true. Listeners have their own,
+    // listener.<NAME>.proxy.send and listener.<NAME>.proxy.accept, which are off unless set.
+    private static final String PROXY_SEND_PROPERTY = "proxy.send";
+    private static final String PROXY_ACCEPT_PROPERTY = "proxy.accept";
+    // More listeners from a config file, listener.<NAME>.bind=[HOST:]PORT, listener.<NAME>.mode=<MODE>,
+    // listener.<NAME>.pool=<POOL> and listener.<NAME>.tls=true, each balancing over pool.<POOL>.servers=<SERVERS>
+    // with pool.<POOL>.strategy=<STRATEGY>
+    private static final String LISTENER_PREFIX = "listener.";
+    private static final String LISTENER_BIND_SUFFIX = ".bind";
+    private static final String LISTENER_MODE_SUFFIX = ".mode";
+    private static final String LISTENER_POOL_SUFFIX = ".pool";
+    private static final String LISTENER_TLS_SUFFIX = ".tls";
+    private static final String POOL_PREFIX = "pool.";
+    private static final String POOL_SERVERS_SUFFIX = ".servers";
+    private static final String POOL_STRATEGY_SUFFIX = ".strategy";
+
+    // Time the shutdown hook gives run() to close everything on top of the drain timeout
+    private static final long SHUTDOWN_GRACE_MS = 5_000;
+
     public static void main(String[] args) {
 
         if (args.length != 2) {
-            System.out.println("Usage: lb <LISTEN_PORT> <COMMA_SEPARATED_HOST_AND_PORTS>");
+            System.out.println("Usage: lb <LISTEN_PORT> <COMMA_SEPARATED_HOST_AND_PORTS[:WEIGHT] | CONFIG_FILE>");
             return;
         }
 
         final int port = parseIntArgument(args[0], 8080);
-        final List<InetSocketAddress> servers = parseServers(args[1]);
+
+        // A file holds the servers in its servers property, and is watched for changes
+        final Path configFile = getConfigFile(args[1]);
+        String serverSpec = args[1];
+        Properties properties = new Properties();
+        if (configFile != null) {
+            try {
+                properties = ConfigFileWatcher.load(configFile);
+                serverSpec = properties.getProperty(SERVERS_PROPERTY, "");
+            } catch (IOException e) {
+                System.out.printf("Unable to read %s (%s)%n", configFile, e.getMessage());
+                return;
+            }
+        }
 
         // For now, we just create the config directly, in a production environment this
         // would be pulled from a config file or server
         final LoadBalancerConfig config = new LoadBalancerConfig();
+
+        // Every name is resolved here, once, nothing after this point waits on DNS
+        final BackendResolver resolver = new BackendResolver(config.getDnsRefreshMs());
+
         config.setPort(port);
-        config.setLoadBalancerStrategyType(LoadBalancerStrategyType.ROUND_ROBIN);
-        config.setServers(servers);
+        config.setBindAddress(properties.getProperty(BIND_PROPERTY, config.getBindAddress()).trim());
+        config.setAccessLogPath("access.log");
+        if (!configureRelayMode(config, properties, resolver)) {
+            return;
+        }
+        config.setTlsKeyStorePath(properties.getProperty(TLS_KEYSTORE_PROPERTY));
+        config.setTlsKeyStoreType(properties.getProperty(TLS_KEYSTORE_TYPE_PROPERTY, config.getTlsKeyStoreType()));
+        config.setTlsKeyStorePassword(properties.getProperty(TLS_KEYSTORE_PASSWORD_PROPERTY, config.getTlsKeyStorePassword()));
+        if (!configureProxyProtocol(config, properties, "")) {
+            return;
+        }
+
+        // A config file with listeners of its own can leave the servers of the default one out
+        final List<Listener> listeners = new ArrayList<>();
+        if (!serverSpec.isBlank()) {
+            final Map<InetSocketAddress, Integer> weights = new HashMap<>();
+            final List<InetSocketAddress> servers;
+            try {
+                servers = parseServers(serverSpec, resolver, weights);
+            } catch (IllegalArgumentException e) {
+                System.out.println(e.getMessage());
+                return;
+            }
+            if (servers.isEmpty()) {
+                System.out.println("None of the backend servers could be resolved");
+                return;
+            }
+            config.setServers(servers);
+            config.setServerWeights(weights);
+            listeners.add(new Listener(config, serverSpec, SERVERS_PROPERTY));
+        }
+        final String strategy = properties.getProperty(STRATEGY_PROPERTY);
+        if (!configureStrategy(config, strategy)) {
+            System.out.printf("Unknown strategy: %s%n", strategy);
+            return;
+        }
+        if (!configureListeners(config, properties, resolver, listeners)) {
+            return;
+        }
+        if (listeners.isEmpty()) {
+            System.out.println("No backend servers or listeners configured");
+            return;
+        }
+
+        try (resolver) {
+            resolver.start();
+            run(listeners, resolver, configFile);
+        }
+    }
+
+    /**
+     * Start everything the config asks for and run the load balancer with a fixed set of backend servers, only
+     * returns if it could not start or was shut down
+     *
+     * @param config LB config with the backend servers already resolved
+     */
+    public static void run(LoadBalancerConfig config) {
+        run(List.of(new Listener(config, null, SERVERS_PROPERTY)), null, null);
+    }
+
+    /**
+     * Start everything the listeners' configs ask for and run a load balancer for every listener, only returns if they
+     * could not start or were shut down. SIGTERM stops accepting, lets the open connections drain and closes
+     * everything before the JVM exits.
+     *
+     * @param listeners Listeners with their backend servers already resolved, the first one's config holds the
+     *                  settings they all share
+     * @param resolver Resolver the servers came from, their DNS changes are applied while running
+     * @param configFile File the servers are reloaded from whenever it changes, may be null
+     */
+    static void run(List<Listener> listeners, BackendResolver resolver, Path configFile) {
+        final CountDownLatch stopped = new CountDownLatch(1);
+        try {
+            start(listeners, resolver, configFile, stopped);
+        } finally {
+            stopped.countDown();
+        }
+    }
+
+    private static void start(List<Listener> listeners, BackendResolver resolver, Path configFile, CountDownLatch stopped) {
+        final LoadBalancerConfig config = listeners.getFirst().getConfig();
+        Log.setLevel(config.getLogLevel());
+
+        // Every listener's servers, and for the connection pool and the health checker once per listener using them so
+        // the last listener to drop a server is the one that stops it being pooled and checked. UDP backends have no
+        // TCP port to probe.
+        final Set<InetSocketAddress> allServers = new LinkedHashSet<>();
+        final List<InetSocketAddress> pooledServers = new ArrayList<>();
+        final List<InetSocketAddress> checkedServers = new ArrayList<>();
+        for (Listener listener : listeners) {
+            allServers.addAll(listener.getConfig().getAllServers());
+            pooledServers.addAll(new LinkedHashSet<>(listener.getConfig().getAllServers()));
+            if (listener.getConfig().getRelayMode() != RelayMode.UDP) {
+                checkedServers.addAll(listener.getConfig().getAllServers());
+            }
+        }
+
+        // Shared by every listener
+        final BackendStats backendStats = new BackendStats(config.getLatencyDecayMs());
+        final BufferPool bufferPool = new BufferPool(config.getBufferSizeBytes(), config.getBufferPoolMaxBuffers());
+        final LoadBalancerMetrics metrics = new LoadBalancerMetrics(new MetricsRegistry(), List.copyOf(allServers), backendStats);
+        final ExecutorService threadExecutor = Executors.newVirtualThreadPerTaskExecutor();
 
-        // Get the class that will do the server routing
-        final LoadBalancerStrategy lbStrategy = LoadBalancerStrategyFactory.createLoadBalancerStrategy(config.getLoadBalancerStrategyType(), config.getServers());
-        final SocketHandlerThreadFactory factory = new SocketHandlerThreadFactory();
+        final SSLContext sslContext;
+        try {
+            sslContext = loadTlsContext(listeners);
+        } catch (IOException e) {
+            System.out.printf("Unable to start TLS (%s)%n", e.getMessage());
+            return;
+        }
+
+        for (Listener listener : listeners) {
+            final LoadBalancerConfig listenerConfig = listener.getConfig();
+            final ProxyProtocol proxyProtocol = proxyProtocol(listenerConfig);
+            System.out.printf("Starting load balancer %s on %s port %d (%s, %s%s%s)%n", listenerConfig.getListenerName(),
+                    listenerConfig.getBindAddress(), listenerConfig.getPort(), listenerConfig.getEngineType(), listenerConfig.getRelayMode(),
+                    listenerConfig.getTlsKeyStorePath() != null ? ", TLS" : "", proxyProtocol.isEnabled() ? ", PROXY " + proxyProtocol : "");
+        }
+        allServers.forEach(server -> System.out.println("BE server: " + server));
+
+        final AccessLog accessLog;
+        try {
+            accessLog = config.getAccessLogPath() != null
+                    ? new AccessLog(Path.of(config.getAccessLogPath()), config.getAccessLogBufferSize()) : AccessLog.disabled();
+        } catch (IOException e) {
+            System.out.printf("Unable to open access log %s (%s)%n", config.getAccessLogPath(), e.getMessage());
+            return;
+        }
+
+        // UDP has a selector loop of its own, the event loops are for TCP
+        final boolean eventLoops = config.getEngineType() == EngineType.EVENT_LOOP
+                && listeners.stream().anyMatch(listener -> listener.getConfig().getRelayMode() != RelayMode.UDP);
+
+        final MetricsServer metricsServer = startMetricsServer(config, metrics);
+        try (accessLog;
+             metricsServer;
+             HashedWheelTimer timer = new HashedWheelTimer(config.getTimerTickMs(), config.getTimerTicksPerWheel());
+             TlsTerminator tls = sslContext != null ? new TlsTerminator(sslContext, config.getTlsHandshakeThreads(), config.getTlsHandshakeQueue(),
+                     timer, config.getTlsHandshakeTimeoutMs(), metrics.getRegistry()) : null;
+             BackendConnectionPool backendPool = new BackendConnectionPool(pooledServers, config.getBackendPoolMinIdle(),
+                config.getBackendPoolMaxIdle(), config.getBackendConnectTimeoutMs(), config.getBackendPoolMaxIdleMs());
+             HealthChecker healthChecker = new HealthChecker(checkedServers, new Ping(), config.getBackendPingIntervalMs(),
+                config.getBackendPingTimeoutMs(), config.getBackendRiseCount(), config.getBackendFallCount())) {
+            accessLog.start();
+            timer.start();
+            backendPool.start();
+            final RelayListener relayListener = metrics.andThen(accessLog);
+            final RelayTimeouts timeouts = new RelayTimeouts(timer, config.getBackendConnectTimeoutMs(), config.getIdleTimeoutMs(),
+                    config.getMaxConnectionLifetimeMs());
+
+            try (EventLoopGroup eventLoopGroup = eventLoops ? new EventLoopGroup(config.getEventLoopThreads(), bufferPool, config.getBufferSizeBytes(),
+                    backendStats, backendPool, relayListener, timeouts) : null) {
+                if (eventLoopGroup != null) {
+                    metrics.getRegistry().gauge("lb_event_loop_relay_errors", "Relays closed after an unexpected error in an event loop",
+                            eventLoopGroup::getRelayErrors);
+                }
+                final List<LoadBalancer> lbs = new ArrayList<>();
+                for (Listener listener : listeners) {
+                    final LoadBalancerConfig listenerConfig = listener.getConfig();
+                    final boolean udp = listenerConfig.getRelayMode() == RelayMode.UDP;
+                    final SocketHandlerThreadFactory factory = new SocketHandlerThreadFactory(listenerConfig.getRelayMode(), bufferPool, backendStats,
+                            backendPool, relayListener, timeouts, listenerConfig.getTlsKeyStorePath() != null ? tls : null, proxyProtocol(listenerConfig));
+                    final LoadBalancerStrategy lbStrategy = LoadBalancerStrategyFactory.createLoadBalancerStrategy(listenerConfig, backendStats);
+                    // A UDP listener keeps a checker of its own, one that reports every server up
+                    lbs.add(new LoadBalancer(listenerConfig, lbStrategy, factory, udp ? null : eventLoopGroup, backendStats, metrics, timeouts,
+                            udp ? null : healthChecker, threadExecutor));
+                }
+
+                // Check if any servers are offline before starting the listeners, then every few seconds
+                System.out.printf("Checking for unhealthy servers%n");
+                healthChecker.checkAll();
+                healthChecker.start();
+                serve(listeners, lbs, backendPool, resolver, configFile, stopped);
+            } catch (IOException e) {
+                System.out.printf("Error starting event loops (%s)%n", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @param config Config of a listener
+     * @return PROXY headers its relays accept and send
+     */
+    private static ProxyProtocol proxyProtocol(LoadBalancerConfig config) {
+        return new ProxyProtocol(config.getProxyProtocolSend(), config.isProxyProtocolAccept());
+    }
+
+    /**
+     * TLS is terminated by the virtual thread relays only, the event loops relay raw bytes. Every listener with TLS
+     * on presents the certificate of the same keystore.
+     *
+     * @param listeners Every listener
+     * @return Context for the configured keystore, null if TLS is off
+     * @throws IOException if the keystore can't be loaded or a listener's relay mode can't terminate TLS
+     */
+    private static SSLContext loadTlsContext(List<Listener> listeners) throws IOException {
+        LoadBalancerConfig tlsConfig = null;
+        for (Listener listener : listeners) {
+            final LoadBalancerConfig config = listener.getConfig();
+            if (config.getTlsKeyStorePath() == null) {
+                continue;
+            }
+            if (config.getRelayMode() != RelayMode.HTTP
+                    && (config.getRelayMode() != RelayMode.NIO_POOLED || config.getEngineType() == EngineType.EVENT_LOOP)) {
+                throw new IOException(config.getListenerName() + " needs mode=nio_pooled on the " + EngineType.THREAD_PER_CONNECTION
+                        + " engine, or mode=http");
+            }
+            tlsConfig = config;
+        }
+        if (tlsConfig == null) {
+            return null;
+        }
+
+        return TlsTerminator.loadContext(Path.of(tlsConfig.getTlsKeyStorePath()), tlsConfig.getTlsKeyStoreType(),
+                tlsConfig.getTlsKeyStorePassword().toCharArray(), tlsConfig.getTlsSessionCacheSize(), tlsConfig.getTlsSessionTimeoutS());
+    }
+
+    /**
+     * Run every listener's load balancer until they are shut down, applying backend changes from the config file and
+     * DNS meanwhile. The first one runs on the calling thread and the others on a thread each. One of them stopping,
+     * e.g. because its port is taken, stops them all rather than leaving half of the config serving.
+     *
+     * @param listeners Every listener, the first one's config holds the settings they all share
+     * @param lbs Load balancer of every listener, in the same order
+     * @param backendPool Connection pool that follows the backend changes
+     * @param resolver Resolver the servers came from
+     * @param configFile File the servers are reloaded from, may be null
+     * @param stopped Counted down once run() has closed everything, the shutdown hook waits on it
+     */
+    private static void serve(List<Listener> listeners, List<LoadBalancer> lbs, BackendConnectionPool backendPool,
+                              BackendResolver resolver, Path configFile, CountDownLatch stopped) {
+        final LoadBalancerConfig config = listeners.getFirst().getConfig();
+
+        // SIGTERM, the JVM waits for the hook so the connections can drain and the access log can be flushed
+        final Thread shutdownHook = Thread.ofPlatform().name("lb-shutdown").unstarted(() -> {
+            System.out.println("Shutting down, no longer accepting connections");
+            lbs.forEach(LoadBalancer::shutdown);
+            try {
+                stopped.await(config.getDrainTimeoutMs() + SHUTDOWN_GRACE_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
 
-        System.out.printf("Starting load balancer on port %d%n", config.getPort());
-        config.getServers().forEach(server -> System.out.println("BE server: " + server));
+        final ConfigFileWatcher watcher = watchBackends(listeners, lbs, backendPool, resolver, configFile);
+        final List<Thread> threads = new ArrayList<>();
+        try {
+            for (int i = 1; i < lbs.size(); i++) {
+                final LoadBalancer lb = lbs.get(i);
+                threads.add(Thread.ofPlatform().name("lb-listener-" + listeners.get(i).getConfig().getListenerName())
+                        .start(() -> runListener(lb, lbs)));
+            }
+            runListener(lbs.getFirst(), lbs);
+
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (watcher != null) {
+                watcher.close();
+            }
+        }
+
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            // Already shutting down, the hook is what stopped us
+        }
+    }
 
-        new LoadBalancer(config, lbStrategy, factory).run();
+    /**
+     * @param lb Load balancer to run until it is shut down
+     * @param lbs Every listener's load balancer, shut down once this one stops
+     */
+    private static void runListener(LoadBalancer lb, List<LoadBalancer> lbs) {
+        try {
+            lb.run();
+        } finally {
+            lbs.forEach(LoadBalancer::shutdown);
+        }
+    }
+
+    /**
+     * Keep the backend servers of the running LBs up to date with their DNS names and the config file
+     *
+     * @param listeners Every listener, with the servers it was started with and the property they are reloaded from
+     * @param lbs Load balancer of every listener, in the same order
+     * @param backendPool Connection pool that follows the backend changes
+     * @param resolver Resolver the servers came from
+     * @param configFile File the servers are reloaded from, may be null
+     * @return The started watcher, or null if there is no file to watch or it could not be watched
+     */
+    private static ConfigFileWatcher watchBackends(List<Listener> listeners, List<LoadBalancer> lbs, BackendConnectionPool backendPool,
+                                                   BackendResolver resolver, Path configFile) {
+        if (resolver == null) {
+            return null;
+        }
+
+        // Each updater and the property its servers are reloaded from
+        final Map<BackendUpdater, String> updaters = new LinkedHashMap<>();
+        for (int i = 0; i < listeners.size(); i++) {
+            final Listener listener = listeners.get(i);
+            if (listener.getServerSpec() == null) {
+                continue;
+            }
+            final List<InetSocketAddress> routeServers = new ArrayList<>();
+            listener.getConfig().getHttpRoutes().forEach(route -> routeServers.addAll(route.getServers()));
+            final BackendUpdater updater = new BackendUpdater(lbs.get(i), backendPool, resolver, listener.getServerSpec(),
+                    listener.getConfig().getServers(), routeServers);
+            resolver.addListener((host, addresses) -> updater.refresh());
+            updaters.put(updater, listener.getServersProperty());
+        }
+        if (configFile == null || updaters.isEmpty()) {
+            return null;
+        }
+
+        try {
+            final ConfigFileWatcher watcher = new ConfigFileWatcher(configFile,
+                    properties -> updaters.forEach((updater, property) -> updater.update(properties.getProperty(property, ""))));
+            watcher.start();
+            System.out.printf("Watching %s for backend changes%n", configFile);
+            return watcher;
+        } catch (IOException e) {
+            System.out.printf("Unable to watch %s, backend servers won't be reloaded (%s)%n", configFile, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Add a listener for every listener.<NAME>.bind in a config file. Each starts from a copy of the default
+     * listener's config, with its own bind address, mode, TLS switch and pool of servers. HTTP routes belong to the
+     * default listener only.
+     *
+     * @param defaults Config of the default listener, the settings every listener shares
+     * @param properties Contents of the config file, empty without one
+     * @param resolver Resolves the servers of each pool
+     * @param listeners Listeners to add to
+     * @return false if a listener is misconfigured
+     */
+    static boolean configureListeners(LoadBalancerConfig defaults, Properties properties, BackendResolver resolver, List<Listener> listeners) {
+        for (String name : getNames(properties, LISTENER_PREFIX, LISTENER_BIND_SUFFIX)) {
+            final String prefix = LISTENER_PREFIX + name;
+            final LoadBalancerConfig config = defaults.copy();
+            config.setListenerName(name);
+            config.setHttpRoutes(List.of());
+
+            final String bind = properties.getProperty(prefix + LISTENER_BIND_SUFFIX);
+            if (!configureBind(config, bind)) {
+                System.out.printf("Listener %s has an invalid bind %s, expected [HOST:]PORT%n", name, bind);
+                return false;
+            }
+
+            final String mode = properties.getProperty(prefix + LISTENER_MODE_SUFFIX, RelayMode.STREAMING.name());
+            try {
+                config.setRelayMode(RelayMode.valueOf(mode.trim().toUpperCase(Locale.ROOT)));
+            } catch (IllegalArgumentException e) {
+                System.out.printf("Unknown mode for listener %s: %s%n", name, mode);
+                return false;
+            }
+
+            if (!Boolean.parseBoolean(properties.getProperty(prefix + LISTENER_TLS_SUFFIX, "false").trim())) {
+                config.setTlsKeyStorePath(null);
+            }
+
+            config.setProxyProtocolSend(ProxyProtocolVersion.NONE);
+            config.setProxyProtocolAccept(false);
+            if (!configureProxyProtocol(config, properties, prefix + ".")) {
+                return false;
+            }
+
+            // A listener without a pool uses the one with its own name
+            final String pool = properties.getProperty(prefix + LISTENER_POOL_SUFFIX, name).trim();
+            final String serversProperty = POOL_PREFIX + pool + POOL_SERVERS_SUFFIX;
+            final String serverSpec = properties.getProperty(serversProperty, "");
+            final Map<InetSocketAddress, Integer> weights = new HashMap<>();
+            final List<InetSocketAddress> servers;
+            try {
+                servers = parseServers(serverSpec, resolver, weights);
+            } catch (IllegalArgumentException e) {
+                System.out.printf("Pool %s: %s%n", pool, e.getMessage());
+                return false;
+            }
+            if (servers.isEmpty()) {
+                System.out.printf("Pool %s of listener %s has no backend servers that resolve%n", pool, name);
+                return false;
+            }
+            config.setServers(servers);
+            config.setServerWeights(weights);
+
+            final String strategy = properties.getProperty(POOL_PREFIX + pool + POOL_STRATEGY_SUFFIX);
+            if (!configureStrategy(config, strategy)) {
+                System.out.printf("Unknown strategy for pool %s: %s%n", pool, strategy);
+                return false;
+            }
+
+            listeners.add(new Listener(config, serverSpec, serversProperty));
+        }
+        return true;
+    }
+
+    /**
+     * Set the strategy of a listener, its server weights must already be set
+     *
+     * @param config Config of the listener
+     * @param strategy Strategy from the config file, null picks weighted round-robin if any server has a weight other
+     *                 than 1 and round-robin if none does
+     * @return false if the strategy is unknown
+     */
+    static boolean configureStrategy(LoadBalancerConfig config, String strategy) {
+        if (strategy == null) {
+            final boolean weighted = config.getServerWeights().values().stream().anyMatch(weight -> weight != 1);
+            config.setLoadBalancerStrategyType(weighted ? LoadBalancerStrategyType.WEIGHTED_ROUND_ROBIN : LoadBalancerStrategyType.ROUND_ROBIN);
+            return true;
+        }
+        try {
+            config.setLoadBalancerStrategyType(LoadBalancerStrategyType.valueOf(strategy.trim().toUpperCase(Locale.ROOT)));
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Set the PROXY headers a listener accepts and sends from a config file, its relay mode must already be set
+     *
+     * @param config Config of the listener
+     * @param properties Contents of the config file, empty without one
+     * @param prefix Prefix of the listener's properties, empty for the default listener
+     * @return false if the version is unknown or the listener's mode can't relay PROXY headers
+     */
+    static boolean configureProxyProtocol(LoadBalancerConfig config, Properties properties, String prefix) {
+        final String send = properties.getProperty(prefix + PROXY_SEND_PROPERTY, config.getProxyProtocolSend().name());
+        try {
+            config.setProxyProtocolSend(ProxyProtocolVersion.valueOf(send.trim().toUpperCase(Locale.ROOT)));
+        } catch (IllegalArgumentException e) {
+            System.out.printf("Unknown PROXY protocol version for listener %s: %s, expected none, v1 or v2%n", config.getListenerName(), send);
+            return false;
+        }
+        config.setProxyProtocolAccept(Boolean.parseBoolean(properties.getProperty(prefix + PROXY_ACCEPT_PROPERTY,
+                String.valueOf(config.isProxyProtocolAccept())).trim()));
+
+        final boolean sending = config.getProxyProtocolSend() != ProxyProtocolVersion.NONE;
+        switch (config.getRelayMode()) {
+            case STREAMING:
+            case NIO_POOLED:
+                return true;
+            case HTTP:
+                if (sending) {
+                    System.out.printf("Listener %s can't send PROXY headers in HTTP mode, backend connections are shared by clients%n",
+                            config.getListenerName());
+                    return false;
+                }
+                return true;
+
+            default:
+                if (sending || config.isProxyProtocolAccept()) {
+                    System.out.printf("Listener %s can't use the PROXY protocol in %s mode%n", config.getListenerName(), config.getRelayMode());
+                    return false;
+                }
+                return true;
+        }
+    }
+
+    /**
+     * @param config Config to set the bind address and port of
+     * @param bind [HOST:]PORT, an IPv6 host goes in brackets, e.g. [::]:53
+     * @return false if it can't be parsed
+     */
+    static boolean configureBind(LoadBalancerConfig config, String bind) {
+        final String value = bind.trim();
+        final int colon = value.lastIndexOf(':');
+        String host = colon < 0 ? "" : value.substring(0, colon);
+        if (host.startsWith("[") && host.endsWith("]")) {
+            host = host.substring(1, host.length() - 1);
+        } else if (host.contains(":")) {
+            return false;
+        }
+
+        final int port;
+        try {
+            port = Integer.parseInt(value.substring(colon + 1));
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        if (port < 0 || port > 65535) {
+            return false;
+        }
+
+        if (!host.isEmpty()) {
+            config.setBindAddress(host);
+        }
+        config.setPort(port);
+        return true;
+    }
+
+    /**
+     * Set the relay mode and HTTP routes from a config file. Routes are only read at startup, a reload only changes
+     * the servers requests go to when no route matches.
+     *
+     * @param config LB config to fill in
+     * @param properties Contents of the config file, empty without one
+     * @param resolver Resolves the servers of each route
+     * @return false if the mode is unknown or a route has a malformed server
+     */
+    static boolean configureRelayMode(LoadBalancerConfig config, Properties properties, BackendResolver resolver) {
+        final String mode = properties.getProperty(MODE_PROPERTY);
+        if (mode != null) {
+            try {
+                config.setRelayMode(RelayMode.valueOf(mode.trim().toUpperCase(Locale.ROOT)));
+            } catch (IllegalArgumentException e) {
+                System.out.printf("Unknown mode: %s%n", mode);
+                return false;
+            }
+        }
+
+        final List<HttpRoute> routes = new ArrayList<>();
+        for (String name : getNames(properties, ROUTE_PREFIX, ROUTE_MATCH_SUFFIX)) {
+            final String match = properties.getProperty(ROUTE_PREFIX + name + ROUTE_MATCH_SUFFIX).trim();
+            final List<InetSocketAddress> servers;
+            try {
+                servers = parseServers(properties.getProperty(ROUTE_PREFIX + name + ROUTE_SERVERS_SUFFIX, ""), resolver, new HashMap<>());
+            } catch (IllegalArgumentException e) {
+                System.out.printf("Route %s: %s%n", name, e.getMessage());
+                return false;
+            }
+            if (servers.isEmpty()) {
+                System.out.printf("Route %s has no backend servers that resolve, ignoring it%n", name);
+                continue;
+            }
+
+            // [HOST][/PATH_PREFIX], no host or * matches any host
+            final int slash = match.indexOf('/');
+            final String host = slash < 0 ? match : match.substring(0, slash);
+            final String pathPrefix = slash < 0 ? "/" : match.substring(slash);
+            routes.add(new HttpRoute(host.isEmpty() || host.equals("*") ? null : host, pathPrefix, servers));
+        }
+        if (!routes.isEmpty()) {
+            System.out.printf("HTTP routes: %s%n", routes);
+        }
+        config.setHttpRoutes(routes);
+        return true;
+    }
+
+    /**
+     * @param properties Contents of a config file
+     * @param prefix Start of the keys, e.g. route.
+     * @param suffix End of the keys, e.g. .match
+     * @return Sorted names between the prefix and suffix of every key that has both
+     */
+    private static TreeSet<String> getNames(Properties properties, String prefix, String suffix) {
+        final TreeSet<String> names = new TreeSet<>();
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith(prefix) && key.endsWith(suffix) && key.length() > prefix.length() + suffix.length()) {
+                names.add(key.substring(prefix.length(), key.length() - suffix.length()));
+            }
+        }
+        return names;
+    }
+
+    /**
+     * @param config LB config holding the admin port
+     * @param metrics Metrics to serve
+     * @return The running server, or null if it is turned off or could not be started
+     */
+    private static MetricsServer startMetricsServer(LoadBalancerConfig config, LoadBalancerMetrics metrics) {
+        if (config.getAdminPort() <= 0) {
+            return null;
+        }
+
+        try {
+            final MetricsServer metricsServer = new MetricsServer(new InetSocketAddress("localhost", config.getAdminPort()), metrics.getRegistry());
+            metricsServer.start();
+            System.out.printf("Serving metrics on http://localhost:%d/metrics%n", metricsServer.getPort());
+            return metricsServer;
+        } catch (IOException e) {
+            System.out.printf("Unable to serve metrics on port %d (%s)%n", config.getAdminPort(), e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @param serversArg Second command line argument
+     * @return The argument as a path if it names an existing file, else null
+     */
+    private static Path getConfigFile(String serversArg) {
+        try {
+            final Path path = Path.of(serversArg);
+            return Files.isRegularFile(path) ? path : null;
+        } catch (InvalidPathException e) {
+            return null;
+        }
     }
 
     private static int parseIntArgument(String portArg, int defaultPort) {
@@ -49,10 +726,41 @@ public class Main {
         }
     }
 
-    private static List<InetSocketAddress> parseServers(String serverArgs) {
+    /**
+     * @param serverArgs Comma separated <HOST>:<PORT>[:<WEIGHT>]
+     * @param resolver Expands each host into one endpoint per address
+     * @param weights Filled in with the weight of every endpoint, endpoints of the same host share its weight
+     * @return Resolved endpoints, servers that don't resolve are left out
+     * @throws IllegalArgumentException If an entry has no port, or a port or weight that isn't a valid number. The whole
+     *                                  list is refused, leaving out a server because of a typo would drain it.
+     */
+    static List<InetSocketAddress> parseServers(String serverArgs, BackendResolver resolver, Map<InetSocketAddress, Integer> weights) {
         final List<InetSocketAddress> servers = new ArrayList<>();
         for (String nextServer: serverArgs.split(",")) {
-            servers.add(getInetSocketAddress(nextServer));
+            if (nextServer.isBlank()) {
+                continue;
+            }
+            final int port;
+            final int weight;
+            try {
+                port = getServerPort(nextServer);
+                weight = getServerWeight(nextServer);
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                throw new IllegalArgumentException("Invalid backend server " + nextServer + ", expected <HOST>:<PORT>[:<WEIGHT>]");
+            }
+            if (port < 1 || port > 65535 || weight < 0) {
+                throw new IllegalArgumentException("Invalid backend server " + nextServer + ", port must be 1-65535 and weight 0 or more");
+            }
+            try {
+                for (InetSocketAddress endpoint : resolver.resolve(getServerHost(nextServer), port)) {
+                    if (!weights.containsKey(endpoint)) {
+                        servers.add(endpoint);
+                        weights.put(endpoint, weight);
+                    }
+                }
+            } catch (UnknownHostException e) {
+                System.out.printf("Unable to resolve backend server %s (%s)%n", nextServer, e.getMessage());
+            }
         }
         return servers;
     }
@@ -0,0 +1,12 @@
+package org.example.loadbalancer.lb.admission;
+
+/**
+ * Whether an accepted client connection may go on to a backend, and if not which limit it hit
+ */
+public enum Admission {
+    ADMITTED,
+    // Over the accept rate of the token bucket
+    RATE_LIMITED,
+    // The client's address already has as many connections as it is allowed
+    CLIENT_LIMITED;
+}
@@ -0,0 +1,214 @@
+package org.example.loadbalancer.lb.admission;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Decides whether the LB takes on another client connection, so a flood can't exhaust file descriptors and heap for
+ * everyone else.
+ *
+ * - A global cap on open client connections. When it is reached the acceptors stop calling accept() until a connection
+ *   closes, new clients wait in the kernel's accept queue and are refused by the kernel once that fills up.
+ * - A token bucket on the accept rate and a cap on open connections per client address. Connections over either are
+ *   accepted and closed straight away, nothing is queued.
+ * - A cap on open connections per backend, a backend at its cap is skipped by server selection like an unhealthy one.
+ *
+ * Every limit is 0 for off. All the counters are atomics updated with compareAndSet, a limit is never exceeded even
+ * with several acceptor threads. Every successful acquire must be matched by a release once the connection closes.
+ */
+public class AdmissionController {
+
+    // Acceptors waiting for a free slot recheck at least this often, releases wake them sooner
+    private static final long PAUSE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final int maxConnections;
+    private final int maxConnectionsPerClient;
+    private final int maxConnectionsPerBackend;
+    private final TokenBucket acceptRate;
+
+    private final AtomicInteger openConnections = new AtomicInteger();
+    // A counter is removed once it drops to 0, -1 marks one that is being removed so acquirers fetch a fresh one
+    private final Map<InetAddress, AtomicInteger> clientConnections = new ConcurrentHashMap<>();
+    private final Map<InetSocketAddress, AtomicInteger> backendConnections = new ConcurrentHashMap<>();
+    private final Set<Thread> pausedAcceptors = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param maxConnections Open client connections across the LB
+     * @param maxConnectionsPerClient Open connections from one client address
+     * @param maxConnectionsPerBackend Open connections to one backend server
+     * @param acceptRatePerSecond New connections admitted per second
+     * @param acceptBurst Connections admitted at once above the rate after a quiet period
+     */
+    public AdmissionController(int maxConnections, int maxConnectionsPerClient, int maxConnectionsPerBackend, int acceptRatePerSecond,
+                               int acceptBurst) {
+        this.maxConnections = maxConnections;
+        this.maxConnectionsPerClient = maxConnectionsPerClient;
+        this.maxConnectionsPerBackend = maxConnectionsPerBackend;
+        this.acceptRate = acceptRatePerSecond > 0 ? new TokenBucket(acceptRatePerSecond, acceptBurst) : null;
+    }
+
+    /**
+     * @return An admission controller with every limit off
+     */
+    public static AdmissionController unlimited() {
+        return new AdmissionController(0, 0, 0, 0, 0);
+    }
+
+    /**
+     * Take a connection slot, waiting for one to be released while the LB is full. Called by an acceptor before it
+     * accepts, so a full LB leaves new connections in the kernel's accept queue.
+     *
+     * @return true if the acceptor had to wait
+     * @throws InterruptedException If the acceptor is interrupted while waiting, no slot is taken
+     */
+    public boolean awaitConnectionSlot() throws InterruptedException {
+        if (tryAcquire(openConnections, maxConnections)) {
+            return false;
+        }
+
+        final Thread acceptor = Thread.currentThread();
+        pausedAcceptors.add(acceptor);
+        try {
+            // Checked again after registering, a release in between would not have woken us
+            while (!tryAcquire(openConnections, maxConnections)) {
+                LockSupport.parkNanos(this, PAUSE_NANOS);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        } finally {
+            pausedAcceptors.remove(acceptor);
+        }
+        return true;
+    }
+
+    /**
+     * Give back the slot taken by awaitConnectionSlot()
+     */
+    public void releaseConnectionSlot() {
+        openConnections.decrementAndGet();
+        if (!pausedAcceptors.isEmpty()) {
+            for (Thread acceptor : pausedAcceptors) {
+                LockSupport.unpark(acceptor);
+            }
+        }
+    }
+
+    /**
+     * Check an accepted connection against the accept rate and its client's limit. An ADMITTED client must be released
+     * with releaseClient() when the connection closes.
+     *
+     * @param client Address of the client
+     * @return ADMITTED, or the limit the connection is over
+     */
+    public Admission admit(InetAddress client) {
+        if (acceptRate != null && !acceptRate.tryAcquire()) {
+            return Admission.RATE_LIMITED;
+        }
+        if (maxConnectionsPerClient > 0 && client != null && !tryAcquire(clientConnections, client, maxConnectionsPerClient)) {
+            return Admission.CLIENT_LIMITED;
+        }
+        return Admission.ADMITTED;
+    }
+
+    /**
+     * @param client Address of a client previously ADMITTED
+     */
+    public void releaseClient(InetAddress client) {
+        if (maxConnectionsPerClient > 0 && client != null) {
+            release(clientConnections, client);
+        }
+    }
+
+    /**
+     * @param server Backend server picked for a connection
+     * @return true if the server had room and now counts the connection, false if it is at its cap
+     */
+    public boolean tryAcquireBackend(InetSocketAddress server) {
+        return maxConnectionsPerBackend <= 0 || tryAcquire(backendConnections, server, maxConnectionsPerBackend);
+    }
+
+    /**
+     * @param server Backend server a successful tryAcquireBackend() was for
+     */
+    public void releaseBackend(InetSocketAddress server) {
+        if (maxConnectionsPerBackend > 0) {
+            release(backendConnections, server);
+        }
+    }
+
+    public int getOpenConnections() {
+        return openConnections.get();
+    }
+
+    /**
+     * @param client Client address
+     * @return Open connections counted against the client
+     */
+    public int getClientConnections(InetAddress client) {
+        final AtomicInteger count = clientConnections.get(client);
+        return count != null ? Math.max(count.get(), 0) : 0;
+    }
+
+    /**
+     * @param server Backend server
+     * @return Open connections counted against the server, 0 when backends aren't limited
+     */
+    public int getBackendConnections(InetSocketAddress server) {
+        final AtomicInteger count = backendConnections.get(server);
+        return count != null ? Math.max(count.get(), 0) : 0;
+    }
+
+    private static boolean tryAcquire(AtomicInteger count, int max) {
+        if (max <= 0) {
+            count.incrementAndGet();
+            return true;
+        }
+
+        while (true) {
+            final int current = count.get();
+            if (current >= max) {
+                return false;
+            }
+            if (count.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private static <K> boolean tryAcquire(Map<K, AtomicInteger> counts, K key, int max) {
+        while (true) {
+            final AtomicInteger count = counts.computeIfAbsent(key, k -> new AtomicInteger());
+            final int current = count.get();
+            if (current < 0) {
+                // Being removed, wait for the fresh counter
+                Thread.onSpinWait();
+                continue;
+            }
+            if (current >= max) {
+                return false;
+            }
+            if (count.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private static <K> void release(Map<K, AtomicInteger> counts, K key) {
+        final AtomicInteger count = counts.get(key);
+        if (count == null) {
+            return;
+        }
+
+        // Drop counters that reach 0, or a scan from many addresses would leave one behind for each of them
+        if (count.decrementAndGet() == 0 && count.compareAndSet(0, -1)) {
+            counts.remove(key, count);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package org.example.loadbalancer.lb.admission;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Lock-free token bucket, refilled at a fixed rate up to a burst size.
+ *
+ * Rather than a token count and a refill timestamp, which would need updating together, the whole bucket is a single
+ * AtomicLong: the time at which it will next be full (the generic cell rate algorithm). Taking a token pushes that time
+ * out by one token's worth, and a token is only available while the push doesn't go further than a full burst ahead
+ * of now. One CAS per acquire, nothing to refill in the background.
+ */
+public class TokenBucket {
+
+    private final long nanosPerToken;
+    private final long burstNanos;
+    private final AtomicLong fullAt;
+
+    /**
+     * @param tokensPerSecond Refill rate
+     * @param burst Tokens that can be taken at once after the bucket has been idle
+     */
+    public TokenBucket(int tokensPerSecond, int burst) {
+        this.nanosPerToken = TimeUnit.SECONDS.toNanos(1) / Math.max(tokensPerSecond, 1);
+        this.burstNanos = nanosPerToken * Math.max(burst, 1);
+        this.fullAt = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * @return true if a token was taken
+     */
+    public boolean tryAcquire() {
+        return tryAcquire(System.nanoTime());
+    }
+
+    /**
+     * @param now System.nanoTime() of the caller
+     * @return true if a token was taken
+     */
+    boolean tryAcquire(long now) {
+        while (true) {
+            final long current = fullAt.get();
+            // An idle bucket is full, it doesn't bank tokens beyond the burst
+            final long next = (current - now < 0 ? now : current) + nanosPerToken;
+            if (next - now > burstNanos) {
+                return false;
+            }
+            if (fullAt.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+}
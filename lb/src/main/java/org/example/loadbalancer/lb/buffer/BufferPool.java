@@ -0,0 +1,173 @@
+package org.example.loadbalancer.lb.buffer;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Bounded pool of direct ByteBuffers split into power-of-two size classes.
+ *
+ * Each size class is a fixed array of slots that buffers are swapped in and out of with CAS, so taking and returning a
+ * buffer never locks and never allocates once the pool is warm. Requests bigger than the largest class, or made while
+ * a class is empty, fall back to a fresh allocation and are counted as a miss. Buffers returned to a full class are
+ * dropped and left to the GC.
+ */
+public class BufferPool {
+
+    private static final int MIN_BUFFER_SIZE = 4 * 1024;
+
+    private final int minSizeShift;
+    private final int maxBufferSize;
+    private final SizeClass[] sizeClasses;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder outstanding = new LongAdder();
+
+    /**
+     * @param maxBufferSize Largest buffer that will be pooled, rounded up to a power of two
+     * @param maxBuffersPerClass How many idle buffers each size class can hold
+     */
+    public BufferPool(int maxBufferSize, int maxBuffersPerClass) {
+        this.minSizeShift = Integer.numberOfTrailingZeros(MIN_BUFFER_SIZE);
+        this.maxBufferSize = roundUpToPowerOfTwo(Math.max(maxBufferSize, MIN_BUFFER_SIZE));
+
+        final int classCount = Integer.numberOfTrailingZeros(this.maxBufferSize) - minSizeShift + 1;
+        this.sizeClasses = new SizeClass[classCount];
+        for (int i = 0; i < classCount; i++) {
+            sizeClasses[i] = new SizeClass(MIN_BUFFER_SIZE << i, maxBuffersPerClass);
+        }
+    }
+
+    /**
+     * Take a cleared direct buffer with at least the given capacity. Must be handed back with release() when done.
+     *
+     * @param minCapacity Number of bytes needed
+     * @return A buffer whose capacity is minCapacity rounded up to the next size class
+     */
+    public ByteBuffer acquire(int minCapacity) {
+        outstanding.increment();
+
+        if (minCapacity > maxBufferSize) {
+            misses.increment();
+            return ByteBuffer.allocateDirect(minCapacity);
+        }
+
+        final SizeClass sizeClass = sizeClasses[classIndex(minCapacity)];
+        final ByteBuffer buffer = sizeClass.poll();
+        if (buffer != null) {
+            hits.increment();
+            return buffer;
+        }
+
+        misses.increment();
+        return ByteBuffer.allocateDirect(sizeClass.bufferSize);
+    }
+
+    /**
+     * Return a buffer taken from acquire(), it must not be used by the caller afterwards
+     *
+     * @param buffer Buffer to return, null is ignored
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null) {
+            return;
+        }
+        outstanding.decrement();
+
+        final int capacity = buffer.capacity();
+        if (!buffer.isDirect() || capacity > maxBufferSize || Integer.bitCount(capacity) != 1 || capacity < MIN_BUFFER_SIZE) {
+            // not one of ours, let the GC have it
+            return;
+        }
+
+        buffer.clear();
+        sizeClasses[classIndex(capacity)].offer(buffer);
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getOutstanding() {
+        return outstanding.sum();
+    }
+
+    public long getPooled() {
+        long pooled = 0;
+        for (SizeClass sizeClass : sizeClasses) {
+            pooled += sizeClass.available.get();
+        }
+        return pooled;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("BufferPool[hits=%d, misses=%d, outstanding=%d, pooled=%d]", getHits(), getMisses(), getOutstanding(), getPooled());
+    }
+
+    private int classIndex(int capacity) {
+        final int shift = 32 - Integer.numberOfLeadingZeros(Math.max(capacity, MIN_BUFFER_SIZE) - 1);
+        return shift - minSizeShift;
+    }
+
+    private static int roundUpToPowerOfTwo(int value) {
+        return value <= 1 ? 1 : Integer.highestOneBit(value - 1) << 1;
+    }
+
+    /*
+     * Idle buffers of one size. The available counter is only a hint that lets an empty or full class be skipped
+     * without scanning every slot.
+     */
+    private static class SizeClass {
+
+        private final int bufferSize;
+        private final AtomicReferenceArray<ByteBuffer> slots;
+        private final AtomicInteger available = new AtomicInteger();
+
+        SizeClass(int bufferSize, int maxBuffers) {
+            this.bufferSize = bufferSize;
+            this.slots = new AtomicReferenceArray<>(maxBuffers);
+        }
+
+        ByteBuffer poll() {
+            if (available.get() <= 0) {
+                return null;
+            }
+
+            final int length = slots.length();
+            final int start = ThreadLocalRandom.current().nextInt(length);
+            for (int i = 0; i < length; i++) {
+                final int index = (start + i) % length;
+                final ByteBuffer buffer = slots.get(index);
+                if (buffer != null && slots.compareAndSet(index, buffer, null)) {
+                    available.decrementAndGet();
+                    return buffer;
+                }
+            }
+            return null;
+        }
+
+        void offer(ByteBuffer buffer) {
+            final int length = slots.length();
+            if (available.get() >= length) {
+                return;
+            }
+
+            final int start = ThreadLocalRandom.current().nextInt(length);
+            for (int i = 0; i < length; i++) {
+                final int index = (start + i) % length;
+                if (slots.get(index) == null && slots.compareAndSet(index, null, buffer)) {
+                    available.incrementAndGet();
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package org.example.loadbalancer.lb.health;
+
+import java.net.InetSocketAddress;
+
+/*
+ * Told about every up/down transition the HealthChecker decides on, e.g. so a strategy can rebuild its healthy servers
+ */
+@FunctionalInterface
+public interface HealthCheckListener {
+
+    void serverHealthChanged(InetSocketAddress server, boolean healthy);
+
+}
@@ -0,0 +1,328 @@
+package org.example.loadbalancer.lb.health;
+
+import org.example.loadbalancer.lb.LoadBalancerPing;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Active health checks for the backend servers.
+ *
+ * Every server is probed on its own schedule and every probe runs on its own virtual thread, so a black-holed host
+ * only delays its own checks, never the others or the accept path. Start times and intervals are jittered so the
+ * probes don't all hit the backends at the same moment.
+ *
+ * A server is only marked down after fallCount failed probes in a row, and back up after riseCount successful ones in
+ * a row, so one lost SYN doesn't flap it. The very first probe of a server decides its state straight away. Every
+ * transition is published to the listeners.
+ *
+ * Servers can be added and removed while running, e.g. when the backend list is reloaded. A removed server's pending
+ * check notices it is gone and stops rescheduling itself. One checker is shared by every listener, a server in several
+ * backend pools is probed once and only stops being checked when the last pool using it removes it.
+ */
+public class HealthChecker implements AutoCloseable {
+
+    private final LoadBalancerPing pinger;
+    private final int intervalMs;
+    private final int timeoutMs;
+    private final int riseCount;
+    private final int fallCount;
+
+    private final Map<InetSocketAddress, ServerHealth> serverHealth = new ConcurrentHashMap<>();
+    private final List<HealthCheckListener> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicInteger healthyCount = new AtomicInteger();
+
+    // Scheduler only times the probes, the probes themselves run on probeExecutor
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(Thread.ofVirtual().factory());
+    private final ExecutorService probeExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    // Set while an on-demand sweep of every server is running
+    private final AtomicBoolean sweepInProgress = new AtomicBoolean(false);
+    private volatile boolean running = false;
+
+    /**
+     * @param servers Backend servers to check, all start out healthy. A server listed more than once needs as many
+     *                removeServer() calls before it stops being checked.
+     * @param pinger Probe used for each check
+     * @param intervalMs Time between two checks of the same server, before jitter
+     * @param timeoutMs Time a single probe may take
+     * @param riseCount Successful probes in a row needed to bring a server back up
+     * @param fallCount Failed probes in a row needed to take a server down
+     */
+    public HealthChecker(List<InetSocketAddress> servers, LoadBalancerPing pinger, int intervalMs, int timeoutMs, int riseCount, int fallCount) {
+        this.pinger = pinger;
+        this.intervalMs = intervalMs;
+        this.timeoutMs = timeoutMs;
+        this.riseCount = riseCount;
+        this.fallCount = fallCount;
+
+        for (InetSocketAddress server : servers) {
+            final ServerHealth existing = serverHealth.putIfAbsent(server, new ServerHealth());
+            if (existing != null) {
+                existing.users++;
+            }
+        }
+        healthyCount.set(serverHealth.size());
+    }
+
+    /**
+     * @param listener Called on every up/down transition, on the thread that ran the probe
+     */
+    public void addListener(HealthCheckListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Start checking every server in the background, each one first at a random point within the first interval
+     */
+    public void start() {
+        running = true;
+        for (Map.Entry<InetSocketAddress, ServerHealth> entry : serverHealth.entrySet()) {
+            scheduleCheck(entry.getKey(), entry.getValue(), ThreadLocalRandom.current().nextInt(Math.max(intervalMs, 1)));
+        }
+    }
+
+    /**
+     * Start checking a new server. It is probed once before this returns, so it is only reported healthy if it
+     * answered, then checked in the background like the others.
+     *
+     * @param server Backend server address, if it is already being checked it only gains a user
+     * @return true if the server is new to the checker
+     */
+    public boolean addServer(InetSocketAddress server) {
+        final ServerHealth health = new ServerHealth();
+        if (serverHealth.merge(server, health, (existing, added) -> {
+            existing.users++;
+            return existing;
+        }) != health) {
+            return false;
+        }
+        healthyCount.incrementAndGet();
+
+        check(server);
+        scheduleCheck(server, health, ThreadLocalRandom.current().nextInt(Math.max(intervalMs, 1)));
+        return true;
+    }
+
+    /**
+     * Stop checking a server once its last user has removed it, it is reported unhealthy from then on. No transition
+     * is published for it.
+     *
+     * @param server Backend server address
+     * @return true if the server is no longer checked, false if it is unknown or still has other users
+     */
+    public boolean removeServer(InetSocketAddress server) {
+        final List<ServerHealth> removed = new ArrayList<>(1);
+        serverHealth.computeIfPresent(server, (key, health) -> {
+            if (--health.users > 0) {
+                return health;
+            }
+            removed.add(health);
+            return null;
+        });
+        if (removed.isEmpty()) {
+            return false;
+        }
+
+        final ServerHealth health = removed.getFirst();
+
+        synchronized (health) {
+            if (health.healthy) {
+                healthyCount.decrementAndGet();
+            }
+            // A probe that is still running must not count the server again
+            health.removed = true;
+        }
+        return true;
+    }
+
+    /**
+     * Probe every server at the same time and wait until all the probes have finished, which takes about timeoutMs
+     * however many servers there are
+     */
+    public void checkAll() {
+        final List<Callable<Void>> probes = new ArrayList<>();
+        for (InetSocketAddress server : serverHealth.keySet()) {
+            probes.add(() -> {
+                check(server);
+                return null;
+            });
+        }
+
+        try {
+            probeExecutor.invokeAll(probes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RejectedExecutionException e) {
+            // Closed while the sweep was starting
+        }
+    }
+
+    /**
+     * Run checkAll() in the background unless a sweep is already running, used when every server is down and we don't
+     * want to wait for the next scheduled checks
+     */
+    public void requestCheckAll() {
+        if (sweepInProgress.compareAndSet(false, true)) {
+            try {
+                probeExecutor.execute(() -> {
+                    try {
+                        checkAll();
+                    } finally {
+                        sweepInProgress.set(false);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                sweepInProgress.set(false);
+            }
+        }
+    }
+
+    /**
+     * @param server Backend server address
+     * @return true if the server is being checked, whether it is up or down
+     */
+    public boolean isChecking(InetSocketAddress server) {
+        return serverHealth.containsKey(server);
+    }
+
+    /**
+     * @param server Backend server address
+     * @return false if the server is down or unknown
+     */
+    public boolean isHealthy(InetSocketAddress server) {
+        final ServerHealth health = server != null ? serverHealth.get(server) : null;
+        return health != null && health.healthy;
+    }
+
+    public int getHealthyCount() {
+        return healthyCount.get();
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        scheduler.shutdownNow();
+        probeExecutor.shutdownNow();
+    }
+
+    /**
+     * Probe one server and apply the result to its rise/fall counters
+     *
+     * @param server Backend server address
+     */
+    void check(InetSocketAddress server) {
+        final ServerHealth health = serverHealth.get(server);
+        if (health == null) {
+            return;
+        }
+
+        final boolean up = pinger.pingServer(server, timeoutMs);
+        // Publish while holding the server's lock so listeners see its transitions in order
+        synchronized (health) {
+            if (!health.removed && health.record(up, riseCount, fallCount)) {
+                transition(server, up);
+            }
+        }
+    }
+
+    /**
+     * @param server Backend server address
+     * @param health State the checks belong to, they stop once the server is removed (or removed and added again)
+     * @param delayMs Time until the next check
+     */
+    private void scheduleCheck(InetSocketAddress server, ServerHealth health, long delayMs) {
+        if (!running) {
+            return;
+        }
+
+        try {
+            scheduler.schedule(() -> probeExecutor.execute(() -> {
+                if (serverHealth.get(server) != health) {
+                    return;
+                }
+                check(server);
+                // +/- 10% so servers that started together drift apart
+                final int jitter = Math.max(intervalMs / 10, 1);
+                scheduleCheck(server, health, intervalMs + ThreadLocalRandom.current().nextInt(-jitter, jitter + 1));
+            }), Math.max(delayMs, 0), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Closed, stop rescheduling
+        }
+    }
+
+    private void transition(InetSocketAddress server, boolean healthy) {
+        if (healthy) {
+            healthyCount.incrementAndGet();
+            System.out.printf("Server marked online: %s %n", server);
+        } else {
+            healthyCount.decrementAndGet();
+            System.out.printf("Server marked offline: %s %n", server);
+        }
+
+        for (HealthCheckListener listener : listeners) {
+            listener.serverHealthChanged(server, healthy);
+        }
+    }
+
+    /*
+     * Health of one server, updated by whichever probe thread finishes
+     */
+    private static class ServerHealth {
+
+        private volatile boolean healthy = true;
+
+        // Backend pools using the server, changed by the constructor and then only inside the map's compute functions
+        private int users = 1;
+
+        // Set once the server has been taken out of the checker, guarded by the monitor
+        private boolean removed = false;
+
+        // false until the first probe has answered
+        private boolean checked = false;
+        private int successes = 0;
+        private int failures = 0;
+
+        /**
+         * @param up Result of the probe
+         * @param riseCount Successful probes in a row needed to bring the server up
+         * @param fallCount Failed probes in a row needed to take the server down
+         * @return true if the server changed state
+         */
+        synchronized boolean record(boolean up, int riseCount, int fallCount) {
+            if (up) {
+                successes++;
+                failures = 0;
+            } else {
+                failures++;
+                successes = 0;
+            }
+
+            final boolean firstCheck = !checked;
+            checked = true;
+
+            if (healthy && !up && (firstCheck || failures >= fallCount)) {
+                healthy = false;
+                return true;
+            }
+            if (!healthy && up && (firstCheck || successes >= riseCount)) {
+                healthy = true;
+                return true;
+            }
+            return false;
+        }
+    }
+}
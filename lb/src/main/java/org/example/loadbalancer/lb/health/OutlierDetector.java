@@ -0,0 +1,358 @@
+package org.example.loadbalancer.lb.health;
+
+import org.example.loadbalancer.lb.LoadBalancerConfig;
+import org.example.loadbalancer.lb.socket.RelayOutcome;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/*
+ * Passive health checks, i.e. a circuit breaker per backend server driven by how real relays end.
+ *
+ * Only failures on the backend's side count, a client hanging up says nothing about the server. A server is ejected
+ * when it fails too many connects in a row, or when its error rate over a sliding window of recent relays goes over
+ * the threshold. An ejected server sits out for the base ejection time, doubled on every ejection in a row up to a
+ * maximum. After that it is half-open: the LB sends it exactly one trial connection, success brings it back and
+ * failure ejects it again for longer. Only the trial's own outcome counts, relays that were already running when the
+ * server was ejected may still finish while it is half-open and are ignored.
+ *
+ * No more than maxEjectionPercent of the servers are ever ejected at once, so a fault on our side (or a burst of bad
+ * luck) can't take out the whole pool and stampede the servers that are left.
+ */
+public class OutlierDetector {
+
+    // Sliding window is kept as this many time buckets, the oldest one is recycled as time moves on
+    static final int WINDOW_BUCKETS = 10;
+
+    private final int consecutiveConnectFailures;
+    private final double errorRateThreshold;
+    private final int minRequests;
+    private final long bucketNanos;
+    private final long baseEjectionNanos;
+    private final long maxEjectionNanos;
+    private final int maxEjectionPercent;
+
+    private final Map<InetSocketAddress, ServerOutliers> serverOutliers = new ConcurrentHashMap<>();
+    private final List<HealthCheckListener> listeners = new CopyOnWriteArrayList<>();
+
+    // Servers that are ejected or half-open, lets the accept path skip all of this while everything is fine
+    private final AtomicInteger ejectedCount = new AtomicInteger();
+
+    /**
+     * @param servers Backend servers to track
+     * @param config LB config holding the outlier detection thresholds
+     */
+    public OutlierDetector(List<InetSocketAddress> servers, LoadBalancerConfig config) {
+        this.consecutiveConnectFailures = config.getOutlierConsecutiveConnectFailures();
+        this.errorRateThreshold = config.getOutlierErrorRateThreshold();
+        this.minRequests = config.getOutlierMinRequests();
+        this.bucketNanos = Math.max(TimeUnit.MILLISECONDS.toNanos(config.getOutlierWindowMs()) / WINDOW_BUCKETS, 1);
+        this.baseEjectionNanos = TimeUnit.MILLISECONDS.toNanos(config.getOutlierBaseEjectionMs());
+        this.maxEjectionNanos = TimeUnit.MILLISECONDS.toNanos(config.getOutlierMaxEjectionMs());
+        this.maxEjectionPercent = config.getOutlierMaxEjectionPercent();
+
+        for (InetSocketAddress server : servers) {
+            serverOutliers.put(server, new ServerOutliers());
+        }
+    }
+
+    /**
+     * @param server Backend server to start tracking, it starts out active
+     */
+    public void addServer(InetSocketAddress server) {
+        serverOutliers.putIfAbsent(server, new ServerOutliers());
+    }
+
+    /**
+     * Stop tracking a server, freeing its slot under the ejection cap if it was ejected. No transition is published.
+     *
+     * @param server Backend server address
+     */
+    public void removeServer(InetSocketAddress server) {
+        final ServerOutliers outliers = serverOutliers.remove(server);
+        if (outliers == null) {
+            return;
+        }
+
+        synchronized (outliers) {
+            if (outliers.state != State.ACTIVE) {
+                ejectedCount.decrementAndGet();
+            }
+            // Relays still finishing must not eject or restore it any more
+            outliers.state = State.REMOVED;
+        }
+    }
+
+    /**
+     * @param listener Told false when a server is ejected and true once a trial connection has brought it back
+     */
+    public void addListener(HealthCheckListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Record how a relay to a server ended, trial connections go to record(Trial, RelayOutcome) instead
+     *
+     * @param server Backend server the relay went to
+     * @param outcome How the relay ended
+     */
+    public void record(InetSocketAddress server, RelayOutcome outcome) {
+        final ServerOutliers outliers = serverOutliers.get(server);
+        if (outliers == null) {
+            return;
+        }
+
+        final long now = System.nanoTime();
+        synchronized (outliers) {
+            if (outliers.state != State.ACTIVE) {
+                // Stragglers from before the ejection, or the server is gone
+                return;
+            }
+
+            if (outcome == RelayOutcome.COMPLETED) {
+                outliers.consecutiveConnectFailures = 0;
+                outliers.successes[outliers.bucket(now, bucketNanos)]++;
+            } else if (outcome.isBackendFailure()) {
+                outliers.consecutiveConnectFailures = outcome == RelayOutcome.BACKEND_CONNECT_FAILED ? outliers.consecutiveConnectFailures + 1 : 0;
+                outliers.failures[outliers.bucket(now, bucketNanos)]++;
+                checkForOutlier(server, outliers, now);
+            }
+        }
+    }
+
+    /**
+     * Record how a trial connection ended. Success restores the server and a backend failure ejects it again, a client
+     * side failure leaves it half-open for the next connection to be the trial.
+     *
+     * @param trial Trial claimed by pollTrial() for the relay
+     * @param outcome How the relay ended
+     */
+    public void record(Trial trial, RelayOutcome outcome) {
+        final ServerOutliers outliers = trial.outliers;
+        synchronized (outliers) {
+            // The server may have been removed, or removed and added back, since the trial was claimed
+            if (outliers.state != State.HALF_OPEN || outliers.trial != trial) {
+                return;
+            }
+            endTrial(trial.server, outliers, outcome, System.nanoTime());
+        }
+    }
+
+    /**
+     * Look for a half-open server that is waiting for its trial connection and claim the trial. The caller must route
+     * a connection to the trial's server and record() how it went with the trial.
+     *
+     * @param eligible Only servers passing this are considered, e.g. the ones the active health checks think are up
+     * @return The trial to send a connection for, or null if there is none
+     */
+    public Trial pollTrial(Predicate<InetSocketAddress> eligible) {
+        if (ejectedCount.get() == 0) {
+            return null;
+        }
+
+        final long now = System.nanoTime();
+        for (Map.Entry<InetSocketAddress, ServerOutliers> entry : serverOutliers.entrySet()) {
+            final ServerOutliers outliers = entry.getValue();
+            if (outliers.state == State.ACTIVE || outliers.state == State.REMOVED || !eligible.test(entry.getKey())) {
+                continue;
+            }
+
+            synchronized (outliers) {
+                if (outliers.state == State.EJECTED && now - outliers.ejectedUntil >= 0) {
+                    outliers.state = State.HALF_OPEN;
+                }
+                if (outliers.state == State.HALF_OPEN && outliers.trial == null) {
+                    outliers.trial = new Trial(entry.getKey(), outliers);
+                    return outliers.trial;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Give back a trial that no connection was sent for, e.g. the server was at its connection cap. The server stays
+     * half-open and the next pollTrial() hands the trial out again.
+     *
+     * @param trial Trial claimed by pollTrial()
+     */
+    public void releaseTrial(Trial trial) {
+        final ServerOutliers outliers = trial.outliers;
+        synchronized (outliers) {
+            if (outliers.trial == trial) {
+                outliers.trial = null;
+            }
+        }
+    }
+
+    /**
+     * @param server Backend server address
+     * @return true if the server is ejected or waiting on its trial connection
+     */
+    public boolean isEjected(InetSocketAddress server) {
+        final ServerOutliers outliers = server != null ? serverOutliers.get(server) : null;
+        return outliers != null && outliers.state != State.ACTIVE;
+    }
+
+    public int getEjectedCount() {
+        return ejectedCount.get();
+    }
+
+    private void checkForOutlier(InetSocketAddress server, ServerOutliers outliers, long now) {
+        final String reason;
+        if (outliers.consecutiveConnectFailures >= consecutiveConnectFailures) {
+            reason = outliers.consecutiveConnectFailures + " connect failures in a row";
+        } else {
+            int successes = 0;
+            int failures = 0;
+            for (int i = 0; i < WINDOW_BUCKETS; i++) {
+                // Skip buckets that have fallen out of the window
+                if (now - outliers.bucketStart[i] < bucketNanos * WINDOW_BUCKETS) {
+                    successes += outliers.successes[i];
+                    failures += outliers.failures[i];
+                }
+            }
+
+            final int requests = successes + failures;
+            if (requests < minRequests || failures < errorRateThreshold * requests) {
+                return;
+            }
+            reason = String.format("%d of the last %d relays failed", failures, requests);
+        }
+
+        // Reserve a slot under the cap, a CAS loop since several servers can be failing at once. The cap follows the
+        // current number of servers, which changes when the backend list is reloaded
+        final int maxEjected = Math.max(1, serverOutliers.size() * maxEjectionPercent / 100);
+        int ejected;
+        do {
+            ejected = ejectedCount.get();
+            if (ejected >= maxEjected) {
+                System.out.printf("Not ejecting %s (%s), %d servers already ejected%n", server, reason, ejected);
+                return;
+            }
+        } while (!ejectedCount.compareAndSet(ejected, ejected + 1));
+
+        eject(server, outliers, reason, now);
+    }
+
+    private void endTrial(InetSocketAddress server, ServerOutliers outliers, RelayOutcome outcome, long now) {
+        outliers.trial = null;
+
+        if (outcome == RelayOutcome.COMPLETED) {
+            outliers.state = State.ACTIVE;
+            outliers.restoredAt = now;
+            outliers.reset();
+            ejectedCount.decrementAndGet();
+            System.out.printf("Trial connection to %s succeeded, server restored%n", server);
+            publish(server, true);
+        } else if (outcome.isBackendFailure()) {
+            eject(server, outliers, "trial connection failed", now);
+        }
+        // A client side failure proves nothing either way, the next connection gets to be the trial
+    }
+
+    private void eject(InetSocketAddress server, ServerOutliers outliers, String reason, long now) {
+        // Back off from the base time again once a server has stayed in for a whole max ejection time
+        if (outliers.state == State.ACTIVE && now - outliers.restoredAt > maxEjectionNanos) {
+            outliers.ejections = 0;
+        }
+
+        final long ejectionNanos = Math.min(baseEjectionNanos << Math.min(outliers.ejections, 30), maxEjectionNanos);
+        outliers.ejections++;
+        outliers.ejectedUntil = now + ejectionNanos;
+
+        final boolean wasActive = outliers.state == State.ACTIVE;
+        outliers.state = State.EJECTED;
+        outliers.reset();
+
+        System.out.printf("Ejecting backend server %s for %dms (%s)%n", server, TimeUnit.NANOSECONDS.toMillis(ejectionNanos), reason);
+        if (wasActive) {
+            publish(server, false);
+        }
+    }
+
+    private void publish(InetSocketAddress server, boolean healthy) {
+        for (HealthCheckListener listener : listeners) {
+            listener.serverHealthChanged(server, healthy);
+        }
+    }
+
+    /*
+     * Claim on the one trial connection of a half-open server, only the relay holding it can end the trial
+     */
+    public static final class Trial {
+
+        private final InetSocketAddress server;
+        private final ServerOutliers outliers;
+
+        private Trial(InetSocketAddress server, ServerOutliers outliers) {
+            this.server = server;
+            this.outliers = outliers;
+        }
+
+        public InetSocketAddress getServer() {
+            return server;
+        }
+    }
+
+    private enum State {
+        // Taking traffic
+        ACTIVE,
+        // Sitting out until ejectedUntil
+        EJECTED,
+        // Waiting for the result of one trial connection
+        HALF_OPEN,
+        // Taken out of the detector, only relays that were already running still refer to it
+        REMOVED
+    }
+
+    /*
+     * Outlier state of one server, guarded by its own monitor
+     */
+    private static class ServerOutliers {
+
+        private volatile State state = State.ACTIVE;
+        // Trial connection in flight while half-open, null if there is none
+        private Trial trial;
+        private int ejections = 0;
+        private long ejectedUntil;
+        private long restoredAt = System.nanoTime();
+        private int consecutiveConnectFailures = 0;
+
+        // Sliding window of relay results
+        private final long[] bucketStart = new long[WINDOW_BUCKETS];
+        private final int[] successes = new int[WINDOW_BUCKETS];
+        private final int[] failures = new int[WINDOW_BUCKETS];
+
+        /**
+         * @param now Current System.nanoTime()
+         * @param bucketNanos Width of a bucket
+         * @return Index of the bucket for now, cleared first if it was last used for an older window
+         */
+        private int bucket(long now, long bucketNanos) {
+            final long slot = now / bucketNanos;
+            final int index = (int) Math.floorMod(slot, (long) WINDOW_BUCKETS);
+            final long start = slot * bucketNanos;
+            if (bucketStart[index] != start) {
+                bucketStart[index] = start;
+                successes[index] = 0;
+                failures[index] = 0;
+            }
+            return index;
+        }
+
+        private void reset() {
+            consecutiveConnectFailures = 0;
+            for (int i = 0; i < WINDOW_BUCKETS; i++) {
+                successes[i] = 0;
+                failures[i] = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package org.example.loadbalancer.lb.http;
+
+import org.example.loadbalancer.lb.socket.RelayOutcome;
+import org.example.loadbalancer.lb.socket.SelectedBackend;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+/*
+ * Picks a backend server for each request on an HTTP connection, so one client connection can be spread over many
+ * backends
+ */
+public interface BackendSelector {
+
+    /**
+     * Pick the backend for a request, it counts as an active connection to that backend until finished() is called
+     *
+     * @param buffer Buffer holding the request head
+     * @param head Parsed request head, for routing on host and path
+     * @param clientAddress Client that sent the request
+     * @return Backend server, null if none is available
+     */
+    SelectedBackend select(ByteBuffer buffer, HttpHead head, InetSocketAddress clientAddress);
+
+    /**
+     * @param backend Backend returned by select()
+     * @param outcome How the exchange with it ended
+     */
+    void finished(SelectedBackend backend, RelayOutcome outcome);
+}
@@ -0,0 +1,171 @@
+package org.example.loadbalancer.lb.http;
+
+import java.nio.ByteBuffer;
+
+/*
+ * Finds the end of a chunked message body without decoding it, the body is forwarded as it arrived.
+ *
+ * The scanner only walks the chunk size lines, skips over the chunk data and follows the trailer section to the final
+ * empty line. It keeps its state between calls, so a body can be scanned one read at a time. Malformed framing makes
+ * the scanner invalid, the connection can't be trusted after that.
+ */
+public class ChunkedScanner {
+
+    // Sizes with more hex digits than this are rejected, 15 digits still fit in a long
+    private static final int MAX_SIZE_DIGITS = 15;
+
+    private enum State {
+        SIZE,
+        EXTENSION,
+        SIZE_LF,
+        DATA,
+        DATA_CR,
+        DATA_LF,
+        TRAILER,
+        TRAILER_LINE,
+        FINAL_LF,
+        DONE,
+        INVALID
+    }
+
+    private State state = State.SIZE;
+    private long chunkSize;
+    private int sizeDigits;
+    private long remaining;
+
+    /**
+     * Get ready for the next body
+     */
+    public void reset() {
+        state = State.SIZE;
+        chunkSize = 0;
+        sizeDigits = 0;
+        remaining = 0;
+    }
+
+    /**
+     * Scan the next part of the body
+     *
+     * @param buffer Buffer holding the bytes, not modified
+     * @param from Offset of the first byte not scanned yet
+     * @param to Offset past the last byte available
+     * @return Offset past the last byte of the body if it ends before to, to otherwise
+     */
+    public int scan(ByteBuffer buffer, int from, int to) {
+        int i = from;
+        while (i < to && state != State.DONE && state != State.INVALID) {
+            if (state == State.DATA) {
+                final int skip = (int) Math.min(remaining, to - i);
+                i += skip;
+                remaining -= skip;
+                if (remaining == 0) {
+                    state = State.DATA_CR;
+                }
+                continue;
+            }
+            next(buffer.get(i++));
+        }
+        return i;
+    }
+
+    /**
+     * @return true once the last chunk and the trailer section have been scanned
+     */
+    public boolean isDone() {
+        return state == State.DONE;
+    }
+
+    public boolean isInvalid() {
+        return state == State.INVALID;
+    }
+
+    private void next(byte b) {
+        switch (state) {
+            case SIZE:
+                final int digit = Character.digit(b, 16);
+                if (digit >= 0) {
+                    if (++sizeDigits > MAX_SIZE_DIGITS) {
+                        state = State.INVALID;
+                        return;
+                    }
+                    chunkSize = chunkSize * 16 + digit;
+                } else if (sizeDigits == 0) {
+                    state = State.INVALID;
+                } else if (b == ';' || b == ' ' || b == '\t') {
+                    state = State.EXTENSION;
+                } else {
+                    sizeLineEnd(b);
+                }
+                break;
+
+            case EXTENSION:
+                if (b == '\r' || b == '\n') {
+                    sizeLineEnd(b);
+                }
+                break;
+
+            case SIZE_LF:
+                if (b == '\n') {
+                    sizeLineDone();
+                } else {
+                    state = State.INVALID;
+                }
+                break;
+
+            case DATA_CR:
+                state = b == '\r' ? State.DATA_LF : State.INVALID;
+                break;
+
+            case DATA_LF:
+                if (b == '\n') {
+                    state = State.SIZE;
+                    chunkSize = 0;
+                    sizeDigits = 0;
+                } else {
+                    state = State.INVALID;
+                }
+                break;
+
+            case TRAILER:
+                if (b == '\r') {
+                    state = State.FINAL_LF;
+                } else if (b == '\n') {
+                    state = State.DONE;
+                } else {
+                    state = State.TRAILER_LINE;
+                }
+                break;
+
+            case TRAILER_LINE:
+                if (b == '\n') {
+                    state = State.TRAILER;
+                }
+                break;
+
+            case FINAL_LF:
+                state = b == '\n' ? State.DONE : State.INVALID;
+                break;
+
+            default:
+                break;
+        }
+    }
+
+    private void sizeLineEnd(byte b) {
+        if (b == '\r') {
+            state = State.SIZE_LF;
+        } else {
+            // Size lines must end in CRLF, a bare LF is a known way to desync proxies and backends
+            state = State.INVALID;
+        }
+    }
+
+    private void sizeLineDone() {
+        if (chunkSize == 0) {
+            state = State.TRAILER;
+        } else {
+            remaining = chunkSize;
+            state = State.DATA;
+        }
+    }
+}
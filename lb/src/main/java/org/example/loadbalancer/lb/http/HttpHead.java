@@ -0,0 +1,647 @@
+package org.example.loadbalancer.lb.http;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/*
+ * Incremental parser for the head of an HTTP/1.x request or response: the start line and the header fields.
+ *
+ * Nothing is copied out of the buffer. The parser only records offsets into it, so the head can be forwarded as it
+ * arrived and routing compares bytes in place. parse() can be called again every time more bytes have been read, it
+ * picks up at the line it stopped at. The message must start at index 0 of the buffer.
+ *
+ * Only what a proxy needs is interpreted: the method, target and status, Host, Content-Length, Transfer-Encoding and
+ * Connection. Anything that could make us and the backend disagree on where a message ends is rejected rather than
+ * guessed at, e.g. both Content-Length and Transfer-Encoding, conflicting lengths, whitespace before the colon or
+ * folded header lines.
+ */
+public class HttpHead {
+
+    // Largest head accepted, anything longer is answered with 431
+    public static final int MAX_HEAD_BYTES = 16 * 1024;
+    public static final int MAX_HEADERS = 100;
+
+    private static final byte[] HTTP_VERSION_PREFIX = "HTTP/1.".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HTTP_SCHEME = "http://".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HEAD = "HEAD".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CONNECT = "CONNECT".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HOST = "host".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CONTENT_LENGTH = "content-length".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TRANSFER_ENCODING = "transfer-encoding".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CONNECTION = "connection".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CHUNKED = "chunked".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CLOSE = "close".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] KEEP_ALIVE = "keep-alive".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] UPGRADE = "upgrade".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] EXPECT = "expect".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CONTINUE = "100-continue".getBytes(StandardCharsets.US_ASCII);
+    // RFC 9110 section 9.2.2, sending one of these twice has the same effect as sending it once
+    private static final byte[][] IDEMPOTENT_METHODS = {
+            "GET".getBytes(StandardCharsets.US_ASCII), HEAD, "OPTIONS".getBytes(StandardCharsets.US_ASCII),
+            "TRACE".getBytes(StandardCharsets.US_ASCII), "PUT".getBytes(StandardCharsets.US_ASCII),
+            "DELETE".getBytes(StandardCharsets.US_ASCII)
+    };
+
+    public enum Result {
+        // More bytes are needed
+        INCOMPLETE,
+        // The whole head is in the buffer, see getHeadLength()
+        COMPLETE,
+        // Not something we can safely forward, see getErrorStatus()
+        INVALID
+    }
+
+    private final boolean request;
+
+    // Parse position, where the current line starts and how far it has been scanned for its end
+    private int lineStart;
+    private int scanned;
+    private boolean startLineParsed;
+
+    private int headLength;
+    // Start of the empty line ending the head, extra header fields can be inserted here
+    private int headerEnd;
+    private int errorStatus;
+
+    private int versionMinor;
+    // After any empty lines ahead of the request line, which parse() skips
+    private int methodStart;
+    private int methodEnd;
+    private int targetStart;
+    private int targetEnd;
+    private int status;
+
+    // Offsets of every header field, name start/end and value start/end
+    private final int[] fields = new int[MAX_HEADERS * 4];
+    private int fieldCount;
+
+    private int hostStart;
+    private int hostEnd;
+    private int pathStart;
+    private int pathEnd;
+    private long contentLength;
+    private boolean chunked;
+    private boolean otherTransferCoding;
+    private boolean connectionClose;
+    private boolean connectionKeepAlive;
+    private boolean connectionUpgrade;
+    private boolean expectContinue;
+
+    /**
+     * @param request true to parse requests, false for responses
+     */
+    public HttpHead(boolean request) {
+        this.request = request;
+        reset();
+    }
+
+    /**
+     * Get ready for the next message
+     */
+    public void reset() {
+        lineStart = 0;
+        scanned = 0;
+        startLineParsed = false;
+        headLength = 0;
+        headerEnd = 0;
+        errorStatus = 0;
+        versionMinor = 0;
+        methodStart = 0;
+        methodEnd = 0;
+        targetStart = 0;
+        targetEnd = 0;
+        status = 0;
+        fieldCount = 0;
+        hostStart = -1;
+        hostEnd = -1;
+        pathStart = 0;
+        pathEnd = 0;
+        contentLength = -1;
+        chunked = false;
+        otherTransferCoding = false;
+        connectionClose = false;
+        connectionKeepAlive = false;
+        connectionUpgrade = false;
+        expectContinue = false;
+    }
+
+    /**
+     * Parse as much of the head as has arrived
+     *
+     * @param buffer Buffer holding the message from index 0, not modified
+     * @param end Number of bytes in the buffer
+     * @return Whether the head is complete, incomplete or invalid
+     */
+    public Result parse(ByteBuffer buffer, int end) {
+        while (true) {
+            int lineEnd = -1;
+            for (int i = scanned; i < end; i++) {
+                if (buffer.get(i) == '\n') {
+                    lineEnd = i;
+                    break;
+                }
+            }
+            if (lineEnd < 0) {
+                scanned = end;
+                return end >= MAX_HEAD_BYTES ? fail(431) : Result.INCOMPLETE;
+            }
+            if (lineEnd >= MAX_HEAD_BYTES) {
+                return fail(431);
+            }
+
+            // Lines end in CRLF, a bare LF is tolerated
+            final int contentEnd = lineEnd > lineStart && buffer.get(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+            final int start = lineStart;
+            lineStart = lineEnd + 1;
+            scanned = lineStart;
+
+            if (!startLineParsed) {
+                // Empty lines before a request line are allowed and skipped
+                if (contentEnd == start && request) {
+                    continue;
+                }
+                if (!(request ? parseRequestLine(buffer, start, contentEnd) : parseStatusLine(buffer, start, contentEnd))) {
+                    return Result.INVALID;
+                }
+                startLineParsed = true;
+            } else if (contentEnd == start) {
+                headerEnd = start;
+                headLength = lineEnd + 1;
+                return finish(buffer);
+            } else if (!parseField(buffer, start, contentEnd)) {
+                return Result.INVALID;
+            }
+        }
+    }
+
+    public boolean isRequest() {
+        return request;
+    }
+
+    /**
+     * @return Bytes taken up by the head, the body starts right after
+     */
+    public int getHeadLength() {
+        return headLength;
+    }
+
+    /**
+     * @return Offset of the empty line that ends the head
+     */
+    public int getHeaderEnd() {
+        return headerEnd;
+    }
+
+    /**
+     * @return Status to answer an invalid request with, e.g. 400
+     */
+    public int getErrorStatus() {
+        return errorStatus;
+    }
+
+    /**
+     * @return 0 for HTTP/1.0, 1 for HTTP/1.1
+     */
+    public int getVersionMinor() {
+        return versionMinor;
+    }
+
+    /**
+     * @return Response status code
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * @param buffer Buffer the head was parsed from
+     * @return true for a HEAD request, whose response never has a body
+     */
+    public boolean isHeadRequest(ByteBuffer buffer) {
+        return regionEquals(buffer, methodStart, methodEnd, HEAD, false);
+    }
+
+    /**
+     * @param buffer Buffer the head was parsed from
+     * @return true if the request's method is idempotent, so it may be sent again when the connection it went out on
+     * fails before a response
+     */
+    public boolean isIdempotent(ByteBuffer buffer) {
+        for (byte[] method : IDEMPOTENT_METHODS) {
+            if (regionEquals(buffer, methodStart, methodEnd, method, false)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return Body length from Content-Length, -1 if there is none
+     */
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    public boolean isChunked() {
+        return chunked;
+    }
+
+    /**
+     * @return true if the connection may be used for another message after this one
+     */
+    public boolean isKeepAlive() {
+        if (connectionClose) {
+            return false;
+        }
+        return versionMinor >= 1 || connectionKeepAlive;
+    }
+
+    /**
+     * @return true if the message asks to switch protocols, e.g. to WebSocket
+     */
+    public boolean isUpgrade() {
+        return connectionUpgrade;
+    }
+
+    /**
+     * @return true if the client waits for a 100 Continue before sending the body
+     */
+    public boolean isExpectContinue() {
+        return expectContinue;
+    }
+
+    /**
+     * @return true if a request is followed by a body
+     */
+    public boolean hasBody() {
+        return chunked || contentLength > 0;
+    }
+
+    /**
+     * @return true if a response has no body whatever its headers say
+     */
+    public boolean isBodiless(boolean headRequest) {
+        return headRequest || (status >= 100 && status < 200) || status == 204 || status == 304;
+    }
+
+    /**
+     * @return true if a response body runs until the backend closes the connection
+     */
+    public boolean isCloseDelimited() {
+        return !request && !chunked && contentLength < 0;
+    }
+
+    /**
+     * @return Offset of the host name, from the request target or the Host header, without the port. -1 if none.
+     */
+    public int getHostStart() {
+        return hostStart;
+    }
+
+    public int getHostEnd() {
+        return hostEnd;
+    }
+
+    /**
+     * @return Offset of the path of the request target, without the query
+     */
+    public int getPathStart() {
+        return pathStart;
+    }
+
+    public int getPathEnd() {
+        return pathEnd;
+    }
+
+    public int getFieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * @param buffer Buffer the head was parsed from
+     * @param name Header name, matched ignoring case
+     * @return Value of the first header with that name, null if there is none. Allocates, meant for tests and logging.
+     */
+    public String getHeader(ByteBuffer buffer, String name) {
+        final byte[] lowerName = name.toLowerCase().getBytes(StandardCharsets.US_ASCII);
+        for (int i = 0; i < fieldCount; i++) {
+            if (regionEquals(buffer, fields[i * 4], fields[i * 4 + 1], lowerName, true)) {
+                return toString(buffer, fields[i * 4 + 2], fields[i * 4 + 3]);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param buffer Buffer the head was parsed from
+     * @return The path as a string, allocates
+     */
+    public String getPath(ByteBuffer buffer) {
+        return toString(buffer, pathStart, pathEnd);
+    }
+
+    /**
+     * @param buffer Buffer the head was parsed from
+     * @return The host as a string, null if there is none. Allocates.
+     */
+    public String getHost(ByteBuffer buffer) {
+        return hostStart < 0 ? null : toString(buffer, hostStart, hostEnd);
+    }
+
+    /**
+     * @return true if region [start, end) of the buffer equals the bytes, ignoring ASCII case if asked to
+     */
+    static boolean regionEquals(ByteBuffer buffer, int start, int end, byte[] bytes, boolean ignoreCase) {
+        if (end - start != bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            final byte b = buffer.get(start + i);
+            if (b != bytes[i] && !(ignoreCase && toLower(b) == bytes[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static byte toLower(byte b) {
+        return b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+    }
+
+    private static String toString(ByteBuffer buffer, int start, int end) {
+        final byte[] bytes = new byte[end - start];
+        buffer.get(start, bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    private boolean parseRequestLine(ByteBuffer buffer, int start, int end) {
+        // METHOD SP request-target SP HTTP/1.x
+        int i = start;
+        while (i < end && isTokenChar(buffer.get(i))) {
+            i++;
+        }
+        if (i == start || i >= end || buffer.get(i) != ' ') {
+            return failed(400);
+        }
+        methodStart = start;
+        methodEnd = i;
+
+        targetStart = ++i;
+        while (i < end && buffer.get(i) != ' ') {
+            final byte b = buffer.get(i);
+            if (b <= ' ' || b == 127) {
+                return failed(400);
+            }
+            i++;
+        }
+        targetEnd = i;
+        if (targetEnd == targetStart || i >= end) {
+            return failed(400);
+        }
+        if (!parseVersion(buffer, i + 1, end)) {
+            return false;
+        }
+
+        if (regionEquals(buffer, start, methodEnd, CONNECT, false)) {
+            // Tunnels aren't proxied in HTTP mode
+            return failed(501);
+        }
+        parseTarget(buffer);
+        return true;
+    }
+
+    private boolean parseStatusLine(ByteBuffer buffer, int start, int end) {
+        // HTTP/1.x SP 3DIGIT SP reason
+        if (end - start < 12 || buffer.get(start + 8) != ' ' || !parseVersion(buffer, start, start + 8)) {
+            return failed(502);
+        }
+        int code = 0;
+        for (int i = start + 9; i < start + 12; i++) {
+            final byte b = buffer.get(i);
+            if (b < '0' || b > '9') {
+                return failed(502);
+            }
+            code = code * 10 + (b - '0');
+        }
+        if (code < 100 || (end > start + 12 && buffer.get(start + 12) != ' ')) {
+            return failed(502);
+        }
+        status = code;
+        return true;
+    }
+
+    private boolean parseVersion(ByteBuffer buffer, int start, int end) {
+        if (end - start != HTTP_VERSION_PREFIX.length + 1 || !regionEquals(buffer, start, end - 1, HTTP_VERSION_PREFIX, false)) {
+            return failed(request ? 400 : 502);
+        }
+        final byte minor = buffer.get(end - 1);
+        if (minor != '0' && minor != '1') {
+            return failed(request ? 505 : 502);
+        }
+        versionMinor = minor - '0';
+        return true;
+    }
+
+    private void parseTarget(ByteBuffer buffer) {
+        int pathFrom = targetStart;
+
+        // absolute-form, http://host[:port]/path, the host in it wins over the Host header
+        if (targetEnd - targetStart > HTTP_SCHEME.length
+                && regionEquals(buffer, targetStart, targetStart + HTTP_SCHEME.length, HTTP_SCHEME, true)) {
+            final int authorityStart = targetStart + HTTP_SCHEME.length;
+            int authorityEnd = authorityStart;
+            while (authorityEnd < targetEnd && buffer.get(authorityEnd) != '/' && buffer.get(authorityEnd) != '?') {
+                authorityEnd++;
+            }
+            setHost(buffer, authorityStart, authorityEnd);
+            pathFrom = authorityEnd;
+        }
+
+        pathStart = pathFrom;
+        pathEnd = pathFrom;
+        while (pathEnd < targetEnd && buffer.get(pathEnd) != '?') {
+            pathEnd++;
+        }
+    }
+
+    private boolean parseField(ByteBuffer buffer, int start, int end) {
+        final byte first = buffer.get(start);
+        if (first == ' ' || first == '\t') {
+            // Obsolete line folding
+            return failed(request ? 400 : 502);
+        }
+        if (fieldCount == MAX_HEADERS) {
+            return failed(431);
+        }
+
+        int colon = start;
+        while (colon < end && isTokenChar(buffer.get(colon))) {
+            colon++;
+        }
+        // No whitespace between the name and the colon, a classic way to smuggle a second Content-Length past a proxy
+        if (colon == start || colon >= end || buffer.get(colon) != ':') {
+            return failed(request ? 400 : 502);
+        }
+
+        int valueStart = colon + 1;
+        while (valueStart < end && isWhitespace(buffer.get(valueStart))) {
+            valueStart++;
+        }
+        int valueEnd = end;
+        while (valueEnd > valueStart && isWhitespace(buffer.get(valueEnd - 1))) {
+            valueEnd--;
+        }
+
+        final int field = fieldCount++ * 4;
+        fields[field] = start;
+        fields[field + 1] = colon;
+        fields[field + 2] = valueStart;
+        fields[field + 3] = valueEnd;
+
+        return interpretField(buffer, start, colon, valueStart, valueEnd);
+    }
+
+    private boolean interpretField(ByteBuffer buffer, int nameStart, int nameEnd, int valueStart, int valueEnd) {
+        if (regionEquals(buffer, nameStart, nameEnd, CONTENT_LENGTH, true)) {
+            final long length = parseContentLength(buffer, valueStart, valueEnd);
+            if (length < 0 || (contentLength >= 0 && contentLength != length)) {
+                return failed(request ? 400 : 502);
+            }
+            contentLength = length;
+        } else if (regionEquals(buffer, nameStart, nameEnd, TRANSFER_ENCODING, true)) {
+            // Only chunked is understood, and it must be the last coding applied
+            if (endsWithToken(buffer, valueStart, valueEnd, CHUNKED)) {
+                chunked = true;
+            } else {
+                otherTransferCoding = true;
+            }
+        } else if (regionEquals(buffer, nameStart, nameEnd, CONNECTION, true)) {
+            connectionClose |= containsToken(buffer, valueStart, valueEnd, CLOSE);
+            connectionKeepAlive |= containsToken(buffer, valueStart, valueEnd, KEEP_ALIVE);
+            connectionUpgrade |= containsToken(buffer, valueStart, valueEnd, UPGRADE);
+        } else if (request && regionEquals(buffer, nameStart, nameEnd, EXPECT, true)) {
+            expectContinue = regionEquals(buffer, valueStart, valueEnd, CONTINUE, true);
+        } else if (request && regionEquals(buffer, nameStart, nameEnd, HOST, true)) {
+            if (hostStart < 0) {
+                setHost(buffer, valueStart, valueEnd);
+            }
+        }
+        return true;
+    }
+
+    private Result finish(ByteBuffer buffer) {
+        if (chunked && otherTransferCoding) {
+            // e.g. "chunked" followed by another Transfer-Encoding header, the coding that ends the message isn't chunked
+            chunked = false;
+        }
+        if ((chunked || otherTransferCoding) && contentLength >= 0) {
+            return fail(request ? 400 : 502);
+        }
+        if (request) {
+            if (otherTransferCoding) {
+                return fail(501);
+            }
+            if (versionMinor >= 1 && hostStart < 0) {
+                return fail(400);
+            }
+        }
+        return Result.COMPLETE;
+    }
+
+    private void setHost(ByteBuffer buffer, int start, int end) {
+        hostStart = start;
+        hostEnd = start;
+        if (start < end && buffer.get(start) == '[') {
+            // IPv6 literal, the port comes after the closing bracket
+            while (hostEnd < end && buffer.get(hostEnd) != ']') {
+                hostEnd++;
+            }
+            hostEnd = Math.min(hostEnd + 1, end);
+        } else {
+            while (hostEnd < end && buffer.get(hostEnd) != ':') {
+                hostEnd++;
+            }
+        }
+    }
+
+    private static long parseContentLength(ByteBuffer buffer, int start, int end) {
+        if (start == end || end - start > 18) {
+            return -1;
+        }
+        long length = 0;
+        for (int i = start; i < end; i++) {
+            final byte b = buffer.get(i);
+            if (b < '0' || b > '9') {
+                return -1;
+            }
+            length = length * 10 + (b - '0');
+        }
+        return length;
+    }
+
+    /**
+     * @return true if the comma separated list in [start, end) contains the token, ignoring case
+     */
+    private static boolean containsToken(ByteBuffer buffer, int start, int end, byte[] token) {
+        int elementStart = start;
+        for (int i = start; i <= end; i++) {
+            if (i == end || buffer.get(i) == ',') {
+                int s = elementStart;
+                int e = i;
+                while (s < e && isWhitespace(buffer.get(s))) {
+                    s++;
+                }
+                while (e > s && isWhitespace(buffer.get(e - 1))) {
+                    e--;
+                }
+                if (regionEquals(buffer, s, e, token, true)) {
+                    return true;
+                }
+                elementStart = i + 1;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the last element of the comma separated list in [start, end) is the token, ignoring case
+     */
+    private static boolean endsWithToken(ByteBuffer buffer, int start, int end, byte[] token) {
+        int s = end;
+        while (s > start && buffer.get(s - 1) != ',') {
+            s--;
+        }
+        while (s < end && isWhitespace(buffer.get(s))) {
+            s++;
+        }
+        return regionEquals(buffer, s, end, token, true);
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    private static boolean isTokenChar(byte b) {
+        if (b >= 'a' && b <= 'z' || b >= 'A' && b <= 'Z' || b >= '0' && b <= '9') {
+            return true;
+        }
+        switch (b) {
+            case '!': case '#': case '$': case '%': case '&': case '\'': case '*': case '+': case '-': case '.': case '^': case '_':
+            case '`': case '|': case '~':
+                return true;
+
+            default:
+                return false;
+        }
+    }
+
+    private boolean failed(int status) {
+        errorStatus = status;
+        return false;
+    }
+
+    private Result fail(int status) {
+        errorStatus = status;
+        return Result.INVALID;
+    }
+}
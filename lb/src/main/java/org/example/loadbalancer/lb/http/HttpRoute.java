@@ -0,0 +1,74 @@
+package org.example.loadbalancer.lb.http;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+
+/*
+ * Sends requests for a host and/or path prefix to their own group of backend servers, e.g. api.example.com or /static
+ */
+public class HttpRoute {
+
+    // Lower case host name, null matches any host
+    private final String host;
+    private final String pathPrefix;
+    private final List<InetSocketAddress> servers;
+
+    private final byte[] hostBytes;
+    private final byte[] pathPrefixBytes;
+
+    /**
+     * @param host Host name to match ignoring case, without port. null for any host.
+     * @param pathPrefix Path prefix to match, "/" for any path
+     * @param servers Backend servers for matching requests
+     */
+    public HttpRoute(String host, String pathPrefix, List<InetSocketAddress> servers) {
+        this.host = host == null ? null : host.toLowerCase(Locale.ROOT);
+        this.pathPrefix = pathPrefix == null || pathPrefix.isEmpty() ? "/" : pathPrefix;
+        this.servers = List.copyOf(servers);
+        this.hostBytes = this.host == null ? null : this.host.getBytes(StandardCharsets.US_ASCII);
+        this.pathPrefixBytes = this.pathPrefix.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public String getPathPrefix() {
+        return pathPrefix;
+    }
+
+    public List<InetSocketAddress> getServers() {
+        return servers;
+    }
+
+    /**
+     * @param buffer Buffer holding the request head
+     * @param head Parsed request head
+     * @return true if the request is for this route
+     */
+    public boolean matches(ByteBuffer buffer, HttpHead head) {
+        if (hostBytes != null
+                && (head.getHostStart() < 0 || !HttpHead.regionEquals(buffer, head.getHostStart(), head.getHostEnd(), hostBytes, true))) {
+            return false;
+        }
+
+        final int pathStart = head.getPathStart();
+        if (head.getPathEnd() - pathStart < pathPrefixBytes.length) {
+            return false;
+        }
+        for (int i = 0; i < pathPrefixBytes.length; i++) {
+            if (buffer.get(pathStart + i) != pathPrefixBytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return (host == null ? "*" : host) + pathPrefix + "=" + servers;
+    }
+}
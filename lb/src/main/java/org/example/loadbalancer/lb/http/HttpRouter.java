@@ -0,0 +1,43 @@
+package org.example.loadbalancer.lb.http;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/*
+ * Picks the route for a request. Routes for a specific host are tried before those for any host, and within those
+ * the longest path prefix wins, so the order routes are configured in doesn't matter.
+ */
+public class HttpRouter {
+
+    private final HttpRoute[] routes;
+
+    /**
+     * @param routes Routes to choose from
+     */
+    public HttpRouter(List<HttpRoute> routes) {
+        final List<HttpRoute> sorted = new ArrayList<>(routes);
+        sorted.sort(Comparator.comparing((HttpRoute route) -> route.getHost() == null)
+                .thenComparing(route -> -route.getPathPrefix().length()));
+        this.routes = sorted.toArray(new HttpRoute[0]);
+    }
+
+    /**
+     * @param buffer Buffer holding the request head
+     * @param head Parsed request head
+     * @return Route for the request, null if none matches
+     */
+    public HttpRoute route(ByteBuffer buffer, HttpHead head) {
+        for (HttpRoute route : routes) {
+            if (route.matches(buffer, head)) {
+                return route;
+            }
+        }
+        return null;
+    }
+
+    public boolean isEmpty() {
+        return routes.length == 0;
+    }
+}
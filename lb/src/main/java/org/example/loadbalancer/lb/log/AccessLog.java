@@ -0,0 +1,267 @@
+package org.example.loadbalancer.lb.log;
+
+import org.example.loadbalancer.lb.socket.RelayListener;
+import org.example.loadbalancer.lb.socket.RelayOutcome;
+import org.example.loadbalancer.lb.socket.RelayStats;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.example.loadbalancer.lb.util.Helper.closeChannel;
+import static org.example.loadbalancer.lb.util.Helper.formatAddress;
+
+/*
+ * One line per relayed connection: client, backend, outcome, bytes each way, connect time and duration.
+ *
+ * Relays only copy a few fields into a preallocated slot of a ring buffer: a CAS claims the next sequence number and a
+ * volatile write publishes the slot, so logging a connection never locks, never allocates and never touches the disk.
+ * A single background thread drains whatever has been published, formats it and writes it to the file in one batch,
+ * then parks for a few milliseconds when there is nothing left.
+ *
+ * When the writer falls a whole ring behind, new records are dropped and counted instead of slowing the relays down.
+ */
+public class AccessLog implements RelayListener, AutoCloseable {
+
+    // How long the writer sleeps when the ring is empty, relays wake it early once the ring is half full
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private static final AccessLog DISABLED = new AccessLog();
+
+    private final boolean enabled;
+    private final Path path;
+    private final Writer out;
+
+    // Slots are reused forever, published holds the sequence number last written to each one
+    private final Entry[] ring;
+    private final int mask;
+    private final AtomicLongArray published;
+
+    // Next sequence a relay will claim
+    private final AtomicLong claimed = new AtomicLong();
+    // Next sequence the writer will read, everything below it may be overwritten
+    private volatile long consumed = 0;
+
+    private final LongAdder dropped = new LongAdder();
+
+    private volatile Thread writerThread;
+    private volatile boolean running = false;
+    private boolean reportedError = false;
+
+    private AccessLog() {
+        this.enabled = false;
+        this.path = null;
+        this.out = null;
+        this.ring = new Entry[0];
+        this.mask = 0;
+        this.published = new AtomicLongArray(0);
+    }
+
+    /**
+     * @param path File to append to, created if it doesn't exist
+     * @param capacity Records that can wait for the writer, rounded up to a power of two
+     * @throws IOException If the file can't be opened
+     */
+    public AccessLog(Path path, int capacity) throws IOException {
+        this.enabled = true;
+        this.path = path;
+        this.out = new BufferedWriter(Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND), 64 * 1024);
+
+        final int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        this.ring = new Entry[size];
+        this.mask = size - 1;
+        this.published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            ring[i] = new Entry();
+            published.set(i, -1);
+        }
+    }
+
+    /**
+     * @return A shared access log that drops everything, used when no file is configured
+     */
+    public static AccessLog disabled() {
+        return DISABLED;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Start the background writer
+     */
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        running = true;
+        writerThread = Thread.ofPlatform().name("access-log").daemon().start(this::writeLoop);
+    }
+
+    /**
+     * Queue a record for a finished relay, never blocks
+     *
+     * @param client Client address, may be null
+     * @param backend Backend server the relay went to
+     * @param stats Byte counts and connect time of the relay
+     * @param outcome How the relay ended
+     * @param startedAt System.nanoTime() when the relay started
+     * @return false if the record was dropped
+     */
+    public boolean log(InetSocketAddress client, InetSocketAddress backend, RelayStats stats, RelayOutcome outcome, long startedAt) {
+        if (!enabled) {
+            return false;
+        }
+
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if (sequence - consumed >= ring.length) {
+                // Writer is a whole ring behind, drop rather than make a relay wait on the disk
+                dropped.increment();
+                return false;
+            }
+        } while (!claimed.compareAndSet(sequence, sequence + 1));
+
+        final int index = (int) sequence & mask;
+        final Entry entry = ring[index];
+        entry.timestamp = System.currentTimeMillis();
+        entry.durationNanos = System.nanoTime() - startedAt;
+        entry.client = client;
+        entry.backend = backend;
+        entry.outcome = outcome;
+        entry.bytesIn = stats.getBytesFromClient();
+        entry.bytesOut = stats.getBytesFromServer();
+        entry.connectNanos = stats.getConnectNanos();
+        published.set(index, sequence);
+
+        final Thread writer = writerThread;
+        if (writer != null && sequence - consumed >= ring.length / 2) {
+            LockSupport.unpark(writer);
+        }
+        return true;
+    }
+
+    @Override
+    public void relayFinished(InetSocketAddress client, InetSocketAddress backend, RelayStats stats, RelayOutcome outcome, long startedAt) {
+        log(client, backend, stats, outcome, startedAt);
+    }
+
+    /**
+     * @return Records dropped because the ring was full
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return Records taken off the ring by the writer so far
+     */
+    public long getWritten() {
+        return consumed;
+    }
+
+    @Override
+    public void close() {
+        if (!enabled) {
+            return;
+        }
+
+        running = false;
+        final Thread writer = writerThread;
+        if (writer != null) {
+            LockSupport.unpark(writer);
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        } else {
+            drain();
+        }
+        closeChannel(out);
+    }
+
+    /**
+     * Write out everything that has been published so far and flush the file. Only the writer thread calls this once
+     * started.
+     *
+     * @return Number of records written
+     */
+    int drain() {
+        final StringBuilder line = new StringBuilder(160);
+        long sequence = consumed;
+        int count = 0;
+
+        try {
+            while (published.get((int) sequence & mask) == sequence) {
+                line.setLength(0);
+                ring[(int) sequence & mask].format(line);
+                // The slot has been copied out, relays may reuse it
+                consumed = ++sequence;
+                count++;
+                out.append(line);
+            }
+            if (count > 0) {
+                out.flush();
+            }
+        } catch (IOException e) {
+            // Keep draining so relays don't start dropping, but only complain once
+            if (!reportedError) {
+                reportedError = true;
+                System.out.printf("Error writing access log %s (%s)%n", path, e.getMessage());
+            }
+        }
+        return count;
+    }
+
+    private void writeLoop() {
+        while (running) {
+            if (drain() == 0) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+        }
+        // Whatever was logged before close()
+        drain();
+    }
+
+    /*
+     * One slot of the ring, written by the relay that claimed it and read by the writer once published
+     */
+    private static class Entry {
+
+        private long timestamp;
+        private InetSocketAddress client;
+        private InetSocketAddress backend;
+        private RelayOutcome outcome;
+        private long bytesIn;
+        private long bytesOut;
+        private long connectNanos;
+        private long durationNanos;
+
+        private void format(StringBuilder line) {
+            line.append(Instant.ofEpochMilli(timestamp))
+                    .append(" client=").append(formatAddress(client))
+                    .append(" backend=").append(formatAddress(backend))
+                    .append(" outcome=").append(outcome)
+                    .append(" bytes_in=").append(bytesIn)
+                    .append(" bytes_out=").append(bytesOut)
+                    .append(" connect_us=").append(TimeUnit.NANOSECONDS.toMicros(connectNanos))
+                    .append(" duration_us=").append(TimeUnit.NANOSECONDS.toMicros(durationNanos))
+                    .append('\n');
+        }
+    }
+}
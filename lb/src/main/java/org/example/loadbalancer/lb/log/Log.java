@@ -0,0 +1,43 @@
+package org.example.loadbalancer.lb.log;
+
+/*
+ * Level switch for the console messages.
+ *
+ * Per-connection lines are written as
+ *
+ *     if (Log.isDebugEnabled()) {
+ *         Log.debug("...", ...);
+ *     }
+ *
+ * so that with debug off a connection costs a single volatile read, not a varargs array, boxing and the PrintStream
+ * lock. Everything about a connection that should be kept goes to the AccessLog instead.
+ */
+public final class Log {
+
+    private static volatile LogLevel level = LogLevel.INFO;
+
+    private Log() {
+    }
+
+    public static LogLevel getLevel() {
+        return level;
+    }
+
+    public static void setLevel(LogLevel level) {
+        Log.level = level;
+    }
+
+    public static boolean isDebugEnabled() {
+        return level == LogLevel.DEBUG;
+    }
+
+    /**
+     * @param format printf style format, a newline is added
+     * @param args Format arguments
+     */
+    public static void debug(String format, Object... args) {
+        if (isDebugEnabled()) {
+            System.out.printf(format + "%n", args);
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package org.example.loadbalancer.lb.log;
+
+/**
+ * Console log levels, a message is printed when its level is at or above the configured one
+ */
+public enum LogLevel {
+    // Per-connection lines, e.g. routing and connect messages
+    DEBUG,
+    // Startup, health changes and ejections
+    INFO,
+    // Only things that need a human to look at them
+    WARN;
+}
@@ -0,0 +1,26 @@
+package org.example.loadbalancer.lb.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Monotonic counter. Backed by a LongAdder so threads on different cores bumping the same counter don't contend.
+ */
+public class Counter {
+
+    private final LongAdder value = new LongAdder();
+
+    public void increment() {
+        value.increment();
+    }
+
+    /**
+     * @param amount Amount to add, must not be negative
+     */
+    public void add(long amount) {
+        value.add(amount);
+    }
+
+    public long get() {
+        return value.sum();
+    }
+}
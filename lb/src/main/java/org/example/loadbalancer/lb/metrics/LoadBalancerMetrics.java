@@ -0,0 +1,162 @@
+package org.example.loadbalancer.lb.metrics;
+
+import org.example.loadbalancer.lb.admission.Admission;
+import org.example.loadbalancer.lb.health.HealthCheckListener;
+import org.example.loadbalancer.lb.socket.RelayListener;
+import org.example.loadbalancer.lb.socket.RelayOutcome;
+import org.example.loadbalancer.lb.socket.RelayStats;
+import org.example.loadbalancer.lb.strategy.BackendStats;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.example.loadbalancer.lb.util.Helper.formatAddress;
+
+/*
+ * The load balancer's own metrics: connections accepted, rejected and shed by the accept loop, and per backend the active
+ * connections, bytes relayed, relay outcomes, connect latency, relay duration and health.
+ *
+ * Every metric is registered up front for the configured backends, so recording is only a map lookup and a few
+ * LongAdder or atomic increments. Connections to backends that were not registered are not counted. Backends added
+ * by a reload are registered when they are added, the metrics of removed ones are kept so their counters never go
+ * backwards.
+ */
+public class LoadBalancerMetrics implements RelayListener, HealthCheckListener {
+
+    private final MetricsRegistry registry;
+    private final Counter accepted;
+    private final Counter rejected;
+    private final Counter[] shed = new Counter[Admission.values().length];
+    private final Counter acceptPauses;
+    private final Map<InetSocketAddress, ServerMetrics> serverMetrics = new ConcurrentHashMap<>();
+    private final BackendStats backendStats;
+
+    /**
+     * @param registry Registry to add the metrics to
+     * @param servers Backend servers to keep metrics for
+     * @param backendStats Live active connection counts
+     */
+    public LoadBalancerMetrics(MetricsRegistry registry, List<InetSocketAddress> servers, BackendStats backendStats) {
+        this.registry = registry;
+        this.backendStats = backendStats;
+        this.accepted = registry.counter("lb_connections_accepted_total", "Client connections accepted");
+        this.rejected = registry.counter("lb_connections_rejected_total", "Client connections closed because no backend was available");
+        for (Admission admission : Admission.values()) {
+            if (admission != Admission.ADMITTED) {
+                shed[admission.ordinal()] = registry.counter("lb_connections_shed_total", "Client connections closed by admission control",
+                        "reason", admission.name());
+            }
+        }
+        this.acceptPauses = registry.counter("lb_accept_pauses_total", "Times the acceptors stopped accepting at the connection limit");
+        registry.gauge("lb_connections_active", "Client connections being relayed", backendStats::getTotalActiveConnections);
+
+        for (InetSocketAddress server : servers) {
+            serverMetrics.put(server, new ServerMetrics(registry, server, backendStats.get(server)));
+        }
+    }
+
+    public MetricsRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * @param server Backend server to start keeping metrics for, picks its old ones back up if it was removed before
+     */
+    public void addServer(InetSocketAddress server) {
+        serverMetrics.computeIfAbsent(server, key -> new ServerMetrics(registry, key, backendStats.get(key))).healthy = true;
+    }
+
+    /**
+     * @param server Backend server taken out of the pool, it reads as unhealthy without counting a transition
+     */
+    public void removeServer(InetSocketAddress server) {
+        final ServerMetrics metrics = serverMetrics.get(server);
+        if (metrics != null) {
+            metrics.healthy = false;
+        }
+    }
+
+    public void connectionAccepted() {
+        accepted.increment();
+    }
+
+    public void connectionRejected() {
+        rejected.increment();
+    }
+
+    /**
+     * @param reason Limit the connection was over, anything but ADMITTED
+     */
+    public void connectionShed(Admission reason) {
+        shed[reason.ordinal()].increment();
+    }
+
+    public void acceptPaused() {
+        acceptPauses.increment();
+    }
+
+    @Override
+    public void relayFinished(InetSocketAddress client, InetSocketAddress backend, RelayStats stats, RelayOutcome outcome, long startedAt) {
+        final ServerMetrics metrics = serverMetrics.get(backend);
+        if (metrics == null) {
+            return;
+        }
+
+        metrics.relays[outcome.ordinal()].increment();
+        metrics.bytesToBackend.add(stats.getBytesFromClient());
+        metrics.bytesFromBackend.add(stats.getBytesFromServer());
+        if (stats.getConnectNanos() > 0) {
+            metrics.connectLatency.record(TimeUnit.NANOSECONDS.toMicros(stats.getConnectNanos()));
+        }
+        metrics.relayDuration.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startedAt));
+    }
+
+    @Override
+    public void serverHealthChanged(InetSocketAddress server, boolean healthy) {
+        final ServerMetrics metrics = serverMetrics.get(server);
+        if (metrics == null || metrics.healthy == healthy) {
+            return;
+        }
+
+        metrics.healthy = healthy;
+        (healthy ? metrics.markedUp : metrics.markedDown).increment();
+    }
+
+    /*
+     * Metrics of one backend server, all labelled with its address
+     */
+    private static class ServerMetrics {
+
+        private final Counter[] relays = new Counter[RelayOutcome.values().length];
+        private final Counter bytesToBackend;
+        private final Counter bytesFromBackend;
+        private final Histogram connectLatency;
+        private final Histogram relayDuration;
+        private final Counter markedUp;
+        private final Counter markedDown;
+        private volatile boolean healthy = true;
+
+        private ServerMetrics(MetricsRegistry registry, InetSocketAddress server, BackendStats.ServerStats serverStats) {
+            final String backend = formatAddress(server);
+
+            for (RelayOutcome outcome : RelayOutcome.values()) {
+                relays[outcome.ordinal()] = registry.counter("lb_relays_total", "Finished relays by how they ended",
+                        "backend", backend, "outcome", outcome.name());
+            }
+            bytesToBackend = registry.counter("lb_backend_bytes_total", "Bytes relayed", "backend", backend, "direction", "to_backend");
+            bytesFromBackend = registry.counter("lb_backend_bytes_total", "Bytes relayed", "backend", backend, "direction", "from_backend");
+            connectLatency = registry.histogram("lb_backend_connect_seconds", "Time taken to connect to the backend", 1e-6, "backend", backend);
+            relayDuration = registry.histogram("lb_relay_duration_seconds", "Time from the start of a relay until it finished", 1e-6, "backend", backend);
+            markedUp = registry.counter("lb_backend_health_transitions_total", "Times the backend was marked up or down",
+                    "backend", backend, "state", "up");
+            markedDown = registry.counter("lb_backend_health_transitions_total", "Times the backend was marked up or down",
+                    "backend", backend, "state", "down");
+            registry.gauge("lb_backend_healthy", "1 if the backend is taking traffic", () -> healthy ? 1 : 0, "backend", backend);
+            registry.gauge("lb_backend_connections_active", "Client connections being relayed to the backend", serverStats::getActiveConnections,
+                    "backend", backend);
+        }
+    }
+}
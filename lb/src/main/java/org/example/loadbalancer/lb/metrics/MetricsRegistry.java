@@ -0,0 +1,190 @@
+package org.example.loadbalancer.lb.metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/*
+ * Named metrics and their labels, written out in the Prometheus text format.
+ *
+ * Metrics are created up front and the hot path holds on to the Counter or Histogram it records into, so the registry
+ * itself is only touched when registering and when scraping and can simply be synchronized.
+ */
+public class MetricsRegistry {
+
+    // Histogram buckets are only written out at powers of two between these, the finer buckets stay internal
+    private static final int MIN_EXPORTED_MAGNITUDE = 4;
+    private static final int MAX_EXPORTED_MAGNITUDE = 34;
+
+    private final Map<String, Family> families = new LinkedHashMap<>();
+
+    /**
+     * @param name Metric name, e.g. lb_connections_accepted_total
+     * @param help One line description
+     * @param labels Label names and values in pairs, e.g. "backend", "127.0.0.1:8050"
+     * @return The counter, the existing one if it was registered before
+     */
+    public synchronized Counter counter(String name, String help, String... labels) {
+        return (Counter) family(name, help, Type.COUNTER, 1).metrics.computeIfAbsent(formatLabels(labels), key -> new Counter());
+    }
+
+    /**
+     * @param name Metric name in the base unit, e.g. lb_relay_duration_seconds
+     * @param help One line description
+     * @param scale Multiplier from recorded values to the base unit, e.g. 1e-6 when recording microseconds as seconds
+     * @param labels Label names and values in pairs
+     * @return The histogram, the existing one if it was registered before
+     */
+    public synchronized Histogram histogram(String name, String help, double scale, String... labels) {
+        return (Histogram) family(name, help, Type.HISTOGRAM, scale).metrics.computeIfAbsent(formatLabels(labels), key -> new Histogram());
+    }
+
+    /**
+     * @param name Metric name
+     * @param help One line description
+     * @param value Read at every scrape
+     * @param labels Label names and values in pairs
+     */
+    public synchronized void gauge(String name, String help, LongSupplier value, String... labels) {
+        family(name, help, Type.GAUGE, 1).metrics.put(formatLabels(labels), value);
+    }
+
+    /**
+     * @return Every metric in the Prometheus text exposition format
+     */
+    public String toPrometheusText() {
+        final List<Family> snapshot;
+        synchronized (this) {
+            snapshot = new ArrayList<>(families.values());
+        }
+
+        final StringBuilder out = new StringBuilder(4096);
+        for (Family family : snapshot) {
+            out.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(family.name).append(' ').append(family.type.name().toLowerCase()).append('\n');
+
+            final List<Map.Entry<String, Object>> metrics;
+            synchronized (this) {
+                metrics = new ArrayList<>(family.metrics.entrySet());
+            }
+            for (Map.Entry<String, Object> metric : metrics) {
+                switch (family.type) {
+                    case COUNTER:
+                        writeSample(out, family.name, metric.getKey(), null, Long.toString(((Counter) metric.getValue()).get()));
+                        break;
+                    case GAUGE:
+                        writeSample(out, family.name, metric.getKey(), null, Long.toString(((LongSupplier) metric.getValue()).getAsLong()));
+                        break;
+                    case HISTOGRAM:
+                        writeHistogram(out, family, metric.getKey(), (Histogram) metric.getValue());
+                        break;
+
+                    default:
+                        throw new IllegalStateException("Unknown metric type: " + family.type);
+                }
+            }
+        }
+        return out.toString();
+    }
+
+    private Family family(String name, String help, Type type, double scale) {
+        final Family family = families.computeIfAbsent(name, key -> new Family(name, help, type, scale));
+        if (family.type != type) {
+            throw new IllegalArgumentException("Metric " + name + " is already registered as a " + family.type);
+        }
+        return family;
+    }
+
+    private static void writeHistogram(StringBuilder out, Family family, String labels, Histogram histogram) {
+        final long[] counts = histogram.snapshot();
+        long cumulative = 0;
+        for (int i = 0; i < counts.length; i++) {
+            cumulative += counts[i];
+
+            // Only bucket bounds just below a power of two are written, i.e. le="(2^m - 1) * scale"
+            final long upperBound = Histogram.bucketUpperBound(i);
+            final int magnitude = 63 - Long.numberOfLeadingZeros(upperBound + 1);
+            if (Long.bitCount(upperBound + 1) == 1 && magnitude >= MIN_EXPORTED_MAGNITUDE && magnitude <= MAX_EXPORTED_MAGNITUDE) {
+                writeSample(out, family.name + "_bucket", labels, Double.toString(upperBound * family.scale), Long.toString(cumulative));
+            }
+        }
+        writeSample(out, family.name + "_bucket", labels, "+Inf", Long.toString(cumulative));
+        writeSample(out, family.name + "_sum", labels, null, Double.toString(histogram.getSum() * family.scale));
+        writeSample(out, family.name + "_count", labels, null, Long.toString(cumulative));
+    }
+
+    private static void writeSample(StringBuilder out, String name, String labels, String le, String value) {
+        out.append(name);
+        if (!labels.isEmpty() || le != null) {
+            out.append('{').append(labels);
+            if (le != null) {
+                out.append(labels.isEmpty() ? "" : ",").append("le=\"").append(le).append('"');
+            }
+            out.append('}');
+        }
+        out.append(' ').append(value).append('\n');
+    }
+
+    /**
+     * @param labels Label names and values in pairs
+     * @return The labels as they appear between the braces, e.g. backend="127.0.0.1:8050",outcome="COMPLETED"
+     */
+    static String formatLabels(String... labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be name and value pairs");
+        }
+
+        final StringBuilder formatted = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                formatted.append(',');
+            }
+            formatted.append(labels[i]).append("=\"");
+            for (char c : labels[i + 1].toCharArray()) {
+                switch (c) {
+                    case '\\':
+                        formatted.append("\\\\");
+                        break;
+                    case '"':
+                        formatted.append("\\\"");
+                        break;
+                    case '\n':
+                        formatted.append("\\n");
+                        break;
+
+                    default:
+                        formatted.append(c);
+                }
+            }
+            formatted.append('"');
+        }
+        return formatted.toString();
+    }
+
+    private enum Type {
+        COUNTER,
+        GAUGE,
+        HISTOGRAM
+    }
+
+    /*
+     * All the metrics sharing a name, keyed on their formatted labels
+     */
+    private static class Family {
+
+        private final String name;
+        private final String help;
+        private final Type type;
+        private final double scale;
+        private final Map<String, Object> metrics = new LinkedHashMap<>();
+
+        private Family(String name, String help, Type type, double scale) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.scale = scale;
+        }
+    }
+}
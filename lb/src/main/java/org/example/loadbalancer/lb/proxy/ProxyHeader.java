@@ -0,0 +1,557 @@
+package org.example.loadbalancer.lb.proxy;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+/*
+ * PROXY protocol header, see https://www.haproxy.org/download/2.9/doc/proxy-protocol.txt
+ *
+ * Headers are decoded where they were read and encoded where they are sent from, in the relay's own buffer, using
+ * absolute gets and puts only. The v1 line is parsed byte by byte rather than as a String, and is encoded backwards
+ * from its end so it can be put right in front of the bytes that follow it without knowing its length up front.
+ *
+ * Decoding accepts both versions and tells them apart by their first byte. TLVs after v2 addresses are skipped, and
+ * LOCAL, UNKNOWN, AF_UNSPEC and AF_UNIX headers decode with no addresses: the connection's own ones stand.
+ */
+public final class ProxyHeader {
+
+    // Longest v1 line the spec allows, CRLF included. Any header we encode fits in it.
+    public static final int MAX_V1_LENGTH = 107;
+
+    private static final byte[] V1_PREFIX = "PROXY ".getBytes(US_ASCII);
+    private static final byte[] V1_TCP4 = "TCP4 ".getBytes(US_ASCII);
+    private static final byte[] V1_TCP6 = "TCP6 ".getBytes(US_ASCII);
+    private static final byte[] V1_UNKNOWN = "UNKNOWN".getBytes(US_ASCII);
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(US_ASCII);
+
+    private static final byte[] V2_SIGNATURE = {0x0D, 0x0A, 0x0D, 0x0A, 0x00, 0x0D, 0x0A, 0x51, 0x55, 0x49, 0x54, 0x0A};
+    // Signature, version and command, family and transport, address length
+    private static final int V2_FIXED_LENGTH = 16;
+    // Version 2 in the high nibble, the command in the low one
+    private static final int V2_LOCAL = 0x20;
+    private static final int V2_PROXY = 0x21;
+    // Address family in the high nibble, the transport in the low one
+    private static final int V2_UNSPEC = 0x00;
+    private static final int V2_TCP4 = 0x11;
+    private static final int V2_TCP6 = 0x21;
+    private static final int V2_INET = 1;
+    private static final int V2_INET6 = 2;
+
+    private final int length;
+    private final InetSocketAddress source;
+    private final InetSocketAddress destination;
+
+    private ProxyHeader(int length, InetSocketAddress source, InetSocketAddress destination) {
+        this.length = length;
+        this.source = source;
+        this.destination = destination;
+    }
+
+    /**
+     * @return Bytes the header took, the client's own bytes start right after it
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return Client the upstream tier relayed the connection for, null if the header carried no addresses
+     */
+    public InetSocketAddress getSource() {
+        return source;
+    }
+
+    /**
+     * @return Address the client connected to, null if the header carried no addresses
+     */
+    public InetSocketAddress getDestination() {
+        return destination;
+    }
+
+    /**
+     * Decode the header at the start of the bytes read so far
+     *
+     * @param buffer Buffer the bytes were read into, its limit is taken as the most it can hold
+     * @param start Index of the first byte of the connection
+     * @param end Index after the last byte read
+     * @return The header, or null if more bytes are needed to tell
+     * @throws ProtocolException if the bytes are not a valid PROXY header, or the header can't fit in the buffer
+     */
+    public static ProxyHeader decode(ByteBuffer buffer, int start, int end) throws ProtocolException {
+        if (end == start) {
+            return null;
+        }
+        final ProxyHeader header = buffer.get(start) == V1_PREFIX[0] ? decodeV1(buffer, start, end) : decodeV2(buffer, start, end);
+        if (header == null && end >= buffer.limit()) {
+            throw new ProtocolException("PROXY header does not fit in " + (buffer.limit() - start) + " bytes");
+        }
+        return header;
+    }
+
+    /**
+     * Read from a blocking channel until the buffer holds a whole header
+     *
+     * @param channel Client channel
+     * @param buffer Buffer in write mode, the header is read in from its position. Left positioned after the last
+     *               byte read, which may be past the end of the header.
+     * @return The header
+     * @throws EOFException if the client closed before sending a whole header
+     * @throws ProtocolException if the client sent something else
+     * @throws IOException if reading failed
+     */
+    public static ProxyHeader read(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+        final int start = buffer.position();
+        ProxyHeader header;
+        while ((header = decode(buffer, start, buffer.position())) == null) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Connection closed before its PROXY header");
+            }
+        }
+        return header;
+    }
+
+    /**
+     * Same as read(ReadableByteChannel, ByteBuffer) for a socket stream, reading straight into the buffer's array
+     *
+     * @param in Client socket stream
+     * @param buffer Heap buffer in write mode
+     * @return The header
+     * @throws IOException as read(ReadableByteChannel, ByteBuffer)
+     */
+    public static ProxyHeader read(InputStream in, ByteBuffer buffer) throws IOException {
+        final int start = buffer.position();
+        ProxyHeader header;
+        while ((header = decode(buffer, start, buffer.position())) == null) {
+            final int len = in.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            if (len < 0) {
+                throw new EOFException("Connection closed before its PROXY header");
+            }
+            buffer.position(buffer.position() + len);
+        }
+        return header;
+    }
+
+    /**
+     * Write a header into the buffer so that it ends at the given index. Addresses of different families are both
+     * sent as IPv6, an IPv4 one mapped to ::ffff:a.b.c.d.
+     *
+     * @param version V1 or V2
+     * @param source Client address, null to send UNKNOWN (v1) or LOCAL (v2)
+     * @param destination Address the client connected to
+     * @param buffer Buffer to write into, its position and limit are left as they are
+     * @param end Index the header ends at, with at least MAX_V1_LENGTH bytes before it
+     * @return Index the header starts at
+     */
+    public static int encode(ProxyProtocolVersion version, InetSocketAddress source, InetSocketAddress destination, ByteBuffer buffer, int end) {
+        byte[] sourceAddress = null;
+        byte[] destinationAddress = null;
+        if (source != null && destination != null && source.getAddress() != null && destination.getAddress() != null) {
+            sourceAddress = source.getAddress().getAddress();
+            destinationAddress = destination.getAddress().getAddress();
+            if (sourceAddress.length != destinationAddress.length) {
+                sourceAddress = toIpv6(sourceAddress);
+                destinationAddress = toIpv6(destinationAddress);
+            }
+        }
+
+        switch (version) {
+            case V1:
+                return encodeV1(sourceAddress, source, destinationAddress, destination, buffer, end);
+            case V2:
+                return encodeV2(sourceAddress, source, destinationAddress, destination, buffer, end);
+
+            default:
+                throw new IllegalArgumentException("No PROXY header for version " + version);
+        }
+    }
+
+    private static ProxyHeader decodeV2(ByteBuffer buffer, int start, int end) throws ProtocolException {
+        if (!matchPrefix(buffer, start, end, V2_SIGNATURE) || end - start < V2_FIXED_LENGTH) {
+            return null;
+        }
+        final int versionCommand = buffer.get(start + 12) & 0xFF;
+        final int family = (buffer.get(start + 13) & 0xFF) >> 4;
+        final int addressLength = (buffer.get(start + 14) & 0xFF) << 8 | buffer.get(start + 15) & 0xFF;
+        final int length = V2_FIXED_LENGTH + addressLength;
+
+        if (versionCommand != V2_LOCAL && versionCommand != V2_PROXY) {
+            throw new ProtocolException("Unsupported PROXY v2 version and command 0x" + Integer.toHexString(versionCommand));
+        }
+        if (length > buffer.limit() - start) {
+            throw new ProtocolException("PROXY v2 header of " + length + " bytes does not fit in " + (buffer.limit() - start) + " bytes");
+        }
+        if (end - start < length) {
+            return null;
+        }
+
+        final int addresses = start + V2_FIXED_LENGTH;
+        if (versionCommand == V2_LOCAL) {
+            return new ProxyHeader(length, null, null);
+        }
+        switch (family) {
+            case V2_INET:
+                checkAddressLength(addressLength, 12);
+                return new ProxyHeader(length, v2Address(buffer, addresses, 4, addresses + 8), v2Address(buffer, addresses + 4, 4, addresses + 10));
+            case V2_INET6:
+                checkAddressLength(addressLength, 36);
+                return new ProxyHeader(length, v2Address(buffer, addresses, 16, addresses + 32), v2Address(buffer, addresses + 16, 16, addresses + 34));
+
+            default:
+                return new ProxyHeader(length, null, null);
+        }
+    }
+
+    private static ProxyHeader decodeV1(ByteBuffer buffer, int start, int end) throws ProtocolException {
+        if (!matchPrefix(buffer, start, end, V1_PREFIX)) {
+            return null;
+        }
+
+        final int scanEnd = Math.min(end, start + MAX_V1_LENGTH);
+        for (int lineEnd = start + V1_PREFIX.length; lineEnd < scanEnd; lineEnd++) {
+            if (buffer.get(lineEnd) == '\n') {
+                if (buffer.get(lineEnd - 1) != '\r') {
+                    throw new ProtocolException("PROXY v1 header does not end with CRLF");
+                }
+                return new V1Parser(buffer, start + V1_PREFIX.length, lineEnd - 1).parse(lineEnd + 1 - start);
+            }
+        }
+        if (end - start >= MAX_V1_LENGTH) {
+            throw new ProtocolException("PROXY v1 header longer than " + MAX_V1_LENGTH + " bytes");
+        }
+        return null;
+    }
+
+    /**
+     * @return true if the whole prefix has been read, false if only part of it has been so far
+     * @throws ProtocolException if the bytes read so far don't match the prefix
+     */
+    private static boolean matchPrefix(ByteBuffer buffer, int start, int end, byte[] prefix) throws ProtocolException {
+        final int length = Math.min(end - start, prefix.length);
+        for (int i = 0; i < length; i++) {
+            if (buffer.get(start + i) != prefix[i]) {
+                throw new ProtocolException("Connection does not start with a PROXY header");
+            }
+        }
+        return length == prefix.length;
+    }
+
+    private static void checkAddressLength(int addressLength, int needed) throws ProtocolException {
+        if (addressLength < needed) {
+            throw new ProtocolException("PROXY v2 addresses need " + needed + " bytes, header has " + addressLength);
+        }
+    }
+
+    private static InetSocketAddress v2Address(ByteBuffer buffer, int addressIndex, int addressLength, int portIndex) throws ProtocolException {
+        final byte[] address = new byte[addressLength];
+        buffer.get(addressIndex, address);
+        return socketAddress(address, (buffer.get(portIndex) & 0xFF) << 8 | buffer.get(portIndex + 1) & 0xFF);
+    }
+
+    private static InetSocketAddress socketAddress(byte[] address, int port) throws ProtocolException {
+        try {
+            return new InetSocketAddress(InetAddress.getByAddress(address), port);
+        } catch (UnknownHostException e) {
+            throw new ProtocolException("Invalid address in PROXY header");
+        }
+    }
+
+    private static int encodeV1(byte[] sourceAddress, InetSocketAddress source, byte[] destinationAddress, InetSocketAddress destination,
+                                ByteBuffer buffer, int end) {
+        int at = end;
+        buffer.put(--at, (byte) '\n');
+        buffer.put(--at, (byte) '\r');
+        if (sourceAddress == null) {
+            at = putBackwards(buffer, at, V1_UNKNOWN);
+        } else {
+            at = putDecimalBackwards(buffer, at, destination.getPort());
+            buffer.put(--at, (byte) ' ');
+            at = putDecimalBackwards(buffer, at, source.getPort());
+            buffer.put(--at, (byte) ' ');
+            at = putAddressBackwards(buffer, at, destinationAddress);
+            buffer.put(--at, (byte) ' ');
+            at = putAddressBackwards(buffer, at, sourceAddress);
+            at = putBackwards(buffer, at, sourceAddress.length == 4 ? V1_TCP4 : V1_TCP6);
+        }
+        return putBackwards(buffer, at, V1_PREFIX);
+    }
+
+    private static int encodeV2(byte[] sourceAddress, InetSocketAddress source, byte[] destinationAddress, InetSocketAddress destination,
+                                ByteBuffer buffer, int end) {
+        final int addressLength = sourceAddress == null ? 0 : 2 * sourceAddress.length + 4;
+        final int at = end - V2_FIXED_LENGTH - addressLength;
+
+        buffer.put(at, V2_SIGNATURE);
+        buffer.put(at + 12, (byte) (sourceAddress == null ? V2_LOCAL : V2_PROXY));
+        buffer.put(at + 13, (byte) (sourceAddress == null ? V2_UNSPEC : sourceAddress.length == 4 ? V2_TCP4 : V2_TCP6));
+        buffer.put(at + 14, (byte) (addressLength >> 8));
+        buffer.put(at + 15, (byte) addressLength);
+        if (sourceAddress != null) {
+            int index = at + V2_FIXED_LENGTH;
+            buffer.put(index, sourceAddress);
+            index += sourceAddress.length;
+            buffer.put(index, destinationAddress);
+            index += destinationAddress.length;
+            buffer.put(index++, (byte) (source.getPort() >> 8));
+            buffer.put(index++, (byte) source.getPort());
+            buffer.put(index++, (byte) (destination.getPort() >> 8));
+            buffer.put(index, (byte) destination.getPort());
+        }
+        return at;
+    }
+
+    private static byte[] toIpv6(byte[] address) {
+        if (address.length == 16) {
+            return address;
+        }
+        final byte[] mapped = new byte[16];
+        mapped[10] = (byte) 0xFF;
+        mapped[11] = (byte) 0xFF;
+        System.arraycopy(address, 0, mapped, 12, 4);
+        return mapped;
+    }
+
+    private static int putBackwards(ByteBuffer buffer, int end, byte[] bytes) {
+        buffer.put(end - bytes.length, bytes);
+        return end - bytes.length;
+    }
+
+    private static int putDecimalBackwards(ByteBuffer buffer, int end, int value) {
+        int at = end;
+        do {
+            buffer.put(--at, (byte) ('0' + value % 10));
+            value /= 10;
+        } while (value > 0);
+        return at;
+    }
+
+    /**
+     * IPv4 dotted quad, or IPv6 as eight hex groups without leading zeros, which every parser takes
+     */
+    private static int putAddressBackwards(ByteBuffer buffer, int end, byte[] address) {
+        int at = end;
+        if (address.length == 4) {
+            for (int i = 3; i >= 0; i--) {
+                at = putDecimalBackwards(buffer, at, address[i] & 0xFF);
+                if (i > 0) {
+                    buffer.put(--at, (byte) '.');
+                }
+            }
+            return at;
+        }
+
+        for (int i = 14; i >= 0; i -= 2) {
+            int group = (address[i] & 0xFF) << 8 | address[i + 1] & 0xFF;
+            do {
+                buffer.put(--at, HEX_DIGITS[group & 0xF]);
+                group >>= 4;
+            } while (group > 0);
+            if (i > 0) {
+                buffer.put(--at, (byte) ':');
+            }
+        }
+        return at;
+    }
+
+    /*
+     * Parses what follows "PROXY " on a v1 line, up to the CR
+     */
+    private static final class V1Parser {
+
+        private final ByteBuffer buffer;
+        private final int end;
+        private int position;
+
+        private V1Parser(ByteBuffer buffer, int position, int end) {
+            this.buffer = buffer;
+            this.position = position;
+            this.end = end;
+        }
+
+        /**
+         * @param length Length of the whole line
+         */
+        private ProxyHeader parse(int length) throws ProtocolException {
+            final byte[] sourceAddress;
+            final byte[] destinationAddress;
+            if (skip(V1_TCP4)) {
+                sourceAddress = ipv4(new byte[4], 0);
+                expect(' ');
+                destinationAddress = ipv4(new byte[4], 0);
+            } else if (skip(V1_TCP6)) {
+                sourceAddress = ipv6();
+                expect(' ');
+                destinationAddress = ipv6();
+            } else if (skip(V1_UNKNOWN)) {
+                // Whatever follows is to be ignored
+                return new ProxyHeader(length, null, null);
+            } else {
+                throw invalid();
+            }
+            expect(' ');
+            final int sourcePort = decimal(5, 65535);
+            expect(' ');
+            final int destinationPort = decimal(5, 65535);
+            if (position != end) {
+                throw invalid();
+            }
+            return new ProxyHeader(length, socketAddress(sourceAddress, sourcePort), socketAddress(destinationAddress, destinationPort));
+        }
+
+        private byte[] ipv4(byte[] address, int offset) throws ProtocolException {
+            for (int i = 0; i < 4; i++) {
+                if (i > 0) {
+                    expect('.');
+                }
+                address[offset + i] = (byte) decimal(3, 255);
+            }
+            return address;
+        }
+
+        /**
+         * Eight hex groups, a "::" standing for one or more zero groups, optionally ending with an IPv4 dotted quad
+         */
+        private byte[] ipv6() throws ProtocolException {
+            final byte[] address = new byte[16];
+            int groups = 0;
+            // Group the "::" was found before, -1 if there was none
+            int gap = -1;
+            if (peek() == ':') {
+                position++;
+                expect(':');
+                gap = 0;
+            }
+
+            while (groups < 8 && hexValue(peek()) >= 0) {
+                if (groups <= 6 && dottedQuadAhead()) {
+                    ipv4(address, groups * 2);
+                    groups += 2;
+                    break;
+                }
+                final int group = hexGroup();
+                address[groups * 2] = (byte) (group >> 8);
+                address[groups * 2 + 1] = (byte) group;
+                groups++;
+
+                if (peek() != ':') {
+                    break;
+                }
+                position++;
+                if (peek() == ':') {
+                    if (gap >= 0) {
+                        throw invalid();
+                    }
+                    position++;
+                    gap = groups;
+                } else if (hexValue(peek()) < 0) {
+                    throw invalid();
+                }
+            }
+
+            if (gap >= 0) {
+                if (groups == 8) {
+                    throw invalid();
+                }
+                // Move the groups after the "::" to the end, zeros in between
+                final int tail = (groups - gap) * 2;
+                System.arraycopy(address, gap * 2, address, 16 - tail, tail);
+                Arrays.fill(address, gap * 2, 16 - tail, (byte) 0);
+            } else if (groups != 8) {
+                throw invalid();
+            }
+            return address;
+        }
+
+        private boolean dottedQuadAhead() {
+            int at = position;
+            while (at < end && buffer.get(at) >= '0' && buffer.get(at) <= '9') {
+                at++;
+            }
+            return at < end && buffer.get(at) == '.';
+        }
+
+        private int hexGroup() throws ProtocolException {
+            int value = 0;
+            int digits = 0;
+            int digit;
+            while ((digit = hexValue(peek())) >= 0) {
+                if (++digits > 4) {
+                    throw invalid();
+                }
+                value = value << 4 | digit;
+                position++;
+            }
+            return value;
+        }
+
+        private int decimal(int maxDigits, int maxValue) throws ProtocolException {
+            int value = 0;
+            int digits = 0;
+            int c;
+            while ((c = peek()) >= '0' && c <= '9') {
+                if (++digits > maxDigits) {
+                    throw invalid();
+                }
+                value = value * 10 + c - '0';
+                position++;
+            }
+            if (digits == 0 || value > maxValue) {
+                throw invalid();
+            }
+            return value;
+        }
+
+        private boolean skip(byte[] token) {
+            if (end - position < token.length) {
+                return false;
+            }
+            for (int i = 0; i < token.length; i++) {
+                if (buffer.get(position + i) != token[i]) {
+                    return false;
+                }
+            }
+            position += token.length;
+            return true;
+        }
+
+        private void expect(char c) throws ProtocolException {
+            if (peek() != c) {
+                throw invalid();
+            }
+            position++;
+        }
+
+        /**
+         * @return Next byte, -1 at the end of the line
+         */
+        private int peek() {
+            return position < end ? buffer.get(position) : -1;
+        }
+
+        private static int hexValue(int c) {
+            if (c >= '0' && c <= '9') {
+                return c - '0';
+            }
+            if (c >= 'a' && c <= 'f') {
+                return c - 'a' + 10;
+            }
+            if (c >= 'A' && c <= 'F') {
+                return c - 'A' + 10;
+            }
+            return -1;
+        }
+
+        private ProtocolException invalid() {
+            return new ProtocolException("Invalid PROXY v1 header at byte " + position);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package org.example.loadbalancer.lb.proxy;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+/*
+ * PROXY protocol settings of a listener: whether client connections start with a PROXY header from an upstream tier,
+ * and which header version, if any, is sent to backends.
+ *
+ * Relays keep headerRoom() bytes free at the start of the buffer they read the client's first bytes into. Our header
+ * is then encoded in place just in front of those bytes, over the header that was received if there was one, and both
+ * go to the backend in the same write.
+ */
+public final class ProxyProtocol {
+
+    public static final ProxyProtocol NONE = new ProxyProtocol(ProxyProtocolVersion.NONE, false);
+
+    private final ProxyProtocolVersion sendVersion;
+    private final boolean accepting;
+
+    /**
+     * @param sendVersion Header sent to backends ahead of the client's bytes
+     * @param accepting true if every client connection must start with a PROXY header, v1 or v2
+     */
+    public ProxyProtocol(ProxyProtocolVersion sendVersion, boolean accepting) {
+        this.sendVersion = sendVersion;
+        this.accepting = accepting;
+    }
+
+    public ProxyProtocolVersion getSendVersion() {
+        return sendVersion;
+    }
+
+    public boolean isSending() {
+        return sendVersion != ProxyProtocolVersion.NONE;
+    }
+
+    public boolean isAccepting() {
+        return accepting;
+    }
+
+    /**
+     * @return true if headers are sent, accepted or both
+     */
+    public boolean isEnabled() {
+        return isSending() || accepting;
+    }
+
+    /**
+     * @return Bytes to keep free in front of the client's first bytes, enough for any header we send
+     */
+    public int headerRoom() {
+        return isSending() ? ProxyHeader.MAX_V1_LENGTH : 0;
+    }
+
+    /**
+     * Write our header into the buffer so that it ends where the client's bytes start
+     *
+     * @param source Client the connection is relayed for, null to send a header without addresses
+     * @param destination Address the client connected to
+     * @param buffer Buffer to write into, its position and limit are left as they are
+     * @param end Index the header ends at, at least headerRoom()
+     * @return Index the header starts at, end if no header is sent
+     */
+    public int encode(InetSocketAddress source, InetSocketAddress destination, ByteBuffer buffer, int end) {
+        return isSending() ? ProxyHeader.encode(sendVersion, source, destination, buffer, end) : end;
+    }
+
+    @Override
+    public String toString() {
+        return "send " + sendVersion + (accepting ? ", accept" : "");
+    }
+}
@@ -0,0 +1,13 @@
+package org.example.loadbalancer.lb.proxy;
+
+/**
+ * Version of the PROXY protocol header sent to backends ahead of a client's bytes
+ */
+public enum ProxyProtocolVersion {
+    // No header, backends see the LB as the client
+    NONE,
+    // Human readable line, e.g. "PROXY TCP4 192.0.2.1 198.51.100.1 56324 443\r\n"
+    V1,
+    // Binary header, fixed size for each address family
+    V2;
+}
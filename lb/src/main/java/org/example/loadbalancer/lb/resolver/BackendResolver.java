@@ -0,0 +1,147 @@
+package org.example.loadbalancer.lb.resolver;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Resolves backend host names once and keeps the answers fresh in the background.
+ *
+ * A name with several A/AAAA records is expanded into one endpoint per address, so each one is balanced and health
+ * checked on its own. Every endpoint is a resolved InetSocketAddress, nothing on the connection path ever does a
+ * lookup. Only the first resolve() of a name blocks, that happens while parsing the config.
+ *
+ * Each name is looked up again every ttlMs on a virtual thread. When a lookup fails the last good answer is kept, a
+ * DNS outage shouldn't empty the backend pool. When the set of addresses changes the listeners are told.
+ */
+public class BackendResolver implements AutoCloseable {
+
+    private final long ttlMs;
+    private final NameService nameService;
+
+    private final Map<String, List<InetAddress>> addresses = new ConcurrentHashMap<>();
+    private final List<ResolverListener> listeners = new CopyOnWriteArrayList<>();
+
+    // Scheduler only times the refreshes, the lookups run on lookupExecutor so a slow name only holds up itself
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(Thread.ofVirtual().factory());
+    private final ExecutorService lookupExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    public BackendResolver(long ttlMs) {
+        this(ttlMs, InetAddress::getAllByName);
+    }
+
+    /**
+     * @param ttlMs How long an answer is used before it is looked up again
+     * @param nameService Does the lookups
+     */
+    public BackendResolver(long ttlMs, NameService nameService) {
+        this.ttlMs = ttlMs;
+        this.nameService = nameService;
+    }
+
+    /**
+     * @param listener Called from a background thread when the addresses of a name change
+     */
+    public void addListener(ResolverListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Resolve a backend into one endpoint per address. Looks the name up the first time, after that the cached
+     * answer is returned straight away.
+     *
+     * @param host Host name or IP literal
+     * @param port Backend port
+     * @return Resolved endpoints, at least one
+     * @throws UnknownHostException If the name has never resolved
+     */
+    public List<InetSocketAddress> resolve(String host, int port) throws UnknownHostException {
+        List<InetAddress> resolved = addresses.get(host);
+        if (resolved == null) {
+            resolved = lookup(host);
+            addresses.putIfAbsent(host, resolved);
+        }
+
+        final List<InetSocketAddress> endpoints = new ArrayList<>(resolved.size());
+        for (InetAddress address : resolved) {
+            endpoints.add(new InetSocketAddress(address, port));
+        }
+        return endpoints;
+    }
+
+    /**
+     * @param host Host name or IP literal
+     * @return Last known addresses of the name, empty if it was never resolved
+     */
+    public List<InetAddress> getAddresses(String host) {
+        return addresses.getOrDefault(host, List.of());
+    }
+
+    /**
+     * Start looking every resolved name up again every ttlMs
+     */
+    public void start() {
+        scheduler.scheduleWithFixedDelay(this::refreshAll, ttlMs, ttlMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        lookupExecutor.shutdownNow();
+    }
+
+    /**
+     * Look every known name up again, each on its own virtual thread
+     */
+    void refreshAll() {
+        for (String host : addresses.keySet()) {
+            try {
+                lookupExecutor.execute(() -> refresh(host));
+            } catch (RejectedExecutionException e) {
+                // Closed
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param host Name to look up again, the old answer is kept if the lookup fails
+     */
+    void refresh(String host) {
+        final List<InetAddress> resolved;
+        try {
+            resolved = lookup(host);
+        } catch (UnknownHostException e) {
+            System.out.printf("Unable to refresh %s, keeping %s (%s)%n", host, addresses.get(host), e.getMessage());
+            return;
+        }
+
+        final List<InetAddress> previous = addresses.put(host, resolved);
+        // DNS servers rotate the order of the records, only a different set is a change
+        if (previous == null || !new HashSet<>(previous).equals(new HashSet<>(resolved))) {
+            System.out.printf("Addresses of %s changed from %s to %s%n", host, previous, resolved);
+            for (ResolverListener listener : listeners) {
+                listener.addressesChanged(host, resolved);
+            }
+        }
+    }
+
+    private List<InetAddress> lookup(String host) throws UnknownHostException {
+        final InetAddress[] resolved = nameService.lookup(host);
+        if (resolved == null || resolved.length == 0) {
+            throw new UnknownHostException(host);
+        }
+        return List.of(resolved);
+    }
+}
@@ -0,0 +1,14 @@
+package org.example.loadbalancer.lb.resolver;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/*
+ * Does the actual name lookup for BackendResolver, InetAddress::getAllByName outside of unit tests
+ */
+@FunctionalInterface
+public interface NameService {
+
+    InetAddress[] lookup(String host) throws UnknownHostException;
+
+}
@@ -0,0 +1,14 @@
+package org.example.loadbalancer.lb.resolver;
+
+import java.net.InetAddress;
+import java.util.List;
+
+/*
+ * Told when a background refresh finds a different set of addresses for a name
+ */
+@FunctionalInterface
+public interface ResolverListener {
+
+    void addressesChanged(String host, List<InetAddress> addresses);
+
+}
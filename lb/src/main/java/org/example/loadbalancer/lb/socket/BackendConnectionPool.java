@@ -0,0 +1,377 @@
+package org.example.loadbalancer.lb.socket;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.example.loadbalancer.lb.util.Helper.closeChannel;
+
+/*
+ * Keeps a few idle, already connected channels to each backend server so a relay can skip the TCP handshake.
+ *
+ * A relayed byte stream belongs to one client, so a pooled connection is used once and never goes back in the pool,
+ * what we save is the connect round trip on the critical path. The pool is topped back up to minIdle in the background
+ * every time a connection is taken, and on a timer that also closes connections idle for longer than maxIdleMs.
+ *
+ * HTTP relays know where each exchange ends, so they hand a backend connection back with release() once a response
+ * has been read in full and the backend didn't ask to close. Up to maxIdle connections per server are kept that way.
+ *
+ * An idle connection is checked with a non-blocking read before it is handed out: 0 bytes means still open, -1 means
+ * the backend closed it and anything else means it spoke first. Since we can't put those bytes back such connections
+ * are dropped, so backends that send a banner before the client speaks (SMTP, FTP, ...) should leave minIdle at 0.
+ *
+ * Connections that are not warm are opened on the spot, always with TCP_NODELAY and a connect timeout.
+ *
+ * One pool is shared by every listener. A server in several backend pools is pooled once and only stops being pooled
+ * when the last backend pool using it removes it.
+ */
+public class BackendConnectionPool implements AutoCloseable {
+
+    private static final int DEFAULT_CONNECT_TIMEOUT_MS = 1_000;
+
+    // Holds nothing, so its executors never start a thread and it never needs closing
+    private static final BackendConnectionPool UNPOOLED = new BackendConnectionPool(List.of(), 0, DEFAULT_CONNECT_TIMEOUT_MS, 0);
+
+    private final int minIdle;
+    private final int maxIdle;
+    private final int connectTimeoutMs;
+    private final long maxIdleNanos;
+
+    private final Map<InetSocketAddress, ServerPool> serverPools = new ConcurrentHashMap<>();
+    // Scheduler only times the top ups, the connects run on refillExecutor so a slow server only holds up itself
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(Thread.ofVirtual().factory());
+    private final ExecutorService refillExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private volatile boolean closed = false;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param servers Backend servers to keep warm connections to
+     * @param minIdle Idle connections to keep per server, 0 turns pre-warming off
+     * @param connectTimeoutMs Timeout for every backend connect
+     * @param maxIdleMs Idle connections older than this are closed, backends tend to time them out anyway
+     */
+    public BackendConnectionPool(List<InetSocketAddress> servers, int minIdle, int connectTimeoutMs, long maxIdleMs) {
+        this(servers, minIdle, minIdle, connectTimeoutMs, maxIdleMs);
+    }
+
+    /**
+     * @param servers Backend servers to keep warm connections to. A server listed more than once needs as many
+     *                removeServer() calls before it stops being pooled.
+     * @param minIdle Idle connections to keep per server, 0 turns pre-warming off
+     * @param maxIdle Most idle connections per server, caps what release() keeps
+     * @param connectTimeoutMs Timeout for every backend connect
+     * @param maxIdleMs Idle connections older than this are closed, backends tend to time them out anyway
+     */
+    public BackendConnectionPool(List<InetSocketAddress> servers, int minIdle, int maxIdle, int connectTimeoutMs, long maxIdleMs) {
+        this.minIdle = minIdle;
+        this.maxIdle = Math.max(minIdle, maxIdle);
+        this.connectTimeoutMs = connectTimeoutMs;
+        this.maxIdleNanos = TimeUnit.MILLISECONDS.toNanos(maxIdleMs);
+
+        for (InetSocketAddress server : servers) {
+            serverPools.merge(server, new ServerPool(), (existing, added) -> {
+                existing.users++;
+                return existing;
+            });
+        }
+    }
+
+    /**
+     * @return A shared pool that keeps nothing warm, every acquire() connects with the default timeout
+     */
+    public static BackendConnectionPool unpooled() {
+        return UNPOOLED;
+    }
+
+    /**
+     * Fill the pool and start the timer that keeps it full
+     */
+    public void start() {
+        if (maxIdle <= 0) {
+            return;
+        }
+
+        final long periodMs = Math.max(TimeUnit.NANOSECONDS.toMillis(maxIdleNanos) / 2, 100);
+        scheduler.scheduleWithFixedDelay(() -> serverPools.forEach(this::maintainInBackground), 0, periodMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param server Backend server to start keeping warm connections to, filled on the next top up. If it is already
+     *               pooled it only gains a user.
+     */
+    public void addServer(InetSocketAddress server) {
+        final ServerPool serverPool = new ServerPool();
+        if (serverPools.merge(server, serverPool, (existing, added) -> {
+            existing.users++;
+            return existing;
+        }) == serverPool) {
+            refillInBackground(server, serverPool);
+        }
+    }
+
+    /**
+     * Stop pooling connections to a server once its last user has removed it and close the idle ones, acquire() then
+     * connects to it directly
+     *
+     * @param server Backend server address
+     * @return true if the server is no longer pooled, false if it is unknown or still has other users
+     */
+    public boolean removeServer(InetSocketAddress server) {
+        final List<ServerPool> removed = new ArrayList<>(1);
+        serverPools.computeIfPresent(server, (key, serverPool) -> {
+            if (--serverPool.users > 0) {
+                return serverPool;
+            }
+            removed.add(serverPool);
+            return null;
+        });
+        if (removed.isEmpty()) {
+            return false;
+        }
+        closeIdle(removed.getFirst());
+        return true;
+    }
+
+    /**
+     * Get a connected blocking channel to the server, warm if there is one, else a new one
+     *
+     * @param server Backend server to connect to
+     * @return Connected channel, owned by the caller
+     * @throws IOException If no warm connection was available and connecting failed or timed out
+     */
+    public SocketChannel acquire(InetSocketAddress server) throws IOException {
+        final SocketChannel channel = poll(server);
+        return channel != null ? channel : connect(server);
+    }
+
+    /**
+     * Take a warm connection without ever blocking
+     *
+     * @param server Backend server to connect to
+     * @return Connected blocking channel owned by the caller, or null if none was idle
+     */
+    public SocketChannel poll(InetSocketAddress server) {
+        final ServerPool serverPool = serverPools.get(server);
+        if (serverPool == null) {
+            misses.increment();
+            return null;
+        }
+
+        IdleConnection idle;
+        // Newest first, the oldest connections are the most likely to have been closed by the backend
+        while ((idle = serverPool.connections.pollLast()) != null) {
+            serverPool.idle.decrementAndGet();
+            if (isUsable(serverPool, idle)) {
+                hits.increment();
+                refillInBackground(server, serverPool);
+                return idle.channel;
+            }
+            closeChannel(idle.channel);
+        }
+
+        misses.increment();
+        refillInBackground(server, serverPool);
+        return null;
+    }
+
+    /**
+     * Take back a blocking connection that is done with its last exchange and can carry another one
+     *
+     * @param server Backend server the channel is connected to
+     * @param channel Connected channel, owned by the pool from now on
+     * @return false if the pool was full, closed or doesn't keep the server, the channel has been closed then
+     */
+    public boolean release(InetSocketAddress server, SocketChannel channel) {
+        final ServerPool serverPool = serverPools.get(server);
+        if (serverPool == null || closed || !channel.isOpen()) {
+            closeChannel(channel);
+            return false;
+        }
+        if (serverPool.idle.incrementAndGet() > maxIdle) {
+            serverPool.idle.decrementAndGet();
+            closeChannel(channel);
+            return false;
+        }
+
+        serverPool.connections.offerLast(new IdleConnection(channel, System.nanoTime()));
+        if (closed || serverPools.get(server) != serverPool) {
+            // Lost a race with close() or removeServer()
+            closeIdle(serverPool);
+            return false;
+        }
+        return true;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @param server Backend server
+     * @return Number of idle connections held for the server
+     */
+    public int getIdle(InetSocketAddress server) {
+        final ServerPool serverPool = serverPools.get(server);
+        return serverPool != null ? serverPool.idle.get() : 0;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        scheduler.shutdownNow();
+        refillExecutor.shutdownNow();
+        for (ServerPool serverPool : serverPools.values()) {
+            closeIdle(serverPool);
+        }
+    }
+
+    private static void closeIdle(ServerPool serverPool) {
+        IdleConnection idle;
+        while ((idle = serverPool.connections.pollFirst()) != null) {
+            closeChannel(idle.channel);
+        }
+        serverPool.idle.set(0);
+    }
+
+    /**
+     * Open a new blocking connection with TCP_NODELAY and the connect timeout
+     *
+     * @param server Backend server to connect to
+     * @return Connected channel
+     * @throws IOException If the connect failed or timed out
+     */
+    SocketChannel connect(InetSocketAddress server) throws IOException {
+        final SocketChannel channel = SocketChannel.open();
+        try {
+            channel.socket().setTcpNoDelay(true);
+            channel.socket().connect(server, connectTimeoutMs);
+            return channel;
+        } catch (IOException e) {
+            closeChannel(channel);
+            throw e;
+        }
+    }
+
+    private void refillInBackground(InetSocketAddress server, ServerPool serverPool) {
+        if (minIdle > 0) {
+            maintainInBackground(server, serverPool);
+        }
+    }
+
+    private void maintainInBackground(InetSocketAddress server, ServerPool serverPool) {
+        if (!serverPool.refilling.get()) {
+            try {
+                refillExecutor.execute(() -> maintain(server));
+            } catch (RejectedExecutionException e) {
+                // Closed
+            }
+        }
+    }
+
+    /**
+     * Close expired connections and top the server back up to minIdle. Stops at the first failed connect, the next
+     * run tries again.
+     *
+     * @param server Backend server
+     */
+    private void maintain(InetSocketAddress server) {
+        final ServerPool serverPool = serverPools.get(server);
+        if (serverPool == null || !serverPool.refilling.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            final long now = System.nanoTime();
+            IdleConnection oldest;
+            while ((oldest = serverPool.connections.peekFirst()) != null && now - oldest.idleSince > maxIdleNanos) {
+                if (serverPool.connections.remove(oldest)) {
+                    serverPool.idle.decrementAndGet();
+                    closeChannel(oldest.channel);
+                }
+            }
+
+            while (serverPool.idle.get() < minIdle && !closed && serverPools.get(server) == serverPool) {
+                serverPool.connections.offerLast(new IdleConnection(connect(server), System.nanoTime()));
+                serverPool.idle.incrementAndGet();
+            }
+            if (closed) {
+                // Lost a race with close(), don't leave anything behind
+                close();
+            } else if (serverPools.get(server) != serverPool) {
+                // Or with removeServer()
+                closeIdle(serverPool);
+            }
+        } catch (IOException e) {
+            System.out.printf("Could not pre-connect to %s (%s)%n", server, e.getMessage());
+        } finally {
+            serverPool.refilling.set(false);
+        }
+    }
+
+    /**
+     * @param serverPool Pool the connection was taken from
+     * @param idle Connection taken from the pool
+     * @return true if the connection is still open and the backend has not sent anything on it
+     */
+    private boolean isUsable(ServerPool serverPool, IdleConnection idle) {
+        if (System.nanoTime() - idle.idleSince > maxIdleNanos || !idle.channel.isOpen()) {
+            return false;
+        }
+
+        try {
+            idle.channel.configureBlocking(false);
+            final int read;
+            // Whatever lands in the probe is thrown away with the connection, only its position has to be reset
+            synchronized (serverPool.probe) {
+                serverPool.probe.clear();
+                read = idle.channel.read(serverPool.probe);
+            }
+            idle.channel.configureBlocking(true);
+            return read == 0;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private record IdleConnection(SocketChannel channel, long idleSince) {
+    }
+
+    /*
+     * Idle connections to one server, the counter saves walking the deque for its size
+     */
+    private static class ServerPool {
+
+        private final Deque<IdleConnection> connections = new ConcurrentLinkedDeque<>();
+        private final AtomicInteger idle = new AtomicInteger();
+
+        // Only one refill per server at a time
+        private final AtomicBoolean refilling = new AtomicBoolean(false);
+
+        // One byte to read into when checking an idle connection, saves allocating one on every poll()
+        private final ByteBuffer probe = ByteBuffer.allocate(1);
+
+        // Backend pools using the server, only changed inside serverPools.merge() and computeIfPresent()
+        private int users = 1;
+    }
+}
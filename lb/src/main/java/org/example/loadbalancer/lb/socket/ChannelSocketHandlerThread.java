@@ -0,0 +1,272 @@
+package org.example.loadbalancer.lb.socket;
+
+import org.example.loadbalancer.lb.buffer.BufferPool;
+import org.example.loadbalancer.lb.log.Log;
+import org.example.loadbalancer.lb.proxy.ProxyHeader;
+import org.example.loadbalancer.lb.proxy.ProxyProtocol;
+import org.example.loadbalancer.lb.strategy.BackendStats;
+import org.example.loadbalancer.lb.tls.TlsTerminator;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.example.loadbalancer.lb.util.Helper.closeChannel;
+import static org.example.loadbalancer.lb.util.Helper.getRemoteAddress;
+import static org.example.loadbalancer.lb.util.Helper.shutdownOutput;
+
+/*
+ * Full-duplex relay built on SocketChannels rather than socket streams. Each direction reads into a direct ByteBuffer
+ * borrowed from the shared BufferPool and writes out exactly the bytes that were read, so the data never passes
+ * through the Java heap and a warm pool means a relay allocates no buffers at all.
+ *
+ * Half-close and timeout handling matches StreamingSocketHandlerThread. With a TlsTerminator the client side is
+ * decrypted before the backend is even connected to, and the backend gets plain TCP.
+ *
+ * A PROXY header from the client is read into the client -> server buffer ahead of the TLS handshake, which gets any
+ * bytes read past the header. Ours is written into the same buffer in front of the client's first bytes, and the
+ * upstream pump sends both before it reads anything else.
+ */
+public class ChannelSocketHandlerThread implements SocketHandler {
+
+    private final InetSocketAddress targetServer;
+    private final SocketChannel clientChannel;
+    private final int bufferSizeBytes;
+    private final BufferPool bufferPool;
+    private final RelayStats relayStats;
+    private final BackendConnectionPool backendPool;
+    private final RelayTimeouts timeouts;
+
+    // Terminates TLS on the client connection, null for plain TCP
+    private final TlsTerminator tls;
+    private final ProxyProtocol proxyProtocol;
+
+    // Closed by timeouts and aborts along with the client, null until connected
+    private volatile SocketChannel serverChannel;
+    // Client named by the PROXY header the connection started with, null until one has been read
+    private volatile InetSocketAddress clientAddress;
+
+    // First failure seen by either pump, the other pump only sees the sockets being closed under it
+    private final AtomicReference<RelayOutcome> failure = new AtomicReference<>();
+
+    public ChannelSocketHandlerThread(Socket clientSocket, InetSocketAddress targetServer, int bufferSizeBytes, BufferPool bufferPool) {
+        this(clientSocket, targetServer, bufferSizeBytes, bufferPool, null, BackendConnectionPool.unpooled());
+    }
+
+    public ChannelSocketHandlerThread(Socket clientSocket, InetSocketAddress targetServer, int bufferSizeBytes, BufferPool bufferPool,
+                                      BackendStats.ServerStats serverStats, BackendConnectionPool backendPool) {
+        this(clientSocket, targetServer, bufferSizeBytes, bufferPool, serverStats, backendPool, RelayTimeouts.none());
+    }
+
+    public ChannelSocketHandlerThread(Socket clientSocket, InetSocketAddress targetServer, int bufferSizeBytes, BufferPool bufferPool,
+                                      BackendStats.ServerStats serverStats, BackendConnectionPool backendPool, RelayTimeouts timeouts) {
+        this(clientSocket, targetServer, bufferSizeBytes, bufferPool, serverStats, backendPool, timeouts, null);
+    }
+
+    public ChannelSocketHandlerThread(Socket clientSocket, InetSocketAddress targetServer, int bufferSizeBytes, BufferPool bufferPool,
+                                      BackendStats.ServerStats serverStats, BackendConnectionPool backendPool, RelayTimeouts timeouts,
+                                      TlsTerminator tls) {
+        this(clientSocket, targetServer, bufferSizeBytes, bufferPool, serverStats, backendPool, timeouts, tls, ProxyProtocol.NONE);
+    }
+
+    /**
+     * @param clientSocket Accepted client socket, must have been created by a ServerSocketChannel
+     * @param targetServer Backend server to relay to
+     * @param bufferSizeBytes Size of the buffer used for each direction
+     * @param bufferPool Pool the buffers are borrowed from
+     * @param serverStats Stats of the target server that connect and response latency are recorded against, may be null
+     * @param backendPool Pool the backend connection is taken from
+     * @param timeouts Idle and lifetime timeouts of the relay
+     * @param tls Terminates TLS on the client connection, null to relay it as it is
+     * @param proxyProtocol PROXY headers expected from the client and sent to the backend
+     */
+    public ChannelSocketHandlerThread(Socket clientSocket, InetSocketAddress targetServer, int bufferSizeBytes, BufferPool bufferPool,
+                                      BackendStats.ServerStats serverStats, BackendConnectionPool backendPool, RelayTimeouts timeouts,
+                                      TlsTerminator tls, ProxyProtocol proxyProtocol) {
+        if (clientSocket.getChannel() == null) {
+            throw new IllegalArgumentException("Client socket has no channel: " + clientSocket);
+        }
+        this.clientChannel = clientSocket.getChannel();
+        this.targetServer = targetServer;
+        this.bufferSizeBytes = bufferSizeBytes;
+        this.bufferPool = bufferPool;
+        this.relayStats = new RelayStats(serverStats);
+        this.backendPool = backendPool;
+        this.timeouts = timeouts;
+        this.tls = tls;
+        this.proxyProtocol = proxyProtocol;
+    }
+
+    @Override
+    public RelayOutcome runThread() {
+        RelayTimeouts.RelayDeadline deadline = null;
+        // Client -> server buffer, the upstream pump releases it once it has been handed over
+        ByteBuffer upstreamBuffer = bufferPool.acquire(bufferSizeBytes);
+
+        try {
+            final String clientIp = getRemoteAddress(clientChannel);
+            // Started before anything is read, a client that never sends its PROXY header or handshake times out too
+            deadline = timeouts.watch(targetServer, relayStats, () -> {
+                closeChannel(clientChannel);
+                closeChannel(serverChannel);
+            });
+
+            InetSocketAddress source = (InetSocketAddress) clientChannel.socket().getRemoteSocketAddress();
+            InetSocketAddress destination = (InetSocketAddress) clientChannel.socket().getLocalSocketAddress();
+            int payloadStart = proxyProtocol.headerRoom();
+            upstreamBuffer.position(payloadStart);
+            if (proxyProtocol.isAccepting()) {
+                final ProxyHeader header;
+                try {
+                    header = ProxyHeader.read(clientChannel, upstreamBuffer);
+                } catch (IOException e) {
+                    return deadline.isExpired() ? deadline.getOutcome() : RelayOutcome.CLIENT_ERROR;
+                }
+                relayStats.addBytesFromClient(upstreamBuffer.position() - payloadStart);
+                if (header.getSource() != null) {
+                    source = header.getSource();
+                    destination = header.getDestination();
+                    clientAddress = source;
+                }
+                payloadStart += header.getLength();
+            }
+            // Anything read past the header is the start of the TLS handshake, or the first bytes for the backend
+            upstreamBuffer.flip().position(payloadStart);
+
+            final ByteChannel client;
+            try {
+                client = tls != null ? tls.handshake(clientChannel, upstreamBuffer) : clientChannel;
+            } catch (IOException e) {
+                return deadline.isExpired() ? deadline.getOutcome() : RelayOutcome.CLIENT_ERROR;
+            }
+            if (tls != null) {
+                upstreamBuffer.limit(payloadStart);
+            }
+
+            if (Log.isDebugEnabled()) {
+                Log.debug("%s connecting to backend server: %s", clientIp, targetServer);
+            }
+
+            final long connectStartedAt = System.nanoTime();
+            final SocketChannel warm = backendPool.poll(targetServer);
+            try {
+                serverChannel = warm != null ? warm : backendPool.connect(targetServer);
+            } catch (IOException e) {
+                System.out.printf("Error connecting socket %s to %s (%s)%n", clientIp, targetServer, e.getMessage());
+                return RelayOutcome.BACKEND_CONNECT_FAILED;
+            }
+            relayStats.connected(connectStartedAt, warm != null);
+
+            if (Log.isDebugEnabled()) {
+                Log.debug("Connected to %s", targetServer);
+            }
+
+            // Our PROXY header goes right in front of the client's first bytes
+            upstreamBuffer.position(proxyProtocol.encode(source, destination, upstreamBuffer, upstreamBuffer.position()));
+
+            // client -> server runs on its own virtual thread, server -> client on this one
+            final SocketChannel backend = serverChannel;
+            final ByteBuffer pending = upstreamBuffer;
+            upstreamBuffer = null;
+            final FutureTask<Void> upstream = new FutureTask<>(() -> pump(client, backend, true, pending), null);
+            Thread.ofVirtual().name("relay-" + clientIp).start(upstream);
+
+            pump(backend, client, false, bufferPool.acquire(bufferSizeBytes).limit(0));
+            upstream.get();
+
+            if (Log.isDebugEnabled()) {
+                Log.debug("Closed %s -> %s (%d bytes sent, %d bytes received)", clientIp, targetServer,
+                        relayStats.getBytesFromClient(), relayStats.getBytesFromServer());
+            }
+
+            final RelayOutcome outcome = deadline.isExpired() ? deadline.getOutcome() : failure.get();
+            return outcome != null ? outcome : RelayOutcome.COMPLETED;
+        } catch (ExecutionException e) {
+            System.out.printf("Error relaying socket %s to %s (%s)%n", getRemoteAddress(clientChannel), targetServer, e.getMessage());
+            return RelayOutcome.ABORTED;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return RelayOutcome.ABORTED;
+        } finally {
+            if (deadline != null) {
+                deadline.cancel();
+            }
+            if (upstreamBuffer != null) {
+                bufferPool.release(upstreamBuffer);
+            }
+            closeChannel(serverChannel);
+            closeChannel(clientChannel);
+        }
+    }
+
+    @Override
+    public RelayStats getRelayStats() {
+        return relayStats;
+    }
+
+    @Override
+    public InetSocketAddress getClientAddress() {
+        return clientAddress;
+    }
+
+    /**
+     * Copy bytes from one channel to the other until end of stream, then half-close the destination. An I/O error is
+     * recorded against the side it happened on.
+     *
+     * @param from Channel to read from
+     * @param to Channel to write to
+     * @param fromClient true when pumping client -> server, used to update the right byte counter
+     * @param buffer Buffer borrowed from the pool and released here, the bytes between its position and limit are
+     *               written before anything is read
+     */
+    private void pump(ByteChannel from, ByteChannel to, boolean fromClient, ByteBuffer buffer) {
+        // Reads fail on the source's side, writes and the half-close on the destination's
+        boolean reading = false;
+
+        try {
+            while (buffer.hasRemaining()) {
+                to.write(buffer);
+            }
+            buffer.clear();
+            reading = true;
+
+            int len;
+            while ((len = from.read(buffer)) >= 0) {
+                if (len > 0) {
+                    reading = false;
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        to.write(buffer);
+                    }
+                    buffer.clear();
+                    reading = true;
+
+                    if (fromClient) {
+                        relayStats.addBytesFromClient(len);
+                    } else {
+                        relayStats.addBytesFromServer(len);
+                    }
+                }
+            }
+
+            // Source has half-closed, pass the FIN on but leave the other direction running
+            reading = false;
+            if (to.isOpen()) {
+                shutdownOutput(to);
+            }
+        } catch (IOException e) {
+            // One direction failed, close both channels so the opposite pump is unblocked as well
+            failure.compareAndSet(null, RelayOutcome.errorOn(reading == fromClient));
+            closeChannel(from);
+            closeChannel(to);
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+}
@@ -0,0 +1,336 @@
+package org.example.loadbalancer.lb.socket;
+
+import org.example.loadbalancer.lb.metrics.Counter;
+import org.example.loadbalancer.lb.metrics.MetricsRegistry;
+import org.example.loadbalancer.lb.strategy.BackendStats;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+import static org.example.loadbalancer.lb.util.Helper.closeChannel;
+
+/*
+ * UDP relay. One non-blocking DatagramChannel receives every client's datagrams, and each flow (client address and
+ * port) sticks to the backend the FlowSelector picked for its first datagram. A flow has a connected DatagramChannel of
+ * its own to that backend, so a reply arrives on a channel that already knows its client, and goes back out of the
+ * channel the client sent to, from the address it expects.
+ *
+ * Everything runs on one thread driving one Selector. A readable channel is drained of up to batchSize datagrams
+ * before going back to select(), so a busy flow pays for one wakeup per batch rather than per datagram, and the
+ * counters are only added to once per batch. Every datagram goes through the same direct buffer. Looking up its flow
+ * allocates nothing: receive() hands back the same address object for as long as the sender stays the same, and
+ * FlowTable hashes and compares it as it is.
+ *
+ * A flow ends once it has been idle for the flow idle timeout, when the backend answers with ICMP port unreachable, or
+ * when it is aborted, e.g. by a drain. Each flow is reported to the RelayListener like a TCP relay.
+ */
+public class DatagramRelay implements Runnable {
+
+    // Big enough for any UDP payload, bigger datagrams can't exist
+    private static final int MAX_DATAGRAM_SIZE = 64 * 1024;
+
+    private final DatagramChannel frontChannel;
+    private final FlowSelector flowSelector;
+    private final BackendStats backendStats;
+    private final RelayListener relayListener;
+    private final RelayTimeouts timeouts;
+    private final long flowIdleTimeoutMs;
+    private final int maxFlows;
+    private final int batchSize;
+
+    private final Selector selector;
+    private final FlowTable<Flow> flows;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+    // Kept rather than passing this::handleKey to every select(), which would allocate it each time
+    private final Consumer<SelectionKey> keyHandler = this::handleKey;
+
+    // Flows whose deadline passed or that were aborted, closed by the relay thread
+    private final Queue<Flow> expired = new ConcurrentLinkedQueue<>();
+    private volatile boolean running = true;
+    private volatile boolean acceptingFlows = true;
+
+    private final Counter datagramsToBackend;
+    private final Counter datagramsToClient;
+    private final Counter droppedNoBackend;
+    private final Counter droppedFlowLimit;
+    private final Counter droppedDraining;
+    private final Counter droppedSendFailed;
+
+    /**
+     * @param frontChannel Bound channel clients send to, switched to non-blocking
+     * @param flowSelector Picks the backend of every new flow
+     * @param backendStats Flows record their response latency against these
+     * @param relayListener Told about every flow once it is closed
+     * @param timeouts Flow idle deadlines are kept here, and flows can be aborted through it
+     * @param flowIdleTimeoutMs Flows with no datagram either way for this long are closed, 0 keeps them open
+     * @param maxFlows Open flows, datagrams from new clients are dropped beyond that. 0 means unlimited
+     * @param batchSize Datagrams read from one channel before looking at the others
+     * @param registry Registry to add the datagram metrics to
+     * @throws IOException if the Selector could not be opened
+     */
+    public DatagramRelay(DatagramChannel frontChannel, FlowSelector flowSelector, BackendStats backendStats, RelayListener relayListener,
+                         RelayTimeouts timeouts, long flowIdleTimeoutMs, int maxFlows, int batchSize, MetricsRegistry registry) throws IOException {
+        this.frontChannel = frontChannel;
+        this.flowSelector = flowSelector;
+        this.backendStats = backendStats;
+        this.relayListener = relayListener;
+        this.timeouts = timeouts;
+        this.flowIdleTimeoutMs = flowIdleTimeoutMs;
+        this.maxFlows = maxFlows;
+        this.batchSize = Math.max(1, batchSize);
+        this.flows = new FlowTable<>(maxFlows > 0 ? Math.min(maxFlows, 4096) : 4096);
+        this.selector = Selector.open();
+
+        this.datagramsToBackend = registry.counter("lb_udp_datagrams_total", "UDP datagrams relayed", "direction", "to_backend");
+        this.datagramsToClient = registry.counter("lb_udp_datagrams_total", "UDP datagrams relayed", "direction", "to_client");
+        this.droppedNoBackend = registry.counter("lb_udp_datagrams_dropped_total", "UDP datagrams dropped", "reason", "no_backend");
+        this.droppedFlowLimit = registry.counter("lb_udp_datagrams_dropped_total", "UDP datagrams dropped", "reason", "flow_limit");
+        this.droppedDraining = registry.counter("lb_udp_datagrams_dropped_total", "UDP datagrams dropped", "reason", "draining");
+        this.droppedSendFailed = registry.counter("lb_udp_datagrams_dropped_total", "UDP datagrams dropped", "reason", "send_failed");
+    }
+
+    /**
+     * Relay datagrams until shutdown(), or until stopNewFlows() has been called and the last flow has closed
+     */
+    @Override
+    public void run() {
+        try {
+            frontChannel.configureBlocking(false);
+            frontChannel.register(selector, SelectionKey.OP_READ);
+
+            while (running) {
+                closeExpired();
+                if (!acceptingFlows && flows.size() == 0) {
+                    break;
+                }
+                selector.select(keyHandler);
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            System.out.printf("UDP relay stopped (%s)%n", e.getMessage());
+        } finally {
+            for (Flow flow : flows.values()) {
+                closeFlow(flow, RelayOutcome.ABORTED);
+            }
+            closeChannel(selector);
+        }
+    }
+
+    /**
+     * Drop datagrams from new clients, the open flows keep being relayed until they go idle or are aborted. run()
+     * returns once the last one has closed. Safe to call from any thread.
+     */
+    public void stopNewFlows() {
+        acceptingFlows = false;
+        selector.wakeup();
+    }
+
+    /**
+     * Ask the relay to exit, every flow still open is closed as ABORTED. Safe to call from any thread.
+     */
+    public void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    private void handleKey(SelectionKey key) {
+        if (!key.isValid()) {
+            return;
+        }
+        if (key.attachment() instanceof Flow flow) {
+            receiveFromBackend(flow);
+        } else {
+            receiveFromClients();
+        }
+    }
+
+    /**
+     * Forward a batch of client datagrams, each to the backend of its flow
+     */
+    private void receiveFromClients() {
+        int received = 0;
+        // Only the ones written to a backend, drops are counted by reason
+        int relayed = 0;
+        try {
+            while (received < batchSize) {
+                buffer.clear();
+                final InetSocketAddress client = (InetSocketAddress) frontChannel.receive(buffer);
+                if (client == null) {
+                    break;
+                }
+                received++;
+
+                Flow flow = flows.get(client);
+                if (flow == null && (flow = openFlow(client)) == null) {
+                    continue;
+                }
+
+                buffer.flip();
+                final int bytes = buffer.remaining();
+                try {
+                    if (flow.channel.write(buffer) == 0) {
+                        // Socket send buffer full, UDP may drop it anyway so we don't queue it
+                        droppedSendFailed.increment();
+                        continue;
+                    }
+                    flow.stats.addBytesFromClient(bytes);
+                    relayed++;
+                } catch (PortUnreachableException e) {
+                    // ICMP from an earlier datagram, nothing listens on the backend's port
+                    closeFlow(flow, RelayOutcome.BACKEND_CONNECT_FAILED);
+                } catch (IOException e) {
+                    closeFlow(flow, RelayOutcome.BACKEND_ERROR);
+                }
+            }
+        } catch (IOException e) {
+            if (!frontChannel.isOpen()) {
+                running = false;
+                return;
+            }
+            System.out.printf("Error receiving UDP datagram (%s)%n", e.getMessage());
+        } finally {
+            datagramsToBackend.add(relayed);
+        }
+    }
+
+    /**
+     * Send a batch of backend replies back to the flow's client
+     */
+    private void receiveFromBackend(Flow flow) {
+        int received = 0;
+        int relayed = 0;
+        try {
+            while (received < batchSize) {
+                buffer.clear();
+                if (flow.channel.receive(buffer) == null) {
+                    break;
+                }
+                received++;
+
+                buffer.flip();
+                final int bytes = buffer.remaining();
+                if (sendToClient(flow.client)) {
+                    flow.stats.addBytesFromServer(bytes);
+                    relayed++;
+                }
+            }
+        } catch (PortUnreachableException e) {
+            closeFlow(flow, RelayOutcome.BACKEND_CONNECT_FAILED);
+        } catch (IOException e) {
+            closeFlow(flow, RelayOutcome.BACKEND_ERROR);
+        } finally {
+            datagramsToClient.add(relayed);
+        }
+    }
+
+    /**
+     * @param client Client to send what is in the buffer to
+     * @return true if it was sent, a client we can't send to doesn't fail its flow
+     */
+    private boolean sendToClient(InetSocketAddress client) {
+        try {
+            if (frontChannel.send(buffer, client) > 0) {
+                return true;
+            }
+        } catch (IOException e) {
+            // Counted as dropped below
+        }
+        droppedSendFailed.increment();
+        return false;
+    }
+
+    /**
+     * @param client Client that sent a datagram with no flow yet
+     * @return The new flow, or null if the datagram has to be dropped
+     */
+    private Flow openFlow(InetSocketAddress client) {
+        if (!acceptingFlows) {
+            droppedDraining.increment();
+            return null;
+        }
+        if (maxFlows > 0 && flows.size() >= maxFlows) {
+            droppedFlowLimit.increment();
+            return null;
+        }
+
+        final SelectedBackend backend = flowSelector.select(client);
+        if (backend == null) {
+            droppedNoBackend.increment();
+            return null;
+        }
+        final InetSocketAddress server = backend.getServer();
+
+        DatagramChannel channel = null;
+        try {
+            channel = DatagramChannel.open();
+            channel.configureBlocking(false);
+            // Only sets the peer, nothing is sent. Replies from anywhere else are filtered out by the kernel.
+            channel.connect(server);
+            final Flow flow = new Flow(client, backend, channel, new RelayStats(backendStats.get(server)));
+            channel.register(selector, SelectionKey.OP_READ, flow);
+            flow.deadline = timeouts.watchFlow(server, flow.stats, flowIdleTimeoutMs, () -> {
+                expired.add(flow);
+                selector.wakeup();
+            });
+            flows.put(client, flow);
+            return flow;
+        } catch (IOException e) {
+            closeChannel(channel);
+            flowSelector.finished(backend, RelayOutcome.BACKEND_CONNECT_FAILED);
+            droppedNoBackend.increment();
+            return null;
+        }
+    }
+
+    private void closeExpired() {
+        Flow flow;
+        while ((flow = expired.poll()) != null) {
+            // A UDP flow has no close, going idle is how it normally ends
+            final RelayOutcome outcome = flow.deadline.getOutcome();
+            closeFlow(flow, outcome == RelayOutcome.TIMED_OUT ? RelayOutcome.COMPLETED : outcome);
+        }
+    }
+
+    private void closeFlow(Flow flow, RelayOutcome outcome) {
+        if (flow.closed) {
+            return;
+        }
+        flow.closed = true;
+        flows.remove(flow.client);
+        flow.deadline.cancel();
+        closeChannel(flow.channel);
+        flowSelector.finished(flow.backend, outcome);
+        relayListener.relayFinished(flow.client, flow.server, flow.stats, outcome, flow.startedAt);
+    }
+
+    /*
+     * One client address and port, and the backend its datagrams go to
+     */
+    private static final class Flow {
+
+        private final InetSocketAddress client;
+        private final SelectedBackend backend;
+        private final InetSocketAddress server;
+        private final DatagramChannel channel;
+        private final RelayStats stats;
+        private final long startedAt = System.nanoTime();
+        private RelayTimeouts.RelayDeadline deadline;
+        private boolean closed;
+
+        private Flow(InetSocketAddress client, SelectedBackend backend, DatagramChannel channel, RelayStats stats) {
+            this.client = client;
+            this.backend = backend;
+            this.server = backend.getServer();
+            this.channel = channel;
+            this.stats = stats;
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package org.example.loadbalancer.lb.socket;
+
+/**
+ * How accepted connections are serviced
+ */
+public enum EngineType {
+    // Blocking relay on a virtual thread per connection, created through SocketHandlerThreadAbstractFactory
+    THREAD_PER_CONNECTION,
+    // Non-blocking relay on a fixed set of Selector event loops, see EventLoopGroup
+    EVENT_LOOP;
+}
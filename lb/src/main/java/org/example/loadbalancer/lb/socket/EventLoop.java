@@ -0,0 +1,117 @@
+package org.example.loadbalancer.lb.socket;
+
+import org.example.loadbalancer.lb.metrics.Counter;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static org.example.loadbalancer.lb.util.Helper.closeChannel;
+
+/*
+ * A single thread driving one Selector. Channels are only ever touched from this thread, other threads hand work over
+ * with execute(), which queues the task and wakes the selector up.
+ *
+ * Every connection on the loop shares its thread, so an unexpected exception while handling one relay (a key cancelled
+ * under it, a bug in a listener) closes that relay and is counted, rather than taking the loop down with it.
+ */
+public class EventLoop implements Runnable {
+
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    // Relays and tasks that threw something other than an IOException, which they handle themselves
+    private final Counter errors = new Counter();
+    private volatile boolean running = true;
+
+    public EventLoop() throws IOException {
+        this.selector = Selector.open();
+    }
+
+    /**
+     * Run a task on the event loop thread
+     * @param task Task to run, typically registering a new channel
+     */
+    public void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * Ask the loop to exit, every channel still registered with it is closed
+     */
+    public void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    Selector getSelector() {
+        return selector;
+    }
+
+    long getErrors() {
+        return errors.get();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                runTasks();
+                selector.select();
+
+                for (SelectionKey key : selector.selectedKeys()) {
+                    final EventLoopRelay relay = (EventLoopRelay) key.attachment();
+                    try {
+                        relay.handle(key);
+                    } catch (RuntimeException e) {
+                        errors.increment();
+                        System.out.printf("Closing relay after unexpected error (%s)%n", e);
+                        abort(relay);
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            System.out.printf("Event loop stopped (%s)%n", e.getMessage());
+        } finally {
+            closeAll();
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                errors.increment();
+                System.out.printf("Event loop task failed (%s)%n", e);
+            }
+        }
+    }
+
+    /**
+     * Close a relay that threw, without letting a second failure out of the loop
+     *
+     * @param relay Relay to close
+     */
+    private static void abort(EventLoopRelay relay) {
+        try {
+            relay.close(RelayOutcome.ABORTED);
+        } catch (RuntimeException e) {
+            System.out.printf("Error closing relay (%s)%n", e);
+        }
+    }
+
+    private void closeAll() {
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof EventLoopRelay relay) {
+                relay.close(RelayOutcome.ABORTED);
+            }
+        }
+        closeChannel(selector);
+    }
+}
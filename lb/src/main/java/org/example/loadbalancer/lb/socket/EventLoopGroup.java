@@ -0,0 +1,128 @@
+package org.example.loadbalancer.lb.socket;
+
+import org.example.loadbalancer.lb.buffer.BufferPool;
+import org.example.loadbalancer.lb.proxy.ProxyProtocol;
+import org.example.loadbalancer.lb.strategy.BackendStats;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.example.loadbalancer.lb.util.Helper.closeChannel;
+
+/*
+ * Alternative to a virtual thread per connection: a fixed set of event loops, normally one per core, each with its
+ * own Selector. Accepted connections are spread across the loops round-robin and relayed with non-blocking I/O.
+ */
+public class EventLoopGroup implements AutoCloseable {
+
+    private final EventLoop[] eventLoops;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    private final BufferPool bufferPool;
+    private final int bufferSizeBytes;
+    private final BackendStats backendStats;
+    private final BackendConnectionPool backendPool;
+    private final RelayListener relayListener;
+    private final RelayTimeouts timeouts;
+
+    public EventLoopGroup(int threads, BufferPool bufferPool, int bufferSizeBytes) throws IOException {
+        this(threads, bufferPool, bufferSizeBytes, new BackendStats(), BackendConnectionPool.unpooled());
+    }
+
+    public EventLoopGroup(int threads, BufferPool bufferPool, int bufferSizeBytes, BackendStats backendStats, BackendConnectionPool backendPool) throws IOException {
+        this(threads, bufferPool, bufferSizeBytes, backendStats, backendPool, RelayListener.NONE);
+    }
+
+    public EventLoopGroup(int threads, BufferPool bufferPool, int bufferSizeBytes, BackendStats backendStats, BackendConnectionPool backendPool,
+                          RelayListener relayListener) throws IOException {
+        this(threads, bufferPool, bufferSizeBytes, backendStats, backendPool, relayListener, RelayTimeouts.none());
+    }
+
+    /**
+     * @param threads Number of event loops to start
+     * @param bufferPool Pool the relay buffers are borrowed from
+     * @param bufferSizeBytes Size of the buffer used for each direction
+     * @param backendStats Per-backend stats that relay latencies are recorded against
+     * @param backendPool Warm backend connections are used from here when it has any
+     * @param relayListener Told about every finished relay
+     * @param timeouts Connect, idle and lifetime timeouts of every relay
+     * @throws IOException Thrown if a Selector could not be opened
+     */
+    public EventLoopGroup(int threads, BufferPool bufferPool, int bufferSizeBytes, BackendStats backendStats, BackendConnectionPool backendPool,
+                          RelayListener relayListener, RelayTimeouts timeouts) throws IOException {
+        this.bufferPool = bufferPool;
+        this.bufferSizeBytes = bufferSizeBytes;
+        this.backendStats = backendStats;
+        this.backendPool = backendPool;
+        this.relayListener = relayListener;
+        this.timeouts = timeouts;
+        this.eventLoops = new EventLoop[threads];
+
+        for (int i = 0; i < threads; i++) {
+            eventLoops[i] = new EventLoop();
+            Thread.ofPlatform().name("lb-event-loop-" + i).daemon().start(eventLoops[i]);
+        }
+    }
+
+    /**
+     * Hand an accepted client connection to one of the event loops, which connects to the target server (unless the
+     * backend pool had a warm connection) and relays bytes until both sides have closed.
+     *
+     * @param clientChannel Accepted client connection
+     * @param targetServer Backend server to relay to
+     * @return Completes with how the relay ended
+     */
+    public CompletableFuture<RelayOutcome> register(SocketChannel clientChannel, InetSocketAddress targetServer) {
+        return register(clientChannel, targetServer, ProxyProtocol.NONE);
+    }
+
+    /**
+     * Same as register(SocketChannel, InetSocketAddress), for listeners that take or send PROXY headers
+     *
+     * @param clientChannel Accepted client connection
+     * @param targetServer Backend server to relay to
+     * @param proxyProtocol PROXY headers expected from the client and sent to the backend
+     * @return Completes with how the relay ended
+     */
+    public CompletableFuture<RelayOutcome> register(SocketChannel clientChannel, InetSocketAddress targetServer, ProxyProtocol proxyProtocol) {
+        SocketChannel serverChannel = backendPool.poll(targetServer);
+        try {
+            if (serverChannel == null) {
+                serverChannel = SocketChannel.open();
+                serverChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            }
+        } catch (IOException e) {
+            closeChannel(serverChannel);
+            closeChannel(clientChannel);
+            return CompletableFuture.failedFuture(e);
+        }
+
+        final EventLoopRelay relay = new EventLoopRelay(clientChannel, serverChannel, targetServer, bufferPool, bufferSizeBytes,
+                backendStats.get(targetServer), relayListener, timeouts, proxyProtocol);
+        final EventLoop eventLoop = eventLoops[Math.floorMod(nextLoop.getAndIncrement(), eventLoops.length)];
+        eventLoop.execute(() -> relay.start(eventLoop));
+
+        return relay.getFuture();
+    }
+
+    /**
+     * @return Relays closed because handling them threw an unexpected exception, over every loop
+     */
+    public long getRelayErrors() {
+        long errors = 0;
+        for (EventLoop eventLoop : eventLoops) {
+            errors += eventLoop.getErrors();
+        }
+        return errors;
+    }
+
+    @Override
+    public void close() {
+        for (EventLoop eventLoop : eventLoops) {
+            eventLoop.shutdown();
+        }
+    }
+}
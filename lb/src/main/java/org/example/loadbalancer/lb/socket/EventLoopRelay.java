@@ -0,0 +1,379 @@
+package org.example.loadbalancer.lb.socket;
+
+import org.example.loadbalancer.lb.buffer.BufferPool;
+import org.example.loadbalancer.lb.log.Log;
+import org.example.loadbalancer.lb.proxy.ProxyHeader;
+import org.example.loadbalancer.lb.proxy.ProxyProtocol;
+import org.example.loadbalancer.lb.strategy.BackendStats;
+import org.example.loadbalancer.lb.timer.Timeout;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CompletableFuture;
+
+import static org.example.loadbalancer.lb.util.Helper.closeChannel;
+import static org.example.loadbalancer.lb.util.Helper.getRemoteAddress;
+
+/*
+ * Non-blocking relay for one client connection, driven entirely by its EventLoop thread.
+ *
+ * Each direction owns a buffer that is only borrowed from the BufferPool while it holds unsent bytes, so idle
+ * connections cost two channels and no buffer memory. Backpressure is done with interest ops: while a direction has
+ * bytes the destination would not accept, we stop reading from its source and wait for OP_WRITE on the destination.
+ * A half-close is forwarded with shutdownOutput() once the buffered bytes are flushed, and the relay completes when
+ * both directions are done.
+ *
+ * Timeouts fire on the timer thread, which only hands the close over to the relay's event loop.
+ *
+ * A PROXY header from the client is read into the upstream buffer like any other bytes, but nothing is written until
+ * it has been decoded. Ours is encoded into the same buffer in front of the client's first bytes and goes out with the
+ * first flush, or on its own as soon as the backend is connected if the client has no header to wait for.
+ */
+class EventLoopRelay {
+
+    private final SocketChannel clientChannel;
+    private final SocketChannel serverChannel;
+    private final InetSocketAddress targetServer;
+    private final BufferPool bufferPool;
+    private final int bufferSizeBytes;
+    private final CompletableFuture<RelayOutcome> future = new CompletableFuture<>();
+    private final RelayStats relayStats;
+    private final RelayListener relayListener;
+    private final RelayTimeouts timeouts;
+    private final ProxyProtocol proxyProtocol;
+    private final long startedAt = System.nanoTime();
+
+    private final Direction upstream = new Direction(true);
+    private final Direction downstream = new Direction(false);
+
+    private SelectionKey clientKey;
+    private SelectionKey serverKey;
+    private boolean connected = false;
+    private long connectStartedAt;
+    // Taken warm from the backend pool, there is no connect to time
+    private boolean warm = false;
+    private Timeout connectTimeout;
+    private RelayTimeouts.RelayDeadline deadline;
+    // Client named by the PROXY header the connection started with, null until one has been decoded
+    private InetSocketAddress proxiedClient;
+
+    EventLoopRelay(SocketChannel clientChannel, SocketChannel serverChannel, InetSocketAddress targetServer, BufferPool bufferPool, int bufferSizeBytes,
+                   BackendStats.ServerStats serverStats, RelayListener relayListener, RelayTimeouts timeouts, ProxyProtocol proxyProtocol) {
+        this.clientChannel = clientChannel;
+        this.serverChannel = serverChannel;
+        this.targetServer = targetServer;
+        this.bufferPool = bufferPool;
+        this.bufferSizeBytes = bufferSizeBytes;
+        this.relayStats = new RelayStats(serverStats);
+        this.relayListener = relayListener;
+        this.timeouts = timeouts;
+        this.proxyProtocol = proxyProtocol;
+        this.upstream.awaitingHeader = proxyProtocol.isAccepting();
+    }
+
+    CompletableFuture<RelayOutcome> getFuture() {
+        return future;
+    }
+
+    RelayStats getRelayStats() {
+        return relayStats;
+    }
+
+    /**
+     * Register both channels with the loop's selector and start connecting to the backend. Must run on the loop thread.
+     * @param eventLoop Loop that will own this relay
+     */
+    void start(EventLoop eventLoop) {
+        try {
+            clientChannel.configureBlocking(false);
+            serverChannel.configureBlocking(false);
+
+            clientKey = clientChannel.register(eventLoop.getSelector(), 0, this);
+            serverKey = serverChannel.register(eventLoop.getSelector(), 0, this);
+            deadline = timeouts.watch(targetServer, relayStats, () -> eventLoop.execute(() -> close(deadline.getOutcome())));
+
+            connectStartedAt = System.nanoTime();
+            // Channels from the backend pool arrive connected
+            warm = serverChannel.isConnected();
+            if (warm || serverChannel.connect(targetServer)) {
+                onConnected();
+            } else {
+                serverKey.interestOps(SelectionKey.OP_CONNECT);
+                connectTimeout = timeouts.connectTimeout(() -> eventLoop.execute(this::connectTimedOut));
+            }
+        } catch (IOException e) {
+            System.out.printf("Error connecting socket %s to %s (%s)%n", getRemoteAddress(clientChannel), targetServer, e.getMessage());
+            close(RelayOutcome.BACKEND_CONNECT_FAILED);
+        }
+    }
+
+    /**
+     * Called by the event loop for every ready key belonging to this relay
+     * @param key Selected key, either the client's or the server's
+     */
+    void handle(SelectionKey key) {
+        if (!key.isValid()) {
+            return;
+        }
+
+        if (key.isConnectable()) {
+            try {
+                serverChannel.finishConnect();
+            } catch (IOException e) {
+                System.out.printf("Error connecting socket %s to %s (%s)%n", getRemoteAddress(clientChannel), targetServer, e.getMessage());
+                close(RelayOutcome.BACKEND_CONNECT_FAILED);
+                return;
+            }
+            onConnected();
+            return;
+        }
+
+        final boolean isClient = key == clientKey;
+        if (key.isWritable()) {
+            flush(isClient ? downstream : upstream);
+        }
+        if (key.isValid() && key.isReadable()) {
+            read(isClient ? upstream : downstream);
+        }
+
+        if (future.isDone()) {
+            // One of the channels failed and the relay has been closed
+            return;
+        }
+        if (upstream.done && downstream.done) {
+            if (Log.isDebugEnabled()) {
+                Log.debug("Closed %s -> %s (%d bytes sent, %d bytes received)", getRemoteAddress(clientChannel), targetServer,
+                        relayStats.getBytesFromClient(), relayStats.getBytesFromServer());
+            }
+            close(RelayOutcome.COMPLETED);
+        } else {
+            updateInterestOps();
+        }
+    }
+
+    /**
+     * Close both channels, hand any buffers back, complete the future and tell the relay listener
+     * @param outcome Value to complete the future with
+     */
+    void close(RelayOutcome outcome) {
+        // The remote address is gone once the channel is closed
+        final InetSocketAddress clientAddress = proxiedClient != null ? proxiedClient : (InetSocketAddress) clientChannel.socket().getRemoteSocketAddress();
+        if (connectTimeout != null) {
+            connectTimeout.cancel();
+        }
+        if (deadline != null) {
+            deadline.cancel();
+        }
+        closeChannel(clientChannel);
+        closeChannel(serverChannel);
+        upstream.releaseBuffer();
+        downstream.releaseBuffer();
+        if (future.complete(outcome)) {
+            relayListener.relayFinished(clientAddress, targetServer, relayStats, outcome, startedAt);
+        }
+    }
+
+    private void onConnected() {
+        if (connectTimeout != null) {
+            connectTimeout.cancel();
+        }
+        if (Log.isDebugEnabled()) {
+            Log.debug("Connected to %s", targetServer);
+        }
+        relayStats.connected(connectStartedAt, warm);
+        connected = true;
+
+        if (proxyProtocol.isSending() && !proxyProtocol.isAccepting()) {
+            // Nothing to wait for, the header goes out on its own ahead of whatever the client sends
+            upstream.buffer = bufferPool.acquire(bufferSizeBytes);
+            upstream.buffer.position(proxyProtocol.headerRoom());
+            upstream.start = proxyProtocol.encode(clientAddress(), localAddress(), upstream.buffer, proxyProtocol.headerRoom());
+            flush(upstream);
+            if (future.isDone()) {
+                return;
+            }
+        }
+        updateInterestOps();
+    }
+
+    private void connectTimedOut() {
+        if (connected || future.isDone()) {
+            return;
+        }
+        System.out.printf("Error connecting socket %s to %s (Connect timed out)%n", getRemoteAddress(clientChannel), targetServer);
+        close(RelayOutcome.BACKEND_CONNECT_FAILED);
+    }
+
+    private void read(Direction direction) {
+        if (direction.buffer == null) {
+            direction.buffer = bufferPool.acquire(bufferSizeBytes);
+            if (direction.awaitingHeader) {
+                // Room for our header in front of the client's bytes, which come after theirs
+                direction.buffer.position(proxyProtocol.headerRoom());
+            }
+        }
+
+        final int len;
+        try {
+            len = direction.source().read(direction.buffer);
+        } catch (IOException e) {
+            fail(RelayOutcome.errorOn(direction.fromClient), e);
+            return;
+        }
+
+        if (len < 0) {
+            direction.eof = true;
+        } else if (direction.fromClient) {
+            relayStats.addBytesFromClient(len);
+        } else {
+            relayStats.addBytesFromServer(len);
+        }
+
+        if (direction.awaitingHeader) {
+            if (direction.eof) {
+                close(RelayOutcome.CLIENT_ERROR);
+                return;
+            }
+            try {
+                if (!receiveProxyHeader(direction.buffer)) {
+                    return;
+                }
+            } catch (ProtocolException e) {
+                fail(RelayOutcome.CLIENT_ERROR, e);
+                return;
+            }
+        }
+
+        // Write straight away, most of the time the destination takes everything and OP_WRITE is never needed
+        flush(direction);
+    }
+
+    /**
+     * Decode the client's PROXY header once it has all been read, and encode ours over it
+     *
+     * @param buffer Upstream buffer, the header was read in from headerRoom()
+     * @return true once the header has been decoded, false if more bytes are needed
+     * @throws ProtocolException if the client sent no valid header
+     */
+    private boolean receiveProxyHeader(ByteBuffer buffer) throws ProtocolException {
+        final ProxyHeader header = ProxyHeader.decode(buffer, proxyProtocol.headerRoom(), buffer.position());
+        if (header == null) {
+            return false;
+        }
+        upstream.awaitingHeader = false;
+
+        InetSocketAddress source = clientAddress();
+        InetSocketAddress destination = localAddress();
+        if (header.getSource() != null) {
+            source = proxiedClient = header.getSource();
+            destination = header.getDestination();
+        }
+        upstream.start = proxyProtocol.encode(source, destination, buffer, proxyProtocol.headerRoom() + header.getLength());
+        return true;
+    }
+
+    private InetSocketAddress clientAddress() {
+        return (InetSocketAddress) clientChannel.socket().getRemoteSocketAddress();
+    }
+
+    private InetSocketAddress localAddress() {
+        return (InetSocketAddress) clientChannel.socket().getLocalSocketAddress();
+    }
+
+    private void flush(Direction direction) {
+        if (direction.awaitingHeader) {
+            return;
+        }
+        try {
+            if (direction.buffer != null) {
+                direction.buffer.flip();
+                direction.buffer.position(direction.start);
+                direction.destination().write(direction.buffer);
+                direction.buffer.compact();
+                direction.start = 0;
+
+                if (direction.buffer.position() == 0) {
+                    direction.releaseBuffer();
+                }
+            }
+
+            if (direction.eof && direction.buffer == null && !direction.done) {
+                // Everything the source sent has been written, pass the half-close on
+                direction.destination().shutdownOutput();
+                direction.done = true;
+            }
+        } catch (IOException e) {
+            // Writes fail on the destination's side
+            fail(RelayOutcome.errorOn(!direction.fromClient), e);
+        }
+    }
+
+    private void fail(RelayOutcome outcome, IOException e) {
+        System.out.printf("Error relaying socket %s to %s (%s)%n", getRemoteAddress(clientChannel), targetServer, e.getMessage());
+        close(outcome);
+    }
+
+    private void updateInterestOps() {
+        if (!connected) {
+            return;
+        }
+        clientKey.interestOps(interestOps(upstream, downstream));
+        serverKey.interestOps(interestOps(downstream, upstream));
+    }
+
+    /**
+     * @param outgoing Direction this channel is the source of
+     * @param incoming Direction this channel is the destination of
+     * @return Interest ops for the channel
+     */
+    private static int interestOps(Direction outgoing, Direction incoming) {
+        int ops = 0;
+        // Only read more once the previous bytes have been written out, this is the backpressure. A PROXY header is
+        // read until it is whole, and nothing is written before that.
+        if (!outgoing.eof && (outgoing.buffer == null || outgoing.awaitingHeader)) {
+            ops |= SelectionKey.OP_READ;
+        }
+        if (incoming.buffer != null && !incoming.awaitingHeader) {
+            ops |= SelectionKey.OP_WRITE;
+        }
+        return ops;
+    }
+
+    /*
+     * State of one direction of the relay, client -> server or server -> client
+     */
+    private class Direction {
+
+        private final boolean fromClient;
+
+        // Bytes read from the source but not yet written, null while there are none
+        private ByteBuffer buffer;
+        // Index of the first of those bytes, only ever past 0 while a PROXY header has been put in front of them
+        private int start;
+        // The client's PROXY header is being read into the buffer, and nothing may be written yet
+        private boolean awaitingHeader;
+        private boolean eof;
+        private boolean done;
+
+        Direction(boolean fromClient) {
+            this.fromClient = fromClient;
+        }
+
+        SocketChannel source() {
+            return fromClient ? clientChannel : serverChannel;
+        }
+
+        SocketChannel destination() {
+            return fromClient ? serverChannel : clientChannel;
+        }
+
+        void releaseBuffer() {
+            bufferPool.release(buffer);
+            buffer = null;
+        }
+    }
+}
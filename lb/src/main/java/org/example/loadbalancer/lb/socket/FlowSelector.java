@@ -0,0 +1,24 @@
+package org.example.loadbalancer.lb.socket;
+
+import java.net.InetSocketAddress;
+
+/*
+ * Picks the backend server of each UDP flow, every datagram from the same client address and port goes to the backend
+ * its first datagram was sent to
+ */
+public interface FlowSelector {
+
+    /**
+     * Pick the backend for a new flow, it counts as an active connection to that backend until finished() is called
+     *
+     * @param clientAddress Client whose first datagram started the flow
+     * @return Backend server, null if none is available
+     */
+    SelectedBackend select(InetSocketAddress clientAddress);
+
+    /**
+     * @param backend Backend returned by select()
+     * @param outcome How the flow ended
+     */
+    void finished(SelectedBackend backend, RelayOutcome outcome);
+}
@@ -0,0 +1,152 @@
+package org.example.loadbalancer.lb.socket;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Map from client address to UDP flow, looked up for every datagram the relay receives. Open addressing with linear
+ * probing over two parallel arrays: a lookup hashes the address receive() returned and compares it with the few keys in
+ * its run, nothing is allocated and there are no nodes to chase, unlike HashMap. Removal shifts the entries after the
+ * removed one back instead of leaving tombstones, so lookups never slow down as flows come and go.
+ *
+ * The table is kept at most half full and doubles when it gets there. Not thread safe, only the relay thread uses it.
+ */
+class FlowTable<V> {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private InetSocketAddress[] keys;
+    private Object[] values;
+    // 32 - log2(capacity), the hash's top bits pick the slot
+    private int shift;
+    private int mask;
+    private int size;
+
+    /**
+     * @param expectedSize Flows the table should hold without growing
+     */
+    FlowTable(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expectedSize * 2L && capacity < 1 << 30) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    /**
+     * @param key Client address
+     * @return Its flow, or null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    V get(InetSocketAddress key) {
+        for (int i = slot(key); keys[i] != null; i = (i + 1) & mask) {
+            if (keys[i].equals(key)) {
+                return (V) values[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param key Client address
+     * @param value Its flow
+     * @return The flow it replaced, or null
+     */
+    @SuppressWarnings("unchecked")
+    V put(InetSocketAddress key, V value) {
+        int i = slot(key);
+        for (; keys[i] != null; i = (i + 1) & mask) {
+            if (keys[i].equals(key)) {
+                final V previous = (V) values[i];
+                values[i] = value;
+                return previous;
+            }
+        }
+
+        keys[i] = key;
+        values[i] = value;
+        if (++size > keys.length / 2) {
+            resize(keys.length * 2);
+        }
+        return null;
+    }
+
+    /**
+     * @param key Client address
+     * @return The flow removed, or null if there was none
+     */
+    @SuppressWarnings("unchecked")
+    V remove(InetSocketAddress key) {
+        int gap = slot(key);
+        while (keys[gap] != null && !keys[gap].equals(key)) {
+            gap = (gap + 1) & mask;
+        }
+        if (keys[gap] == null) {
+            return null;
+        }
+        final V removed = (V) values[gap];
+
+        // Move back every entry in the run that can't be found anymore with a hole before it
+        for (int i = (gap + 1) & mask; keys[i] != null; i = (i + 1) & mask) {
+            final int home = slot(keys[i]);
+            if (((i - home) & mask) >= ((i - gap) & mask)) {
+                keys[gap] = keys[i];
+                values[gap] = values[i];
+                gap = i;
+            }
+        }
+        keys[gap] = null;
+        values[gap] = null;
+        size--;
+        return removed;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return Copy of every flow, safe to iterate while removing them
+     */
+    @SuppressWarnings("unchecked")
+    List<V> values() {
+        final List<V> copy = new ArrayList<>(size);
+        for (Object value : values) {
+            if (value != null) {
+                copy.add((V) value);
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Fibonacci hashing, InetSocketAddress hashes of nearby ports and addresses differ mostly in their low bits
+     */
+    private int slot(InetSocketAddress key) {
+        return (key.hashCode() * 0x9E3779B9) >>> shift;
+    }
+
+    private void resize(int capacity) {
+        final InetSocketAddress[] oldKeys = keys;
+        final Object[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                int slot = slot(oldKeys[i]);
+                while (keys[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new InetSocketAddress[capacity];
+        values = new Object[capacity];
+        shift = 32 - Integer.numberOfTrailingZeros(capacity);
+        mask = capacity - 1;
+    }
+}
@@ -0,0 +1,618 @@
+package org.example.loadbalancer.lb.socket;
+
+import org.example.loadbalancer.lb.buffer.BufferPool;
+import org.example.loadbalancer.lb.http.BackendSelector;
+import org.example.loadbalancer.lb.http.ChunkedScanner;
+import org.example.loadbalancer.lb.http.HttpHead;
+import org.example.loadbalancer.lb.log.Log;
+import org.example.loadbalancer.lb.proxy.ProxyHeader;
+import org.example.loadbalancer.lb.proxy.ProxyProtocol;
+import org.example.loadbalancer.lb.strategy.BackendStats;
+import org.example.loadbalancer.lb.tls.TlsTerminator;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+import static org.example.loadbalancer.lb.util.Helper.closeChannel;
+
+/*
+ * HTTP/1.1 relay for one client connection. Every request on it is routed on its own, so a keep-alive client is
+ * spread over the backends request by request rather than pinned to the one its connection happened to land on.
+ *
+ * Each request head is parsed in place in a pooled direct buffer, the BackendSelector picks a backend from the parsed
+ * head, and the head goes out as it arrived with an X-Forwarded-For line added by a gathering write. Bodies are never
+ * decoded, Content-Length is counted down and chunked bodies are only scanned for their end, so bytes are copied
+ * straight from one channel to the other. Backend connections come from the BackendConnectionPool and go back to it
+ * once a response has been read to its end and the backend didn't ask to close, so most requests skip the connect.
+ *
+ * The request body is sent before the response is read, except after Expect: 100-continue where the body waits for
+ * the backend's 100. Pipelined requests are answered one at a time, in order. A 101 Switching Protocols turns the
+ * connection into a plain tunnel to that backend until either side closes.
+ *
+ * Every request counts as one relay: the selector and the RelayListener hear about each one with its own RelayStats.
+ * The idle and lifetime timeouts apply to the client connection as a whole.
+ *
+ * With a TlsTerminator the client connection is decrypted first and requests also get X-Forwarded-Proto: https.
+ *
+ * Behind another proxy tier the connection can start with a PROXY header, read ahead of the TLS handshake. The client
+ * it names is the one requests are routed, reported and forwarded for. Backend connections are shared by the clients,
+ * so no PROXY header is sent to them, X-Forwarded-For carries the client instead.
+ */
+public class HttpSocketHandlerThread implements SocketHandler {
+
+    private final SocketChannel socketChannel;
+    // The connection's peer, replaced by the client its PROXY header names if it has one
+    private InetSocketAddress clientAddress;
+    private final BackendSelector selector;
+    private final int bufferSizeBytes;
+    private final BufferPool bufferPool;
+    private final BackendStats backendStats;
+    private final BackendConnectionPool backendPool;
+    private final RelayListener relayListener;
+    private final RelayTimeouts timeouts;
+
+    // Terminates TLS on the client connection, null for plain HTTP
+    private final TlsTerminator tls;
+    // Only accepting headers is supported
+    private final ProxyProtocol proxyProtocol;
+
+    // Requests are read from and responses written to this, socketChannel itself or TLS over it
+    private ByteChannel clientChannel;
+
+    // Whole connection, stamped on every read so the idle timeout sees activity in either direction
+    private final RelayStats connectionStats = new RelayStats();
+
+    private final HttpHead requestHead = new HttpHead(true);
+    private final HttpHead responseHead = new HttpHead(false);
+    private final ChunkedScanner chunkedScanner = new ChunkedScanner();
+
+    // Borrowed from the pool by runThread(), both hold a message from index 0 up to their position
+    private ByteBuffer requestBuffer;
+    private ByteBuffer responseBuffer;
+    // Request head before and after the X-Forwarded lines, views of requestBuffer reused for every request
+    private final ByteBuffer[] requestHeadParts = new ByteBuffer[3];
+
+    // Backend connection of the exchange in flight, closed by timeouts and aborts to unblock us
+    private volatile SocketChannel backendChannel;
+    // Side of the last read or write, decides whose fault an IOException was
+    private boolean clientIo;
+    // Set once part of a response has been forwarded, after that an error can't be answered with a status
+    private boolean responseStarted;
+    // Whether the client connection can carry another request after the current exchange
+    private boolean clientReusable;
+
+    public HttpSocketHandlerThread(Socket clientSocket, BackendSelector selector, int bufferSizeBytes, BufferPool bufferPool, BackendStats backendStats) {
+        this(clientSocket, selector, bufferSizeBytes, bufferPool, backendStats, BackendConnectionPool.unpooled(), RelayListener.NONE, RelayTimeouts.none());
+    }
+
+    public HttpSocketHandlerThread(Socket clientSocket, BackendSelector selector, int bufferSizeBytes, BufferPool bufferPool, BackendStats backendStats,
+                                   BackendConnectionPool backendPool, RelayListener relayListener, RelayTimeouts timeouts) {
+        this(clientSocket, selector, bufferSizeBytes, bufferPool, backendStats, backendPool, relayListener, timeouts, null);
+    }
+
+    public HttpSocketHandlerThread(Socket clientSocket, BackendSelector selector, int bufferSizeBytes, BufferPool bufferPool, BackendStats backendStats,
+                                   BackendConnectionPool backendPool, RelayListener relayListener, RelayTimeouts timeouts, TlsTerminator tls) {
+        this(clientSocket, selector, bufferSizeBytes, bufferPool, backendStats, backendPool, relayListener, timeouts, tls, ProxyProtocol.NONE);
+    }
+
+    /**
+     * @param clientSocket Accepted client socket, must have been created by a ServerSocketChannel
+     * @param selector Picks the backend of every request
+     * @param bufferSizeBytes Size of the buffer used for each direction, at least HttpHead.MAX_HEAD_BYTES is used
+     * @param bufferPool Pool the buffers are borrowed from
+     * @param backendStats Connect and response latency of each request are recorded against its backend
+     * @param backendPool Pool backend connections are taken from and handed back to
+     * @param relayListener Told about every request once it has finished
+     * @param timeouts Idle and lifetime timeouts of the client connection
+     * @param tls Terminates TLS on the client connection, null for plain HTTP
+     * @param proxyProtocol Whether connections start with a PROXY header, sending one isn't supported
+     */
+    public HttpSocketHandlerThread(Socket clientSocket, BackendSelector selector, int bufferSizeBytes, BufferPool bufferPool, BackendStats backendStats,
+                                   BackendConnectionPool backendPool, RelayListener relayListener, RelayTimeouts timeouts, TlsTerminator tls,
+                                   ProxyProtocol proxyProtocol) {
+        if (proxyProtocol.isSending()) {
+            throw new IllegalArgumentException("HTTP relays can't send PROXY headers, backend connections are shared");
+        }
+        if (clientSocket.getChannel() == null) {
+            throw new IllegalArgumentException("Client socket has no channel: " + clientSocket);
+        }
+        this.socketChannel = clientSocket.getChannel();
+        this.clientChannel = socketChannel;
+        this.clientAddress = (InetSocketAddress) clientSocket.getRemoteSocketAddress();
+        this.selector = selector;
+        this.bufferSizeBytes = Math.max(bufferSizeBytes, HttpHead.MAX_HEAD_BYTES);
+        this.bufferPool = bufferPool;
+        this.backendStats = backendStats;
+        this.backendPool = backendPool;
+        this.relayListener = relayListener;
+        this.timeouts = timeouts;
+        this.tls = tls;
+        this.proxyProtocol = proxyProtocol;
+    }
+
+    @Override
+    public RelayOutcome runThread() {
+        if (clientAddress == null) {
+            closeChannel(socketChannel);
+            return RelayOutcome.CLIENT_ERROR;
+        }
+
+        requestBuffer = bufferPool.acquire(bufferSizeBytes);
+        responseBuffer = bufferPool.acquire(bufferSizeBytes);
+
+        final RelayTimeouts.RelayDeadline deadline = timeouts.watch(clientAddress, connectionStats, () -> {
+            closeChannel(socketChannel);
+            closeChannel(backendChannel);
+        });
+
+        RelayOutcome outcome = RelayOutcome.COMPLETED;
+        try {
+            if (proxyProtocol.isAccepting() && !readProxyHeader() || tls != null && !handshake()) {
+                return deadline.isExpired() ? deadline.getOutcome() : RelayOutcome.CLIENT_ERROR;
+            }
+
+            requestHeadParts[0] = requestBuffer.duplicate();
+            requestHeadParts[1] = ByteBuffer.wrap(("X-Forwarded-For: " + clientAddress.getAddress().getHostAddress() + "\r\n"
+                    + (tls != null ? "X-Forwarded-Proto: https\r\n" : "")).getBytes(StandardCharsets.US_ASCII));
+            requestHeadParts[2] = requestBuffer.duplicate();
+
+            while (true) {
+                outcome = serveRequest();
+                if (outcome != RelayOutcome.COMPLETED || !clientReusable) {
+                    break;
+                }
+            }
+            return deadline.isExpired() ? deadline.getOutcome() : outcome;
+        } finally {
+            deadline.cancel();
+            closeChannel(backendChannel);
+            closeChannel(clientChannel);
+            bufferPool.release(requestBuffer);
+            bufferPool.release(responseBuffer);
+        }
+    }
+
+    @Override
+    public RelayStats getRelayStats() {
+        return connectionStats;
+    }
+
+    /**
+     * Read the PROXY header the connection starts with. Whatever the client sent after it is moved to the start of
+     * the request buffer, where the TLS handshake or the first request head is read from.
+     *
+     * @return false if the client sent no valid header
+     */
+    private boolean readProxyHeader() {
+        try {
+            final ProxyHeader header = ProxyHeader.read(socketChannel, requestBuffer);
+            connectionStats.addBytesFromClient(requestBuffer.position());
+            if (header.getSource() != null) {
+                clientAddress = header.getSource();
+            }
+            requestBuffer.flip().position(header.getLength());
+            requestBuffer.compact();
+            return true;
+        } catch (IOException e) {
+            if (Log.isDebugEnabled()) {
+                Log.debug("No PROXY header from %s (%s)", clientAddress, e.getMessage());
+            }
+            return false;
+        }
+    }
+
+    /**
+     * @return false if the TLS handshake failed
+     */
+    private boolean handshake() {
+        try {
+            // Bytes read along with a PROXY header are the start of the handshake
+            clientChannel = tls.handshake(socketChannel, requestBuffer.flip());
+            requestBuffer.clear();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Read the next request and relay it to the backend the selector picks
+     *
+     * @return How the request went, COMPLETED with clientReusable false if the client has closed or must be closed
+     */
+    private RelayOutcome serveRequest() {
+        clientReusable = false;
+        responseStarted = false;
+
+        try {
+            requestHead.reset();
+            HttpHead.Result result;
+            while ((result = requestHead.parse(requestBuffer, requestBuffer.position())) == HttpHead.Result.INCOMPLETE) {
+                if (read(clientChannel, requestBuffer) < 0) {
+                    // Closing between requests is how keep-alive connections normally end
+                    return requestBuffer.position() == 0 ? RelayOutcome.COMPLETED : RelayOutcome.CLIENT_ERROR;
+                }
+            }
+            if (result == HttpHead.Result.INVALID) {
+                sendError(requestHead.getErrorStatus());
+                return RelayOutcome.CLIENT_ERROR;
+            }
+        } catch (IOException e) {
+            return RelayOutcome.CLIENT_ERROR;
+        }
+
+        final SelectedBackend backend = selector.select(requestBuffer, requestHead, clientAddress);
+        if (backend == null) {
+            // Counted by the selector, this can happen for every request while the LB is overloaded
+            if (Log.isDebugEnabled()) {
+                Log.debug("Rejected request from %s, no backend available", clientAddress);
+            }
+            sendError(503);
+            return RelayOutcome.COMPLETED;
+        }
+        if (Log.isDebugEnabled()) {
+            Log.debug("Routing %s %s to server: %s", clientAddress, requestHead.getPath(requestBuffer), backend);
+        }
+
+        final InetSocketAddress server = backend.getServer();
+        final long startedAt = System.nanoTime();
+        final RelayStats stats = new RelayStats(backendStats.get(server));
+        final RelayTimeouts.RelayDeadline tracked = timeouts.track(server, () -> {
+            closeChannel(socketChannel);
+            closeChannel(backendChannel);
+        });
+
+        RelayOutcome outcome = RelayOutcome.ABORTED;
+        try {
+            outcome = exchange(server, stats);
+            if (tracked.isExpired()) {
+                outcome = tracked.getOutcome();
+            }
+            return outcome;
+        } finally {
+            tracked.cancel();
+            selector.finished(backend, outcome);
+            relayListener.relayFinished(clientAddress, server, stats, outcome, startedAt);
+        }
+    }
+
+    /**
+     * Send the request to the server and its response back to the client. A reused backend connection that turns out
+     * to have been closed by the backend is replaced once, as long as nothing but a bodiless request was sent on it and
+     * its method is idempotent. Anything else may already have been acted on by the backend, so it gets a 502.
+     *
+     * @param server Backend server picked for the request
+     * @param stats Stats of this request
+     * @return How the exchange ended
+     */
+    private RelayOutcome exchange(InetSocketAddress server, RelayStats stats) {
+        final boolean retryable = !requestHead.hasBody() && requestHead.isIdempotent(requestBuffer);
+        for (int attempt = 0; ; attempt++) {
+            final long connectStartedAt = System.nanoTime();
+            SocketChannel backend = backendPool.poll(server);
+            final boolean reused = backend != null;
+            if (backend == null) {
+                try {
+                    backend = backendPool.connect(server);
+                } catch (IOException e) {
+                    System.out.printf("Error connecting socket %s to %s (%s)%n", clientAddress, server, e.getMessage());
+                    sendError(502);
+                    return RelayOutcome.BACKEND_CONNECT_FAILED;
+                }
+            }
+            stats.connected(connectStartedAt, reused);
+            backendChannel = backend;
+
+            try {
+                final RelayOutcome outcome = relay(server, backend, stats);
+                if (outcome != RelayOutcome.COMPLETED) {
+                    closeChannel(backend);
+                }
+                return outcome;
+            } catch (IOException e) {
+                closeChannel(backend);
+                if (!clientIo && reused && attempt == 0 && retryable && stats.getBytesFromServer() == 0 && clientChannel.isOpen()) {
+                    // Most likely the backend timed out the idle connection just as we picked it
+                    continue;
+                }
+                if (!clientIo) {
+                    System.out.printf("Error relaying request from %s to %s (%s)%n", clientAddress, server, e.getMessage());
+                    sendError(502);
+                }
+                return RelayOutcome.errorOn(clientIo);
+            } finally {
+                backendChannel = null;
+            }
+        }
+    }
+
+    /**
+     * @return COMPLETED once the response has been forwarded, the backend connection has been released or closed then
+     * @throws IOException On an I/O error on either side, clientIo says which
+     */
+    private RelayOutcome relay(InetSocketAddress server, SocketChannel backend, RelayStats stats) throws IOException {
+        final boolean headRequest = requestHead.isHeadRequest(requestBuffer);
+        final boolean requestKeepAlive = requestHead.isKeepAlive();
+
+        sendRequestHead(backend, stats);
+        // A bodiless request keeps its head in the buffer until the response starts, in case it has to be sent again
+        boolean headConsumed = false;
+        boolean bodySent = !requestHead.hasBody();
+        if (!bodySent) {
+            consume(requestBuffer, requestHead.getHeadLength());
+            headConsumed = true;
+        }
+        if (!bodySent && !requestHead.isExpectContinue()) {
+            if (!forwardBody(clientChannel, backend, requestBuffer, requestHead, stats)) {
+                return RelayOutcome.CLIENT_ERROR;
+            }
+            bodySent = true;
+        }
+
+        responseBuffer.clear();
+        while (true) {
+            responseHead.reset();
+            HttpHead.Result result;
+            while ((result = responseHead.parse(responseBuffer, responseBuffer.position())) == HttpHead.Result.INCOMPLETE) {
+                if (read(backend, responseBuffer) < 0) {
+                    throw new IOException("Connection closed before a complete response");
+                }
+            }
+            if (!headConsumed) {
+                consume(requestBuffer, requestHead.getHeadLength());
+                headConsumed = true;
+            }
+            if (result == HttpHead.Result.INVALID) {
+                System.out.printf("Invalid response from %s to %s%n", server, clientAddress);
+                sendError(502);
+                return RelayOutcome.BACKEND_ERROR;
+            }
+
+            final int headLength = responseHead.getHeadLength();
+            responseStarted = true;
+            write(clientChannel, responseBuffer, 0, headLength);
+            stats.addBytesFromServer(headLength);
+            consume(responseBuffer, headLength);
+
+            final int status = responseHead.getStatus();
+            if (status == 100 && !bodySent) {
+                if (!forwardBody(clientChannel, backend, requestBuffer, requestHead, stats)) {
+                    return RelayOutcome.CLIENT_ERROR;
+                }
+                bodySent = true;
+            } else if (status == 101) {
+                tunnel(backend, stats);
+                return RelayOutcome.COMPLETED;
+            } else if (status >= 200) {
+                break;
+            }
+            // Any other 1xx is informational, the real response follows
+        }
+
+        if (!responseHead.isBodiless(headRequest) && !forwardBody(backend, clientChannel, responseBuffer, responseHead, stats)) {
+            return RelayOutcome.BACKEND_ERROR;
+        }
+
+        // Anything left over is the backend talking out of turn, don't hand the connection to the next request. A 204,
+        // a 304 or the answer to a HEAD has no body to run until close, whatever framing headers it lacks.
+        final boolean closeDelimited = !responseHead.isBodiless(headRequest) && responseHead.isCloseDelimited();
+        final boolean backendReusable = bodySent && responseHead.isKeepAlive() && !closeDelimited && responseBuffer.position() == 0;
+        if (backendReusable) {
+            backendPool.release(server, backend);
+        } else {
+            closeChannel(backend);
+        }
+        clientReusable = bodySent && requestKeepAlive && responseHead.isKeepAlive() && !closeDelimited;
+        return RelayOutcome.COMPLETED;
+    }
+
+    /**
+     * Write the request head to the backend with X-Forwarded-For inserted before the empty line ending it. The head
+     * is left in the buffer.
+     */
+    private void sendRequestHead(SocketChannel backend, RelayStats stats) throws IOException {
+        final int headerEnd = requestHead.getHeaderEnd();
+        final int headLength = requestHead.getHeadLength();
+        requestHeadParts[0].limit(headerEnd).position(0);
+        requestHeadParts[1].rewind();
+        requestHeadParts[2].limit(headLength).position(headerEnd);
+
+        clientIo = false;
+        long written = 0;
+        final long total = headLength + requestHeadParts[1].remaining();
+        while (written < total) {
+            written += backend.write(requestHeadParts);
+        }
+        stats.addBytesFromClient(headLength);
+    }
+
+    /**
+     * Forward a message body, starting with whatever part of it is already in the buffer
+     *
+     * @param from Channel the rest of the body is read from
+     * @param to Channel the body is written to
+     * @param buffer Buffer of the from side, holding the start of the body from index 0
+     * @param head Head of the message, decides where the body ends
+     * @param stats Stats of the exchange
+     * @return false if from closed before the body ended or its chunked framing was broken
+     * @throws IOException On an I/O error on either side
+     */
+    private boolean forwardBody(ByteChannel from, ByteChannel to, ByteBuffer buffer, HttpHead head, RelayStats stats) throws IOException {
+        final boolean chunked = head.isChunked();
+        final boolean untilClose = head.isCloseDelimited();
+        long remaining = head.getContentLength();
+        if (chunked) {
+            chunkedScanner.reset();
+        }
+
+        while (true) {
+            final int available = buffer.position();
+            final int length;
+            if (chunked) {
+                length = chunkedScanner.scan(buffer, 0, available);
+                if (chunkedScanner.isInvalid()) {
+                    return false;
+                }
+            } else {
+                length = untilClose ? available : (int) Math.min(available, remaining);
+            }
+
+            if (length > 0) {
+                write(to, buffer, 0, length);
+                if (from == clientChannel) {
+                    stats.addBytesFromClient(length);
+                } else {
+                    stats.addBytesFromServer(length);
+                }
+                consume(buffer, length);
+                remaining -= length;
+            }
+
+            if (chunked ? chunkedScanner.isDone() : !untilClose && remaining == 0) {
+                return true;
+            }
+            if (read(from, buffer) < 0) {
+                return untilClose;
+            }
+        }
+    }
+
+    /**
+     * After 101 Switching Protocols the connection is no longer HTTP, copy bytes both ways until either side closes
+     */
+    private void tunnel(SocketChannel backend, RelayStats stats) throws IOException {
+        // Whatever either side already sent after its head
+        write(backend, requestBuffer, 0, requestBuffer.position());
+        stats.addBytesFromClient(requestBuffer.position());
+        requestBuffer.clear();
+        write(clientChannel, responseBuffer, 0, responseBuffer.position());
+        stats.addBytesFromServer(responseBuffer.position());
+        responseBuffer.clear();
+
+        final Thread upstream = Thread.ofVirtual().name("tunnel-" + clientAddress).start(() -> copy(clientChannel, backend, requestBuffer, stats));
+        copy(backend, clientChannel, responseBuffer, stats);
+        closeChannel(backend);
+        closeChannel(clientChannel);
+        try {
+            upstream.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void copy(ByteChannel from, ByteChannel to, ByteBuffer buffer, RelayStats stats) {
+        try {
+            int len;
+            while ((len = from.read(buffer)) >= 0) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    to.write(buffer);
+                }
+                buffer.clear();
+                if (from == clientChannel) {
+                    stats.addBytesFromClient(len);
+                    connectionStats.addBytesFromClient(len);
+                } else {
+                    stats.addBytesFromServer(len);
+                    connectionStats.addBytesFromServer(len);
+                }
+            }
+        } catch (IOException e) {
+            // Either side closing ends the tunnel
+        } finally {
+            closeChannel(from);
+            closeChannel(to);
+        }
+    }
+
+    /**
+     * Answer the client with an error status and close, unless part of a response was already sent
+     *
+     * @param status HTTP status code
+     */
+    private void sendError(int status) {
+        if (responseStarted) {
+            return;
+        }
+        responseStarted = true;
+        clientReusable = false;
+
+        final ByteBuffer response = ByteBuffer.wrap(("HTTP/1.1 " + status + " " + reason(status)
+                + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        try {
+            while (response.hasRemaining()) {
+                clientChannel.write(response);
+            }
+        } catch (IOException e) {
+            // Closing anyway
+        }
+    }
+
+    private static String reason(int status) {
+        switch (status) {
+            case 400:
+                return "Bad Request";
+            case 431:
+                return "Request Header Fields Too Large";
+            case 501:
+                return "Not Implemented";
+            case 502:
+                return "Bad Gateway";
+            case 503:
+                return "Service Unavailable";
+            case 505:
+                return "HTTP Version Not Supported";
+
+            default:
+                return "Error";
+        }
+    }
+
+    /**
+     * Read whatever is available into the buffer after the bytes already in it
+     *
+     * @return Bytes read, -1 at end of stream
+     */
+    private int read(ByteChannel channel, ByteBuffer buffer) throws IOException {
+        clientIo = channel == clientChannel;
+        final int read = channel.read(buffer);
+        if (read > 0) {
+            if (clientIo) {
+                connectionStats.addBytesFromClient(read);
+            } else {
+                connectionStats.addBytesFromServer(read);
+            }
+        }
+        return read;
+    }
+
+    /**
+     * Write bytes [from, to) of the buffer, leaving its position and limit as they were
+     */
+    private void write(ByteChannel channel, ByteBuffer buffer, int from, int to) throws IOException {
+        clientIo = channel == clientChannel;
+        final int position = buffer.position();
+        buffer.limit(to).position(from);
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } finally {
+            buffer.limit(buffer.capacity()).position(position);
+        }
+    }
+
+    /**
+     * Drop the first bytes of the buffer and move whatever follows them to the front
+     */
+    private static void consume(ByteBuffer buffer, int bytes) {
+        buffer.flip();
+        buffer.position(bytes);
+        buffer.compact();
+    }
+}
@@ -0,0 +1,45 @@
+package org.example.loadbalancer.lb.socket;
+
+import java.net.InetSocketAddress;
+
+/*
+ * Wraps a SocketHandler and tells the RelayListener once its relay has finished, whichever way it ended
+ */
+class NotifyingSocketHandler implements SocketHandler {
+
+    private final SocketHandler handler;
+    private final InetSocketAddress clientAddress;
+    private final InetSocketAddress targetServer;
+    private final RelayListener relayListener;
+
+    NotifyingSocketHandler(SocketHandler handler, InetSocketAddress clientAddress, InetSocketAddress targetServer, RelayListener relayListener) {
+        this.handler = handler;
+        this.clientAddress = clientAddress;
+        this.targetServer = targetServer;
+        this.relayListener = relayListener;
+    }
+
+    @Override
+    public RelayOutcome runThread() {
+        final long startedAt = System.nanoTime();
+        RelayOutcome outcome = RelayOutcome.ABORTED;
+        try {
+            outcome = handler.runThread();
+            return outcome;
+        } finally {
+            // The client an upstream proxy relayed the connection for, rather than the proxy itself
+            final InetSocketAddress proxiedClient = handler.getClientAddress();
+            relayListener.relayFinished(proxiedClient != null ? proxiedClient : clientAddress, targetServer, handler.getRelayStats(), outcome, startedAt);
+        }
+    }
+
+    @Override
+    public RelayStats getRelayStats() {
+        return handler.getRelayStats();
+    }
+
+    @Override
+    public InetSocketAddress getClientAddress() {
+        return handler.getClientAddress();
+    }
+}
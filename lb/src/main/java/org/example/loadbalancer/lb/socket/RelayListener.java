@@ -0,0 +1,34 @@
+package org.example.loadbalancer.lb.socket;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Told about every relay once it has finished, however it ended. Called on the relay's own thread (or event loop), so
+ * implementations must not block.
+ */
+@FunctionalInterface
+public interface RelayListener {
+
+    // Ignores every relay
+    RelayListener NONE = (client, backend, stats, outcome, startedAt) -> { };
+
+    /**
+     * @param client Client address, may be null
+     * @param backend Backend server the relay went to
+     * @param stats Byte counts and connect time of the relay
+     * @param outcome How the relay ended
+     * @param startedAt System.nanoTime() when the relay started
+     */
+    void relayFinished(InetSocketAddress client, InetSocketAddress backend, RelayStats stats, RelayOutcome outcome, long startedAt);
+
+    /**
+     * @param next Listener to call after this one
+     * @return Listener calling both
+     */
+    default RelayListener andThen(RelayListener next) {
+        return (client, backend, stats, outcome, startedAt) -> {
+            relayFinished(client, backend, stats, outcome, startedAt);
+            next.relayFinished(client, backend, stats, outcome, startedAt);
+        };
+    }
+}
@@ -0,0 +1,17 @@
+package org.example.loadbalancer.lb.socket;
+
+/**
+ * How bytes are moved between a client socket and its backend server
+ */
+public enum RelayMode {
+    // Original behaviour, one read from the client, one read from the server and then close
+    SINGLE_ROUND_TRIP,
+    // Full-duplex, both directions are pumped until each side has half-closed
+    STREAMING,
+    // Full-duplex over SocketChannels using pooled direct buffers
+    NIO_POOLED,
+    // HTTP/1.1 aware, every request on a connection is routed to a backend of its own
+    HTTP,
+    // UDP datagrams, every client address and port is a flow that sticks to one backend
+    UDP;
+}
@@ -0,0 +1,35 @@
+package org.example.loadbalancer.lb.socket;
+
+/**
+ * How a relay ended, and whose fault it was if it failed. Only backend failures say anything about a server's health,
+ * a client hanging up early is normal traffic.
+ */
+public enum RelayOutcome {
+    // Both sides finished cleanly
+    COMPLETED,
+    // The client closed early, reset or timed out
+    CLIENT_ERROR,
+    // The backend refused or never answered the connect
+    BACKEND_CONNECT_FAILED,
+    // The backend reset or closed early after connecting
+    BACKEND_ERROR,
+    // The LB gave up on the relay itself, e.g. while shutting down
+    ABORTED,
+    // Closed by the LB after being idle or open for longer than allowed
+    TIMED_OUT;
+
+    /**
+     * @return true if the outcome counts against the backend server
+     */
+    public boolean isBackendFailure() {
+        return this == BACKEND_CONNECT_FAILED || this == BACKEND_ERROR;
+    }
+
+    /**
+     * @param client true for the client side of the relay
+     * @return The outcome for an I/O error on that side
+     */
+    static RelayOutcome errorOn(boolean client) {
+        return client ? CLIENT_ERROR : BACKEND_ERROR;
+    }
+}
@@ -0,0 +1,95 @@
+package org.example.loadbalancer.lb.socket;
+
+import org.example.loadbalancer.lb.strategy.BackendStats;
+
+/*
+ * Byte counters and timings for a single relayed connection.
+ * Each direction is only written by the thread pumping it, readers see the latest value through the volatile fields.
+ *
+ * Connect latency and time to first byte are also fed into the backend's ServerStats, which is what latency aware
+ * strategies balance on.
+ */
+public class RelayStats {
+
+    // Backend being relayed to, null when latency shouldn't be recorded against a server
+    private final BackendStats.ServerStats serverStats;
+
+    // Bytes read from the client and forwarded to the backend server
+    private volatile long bytesFromClient;
+
+    // Bytes read from the backend server and forwarded to the client
+    private volatile long bytesFromServer;
+
+    private volatile long connectNanos;
+    private volatile long connectedAt;
+    private volatile long firstClientByteAt;
+    private volatile long timeToFirstByteNanos;
+    // System.nanoTime() of the last bytes read in either direction, checked by idle timeouts
+    private volatile long lastActivityAt = System.nanoTime();
+
+    public RelayStats() {
+        this(null);
+    }
+
+    public RelayStats(BackendStats.ServerStats serverStats) {
+        this.serverStats = serverStats;
+    }
+
+    /**
+     * @param connectStartedAt System.nanoTime() taken just before connecting to the backend
+     * @param warm true if the connection was taken warm from the pool. Nothing was connected, so the connect latency
+     *             stays 0 and the server's latency estimate isn't pulled down by a pool hit.
+     */
+    void connected(long connectStartedAt, boolean warm) {
+        connectedAt = System.nanoTime();
+        lastActivityAt = connectedAt;
+        if (warm) {
+            return;
+        }
+        connectNanos = connectedAt - connectStartedAt;
+        if (serverStats != null) {
+            serverStats.recordConnectLatency(connectNanos);
+        }
+    }
+
+    void addBytesFromClient(long bytes) {
+        lastActivityAt = System.nanoTime();
+        if (bytesFromClient == 0 && bytes > 0) {
+            firstClientByteAt = lastActivityAt;
+        }
+        bytesFromClient += bytes;
+    }
+
+    void addBytesFromServer(long bytes) {
+        lastActivityAt = System.nanoTime();
+        if (bytesFromServer == 0 && bytes > 0) {
+            // Server-speaks-first protocols have no request, measure from the connect instead
+            final long requestAt = firstClientByteAt != 0 ? firstClientByteAt : connectedAt;
+            timeToFirstByteNanos = lastActivityAt - requestAt;
+            if (serverStats != null && requestAt != 0) {
+                serverStats.recordResponseLatency(timeToFirstByteNanos);
+            }
+        }
+        bytesFromServer += bytes;
+    }
+
+    public long getBytesFromClient() {
+        return bytesFromClient;
+    }
+
+    public long getBytesFromServer() {
+        return bytesFromServer;
+    }
+
+    public long getConnectNanos() {
+        return connectNanos;
+    }
+
+    public long getLastActivityAt() {
+        return lastActivityAt;
+    }
+
+    public long getTimeToFirstByteNanos() {
+        return timeToFirstByteNanos;
+    }
+}
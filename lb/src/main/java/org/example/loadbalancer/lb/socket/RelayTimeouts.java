@@ -0,0 +1,251 @@
+package org.example.loadbalancer.lb.socket;
+
+import org.example.loadbalancer.lb.timer.HashedWheelTimer;
+import org.example.loadbalancer.lb.timer.Timeout;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+ * Per-connection deadlines, all kept on one shared HashedWheelTimer so even 100k open connections cost a few objects
+ * each and no threads:
+ *
+ * - connect: how long a non-blocking connect to the backend may take. Blocking connects are given the same timeout
+ *   directly by BackendConnectionPool.
+ * - idle: how long a relay may go without reading a byte in either direction.
+ * - max lifetime: how long a relay may stay open at all.
+ *
+ * A timeout of 0 is off. The idle deadline isn't pushed back on every read, that would be a cancel and a schedule per
+ * read. Relays only stamp the time of their last read in RelayStats, and when the deadline comes round it checks the
+ * stamp and reschedules itself for whatever idle time is left.
+ *
+ * Every running relay is also kept in a set per backend, so the relays to a backend (or all of them) can be closed
+ * early, e.g. when a removed backend doesn't drain in time or the LB is shutting down. Those relays end ABORTED.
+ * An HTTP connection talks to many backends, its deadlines are kept under the client's address and each request is
+ * tracked under its backend for as long as it runs. UDP flows have an idle deadline of their own and no lifetime.
+ */
+public class RelayTimeouts {
+
+    private static final RelayTimeouts NONE = new RelayTimeouts(null, 0, 0, 0);
+
+    private final HashedWheelTimer timer;
+    private final long connectTimeoutNanos;
+    private final long idleTimeoutNanos;
+    private final long maxLifetimeNanos;
+
+    // Relays that are running, by the backend they go to
+    private final Map<InetSocketAddress, Set<RelayDeadline>> running = new ConcurrentHashMap<>();
+
+    /**
+     * @param timer Timer the deadlines are kept on, must be started
+     * @param connectTimeoutMs Backend connect timeout for non-blocking connects
+     * @param idleTimeoutMs Longest a relay may go without reading anything
+     * @param maxLifetimeMs Longest a relay may be open
+     */
+    public RelayTimeouts(HashedWheelTimer timer, long connectTimeoutMs, long idleTimeoutMs, long maxLifetimeMs) {
+        this.timer = timer;
+        this.connectTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(connectTimeoutMs);
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMs);
+        this.maxLifetimeNanos = TimeUnit.MILLISECONDS.toNanos(maxLifetimeMs);
+    }
+
+    /**
+     * @return Shared instance with every timeout off
+     */
+    public static RelayTimeouts none() {
+        return NONE;
+    }
+
+    /**
+     * Start the idle and lifetime deadlines of a relay
+     *
+     * @param server Backend server the relay goes to
+     * @param relayStats Stats the relay stamps its reads in
+     * @param onExpired Runs once, on the timer thread or the thread aborting the relay, when either deadline passes or
+     *                  the relay is aborted. Must only close sockets or hand off, the deadline's outcome says why.
+     * @return Handle to cancel the deadlines with once the relay finishes
+     */
+    RelayDeadline watch(InetSocketAddress server, RelayStats relayStats, Runnable onExpired) {
+        return watch(server, relayStats, idleTimeoutNanos, maxLifetimeNanos, onExpired);
+    }
+
+    /**
+     * Start the idle deadline of a UDP flow, which goes idle far sooner than a TCP connection and has no lifetime
+     *
+     * @param server Backend server the flow goes to
+     * @param relayStats Stats the flow stamps its datagrams in
+     * @param idleTimeoutMs Longest the flow may go without a datagram either way, 0 for no deadline
+     * @param onExpired Runs once, on the timer thread or the thread aborting the flow, must only hand off
+     * @return Handle to cancel the deadline with once the flow is closed
+     */
+    RelayDeadline watchFlow(InetSocketAddress server, RelayStats relayStats, long idleTimeoutMs, Runnable onExpired) {
+        return watch(server, relayStats, TimeUnit.MILLISECONDS.toNanos(idleTimeoutMs), 0, onExpired);
+    }
+
+    private RelayDeadline watch(InetSocketAddress server, RelayStats relayStats, long idleNanos, long lifetimeNanos, Runnable onExpired) {
+        final RelayDeadline deadline = new RelayDeadline(server, relayStats, idleNanos, lifetimeNanos, onExpired);
+        running.computeIfAbsent(server, key -> ConcurrentHashMap.newKeySet()).add(deadline);
+        if (timer != null) {
+            deadline.start();
+        }
+        return deadline;
+    }
+
+    /**
+     * Register a running exchange with a backend without any deadlines, so abort() can still close it
+     *
+     * @param server Backend server the exchange goes to
+     * @param onAborted Runs once if the exchange is aborted, must only close sockets
+     * @return Handle to cancel once the exchange finishes
+     */
+    RelayDeadline track(InetSocketAddress server, Runnable onAborted) {
+        final RelayDeadline deadline = new RelayDeadline(server, null, 0, 0, onAborted);
+        running.computeIfAbsent(server, key -> ConcurrentHashMap.newKeySet()).add(deadline);
+        return deadline;
+    }
+
+    /**
+     * Close every relay still running to a backend
+     *
+     * @param server Backend server address
+     * @return Number of relays closed
+     */
+    public int abort(InetSocketAddress server) {
+        final Set<RelayDeadline> deadlines = running.get(server);
+        if (deadlines == null) {
+            return 0;
+        }
+
+        int aborted = 0;
+        // Copied since every expiry takes the relay out of the set
+        for (RelayDeadline deadline : new ArrayList<>(deadlines)) {
+            if (deadline.expire(RelayOutcome.ABORTED)) {
+                aborted++;
+            }
+        }
+        return aborted;
+    }
+
+    /**
+     * Close every relay still running
+     *
+     * @return Number of relays closed
+     */
+    public int abortAll() {
+        int aborted = 0;
+        for (InetSocketAddress server : List.copyOf(running.keySet())) {
+            aborted += abort(server);
+        }
+        return aborted;
+    }
+
+    /**
+     * @param onExpired Runs on the timer thread if the connect takes too long
+     * @return Handle to cancel once connected, null if there is no connect timeout
+     */
+    Timeout connectTimeout(Runnable onExpired) {
+        if (timer == null || connectTimeoutNanos <= 0) {
+            return null;
+        }
+        return timer.newTimeout(onExpired, connectTimeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /*
+     * Idle and lifetime deadlines of one relay
+     */
+    class RelayDeadline {
+
+        private final InetSocketAddress server;
+        private final RelayStats relayStats;
+        private final long idleTimeoutNanos;
+        private final long maxLifetimeNanos;
+        private final Runnable onExpired;
+
+        private volatile Timeout idleTimeout;
+        private volatile Timeout lifetimeTimeout;
+        // Set once by whichever of the deadlines or an abort gets there first
+        private final AtomicReference<RelayOutcome> outcome = new AtomicReference<>();
+        private volatile boolean cancelled = false;
+
+        private RelayDeadline(InetSocketAddress server, RelayStats relayStats, long idleTimeoutNanos, long maxLifetimeNanos, Runnable onExpired) {
+            this.server = server;
+            this.relayStats = relayStats;
+            this.idleTimeoutNanos = idleTimeoutNanos;
+            this.maxLifetimeNanos = maxLifetimeNanos;
+            this.onExpired = onExpired;
+        }
+
+        /**
+         * @return true if the relay was closed because a deadline passed or it was aborted
+         */
+        boolean isExpired() {
+            return outcome.get() != null;
+        }
+
+        /**
+         * @return TIMED_OUT or ABORTED once expired, null before
+         */
+        RelayOutcome getOutcome() {
+            return outcome.get();
+        }
+
+        /**
+         * Stop both deadlines, called when the relay finishes by itself
+         */
+        void cancel() {
+            cancelled = true;
+            cancel(idleTimeout);
+            cancel(lifetimeTimeout);
+            running.computeIfPresent(server, (key, deadlines) -> deadlines.remove(this) && deadlines.isEmpty() ? null : deadlines);
+        }
+
+        private void start() {
+            if (idleTimeoutNanos > 0) {
+                idleTimeout = timer.newTimeout(this::checkIdle, idleTimeoutNanos, TimeUnit.NANOSECONDS);
+            }
+            if (maxLifetimeNanos > 0) {
+                lifetimeTimeout = timer.newTimeout(() -> expire(RelayOutcome.TIMED_OUT), maxLifetimeNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        private void checkIdle() {
+            final long idleFor = System.nanoTime() - relayStats.getLastActivityAt();
+            if (idleFor >= idleTimeoutNanos) {
+                expire(RelayOutcome.TIMED_OUT);
+                return;
+            }
+
+            idleTimeout = timer.newTimeout(this::checkIdle, idleTimeoutNanos - idleFor, TimeUnit.NANOSECONDS);
+            if (cancelled) {
+                // The relay finished while we were rescheduling
+                cancel(idleTimeout);
+            }
+        }
+
+        /**
+         * @param reason TIMED_OUT or ABORTED
+         * @return true if this call closed the relay
+         */
+        private boolean expire(RelayOutcome reason) {
+            if (cancelled || !outcome.compareAndSet(null, reason)) {
+                return false;
+            }
+            cancel(idleTimeout);
+            cancel(lifetimeTimeout);
+            onExpired.run();
+            return true;
+        }
+
+        private void cancel(Timeout timeout) {
+            if (timeout != null) {
+                timeout.cancel();
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package org.example.loadbalancer.lb.socket;
+
+import org.example.loadbalancer.lb.health.OutlierDetector;
+
+import java.net.InetSocketAddress;
+
+/*
+ * Backend a selector picked for one request or flow, handed back to the selector with how it ended.
+ *
+ * When the relay is the trial connection of a server coming out of ejection it also carries the outlier detector's
+ * trial, so that this relay's outcome is the one that decides whether the server is restored.
+ */
+public final class SelectedBackend {
+
+    private final InetSocketAddress server;
+
+    // Trial claimed for this relay, null for an ordinary one
+    private final OutlierDetector.Trial trial;
+
+    public SelectedBackend(InetSocketAddress server) {
+        this(server, null);
+    }
+
+    public SelectedBackend(InetSocketAddress server, OutlierDetector.Trial trial) {
+        this.server = server;
+        this.trial = trial;
+    }
+
+    public InetSocketAddress getServer() {
+        return server;
+    }
+
+    public OutlierDetector.Trial getTrial() {
+        return trial;
+    }
+
+    @Override
+    public String toString() {
+        return trial != null ? server + " (trial)" : String.valueOf(server);
+    }
+}
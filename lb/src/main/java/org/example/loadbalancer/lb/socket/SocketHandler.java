@@ -1,6 +1,17 @@
 package org.example.loadbalancer.lb.socket;
 
+import java.net.InetSocketAddress;
+
 public interface SocketHandler {
 
-    boolean runThread();
+    RelayOutcome runThread();
+
+    RelayStats getRelayStats();
+
+    /**
+     * @return Client named by the PROXY header the connection started with, null if it had none
+     */
+    default InetSocketAddress getClientAddress() {
+        return null;
+    }
 }
@@ -1,11 +1,15 @@
 package org.example.loadbalancer.lb.socket;
 
+import org.example.loadbalancer.lb.log.Log;
+
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketAddress;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.example.loadbalancer.lb.util.Helper.closeChannel;
 import static org.example.loadbalancer.lb.util.Helper.getRemoteAddress;
@@ -16,29 +20,59 @@ import static org.example.loadbalancer.lb.util.Helper.getRemoteAddress;
  *
  * Since we're a level 4 load balancer, we don't assume any protocols either. It could be TLS, raw HTTP, telnet or
  * anything else. We are transferring raw bytes and are agnostic to what the socket holds.
+ *
+ * Idle and lifetime timeouts close the sockets from the timer thread, which unblocks whichever read is waiting.
  */
 public class SocketHandlerThread implements SocketHandler {
 
     private final InetSocketAddress targetServer;
     private final Socket clientSocket;
     private final int bufferSizeBytes;
+    private final BackendConnectionPool backendPool;
+    private final RelayTimeouts timeouts;
+    private final RelayStats relayStats = new RelayStats();
+
+    // Backend socket once connected, so a timeout can close it
+    private final AtomicReference<Socket> backendSocket = new AtomicReference<>();
 
     public SocketHandlerThread(Socket clientSocket, InetSocketAddress targetServer, int bufferSizeBytes) {
+        this(clientSocket, targetServer, bufferSizeBytes, BackendConnectionPool.unpooled(), RelayTimeouts.none());
+    }
+
+    /**
+     * @param clientSocket Accepted client socket
+     * @param targetServer Backend server to relay to
+     * @param bufferSizeBytes Size of the buffer used for each read
+     * @param backendPool Pool the backend connection is taken from
+     * @param timeouts Idle and lifetime timeouts of the relay
+     */
+    public SocketHandlerThread(Socket clientSocket, InetSocketAddress targetServer, int bufferSizeBytes, BackendConnectionPool backendPool,
+                               RelayTimeouts timeouts) {
         this.clientSocket = clientSocket;
         this.targetServer = targetServer;
         this.bufferSizeBytes = bufferSizeBytes;
+        this.backendPool = backendPool;
+        this.timeouts = timeouts;
     }
 
-    public boolean runThread() {
+    public RelayOutcome runThread() {
         Socket serverSocket = null;
+        final RelayTimeouts.RelayDeadline deadline = timeouts.watch(targetServer, relayStats, () -> {
+            closeChannel(clientSocket);
+            closeChannel(backendSocket.get());
+        });
+        // Side an IOException is blamed on, moves along as the relay progresses
+        RelayOutcome failure = RelayOutcome.CLIENT_ERROR;
         InputStream clientReader = null;
         OutputStream clientWriter = null;
         InputStream serverReader = null;
         OutputStream serverWriter = null;
 
         try {
-            String clientIp = clientSocket.getRemoteSocketAddress().toString();
-            System.out.println("A client has connected: " + clientIp);
+            final SocketAddress clientIp = clientSocket.getRemoteSocketAddress();
+            if (Log.isDebugEnabled()) {
+                Log.debug("A client has connected: %s", clientIp);
+            }
 
             clientReader = clientSocket.getInputStream();
             clientWriter = clientSocket.getOutputStream();
@@ -46,34 +80,48 @@ public class SocketHandlerThread implements SocketHandler {
             final byte[] clientData = readBytes(clientReader);
             if (clientData == null) {
                 System.out.println("ERROR: end of client stream");
-                return false;
+                return RelayOutcome.CLIENT_ERROR;
             }
 
-            System.out.println(clientIp + " connecting to backend server: " + targetServer);
+            if (Log.isDebugEnabled()) {
+                Log.debug("%s connecting to backend server: %s", clientIp, targetServer);
+            }
 
-            serverSocket = new Socket(targetServer.getHostName(), targetServer.getPort());
+            failure = RelayOutcome.BACKEND_CONNECT_FAILED;
+            serverSocket = backendPool.acquire(targetServer).socket();
+            backendSocket.set(serverSocket);
+            failure = RelayOutcome.BACKEND_ERROR;
 
-            System.out.println("Connected to " + targetServer);
+            if (Log.isDebugEnabled()) {
+                Log.debug("Connected to %s", targetServer);
+            }
 
             serverReader = serverSocket.getInputStream();
             serverWriter = serverSocket.getOutputStream();
             serverWriter.write(clientData, 0, clientData.length);
             serverWriter.flush();
+            relayStats.addBytesFromClient(clientData.length);
 
             byte[] serverRespData = readBytes(serverReader);
             if (serverRespData == null) {
                 System.out.println("ERROR: end of server stream");
-                return false;
+                return RelayOutcome.BACKEND_ERROR;
             }
 
+            failure = RelayOutcome.CLIENT_ERROR;
             clientWriter.write(serverRespData, 0, serverRespData.length);
             clientWriter.flush();
+            relayStats.addBytesFromServer(serverRespData.length);
 
-            return true;
+            return RelayOutcome.COMPLETED;
         } catch (IOException e) {
+            if (deadline.isExpired()) {
+                return deadline.getOutcome();
+            }
             System.out.printf("Error connecting socket %s to %s (%s)%n", getRemoteAddress(clientSocket.getChannel()), targetServer, e.getMessage());
-            return false;
+            return failure;
         } finally {
+            deadline.cancel();
             closeChannel(serverSocket);
             closeChannel(clientSocket);
 
@@ -84,6 +132,11 @@ public class SocketHandlerThread implements SocketHandler {
         }
     }
 
+    @Override
+    public RelayStats getRelayStats() {
+        return relayStats;
+    }
+
     private byte[] readBytes(InputStream incomingStream) throws IOException {
 
         byte[] buf = new byte[bufferSizeBytes];
@@ -1,7 +1,12 @@
 package org.example.loadbalancer.lb.socket;
 
+import org.example.loadbalancer.lb.http.BackendSelector;
+import org.example.loadbalancer.lb.metrics.MetricsRegistry;
+
+import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.channels.DatagramChannel;
 
 /**
  * Abstract factory to create SocketHandlerThreads, makes it easier to test the load-balancer logic
@@ -10,4 +15,25 @@ public abstract class SocketHandlerThreadAbstractFactory {
 
     public abstract SocketHandler createSocketHandlerThread(Socket clientSocket, InetSocketAddress targetServer, int bufferSizeBytes);
 
+    /**
+     * @param clientSocket Accepted client socket
+     * @param selector Picks the backend of every request on the connection
+     * @param bufferSizeBytes Size of the buffer used for each direction
+     * @return Handler relaying HTTP requests until the client connection closes
+     */
+    public abstract SocketHandler createHttpSocketHandlerThread(Socket clientSocket, BackendSelector selector, int bufferSizeBytes);
+
+    /**
+     * @param channel Bound channel clients send their datagrams to
+     * @param selector Picks the backend of every new flow
+     * @param flowIdleTimeoutMs Flows with no datagram either way for this long are closed
+     * @param maxFlows Open flows, datagrams from new clients are dropped beyond that
+     * @param batchSize Datagrams read from one channel before looking at the others
+     * @param registry Registry to add the datagram metrics to
+     * @return Relay to run on a thread of its own
+     * @throws IOException if the relay's Selector could not be opened
+     */
+    public abstract DatagramRelay createDatagramRelay(DatagramChannel channel, FlowSelector selector, long flowIdleTimeoutMs, int maxFlows,
+                                                      int batchSize, MetricsRegistry registry) throws IOException;
+
 }
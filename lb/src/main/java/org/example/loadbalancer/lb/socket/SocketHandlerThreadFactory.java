@@ -1,12 +1,131 @@
 package org.example.loadbalancer.lb.socket;
 
+import org.example.loadbalancer.lb.buffer.BufferPool;
+import org.example.loadbalancer.lb.http.BackendSelector;
+import org.example.loadbalancer.lb.metrics.MetricsRegistry;
+import org.example.loadbalancer.lb.proxy.ProxyProtocol;
+import org.example.loadbalancer.lb.strategy.BackendStats;
+import org.example.loadbalancer.lb.tls.TlsTerminator;
+
+import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.channels.DatagramChannel;
 
 public class SocketHandlerThreadFactory extends SocketHandlerThreadAbstractFactory {
 
+    private final RelayMode relayMode;
+
+    // Shared by every relay using RelayMode.NIO_POOLED or RelayMode.HTTP
+    private final BufferPool bufferPool;
+
+    // Relays record connect and response latency against these
+    private final BackendStats backendStats;
+
+    // Backend connections are taken from here, warm ones if it keeps any
+    private final BackendConnectionPool backendPool;
+
+    // Told about every finished relay, e.g. the access log and metrics
+    private final RelayListener relayListener;
+
+    // Idle and lifetime deadlines of every relay
+    private final RelayTimeouts timeouts;
+
+    // Terminates TLS on client connections, null for plain TCP. Only RelayMode.NIO_POOLED and RelayMode.HTTP support it.
+    private final TlsTerminator tls;
+
+    // PROXY headers taken from clients and sent to backends. RelayMode.HTTP can only take them, SINGLE_ROUND_TRIP neither.
+    private final ProxyProtocol proxyProtocol;
+
+    public SocketHandlerThreadFactory(RelayMode relayMode, BufferPool bufferPool, BackendStats backendStats) {
+        this(relayMode, bufferPool, backendStats, BackendConnectionPool.unpooled(), RelayListener.NONE);
+    }
+
+    public SocketHandlerThreadFactory(RelayMode relayMode, BufferPool bufferPool, BackendStats backendStats, BackendConnectionPool backendPool,
+                                      RelayListener relayListener) {
+        this(relayMode, bufferPool, backendStats, backendPool, relayListener, RelayTimeouts.none());
+    }
+
+    public SocketHandlerThreadFactory(RelayMode relayMode, BufferPool bufferPool, BackendStats backendStats, BackendConnectionPool backendPool,
+                                      RelayListener relayListener, RelayTimeouts timeouts) {
+        this(relayMode, bufferPool, backendStats, backendPool, relayListener, timeouts, null);
+    }
+
+    public SocketHandlerThreadFactory(RelayMode relayMode, BufferPool bufferPool, BackendStats backendStats, BackendConnectionPool backendPool,
+                                      RelayListener relayListener, RelayTimeouts timeouts, TlsTerminator tls) {
+        this(relayMode, bufferPool, backendStats, backendPool, relayListener, timeouts, tls, ProxyProtocol.NONE);
+    }
+
+    public SocketHandlerThreadFactory(RelayMode relayMode, BufferPool bufferPool, BackendStats backendStats, BackendConnectionPool backendPool,
+                                      RelayListener relayListener, RelayTimeouts timeouts, TlsTerminator tls, ProxyProtocol proxyProtocol) {
+        if (tls != null && relayMode != RelayMode.NIO_POOLED && relayMode != RelayMode.HTTP) {
+            throw new IllegalArgumentException("TLS needs relay mode NIO_POOLED or HTTP, not " + relayMode);
+        }
+        if (proxyProtocol.isEnabled() && (relayMode == RelayMode.SINGLE_ROUND_TRIP || relayMode == RelayMode.UDP)) {
+            throw new IllegalArgumentException("PROXY protocol not supported in relay mode " + relayMode);
+        }
+        if (proxyProtocol.isSending() && relayMode == RelayMode.HTTP) {
+            throw new IllegalArgumentException("HTTP relays can't send PROXY headers, only accept them");
+        }
+        this.relayMode = relayMode;
+        this.bufferPool = bufferPool;
+        this.backendStats = backendStats;
+        this.backendPool = backendPool;
+        this.relayListener = relayListener;
+        this.timeouts = timeouts;
+        this.tls = tls;
+        this.proxyProtocol = proxyProtocol;
+    }
+
+    @Override
+    public SocketHandler createSocketHandlerThread(Socket clientSocket, InetSocketAddress targetServer, int bufferSizeBytes) {
+        final SocketHandler handler = createRelay(clientSocket, targetServer, bufferSizeBytes);
+        if (relayListener == RelayListener.NONE) {
+            return handler;
+        }
+        return new NotifyingSocketHandler(handler, (InetSocketAddress) clientSocket.getRemoteSocketAddress(), targetServer, relayListener);
+    }
+
+    /**
+     * HTTP relays report every request to the RelayListener themselves, there is no single backend per connection
+     */
+    @Override
+    public SocketHandler createHttpSocketHandlerThread(Socket clientSocket, BackendSelector selector, int bufferSizeBytes) {
+        return new HttpSocketHandlerThread(clientSocket, selector, bufferSizeBytes, bufferPool, backendStats, backendPool, relayListener, timeouts, tls,
+                proxyProtocol);
+    }
+
+    /**
+     * UDP flows report to the RelayListener themselves, and their idle deadlines go through the same RelayTimeouts so
+     * drains can abort them
+     */
     @Override
-    public SocketHandlerThread createSocketHandlerThread(Socket clientSocket, InetSocketAddress targetServer, int bufferSizeBytes) {
-        return new SocketHandlerThread(clientSocket, targetServer, bufferSizeBytes);
+    public DatagramRelay createDatagramRelay(DatagramChannel channel, FlowSelector selector, long flowIdleTimeoutMs, int maxFlows, int batchSize,
+                                             MetricsRegistry registry) throws IOException {
+        return new DatagramRelay(channel, selector, backendStats, relayListener, timeouts, flowIdleTimeoutMs, maxFlows, batchSize, registry);
+    }
+
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    public ProxyProtocol getProxyProtocol() {
+        return proxyProtocol;
+    }
+
+    private SocketHandler createRelay(Socket clientSocket, InetSocketAddress targetServer, int bufferSizeBytes) {
+        switch (relayMode) {
+            case SINGLE_ROUND_TRIP:
+                return new SocketHandlerThread(clientSocket, targetServer, bufferSizeBytes, backendPool, timeouts);
+            case STREAMING:
+                return new StreamingSocketHandlerThread(clientSocket, targetServer, bufferSizeBytes, backendStats.get(targetServer), backendPool, timeouts,
+                        proxyProtocol);
+            case NIO_POOLED:
+                return new ChannelSocketHandlerThread(clientSocket, targetServer, bufferSizeBytes, bufferPool, backendStats.get(targetServer), backendPool,
+                        timeouts, tls, proxyProtocol);
+
+            default:
+                throw new IllegalArgumentException("Unknown relay mode: " + relayMode);
+        }
     }
 }
@@ -0,0 +1,237 @@
+package org.example.loadbalancer.lb.socket;
+
+import org.example.loadbalancer.lb.log.Log;
+import org.example.loadbalancer.lb.proxy.ProxyHeader;
+import org.example.loadbalancer.lb.proxy.ProxyProtocol;
+import org.example.loadbalancer.lb.strategy.BackendStats;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.example.loadbalancer.lb.util.Helper.closeChannel;
+import static org.example.loadbalancer.lb.util.Helper.getRemoteAddress;
+
+/*
+ * Full-duplex version of SocketHandlerThread. Once the backend is connected, bytes are pumped in both directions at
+ * the same time: client -> server on a second virtual thread, server -> client on the calling thread.
+ *
+ * When one side reaches end of stream we only shut down the output of the opposite socket (a TCP half-close), so the
+ * peer sees EOF but can keep replying. The connection is closed once both directions have finished, which makes
+ * long-lived connections, pipelined requests and large responses work.
+ *
+ * Idle and lifetime timeouts close both sockets from the timer thread, which unblocks both pumps.
+ *
+ * With the PROXY protocol, the client -> server pump reads the client's header into its own buffer, and writes ours
+ * over it in front of the first payload bytes, so the backend gets both in one write.
+ */
+public class StreamingSocketHandlerThread implements SocketHandler {
+
+    private final InetSocketAddress targetServer;
+    private final Socket clientSocket;
+    private final int bufferSizeBytes;
+    private final RelayStats relayStats;
+    private final BackendConnectionPool backendPool;
+    private final RelayTimeouts timeouts;
+    private final ProxyProtocol proxyProtocol;
+
+    // Client named by the PROXY header the connection started with, null until one has been read
+    private volatile InetSocketAddress clientAddress;
+
+    // First failure seen by either pump, the other pump only sees the sockets being closed under it
+    private final AtomicReference<RelayOutcome> failure = new AtomicReference<>();
+
+    public StreamingSocketHandlerThread(Socket clientSocket, InetSocketAddress targetServer, int bufferSizeBytes) {
+        this(clientSocket, targetServer, bufferSizeBytes, null, BackendConnectionPool.unpooled());
+    }
+
+    public StreamingSocketHandlerThread(Socket clientSocket, InetSocketAddress targetServer, int bufferSizeBytes, BackendStats.ServerStats serverStats,
+                                        BackendConnectionPool backendPool) {
+        this(clientSocket, targetServer, bufferSizeBytes, serverStats, backendPool, RelayTimeouts.none());
+    }
+
+    public StreamingSocketHandlerThread(Socket clientSocket, InetSocketAddress targetServer, int bufferSizeBytes, BackendStats.ServerStats serverStats,
+                                        BackendConnectionPool backendPool, RelayTimeouts timeouts) {
+        this(clientSocket, targetServer, bufferSizeBytes, serverStats, backendPool, timeouts, ProxyProtocol.NONE);
+    }
+
+    /**
+     * @param clientSocket Accepted client socket
+     * @param targetServer Backend server to relay to
+     * @param bufferSizeBytes Size of the buffer used for each direction
+     * @param serverStats Stats of the target server that connect and response latency are recorded against, may be null
+     * @param backendPool Pool the backend connection is taken from
+     * @param timeouts Idle and lifetime timeouts of the relay
+     * @param proxyProtocol PROXY headers expected from the client and sent to the backend
+     */
+    public StreamingSocketHandlerThread(Socket clientSocket, InetSocketAddress targetServer, int bufferSizeBytes, BackendStats.ServerStats serverStats,
+                                        BackendConnectionPool backendPool, RelayTimeouts timeouts, ProxyProtocol proxyProtocol) {
+        this.clientSocket = clientSocket;
+        this.targetServer = targetServer;
+        this.bufferSizeBytes = bufferSizeBytes;
+        this.relayStats = new RelayStats(serverStats);
+        this.backendPool = backendPool;
+        this.timeouts = timeouts;
+        this.proxyProtocol = proxyProtocol;
+    }
+
+    @Override
+    public RelayOutcome runThread() {
+        Socket backendSocket = null;
+        RelayTimeouts.RelayDeadline deadline = null;
+
+        try {
+            final String clientIp = clientSocket.getRemoteSocketAddress().toString();
+            if (Log.isDebugEnabled()) {
+                Log.debug("%s connecting to backend server: %s", clientIp, targetServer);
+            }
+
+            final long connectStartedAt = System.nanoTime();
+            final SocketChannel warm = backendPool.poll(targetServer);
+            try {
+                backendSocket = (warm != null ? warm : backendPool.connect(targetServer)).socket();
+            } catch (IOException e) {
+                System.out.printf("Error connecting socket %s to %s (%s)%n", clientIp, targetServer, e.getMessage());
+                return RelayOutcome.BACKEND_CONNECT_FAILED;
+            }
+            relayStats.connected(connectStartedAt, warm != null);
+
+            if (Log.isDebugEnabled()) {
+                Log.debug("Connected to %s", targetServer);
+            }
+
+            // client -> server runs on its own virtual thread, server -> client on this one
+            final Socket serverSocket = backendSocket;
+            deadline = timeouts.watch(targetServer, relayStats, () -> {
+                closeChannel(clientSocket);
+                closeChannel(serverSocket);
+            });
+            final FutureTask<Void> upstream = new FutureTask<>(() -> pump(clientSocket, serverSocket, true), null);
+            Thread.ofVirtual().name("relay-" + clientIp).start(upstream);
+
+            pump(serverSocket, clientSocket, false);
+            upstream.get();
+
+            if (Log.isDebugEnabled()) {
+                Log.debug("Closed %s -> %s (%d bytes sent, %d bytes received)", clientIp, targetServer,
+                        relayStats.getBytesFromClient(), relayStats.getBytesFromServer());
+            }
+
+            final RelayOutcome outcome = deadline.isExpired() ? deadline.getOutcome() : failure.get();
+            return outcome != null ? outcome : RelayOutcome.COMPLETED;
+        } catch (ExecutionException e) {
+            System.out.printf("Error relaying socket %s to %s (%s)%n", getRemoteAddress(clientSocket.getChannel()), targetServer, e.getMessage());
+            return RelayOutcome.ABORTED;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return RelayOutcome.ABORTED;
+        } finally {
+            if (deadline != null) {
+                deadline.cancel();
+            }
+            closeChannel(backendSocket);
+            closeChannel(clientSocket);
+        }
+    }
+
+    @Override
+    public RelayStats getRelayStats() {
+        return relayStats;
+    }
+
+    @Override
+    public InetSocketAddress getClientAddress() {
+        return clientAddress;
+    }
+
+    /**
+     * Copy bytes from one socket to the other until end of stream, then half-close the destination. An I/O error is
+     * recorded against the side it happened on.
+     *
+     * @param from Socket to read from
+     * @param to Socket to write to
+     * @param fromClient true when pumping client -> server, used to update the right byte counter
+     */
+    private void pump(Socket from, Socket to, boolean fromClient) {
+        final byte[] buf = new byte[bufferSizeBytes];
+        // Reads fail on the source's side, writes and the half-close on the destination's
+        boolean reading = true;
+
+        try {
+            final InputStream reader = from.getInputStream();
+            final OutputStream writer = to.getOutputStream();
+
+            if (fromClient && proxyProtocol.isEnabled()) {
+                final ByteBuffer head = proxyHeader(reader, buf);
+                reading = false;
+                writer.write(buf, head.position(), head.remaining());
+                writer.flush();
+                reading = true;
+                relayStats.addBytesFromClient(proxyProtocol.isAccepting() ? head.limit() - proxyProtocol.headerRoom() : 0);
+            }
+
+            int len;
+            while ((len = reader.read(buf)) >= 0) {
+                if (len > 0) {
+                    reading = false;
+                    writer.write(buf, 0, len);
+                    writer.flush();
+                    reading = true;
+
+                    if (fromClient) {
+                        relayStats.addBytesFromClient(len);
+                    } else {
+                        relayStats.addBytesFromServer(len);
+                    }
+                }
+            }
+
+            // Source has half-closed, pass the FIN on but leave the other direction running
+            reading = false;
+            if (!to.isClosed() && !to.isOutputShutdown()) {
+                to.shutdownOutput();
+            }
+        } catch (IOException e) {
+            // One direction failed, close both sockets so the opposite pump is unblocked as well
+            failure.compareAndSet(null, RelayOutcome.errorOn(reading == fromClient));
+            closeChannel(from);
+            closeChannel(to);
+        }
+    }
+
+    /**
+     * Read the client's PROXY header if one is expected, and put ours in front of whatever followed it
+     *
+     * @param reader Client socket stream
+     * @param buf Buffer of the client -> server pump
+     * @return View of buf holding the bytes to send to the backend first, between its position and limit
+     * @throws IOException if the client sent no valid header, or reading it failed
+     */
+    private ByteBuffer proxyHeader(InputStream reader, byte[] buf) throws IOException {
+        final ByteBuffer head = ByteBuffer.wrap(buf);
+        InetSocketAddress source = (InetSocketAddress) clientSocket.getRemoteSocketAddress();
+        InetSocketAddress destination = (InetSocketAddress) clientSocket.getLocalSocketAddress();
+
+        int payloadStart = proxyProtocol.headerRoom();
+        head.position(payloadStart);
+        if (proxyProtocol.isAccepting()) {
+            final ProxyHeader header = ProxyHeader.read(reader, head);
+            if (header.getSource() != null) {
+                source = header.getSource();
+                destination = header.getDestination();
+                clientAddress = source;
+            }
+            payloadStart += header.getLength();
+        }
+        head.flip();
+        head.position(proxyProtocol.encode(source, destination, head, payloadStart));
+        return head;
+    }
+}
@@ -0,0 +1,140 @@
+package org.example.loadbalancer.lb.strategy;
+
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Live per-backend numbers kept by the LB and read by strategies that need more than the server list, e.g. least
+ * connections. Counters are LongAdders so the relay threads updating them never contend on a single cache line.
+ */
+public class BackendStats {
+
+    private static final long DEFAULT_LATENCY_DECAY_MS = 10_000;
+
+    private final Map<InetSocketAddress, ServerStats> serverStats = new ConcurrentHashMap<>();
+    private final long latencyDecayNanos;
+
+    // Sum of active connections across every server
+    private final LongAdder totalActiveConnections = new LongAdder();
+
+    public BackendStats() {
+        this(DEFAULT_LATENCY_DECAY_MS);
+    }
+
+    /**
+     * @param latencyDecayMs Time constant of the latency moving averages, older samples lose weight over this period
+     */
+    public BackendStats(long latencyDecayMs) {
+        this.latencyDecayNanos = TimeUnit.MILLISECONDS.toNanos(latencyDecayMs);
+    }
+
+    /**
+     * Look up (or create) the stats for a server. Strategies should resolve these once per snapshot rather than on
+     * every selection.
+     *
+     * @param server Backend server address
+     * @return Stats for that server, never null
+     */
+    public ServerStats get(InetSocketAddress server) {
+        final ServerStats stats = serverStats.get(server);
+        return stats != null ? stats : serverStats.computeIfAbsent(server, key -> new ServerStats(latencyDecayNanos, totalActiveConnections));
+    }
+
+    public long getTotalActiveConnections() {
+        return totalActiveConnections.sum();
+    }
+
+    /*
+     * Counters for a single backend server
+     */
+    public static class ServerStats {
+
+        private final LongAdder activeConnections = new LongAdder();
+        private final LongAdder totalActiveConnections;
+        private final PeakEwma responseLatency;
+        private final PeakEwma connectLatency;
+
+        ServerStats(long latencyDecayNanos, LongAdder totalActiveConnections) {
+            this.totalActiveConnections = totalActiveConnections;
+            this.responseLatency = new PeakEwma(latencyDecayNanos);
+            this.connectLatency = new PeakEwma(latencyDecayNanos);
+        }
+
+        public void connectionOpened() {
+            activeConnections.increment();
+            totalActiveConnections.increment();
+        }
+
+        public void connectionClosed() {
+            activeConnections.decrement();
+            totalActiveConnections.decrement();
+        }
+
+        public long getActiveConnections() {
+            return activeConnections.sum();
+        }
+
+        /**
+         * @param nanos Time taken to establish the TCP connection to the server
+         */
+        public void recordConnectLatency(long nanos) {
+            connectLatency.record(nanos);
+        }
+
+        /**
+         * @param nanos Time from the first request byte being sent to the first response byte coming back
+         */
+        public void recordResponseLatency(long nanos) {
+            responseLatency.record(nanos);
+        }
+
+        /**
+         * @return Decayed peak-EWMA of connect and response latency, whichever is higher. 0 until something is measured.
+         */
+        public double getLatencyEstimateNanos() {
+            final long now = System.nanoTime();
+            return Math.max(responseLatency.estimate(now), connectLatency.estimate(now));
+        }
+    }
+
+    /*
+     * Peak exponentially weighted moving average, as used by Finagle and Linkerd.
+     *
+     * A sample above the current estimate replaces it straight away, so a server that starts slowing down is avoided
+     * immediately, while lower samples are blended in with a weight that depends on the time since the last sample.
+     * Reading the estimate decays it towards zero, so a server that was avoided is eventually tried again and
+     * remeasured.
+     *
+     * One update per connection is rare enough that a per-server lock is fine, readers never take it.
+     */
+    private static class PeakEwma {
+
+        private final double decayNanos;
+        private volatile double estimateNanos;
+        private volatile long stampNanos = System.nanoTime();
+
+        PeakEwma(long decayNanos) {
+            this.decayNanos = Math.max(decayNanos, 1);
+        }
+
+        synchronized void record(long sampleNanos) {
+            final long now = System.nanoTime();
+
+            if (sampleNanos > estimateNanos) {
+                estimateNanos = sampleNanos;
+            } else {
+                final double weight = Math.exp(-Math.max(now - stampNanos, 0) / decayNanos);
+                estimateNanos = estimateNanos * weight + sampleNanos * (1 - weight);
+            }
+            stampNanos = now;
+        }
+
+        double estimate(long now) {
+            final long elapsed = Math.max(now - stampNanos, 0);
+            return estimateNanos * Math.exp(-elapsed / decayNanos);
+        }
+    }
+}
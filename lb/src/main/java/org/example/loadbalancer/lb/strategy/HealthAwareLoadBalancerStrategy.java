@@ -0,0 +1,70 @@
+package org.example.loadbalancer.lb.strategy;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Base class for strategies that only ever pick from healthy servers.
+ *
+ * The healthy servers are kept as an immutable array snapshot that is rebuilt and swapped in whenever a server changes
+ * state. Health changes are rare compared to selections, so selection only has to read one volatile field and never
+ * locks or allocates.
+ */
+public abstract class HealthAwareLoadBalancerStrategy implements LoadBalancerStrategy {
+
+    private static final InetSocketAddress[] NO_SERVERS = new InetSocketAddress[0];
+
+    protected final List<InetSocketAddress> servers;
+
+    private final Set<InetSocketAddress> unhealthyServers = ConcurrentHashMap.newKeySet();
+
+    // Replaced as a whole, never modified once published
+    private volatile InetSocketAddress[] healthyServers;
+
+    /**
+     * @param servers a set of <HOST>:<PORT> of target servers we can connect to
+     */
+    protected HealthAwareLoadBalancerStrategy(List<InetSocketAddress> servers) {
+        this.servers = servers;
+        this.healthyServers = servers.toArray(NO_SERVERS);
+    }
+
+    @Override
+    public void serverHealthChanged(InetSocketAddress server, boolean healthy) {
+        final boolean changed = healthy ? unhealthyServers.remove(server) : unhealthyServers.add(server);
+        if (changed) {
+            rebuildHealthyServers();
+        }
+    }
+
+    /**
+     * @return Current snapshot of healthy servers, in config order. Callers must not modify it.
+     */
+    protected final InetSocketAddress[] getHealthyServers() {
+        return healthyServers;
+    }
+
+    /**
+     * Hook for subclasses that keep their own structures derived from the healthy servers. Called with the new
+     * snapshot before it is published, never concurrently with itself.
+     *
+     * @param healthy New healthy server snapshot
+     */
+    protected void healthyServersChanged(InetSocketAddress[] healthy) {
+    }
+
+    /**
+     * Rebuild the healthy snapshot and call healthyServersChanged() again, for subclasses whose derived structures
+     * depend on more than health, e.g. weights
+     */
+    protected final synchronized void rebuildHealthyServers() {
+        final InetSocketAddress[] healthy = servers.stream()
+                .filter(server -> !unhealthyServers.contains(server))
+                .toArray(InetSocketAddress[]::new);
+
+        healthyServersChanged(healthy);
+        healthyServers = healthy;
+    }
+}
@@ -6,4 +6,24 @@ public interface LoadBalancerStrategy {
 
     InetSocketAddress selectDestinationServer();
 
+    /**
+     * Select a server for a specific client, strategies that route on the client (e.g. consistent hashing) override
+     * this, everyone else ignores the address.
+     *
+     * @param clientAddress Remote address of the accepted client socket, may be null
+     * @return Server to route to, or null if there is no healthy server
+     */
+    default InetSocketAddress selectDestinationServer(InetSocketAddress clientAddress) {
+        return selectDestinationServer();
+    }
+
+    /**
+     * Called by the LB whenever a server goes offline or comes back, strategies that care about health override this
+     *
+     * @param server Server whose state changed
+     * @param healthy true if the server is back online
+     */
+    default void serverHealthChanged(InetSocketAddress server, boolean healthy) {
+    }
+
 }
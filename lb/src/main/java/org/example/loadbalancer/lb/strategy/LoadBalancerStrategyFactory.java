@@ -1,34 +1,79 @@
 package org.example.loadbalancer.lb.strategy;
 
+import org.example.loadbalancer.lb.LoadBalancerConfig;
+import org.example.loadbalancer.lb.strategy.algorithms.ConsistentHashLoadBalancerStrategy;
+import org.example.loadbalancer.lb.strategy.algorithms.LeastConnectionsLoadBalancerStrategy;
+import org.example.loadbalancer.lb.strategy.algorithms.LeastResponseTimeLoadBalancerStrategy;
+import org.example.loadbalancer.lb.strategy.algorithms.PowerOfTwoChoicesLoadBalancerStrategy;
 import org.example.loadbalancer.lb.strategy.algorithms.RandomLoadBalancerStrategy;
 import org.example.loadbalancer.lb.strategy.algorithms.RoundRobinLoadBalancerStrategy;
+import org.example.loadbalancer.lb.strategy.algorithms.WeightedRoundRobinLoadBalancerStrategy;
 
 import java.net.InetSocketAddress;
 import java.util.List;
+import java.util.Map;
 
 /*
  * Factory class allows us to decouple the code used to choose a destination server from the LB implementation
  * We can implement new strategies with no (or minimal changes) to the main code.
  *
- * Some ideas:
- *  - Weighted round-robin
- *  - IP hash
- *  - Least connections (*)
- *  - Least response time (*)
- *
- * (*) interface would need some methods to get additional information from LB
+ * Least connections, power of two choices and least response time read live connection counts and latencies from
+ * the BackendStats kept by the LB.
  */
 
 public class LoadBalancerStrategyFactory {
 
     private LoadBalancerStrategyFactory() {}
 
+    /**
+     * Create the strategy named in the config, including any strategy specific settings the config holds
+     *
+     * @param config LB config
+     * @param backendStats Live per-backend stats kept by the LB
+     * @return A new strategy
+     */
+    public static LoadBalancerStrategy createLoadBalancerStrategy(LoadBalancerConfig config, BackendStats backendStats) {
+        return createLoadBalancerStrategy(config, config.getServers(), backendStats);
+    }
+
+    /**
+     * @param config LB config, for the strategy type and its settings
+     * @param servers Servers to balance over, e.g. the ones of an HTTP route
+     * @param backendStats Live per-backend counters
+     * @return New strategy
+     */
+    public static LoadBalancerStrategy createLoadBalancerStrategy(LoadBalancerConfig config, List<InetSocketAddress> servers, BackendStats backendStats) {
+        switch (config.getLoadBalancerStrategyType()) {
+            case WEIGHTED_ROUND_ROBIN:
+                return new WeightedRoundRobinLoadBalancerStrategy(servers, config.getServerWeights());
+            case CONSISTENT_HASH:
+                return new ConsistentHashLoadBalancerStrategy(servers, backendStats, config.getConsistentHashLoadFactor());
+        }
+        return createLoadBalancerStrategy(config.getLoadBalancerStrategyType(), servers, backendStats);
+    }
+
     public static LoadBalancerStrategy createLoadBalancerStrategy(LoadBalancerStrategyType type, List<InetSocketAddress> servers) {
+        return createLoadBalancerStrategy(type, servers, new BackendStats());
+    }
+
+    public static LoadBalancerStrategy createLoadBalancerStrategy(LoadBalancerStrategyType type, List<InetSocketAddress> servers, BackendStats backendStats) {
         switch (type) {
             case ROUND_ROBIN:
                 return new RoundRobinLoadBalancerStrategy(servers);
+            case WEIGHTED_ROUND_ROBIN:
+                // every server weighs 1 unless weights come from the config
+                return new WeightedRoundRobinLoadBalancerStrategy(servers, Map.of());
             case RANDOM:
                 return new RandomLoadBalancerStrategy(servers);
+            case LEAST_CONNECTIONS:
+                return new LeastConnectionsLoadBalancerStrategy(servers, backendStats);
+            case P2C:
+                return new PowerOfTwoChoicesLoadBalancerStrategy(servers, backendStats);
+            case LEAST_RESPONSE_TIME:
+                return new LeastResponseTimeLoadBalancerStrategy(servers, backendStats);
+            case CONSISTENT_HASH:
+                // no bounded loads unless asked for through the config
+                return new ConsistentHashLoadBalancerStrategy(servers, backendStats, 0);
 
             default:
                 throw new IllegalArgumentException("Unknown strategy type: " + type);
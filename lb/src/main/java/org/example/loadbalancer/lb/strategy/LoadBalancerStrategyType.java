@@ -5,5 +5,10 @@ package org.example.loadbalancer.lb.strategy;
  */
 public enum LoadBalancerStrategyType {
     ROUND_ROBIN,
-    RANDOM;
+    WEIGHTED_ROUND_ROBIN,
+    RANDOM,
+    LEAST_CONNECTIONS,
+    P2C,
+    LEAST_RESPONSE_TIME,
+    CONSISTENT_HASH;
 }
\ No newline at end of file
@@ -0,0 +1,180 @@
+package org.example.loadbalancer.lb.strategy.algorithms;
+
+import org.example.loadbalancer.lb.strategy.BackendStats;
+import org.example.loadbalancer.lb.strategy.HealthAwareLoadBalancerStrategy;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/*
+ * IP hash using a consistent hash ring, so a client keeps going to the same server while that server is healthy.
+ *
+ * Every server owns VIRTUAL_NODES points on a 64-bit ring and a client IP is routed to the owner of the first point at
+ * or after its hash. When a server goes offline only the clients that were on it move, spread over the remaining
+ * servers, everyone else stays put. Unlike hash % servers.size() which moves almost everybody.
+ *
+ * The full ring is hashed and sorted once. A health change just filters it down to the healthy owners, which keeps
+ * the order, so a rebuild is a single linear copy. Selection is a binary search over a primitive array.
+ *
+ * With a load factor above zero this becomes consistent hashing with bounded loads: a server already holding more
+ * than loadFactor * average connections is skipped and the walk continues clockwise, so one hot client can't
+ * overload its server. The average is over this ring's healthy servers only, BackendStats is shared by every listener
+ * and the other listeners' traffic says nothing about this one's.
+ */
+public class ConsistentHashLoadBalancerStrategy extends HealthAwareLoadBalancerStrategy {
+
+    static final int VIRTUAL_NODES = 100;
+
+    private final double loadFactor;
+
+    // Whole ring for every configured server, sorted by point
+    private final long[] allPoints;
+    private final int[] allOwners;
+    private final Map<InetSocketAddress, Integer> serverIndexes = new HashMap<>();
+    private final BackendStats.ServerStats[] allStats;
+
+    // Ring restricted to healthy servers, swapped as a whole
+    private volatile Ring ring;
+
+    /**
+     * @param servers a set of <HOST>:<PORT> of target servers we can connect to
+     * @param backendStats Connection counters maintained by the LB, used for bounded loads
+     * @param loadFactor Maximum load of a server relative to the average, e.g. 1.25. 0 disables the bound
+     */
+    public ConsistentHashLoadBalancerStrategy(List<InetSocketAddress> servers, BackendStats backendStats, double loadFactor) {
+        super(servers);
+        this.loadFactor = loadFactor;
+
+        this.allStats = new BackendStats.ServerStats[servers.size()];
+        final long[][] entries = new long[servers.size() * VIRTUAL_NODES][];
+        for (int s = 0; s < servers.size(); s++) {
+            final InetSocketAddress server = servers.get(s);
+            serverIndexes.put(server, s);
+            allStats[s] = backendStats.get(server);
+
+            final byte[] key = (server.getHostString() + ":" + server.getPort()).getBytes(StandardCharsets.UTF_8);
+            for (int v = 0; v < VIRTUAL_NODES; v++) {
+                entries[s * VIRTUAL_NODES + v] = new long[]{mix(fnv1a(key) + v * 0x9E3779B97F4A7C15L), s};
+            }
+        }
+        Arrays.sort(entries, (a, b) -> Long.compare(a[0], b[0]));
+
+        this.allPoints = new long[entries.length];
+        this.allOwners = new int[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            allPoints[i] = entries[i][0];
+            allOwners[i] = (int) entries[i][1];
+        }
+
+        this.ring = buildRing(getHealthyServers());
+    }
+
+    @Override
+    public InetSocketAddress selectDestinationServer() {
+        // No client to be sticky for, any point on the ring will do
+        return select(ThreadLocalRandom.current().nextLong());
+    }
+
+    @Override
+    public InetSocketAddress selectDestinationServer(InetSocketAddress clientAddress) {
+        final InetAddress address = clientAddress != null ? clientAddress.getAddress() : null;
+        if (address == null) {
+            return selectDestinationServer();
+        }
+        // InetAddress.hashCode() is the IPv4 address itself (or a hash of the IPv6 bytes), so no allocation here
+        return select(mix(address.hashCode()));
+    }
+
+    @Override
+    protected void healthyServersChanged(InetSocketAddress[] healthy) {
+        ring = buildRing(healthy);
+    }
+
+    private InetSocketAddress select(long hash) {
+        final Ring current = ring;
+        final int size = current.points.length;
+        if (size == 0) {
+            return null;
+        }
+
+        int index = Arrays.binarySearch(current.points, hash);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        if (index == size) {
+            index = 0;
+        }
+
+        if (loadFactor <= 0) {
+            return servers.get(current.owners[index]);
+        }
+
+        // Bounded loads: walk clockwise past servers that are already over their share
+        long active = 0;
+        for (BackendStats.ServerStats stats : current.healthyStats) {
+            active += stats.getActiveConnections();
+        }
+        final long cap = (long) Math.ceil(loadFactor * (active + 1) / current.healthyStats.length);
+        for (int i = 0; i < size; i++) {
+            final int owner = current.owners[(index + i) % size];
+            if (allStats[owner].getActiveConnections() < cap) {
+                return servers.get(owner);
+            }
+        }
+        return servers.get(current.owners[index]);
+    }
+
+    private Ring buildRing(InetSocketAddress[] healthy) {
+        final boolean[] isHealthy = new boolean[servers.size()];
+        final BackendStats.ServerStats[] healthyStats = new BackendStats.ServerStats[healthy.length];
+        for (int i = 0; i < healthy.length; i++) {
+            final int index = serverIndexes.get(healthy[i]);
+            isHealthy[index] = true;
+            healthyStats[i] = allStats[index];
+        }
+
+        final long[] points = new long[healthy.length * VIRTUAL_NODES];
+        final int[] owners = new int[points.length];
+        int size = 0;
+        for (int i = 0; i < allPoints.length; i++) {
+            if (isHealthy[allOwners[i]]) {
+                points[size] = allPoints[i];
+                owners[size++] = allOwners[i];
+            }
+        }
+        return new Ring(Arrays.copyOf(points, size), Arrays.copyOf(owners, size), healthyStats);
+    }
+
+    /*
+     * 64-bit FNV-1a, only used when building the ring
+     */
+    private static long fnv1a(byte[] data) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : data) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /*
+     * MurmurHash3 finalizer, spreads client IPs that only differ in the last octet across the whole ring
+     */
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+
+    private record Ring(long[] points, int[] owners, BackendStats.ServerStats[] healthyStats) {
+    }
+}
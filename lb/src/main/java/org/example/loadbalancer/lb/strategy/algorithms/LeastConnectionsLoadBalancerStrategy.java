@@ -0,0 +1,58 @@
+package org.example.loadbalancer.lb.strategy.algorithms;
+
+import org.example.loadbalancer.lb.strategy.BackendStats;
+import org.example.loadbalancer.lb.strategy.HealthAwareLoadBalancerStrategy;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/*
+ * Picks the healthy server with the fewest active connections, using the live counters kept by the LB.
+ * The scan starts at a random offset so ties don't always go to the first server in the list.
+ */
+public class LeastConnectionsLoadBalancerStrategy extends HealthAwareLoadBalancerStrategy {
+
+    private final BackendStats backendStats;
+
+    // Healthy servers and their stats, swapped as a pair so they always line up
+    private volatile ServerSnapshot snapshot;
+
+    /**
+     * @param servers a set of <HOST>:<PORT> of target servers we can connect to
+     * @param backendStats Connection counters maintained by the LB
+     */
+    public LeastConnectionsLoadBalancerStrategy(List<InetSocketAddress> servers, BackendStats backendStats) {
+        super(servers);
+        this.backendStats = backendStats;
+        this.snapshot = new ServerSnapshot(getHealthyServers(), backendStats);
+    }
+
+    @Override
+    public InetSocketAddress selectDestinationServer() {
+        final ServerSnapshot current = snapshot;
+        final int size = current.servers.length;
+        if (size == 0) {
+            return null;
+        }
+
+        final int start = ThreadLocalRandom.current().nextInt(size);
+        int best = start;
+        long bestConnections = current.stats[start].getActiveConnections();
+
+        for (int i = 1; i < size && bestConnections > 0; i++) {
+            final int index = (start + i) % size;
+            final long connections = current.stats[index].getActiveConnections();
+            if (connections < bestConnections) {
+                best = index;
+                bestConnections = connections;
+            }
+        }
+        return current.servers[best];
+    }
+
+    @Override
+    protected void healthyServersChanged(InetSocketAddress[] healthy) {
+        snapshot = new ServerSnapshot(healthy, backendStats);
+    }
+}
@@ -0,0 +1,71 @@
+package org.example.loadbalancer.lb.strategy.algorithms;
+
+import org.example.loadbalancer.lb.strategy.BackendStats;
+import org.example.loadbalancer.lb.strategy.HealthAwareLoadBalancerStrategy;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/*
+ * Least response time using peak-EWMA latency. Each healthy server is scored as
+ *
+ *   latency estimate * (active connections + 1)
+ *
+ * and the lowest score wins. The peak-EWMA jumps up as soon as a slow response is seen, so a server that starts
+ * pausing (e.g. for GC) is avoided on the next selection, and it decays back once fast samples arrive again or the
+ * server has been left alone for a while. Servers with no samples yet score on their connection count alone.
+ */
+public class LeastResponseTimeLoadBalancerStrategy extends HealthAwareLoadBalancerStrategy {
+
+    // Floor for the latency estimate so unmeasured servers still compare on load instead of all scoring zero
+    private static final double MIN_LATENCY_NANOS = 1_000;
+
+    private final BackendStats backendStats;
+
+    // Healthy servers and their stats, swapped as a pair so they always line up
+    private volatile ServerSnapshot snapshot;
+
+    /**
+     * @param servers a set of <HOST>:<PORT> of target servers we can connect to
+     * @param backendStats Connection counters and latencies maintained by the LB
+     */
+    public LeastResponseTimeLoadBalancerStrategy(List<InetSocketAddress> servers, BackendStats backendStats) {
+        super(servers);
+        this.backendStats = backendStats;
+        this.snapshot = new ServerSnapshot(getHealthyServers(), backendStats);
+    }
+
+    @Override
+    public InetSocketAddress selectDestinationServer() {
+        final ServerSnapshot current = snapshot;
+        final int size = current.servers.length;
+        if (size == 0) {
+            return null;
+        }
+
+        // start at a random server so ties are spread out
+        final int start = ThreadLocalRandom.current().nextInt(size);
+        int best = start;
+        double bestCost = cost(current.stats[start]);
+
+        for (int i = 1; i < size; i++) {
+            final int index = (start + i) % size;
+            final double cost = cost(current.stats[index]);
+            if (cost < bestCost) {
+                best = index;
+                bestCost = cost;
+            }
+        }
+        return current.servers[best];
+    }
+
+    @Override
+    protected void healthyServersChanged(InetSocketAddress[] healthy) {
+        snapshot = new ServerSnapshot(healthy, backendStats);
+    }
+
+    private static double cost(BackendStats.ServerStats stats) {
+        return Math.max(stats.getLatencyEstimateNanos(), MIN_LATENCY_NANOS) * (stats.getActiveConnections() + 1);
+    }
+}
@@ -0,0 +1,57 @@
+package org.example.loadbalancer.lb.strategy.algorithms;
+
+import org.example.loadbalancer.lb.strategy.BackendStats;
+import org.example.loadbalancer.lb.strategy.HealthAwareLoadBalancerStrategy;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/*
+ * Power of two random choices: pick two different healthy servers at random and use the one with fewer active
+ * connections. Gets most of the benefit of least connections while only reading two counters per selection, and
+ * avoids every acceptor piling onto the same "least loaded" server at once.
+ */
+public class PowerOfTwoChoicesLoadBalancerStrategy extends HealthAwareLoadBalancerStrategy {
+
+    private final BackendStats backendStats;
+
+    // Healthy servers and their stats, swapped as a pair so they always line up
+    private volatile ServerSnapshot snapshot;
+
+    /**
+     * @param servers a set of <HOST>:<PORT> of target servers we can connect to
+     * @param backendStats Connection counters maintained by the LB
+     */
+    public PowerOfTwoChoicesLoadBalancerStrategy(List<InetSocketAddress> servers, BackendStats backendStats) {
+        super(servers);
+        this.backendStats = backendStats;
+        this.snapshot = new ServerSnapshot(getHealthyServers(), backendStats);
+    }
+
+    @Override
+    public InetSocketAddress selectDestinationServer() {
+        final ServerSnapshot current = snapshot;
+        final int size = current.servers.length;
+        if (size == 0) {
+            return null;
+        }
+        if (size == 1) {
+            return current.servers[0];
+        }
+
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final int first = random.nextInt(size);
+        // second choice is drawn from the remaining servers so the two are always different
+        final int second = (first + 1 + random.nextInt(size - 1)) % size;
+
+        return current.stats[second].getActiveConnections() < current.stats[first].getActiveConnections()
+                ? current.servers[second]
+                : current.servers[first];
+    }
+
+    @Override
+    protected void healthyServersChanged(InetSocketAddress[] healthy) {
+        snapshot = new ServerSnapshot(healthy, backendStats);
+    }
+}
@@ -1,26 +1,29 @@
 package org.example.loadbalancer.lb.strategy.algorithms;
 
-import org.example.loadbalancer.lb.strategy.LoadBalancerStrategy;
+import org.example.loadbalancer.lb.strategy.HealthAwareLoadBalancerStrategy;
 
 import java.net.InetSocketAddress;
 import java.util.List;
 import java.util.concurrent.ThreadLocalRandom;
 
 /*
- * Returns a random server from the list of servers given on construction
+ * Returns a random server from the list of healthy servers given on construction
  */
-public class RandomLoadBalancerStrategy implements LoadBalancerStrategy {
-
-    private final List<InetSocketAddress> servers;
+public class RandomLoadBalancerStrategy extends HealthAwareLoadBalancerStrategy {
 
     public RandomLoadBalancerStrategy(List<InetSocketAddress> servers) {
-        this.servers = servers;
+        super(servers);
     }
 
     @Override
     public InetSocketAddress selectDestinationServer() {
-        int index = ThreadLocalRandom.current().nextInt(0, servers.size());
-        return servers.get(index);
+        final InetSocketAddress[] healthy = getHealthyServers();
+        if (healthy.length == 0) {
+            return null;
+        }
+
+        int index = ThreadLocalRandom.current().nextInt(0, healthy.length);
+        return healthy[index];
     }
 
 }
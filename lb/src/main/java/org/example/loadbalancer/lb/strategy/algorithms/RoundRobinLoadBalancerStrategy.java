@@ -1,33 +1,38 @@
 package org.example.loadbalancer.lb.strategy.algorithms;
 
-import org.example.loadbalancer.lb.strategy.LoadBalancerStrategy;
+import org.example.loadbalancer.lb.strategy.HealthAwareLoadBalancerStrategy;
 
 import java.net.InetSocketAddress;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /*
  * Simplest and most common load balancer type
  * Keeps track of a list of servers to connect to and the index of the last used server
  * When we reach past the last server entry, we move back to the first
+ *
+ * The index is a single atomic counter taken modulo the current healthy server snapshot, so selection is safe from
+ * any number of threads, is O(1) and never hands out a server we know to be unhealthy.
  */
-public class RoundRobinLoadBalancerStrategy implements LoadBalancerStrategy {
+public class RoundRobinLoadBalancerStrategy extends HealthAwareLoadBalancerStrategy {
 
-    private final List<InetSocketAddress> servers;
-    private int currentIndex = 0;
+    private final AtomicInteger currentIndex = new AtomicInteger();
 
     /**
      * @param servers a set of <HOST>:<PORT> of target servers we can connect to
      */
     public RoundRobinLoadBalancerStrategy(List<InetSocketAddress> servers) {
-        this.servers = servers;
+        super(servers);
     }
 
     @Override
     public InetSocketAddress selectDestinationServer() {
-        if (currentIndex >= servers.size()) {
-            currentIndex = 0;
+        final InetSocketAddress[] healthy = getHealthyServers();
+        if (healthy.length == 0) {
+            return null;
         }
 
-        return servers.get(currentIndex++);
+        // mask off the sign bit so the index stays positive once the counter wraps
+        return healthy[(currentIndex.getAndIncrement() & Integer.MAX_VALUE) % healthy.length];
     }
 }
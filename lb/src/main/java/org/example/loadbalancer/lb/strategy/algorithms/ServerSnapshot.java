@@ -0,0 +1,22 @@
+package org.example.loadbalancer.lb.strategy.algorithms;
+
+import org.example.loadbalancer.lb.strategy.BackendStats;
+
+import java.net.InetSocketAddress;
+
+/*
+ * Healthy servers with their stats resolved up front, so load-aware strategies don't need a map lookup per selection
+ */
+class ServerSnapshot {
+
+    final InetSocketAddress[] servers;
+    final BackendStats.ServerStats[] stats;
+
+    ServerSnapshot(InetSocketAddress[] servers, BackendStats backendStats) {
+        this.servers = servers;
+        this.stats = new BackendStats.ServerStats[servers.length];
+        for (int i = 0; i < servers.length; i++) {
+            stats[i] = backendStats.get(servers[i]);
+        }
+    }
+}
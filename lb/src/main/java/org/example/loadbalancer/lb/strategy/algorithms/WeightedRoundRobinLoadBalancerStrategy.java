@@ -0,0 +1,136 @@
+package org.example.loadbalancer.lb.strategy.algorithms;
+
+import org.example.loadbalancer.lb.strategy.HealthAwareLoadBalancerStrategy;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Smooth weighted round-robin, as used by nginx. A server with weight 3 gets three times the connections of a server
+ * with weight 1, and the picks are interleaved (a a b a) rather than bunched (a a a b).
+ *
+ * Rather than running the nginx algorithm (which updates every server's current weight) on each selection under a
+ * lock, the whole smooth sequence for one cycle is precomputed into an int array whenever health or weights change.
+ * Selection is then the same atomic counter lookup as plain round robin. Weights can be changed at runtime with
+ * setWeight(), which rebuilds the sequence off the selection path and swaps it in.
+ */
+public class WeightedRoundRobinLoadBalancerStrategy extends HealthAwareLoadBalancerStrategy {
+
+    // Upper bound on the precomputed cycle, weights are scaled down proportionally past this
+    static final int MAX_SEQUENCE_LENGTH = 1 << 16;
+
+    private final Map<InetSocketAddress, Integer> weights = new ConcurrentHashMap<>();
+    private final AtomicInteger currentIndex = new AtomicInteger();
+
+    // Servers and the order to visit them in, swapped as a pair
+    private volatile Schedule schedule;
+
+    /**
+     * @param servers a set of <HOST>:<PORT> of target servers we can connect to
+     * @param weights Weight per server, servers missing from the map get a weight of 1
+     */
+    public WeightedRoundRobinLoadBalancerStrategy(List<InetSocketAddress> servers, Map<InetSocketAddress, Integer> weights) {
+        super(servers);
+        this.weights.putAll(weights);
+        this.schedule = buildSchedule(getHealthyServers());
+    }
+
+    @Override
+    public InetSocketAddress selectDestinationServer() {
+        final Schedule current = schedule;
+        if (current.sequence.length == 0) {
+            return null;
+        }
+
+        // mask off the sign bit so the index stays positive once the counter wraps
+        final int index = (currentIndex.getAndIncrement() & Integer.MAX_VALUE) % current.sequence.length;
+        return current.servers[current.sequence[index]];
+    }
+
+    /**
+     * Change the weight of a server while the LB is running. A weight of 0 stops new connections going to it.
+     *
+     * @param server Server to change
+     * @param weight New weight, 0 or more
+     */
+    public void setWeight(InetSocketAddress server, int weight) {
+        if (weight < 0) {
+            throw new IllegalArgumentException("Weight must not be negative: " + weight);
+        }
+        weights.put(server, weight);
+        rebuildHealthyServers();
+    }
+
+    public int getWeight(InetSocketAddress server) {
+        return weights.getOrDefault(server, 1);
+    }
+
+    @Override
+    protected void healthyServersChanged(InetSocketAddress[] healthy) {
+        schedule = buildSchedule(healthy);
+    }
+
+    private Schedule buildSchedule(InetSocketAddress[] healthy) {
+        final int[] serverWeights = new int[healthy.length];
+        long total = 0;
+        for (int i = 0; i < healthy.length; i++) {
+            serverWeights[i] = getWeight(healthy[i]);
+            total += serverWeights[i];
+        }
+
+        // Reduce to the shortest cycle, and scale down weights that would make it too long
+        final int divisor = gcd(serverWeights);
+        for (int i = 0; i < serverWeights.length; i++) {
+            serverWeights[i] /= Math.max(divisor, 1);
+        }
+        total /= Math.max(divisor, 1);
+        if (total > MAX_SEQUENCE_LENGTH) {
+            final double scale = (double) MAX_SEQUENCE_LENGTH / total;
+            total = 0;
+            for (int i = 0; i < serverWeights.length; i++) {
+                if (serverWeights[i] > 0) {
+                    serverWeights[i] = Math.max(1, (int) (serverWeights[i] * scale));
+                    total += serverWeights[i];
+                }
+            }
+        }
+
+        // nginx smooth weighted round-robin, run once for a full cycle
+        final int[] sequence = new int[(int) total];
+        final long[] currentWeights = new long[serverWeights.length];
+        for (int n = 0; n < sequence.length; n++) {
+            int best = -1;
+            for (int i = 0; i < serverWeights.length; i++) {
+                currentWeights[i] += serverWeights[i];
+                if (serverWeights[i] > 0 && (best < 0 || currentWeights[i] > currentWeights[best])) {
+                    best = i;
+                }
+            }
+            currentWeights[best] -= total;
+            sequence[n] = best;
+        }
+
+        return new Schedule(healthy, sequence);
+    }
+
+    private static int gcd(int[] values) {
+        int result = 0;
+        for (int value : values) {
+            int a = result;
+            int b = value;
+            while (b != 0) {
+                final int t = a % b;
+                a = b;
+                b = t;
+            }
+            result = a;
+        }
+        return result;
+    }
+
+    private record Schedule(InetSocketAddress[] servers, int[] sequence) {
+    }
+}
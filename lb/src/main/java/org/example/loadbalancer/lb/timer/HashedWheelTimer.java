@@ -0,0 +1,234 @@
+package org.example.loadbalancer.lb.timer;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Timer for large numbers of coarse deadlines, e.g. an idle timeout on every connection, as described by Varghese and
+ * Lauck and used by Netty and Kafka.
+ *
+ * Timeouts hash into a ring of buckets by deadline, one bucket per tick. A single thread advances one bucket per tick
+ * and runs whatever in it is due, timeouts further out than one turn of the wheel wait for the right round. Scheduling
+ * and cancelling only add to a lock-free queue that the timer thread drains on its next tick, so both are O(1) and
+ * never contend with the timer thread. The cost is precision: a timeout fires up to one tick late.
+ *
+ * Tasks run on the timer thread and must be quick, e.g. closing a socket or handing work to an event loop.
+ */
+public class HashedWheelTimer implements AutoCloseable {
+
+    // Most timeouts added per tick, stops a burst of schedules holding up expiry
+    private static final int MAX_TRANSFERS_PER_TICK = 100_000;
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+
+    // Handed over by other threads, moved into the wheel by the timer thread
+    private final Queue<Timeout> added = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private final long startedAt = System.nanoTime();
+    // Timer thread only
+    private long tick = 0;
+
+    private volatile boolean running = false;
+    private volatile Thread worker;
+
+    /**
+     * @param tickMs Resolution of the timer, timeouts fire up to this late
+     * @param ticksPerWheel Buckets in the wheel, rounded up to a power of two
+     */
+    public HashedWheelTimer(long tickMs, int ticksPerWheel) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(tickMs, 1));
+        final int size = Integer.highestOneBit(Math.max(ticksPerWheel, 2) - 1) << 1;
+        this.wheel = new Bucket[size];
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+    }
+
+    /**
+     * Start the timer thread, timeouts scheduled before this wait until it runs
+     */
+    public synchronized void start() {
+        if (worker != null) {
+            return;
+        }
+        running = true;
+        worker = Thread.ofPlatform().name("lb-timer").daemon().start(this::run);
+    }
+
+    /**
+     * Schedule a task, O(1) from any thread
+     *
+     * @param task Runs on the timer thread once the delay has passed
+     * @param delay Delay before the task runs
+     * @param unit Unit of the delay
+     * @return Handle to cancel the task with
+     */
+    public Timeout newTimeout(Runnable task, long delay, TimeUnit unit) {
+        final Timeout timeout = new Timeout(this, task, System.nanoTime() - startedAt + Math.max(unit.toNanos(delay), 0));
+        pending.incrementAndGet();
+        added.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * @return Timeouts scheduled that have neither expired nor been cancelled
+     */
+    public int getPending() {
+        return pending.get();
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        final Thread thread = worker;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * @param timeout Cancelled timeout for the timer thread to unlink
+     */
+    void cancelled(Timeout timeout) {
+        pending.decrementAndGet();
+        cancelled.add(timeout);
+    }
+
+    /**
+     * Called by a timeout once it has been claimed for expiry, just before its task runs
+     */
+    void expired() {
+        pending.decrementAndGet();
+    }
+
+    private void run() {
+        while (running) {
+            final long deadline = waitForNextTick();
+            if (!running) {
+                break;
+            }
+            advance(deadline);
+        }
+    }
+
+    /**
+     * Run one tick: forget cancelled timeouts, place new ones and expire what is due in the current bucket. Only the
+     * timer thread calls this once started.
+     *
+     * @param deadline Time since start up to which timeouts are due
+     */
+    void advance(long deadline) {
+        removeCancelled();
+        transferAdded();
+        wheel[(int) (tick & mask)].expire(deadline);
+        tick++;
+    }
+
+    /**
+     * @return Time since start the current tick ends at
+     */
+    long currentTickDeadline() {
+        return tickNanos * (tick + 1);
+    }
+
+    private long waitForNextTick() {
+        final long deadline = currentTickDeadline();
+        long wait;
+        while (running && (wait = deadline - (System.nanoTime() - startedAt)) > 0) {
+            LockSupport.parkNanos(this, wait);
+        }
+        return deadline;
+    }
+
+    private void transferAdded() {
+        for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+            final Timeout timeout = added.poll();
+            if (timeout == null) {
+                return;
+            }
+            if (timeout.isCancelled()) {
+                // Cancelled before it was placed, there is nothing to unlink
+                continue;
+            }
+
+            final long dueTick = timeout.deadline / tickNanos;
+            timeout.remainingRounds = (dueTick - tick) / wheel.length;
+            // Anything already overdue goes in the current bucket and fires this tick
+            wheel[(int) (Math.max(dueTick, tick) & mask)].add(timeout);
+        }
+    }
+
+    private void removeCancelled() {
+        Timeout timeout;
+        while ((timeout = cancelled.poll()) != null) {
+            // Not placed yet, or already taken out by expire()
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+            }
+        }
+    }
+
+    /*
+     * Timeouts that fall on the same tick, a doubly linked list so a cancelled one can be unlinked in O(1)
+     */
+    final class Bucket {
+
+        private Timeout head;
+        private Timeout tail;
+
+        private void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        private void remove(Timeout timeout) {
+            if (timeout.prev != null) {
+                timeout.prev.next = timeout.next;
+            } else {
+                head = timeout.next;
+            }
+            if (timeout.next != null) {
+                timeout.next.prev = timeout.prev;
+            } else {
+                tail = timeout.prev;
+            }
+            timeout.next = null;
+            timeout.prev = null;
+            timeout.bucket = null;
+        }
+
+        private void expire(long deadline) {
+            Timeout timeout = head;
+            while (timeout != null) {
+                final Timeout next = timeout.next;
+                if (timeout.remainingRounds <= 0 && timeout.deadline <= deadline) {
+                    remove(timeout);
+                    // Loses to a cancel() that got in first
+                    timeout.expire();
+                } else if (!timeout.isCancelled()) {
+                    timeout.remainingRounds--;
+                }
+                timeout = next;
+            }
+        }
+    }
+}
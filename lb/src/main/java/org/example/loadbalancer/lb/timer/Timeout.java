@@ -0,0 +1,75 @@
+package org.example.loadbalancer.lb.timer;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/*
+ * A task scheduled on a HashedWheelTimer. Cancelling only flips the state and queues the timeout for the timer thread
+ * to unlink, so it is O(1) and safe from any thread.
+ */
+public class Timeout {
+
+    private static final int PENDING = 0;
+    private static final int CANCELLED = 1;
+    private static final int EXPIRED = 2;
+
+    private static final AtomicIntegerFieldUpdater<Timeout> STATE = AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+    private final HashedWheelTimer timer;
+    private final Runnable task;
+
+    // Nanoseconds since the timer started
+    final long deadline;
+
+    // Written by the timer thread only, full turns of the wheel left before the timeout is due
+    long remainingRounds;
+    Timeout next;
+    Timeout prev;
+    HashedWheelTimer.Bucket bucket;
+
+    private volatile int state = PENDING;
+
+    Timeout(HashedWheelTimer timer, Runnable task, long deadline) {
+        this.timer = timer;
+        this.task = task;
+        this.deadline = deadline;
+    }
+
+    /**
+     * @return true if the task will now never run, false if it already ran or was cancelled before
+     */
+    public boolean cancel() {
+        if (!STATE.compareAndSet(this, PENDING, CANCELLED)) {
+            return false;
+        }
+        timer.cancelled(this);
+        return true;
+    }
+
+    public boolean isCancelled() {
+        return state == CANCELLED;
+    }
+
+    public boolean isExpired() {
+        return state == EXPIRED;
+    }
+
+    /**
+     * Run the task on the timer thread, unless it was cancelled first
+     *
+     * @return true if the task ran
+     */
+    boolean expire() {
+        if (!STATE.compareAndSet(this, PENDING, EXPIRED)) {
+            return false;
+        }
+        // No longer pending before the task runs, the task may be what someone is waiting on
+        timer.expired();
+
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            System.out.printf("Timer task failed (%s)%n", e.getMessage());
+        }
+        return true;
+    }
+}
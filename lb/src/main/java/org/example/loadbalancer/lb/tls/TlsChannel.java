@@ -0,0 +1,371 @@
+package org.example.loadbalancer.lb.tls;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSession;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * Blocking ByteChannel that speaks TLS over a SocketChannel through an SSLEngine, reads return plaintext and writes
+ * take plaintext. Meant for virtual threads, a read or write parks the thread just like the SocketChannel underneath.
+ *
+ * One thread may read while another writes, which is how the relays use it. Reads and writes have their own lock and
+ * buffers, SSLEngine allows wrap and unwrap to run at the same time. When a read needs something sent, e.g. the reply
+ * to a TLS 1.3 KeyUpdate, it takes the write lock for that.
+ *
+ * The CPU heavy part of a handshake (key exchange, signing) is handed out by the SSLEngine as delegated tasks, those
+ * run on the executor given to the constructor and the calling thread waits for them.
+ *
+ * The records are kept in heap buffers, the JDK's ciphers work on arrays and would copy a direct buffer anyway.
+ */
+public class TlsChannel implements ByteChannel {
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final SocketChannel channel;
+    private final SSLEngine engine;
+    private final ExecutorService taskExecutor;
+
+    // Locks rather than synchronized, a virtual thread blocking on I/O inside synchronized would pin its carrier
+    private final ReentrantLock readLock = new ReentrantLock();
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    // Encrypted bytes read but not yet unwrapped, in write mode
+    private ByteBuffer netIn;
+    // Plaintext unwrapped but not yet read, in write mode
+    private ByteBuffer appIn;
+    // Encrypted bytes being written
+    private ByteBuffer netOut;
+
+    // The peer sent close_notify or closed the connection
+    private boolean inboundDone;
+
+    /**
+     * @param channel Connected channel in blocking mode
+     * @param engine Engine for this connection, client or server mode already set
+     * @param taskExecutor Runs the engine's delegated tasks
+     */
+    public TlsChannel(SocketChannel channel, SSLEngine engine, ExecutorService taskExecutor) {
+        this.channel = channel;
+        this.engine = engine;
+        this.taskExecutor = taskExecutor;
+        final SSLSession session = engine.getSession();
+        this.netIn = ByteBuffer.allocate(session.getPacketBufferSize());
+        this.appIn = ByteBuffer.allocate(session.getApplicationBufferSize());
+        this.netOut = ByteBuffer.allocate(session.getPacketBufferSize());
+    }
+
+    /**
+     * Run the handshake to the end. Bytes the peer sent after its last handshake message are kept for read().
+     *
+     * @throws SSLException if the handshake failed, e.g. no protocol or cipher in common
+     * @throws IOException if the connection failed or was closed under it
+     */
+    public void handshake() throws IOException {
+        readLock.lock();
+        writeLock.lock();
+        try {
+            engine.beginHandshake();
+            SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+
+            while (status != SSLEngineResult.HandshakeStatus.FINISHED && status != SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING) {
+                switch (status) {
+                    case NEED_TASK:
+                        runDelegatedTasks();
+                        status = engine.getHandshakeStatus();
+                        break;
+                    case NEED_WRAP:
+                        status = wrap(EMPTY).getHandshakeStatus();
+                        break;
+                    case NEED_UNWRAP:
+                    case NEED_UNWRAP_AGAIN:
+                        final SSLEngineResult result = unwrap(appIn);
+                        switch (result.getStatus()) {
+                            case BUFFER_UNDERFLOW:
+                                if (channel.read(netIn) < 0) {
+                                    throw new EOFException("Connection closed during TLS handshake");
+                                }
+                                break;
+                            case BUFFER_OVERFLOW:
+                                appIn = grow(appIn, engine.getSession().getApplicationBufferSize());
+                                break;
+                            case CLOSED:
+                                throw new SSLException("Peer closed the connection during TLS handshake");
+                        }
+                        status = result.getHandshakeStatus();
+                        break;
+
+                    default:
+                        throw new SSLException("Unexpected handshake status: " + status);
+                }
+            }
+        } finally {
+            writeLock.unlock();
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Hand back encrypted bytes that were read from the channel before it was wrapped, they are unwrapped first
+     *
+     * @param received Bytes between position and limit, consumed
+     */
+    void unread(ByteBuffer received) {
+        if (netIn.remaining() < received.remaining()) {
+            netIn = grow(netIn, netIn.position() + received.remaining());
+        }
+        netIn.put(received);
+    }
+
+    /**
+     * @return Session negotiated by the handshake
+     */
+    public SSLSession getSession() {
+        return engine.getSession();
+    }
+
+    /**
+     * Read plaintext, blocks until at least one byte is available
+     *
+     * @param dst Buffer to read into
+     * @return Bytes read, or -1 once the peer has sent close_notify or closed the connection
+     */
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        readLock.lock();
+        try {
+            boolean overflowed = false;
+            while (true) {
+                if (appIn.position() > 0) {
+                    return drainAppIn(dst);
+                }
+                if (inboundDone) {
+                    return -1;
+                }
+
+                // A buffer big enough for a whole record is unwrapped into straight away, saving a copy
+                final boolean direct = !overflowed && dst.remaining() >= engine.getSession().getApplicationBufferSize();
+                final SSLEngineResult result = unwrap(direct ? dst : appIn);
+                afterUnwrap(result);
+
+                switch (result.getStatus()) {
+                    case OK:
+                        if (direct && result.bytesProduced() > 0) {
+                            return result.bytesProduced();
+                        }
+                        break;
+                    case BUFFER_UNDERFLOW:
+                        if (channel.read(netIn) < 0) {
+                            // No close_notify, the peer just went away. Relays treat that as end of stream too.
+                            inboundDone = true;
+                        }
+                        break;
+                    case BUFFER_OVERFLOW:
+                        overflowed = true;
+                        appIn = grow(appIn, engine.getSession().getApplicationBufferSize());
+                        break;
+                    case CLOSED:
+                        inboundDone = true;
+                        break;
+
+                    default:
+                        throw new SSLException("Unexpected unwrap status: " + result.getStatus());
+                }
+            }
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Encrypt and send all of the buffer
+     *
+     * @param src Plaintext to send
+     * @return Bytes of plaintext sent
+     */
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        writeLock.lock();
+        try {
+            int written = 0;
+            while (src.hasRemaining()) {
+                final SSLEngineResult result = wrap(src);
+                if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                    throw new ClosedChannelException();
+                }
+                written += result.bytesConsumed();
+            }
+            return written;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Send close_notify and half-close the connection, reads keep working. TLS 1.2 peers answer with their own
+     * close_notify, so only TLS 1.3 really keeps the other direction open.
+     */
+    public void shutdownOutput() throws IOException {
+        writeLock.lock();
+        try {
+            engine.closeOutbound();
+            while (!engine.isOutboundDone()) {
+                wrap(EMPTY);
+            }
+            channel.shutdownOutput();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    /**
+     * Close the connection straight away, without close_notify. Safe to call from any thread, like the timer closing a
+     * relay, since it never blocks on a write.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    @Override
+    public String toString() {
+        return "TlsChannel[" + channel + "]";
+    }
+
+    /**
+     * @param dst Where unwrapped plaintext goes
+     * @return Result of one unwrap of what is in netIn, which may need more bytes read first
+     */
+    private SSLEngineResult unwrap(ByteBuffer dst) throws SSLException {
+        netIn.flip();
+        try {
+            final SSLEngineResult result = engine.unwrap(netIn, dst);
+            if (result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW && netIn.limit() == netIn.capacity()) {
+                // A record bigger than the buffer, only happens when the session's packet size went up
+                netIn.compact();
+                netIn = grow(netIn, engine.getSession().getPacketBufferSize());
+                return result;
+            }
+            netIn.compact();
+            return result;
+        } catch (SSLException e) {
+            netIn.clear();
+            throw e;
+        }
+    }
+
+    /**
+     * Wrap one record from src and write it out, called with the write lock held
+     *
+     * @param src Plaintext, EMPTY for handshake messages and close_notify
+     * @return Result of the wrap
+     */
+    private SSLEngineResult wrap(ByteBuffer src) throws IOException {
+        while (true) {
+            netOut.clear();
+            final SSLEngineResult result = engine.wrap(src, netOut);
+            if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                netOut = grow(netOut, engine.getSession().getPacketBufferSize());
+                continue;
+            }
+
+            netOut.flip();
+            while (netOut.hasRemaining()) {
+                channel.write(netOut);
+            }
+            if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                runDelegatedTasks();
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Handle what an unwrap outside of the handshake asks for: post-handshake messages like session tickets and key
+     * updates, or the close_notify TLS 1.2 wants sent back
+     *
+     * @param result Result of the unwrap
+     */
+    private void afterUnwrap(SSLEngineResult result) throws IOException {
+        SSLEngineResult.HandshakeStatus status = result.getHandshakeStatus();
+        if (status == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+            runDelegatedTasks();
+            status = engine.getHandshakeStatus();
+        }
+        if (status == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+            writeLock.lock();
+            try {
+                while (engine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                    wrap(EMPTY);
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Run the engine's delegated tasks on the task executor, the calling thread waits for each one
+     *
+     * @throws SSLException if the executor is full or a task failed
+     */
+    private void runDelegatedTasks() throws IOException {
+        Runnable task;
+        while ((task = engine.getDelegatedTask()) != null) {
+            try {
+                taskExecutor.submit(task).get();
+            } catch (RejectedExecutionException e) {
+                throw new SSLException("Too many TLS handshakes waiting", e);
+            } catch (ExecutionException e) {
+                throw new SSLException("TLS handshake task failed", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted during TLS handshake");
+            }
+        }
+    }
+
+    /**
+     * @param dst Buffer to copy plaintext left over from the last unwrap into
+     * @return Bytes copied
+     */
+    private int drainAppIn(ByteBuffer dst) {
+        appIn.flip();
+        final int count = Math.min(appIn.remaining(), dst.remaining());
+        final int limit = appIn.limit();
+        appIn.limit(appIn.position() + count);
+        dst.put(appIn);
+        appIn.limit(limit);
+        appIn.compact();
+        return count;
+    }
+
+    /**
+     * @param buffer Buffer in write mode
+     * @param minCapacity Capacity needed
+     * @return A buffer with the same content and at least minCapacity, or room for minCapacity more if it was already that big
+     */
+    private static ByteBuffer grow(ByteBuffer buffer, int minCapacity) {
+        final int capacity = buffer.capacity() >= minCapacity ? buffer.position() + minCapacity : minCapacity;
+        final ByteBuffer bigger = ByteBuffer.allocate(capacity);
+        buffer.flip();
+        bigger.put(buffer);
+        return bigger;
+    }
+}
@@ -0,0 +1,163 @@
+package org.example.loadbalancer.lb.tls;
+
+import org.example.loadbalancer.lb.log.Log;
+import org.example.loadbalancer.lb.metrics.Counter;
+import org.example.loadbalancer.lb.metrics.MetricsRegistry;
+import org.example.loadbalancer.lb.timer.HashedWheelTimer;
+import org.example.loadbalancer.lb.timer.Timeout;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSessionContext;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.example.loadbalancer.lb.util.Helper.closeChannel;
+
+/*
+ * Terminates TLS on client connections. One SSLContext serves every connection, so they all share its session cache
+ * and session ticket keys: a client resumes its session whichever backend its last connection went to.
+ *
+ * Handshakes are run by the relay's own virtual thread, but the expensive part of each (the engine's delegated tasks)
+ * goes to a small fixed pool of platform threads with a bounded queue. A handshake storm then queues up there, or is
+ * turned away once the queue is full, instead of taking every carrier thread the relays need to move data. Handshakes
+ * taking longer than the handshake timeout are closed.
+ */
+public class TlsTerminator implements AutoCloseable {
+
+    private final SSLContext sslContext;
+    private final ThreadPoolExecutor handshakeExecutor;
+    private final HashedWheelTimer timer;
+    private final long handshakeTimeoutMs;
+
+    private final Counter fullHandshakes;
+    private final Counter resumedHandshakes;
+    private final Counter failedHandshakes;
+
+    /**
+     * @param sslContext Context every connection's engine is created from, see loadContext()
+     * @param handshakeThreads Threads running the CPU heavy part of handshakes
+     * @param handshakeQueue Handshake tasks that may wait for a thread, handshakes beyond that fail straight away
+     * @param timer Timer the handshake timeout is kept on, may be null for no timeout
+     * @param handshakeTimeoutMs Longest a handshake may take, 0 for no timeout
+     * @param registry Registry to add the handshake metrics to
+     */
+    public TlsTerminator(SSLContext sslContext, int handshakeThreads, int handshakeQueue, HashedWheelTimer timer, long handshakeTimeoutMs,
+                         MetricsRegistry registry) {
+        this.sslContext = sslContext;
+        this.timer = timer;
+        this.handshakeTimeoutMs = handshakeTimeoutMs;
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.handshakeExecutor = new ThreadPoolExecutor(handshakeThreads, handshakeThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(handshakeQueue),
+                task -> Thread.ofPlatform().name("tls-handshake-" + threadCount.incrementAndGet()).daemon().unstarted(task));
+
+        this.fullHandshakes = registry.counter("lb_tls_handshakes_total", "TLS handshakes with clients", "result", "full");
+        this.resumedHandshakes = registry.counter("lb_tls_handshakes_total", "TLS handshakes with clients", "result", "resumed");
+        this.failedHandshakes = registry.counter("lb_tls_handshakes_total", "TLS handshakes with clients", "result", "failed");
+        registry.gauge("lb_tls_handshakes_queued", "TLS handshake tasks waiting for a thread", () -> handshakeExecutor.getQueue().size());
+    }
+
+    /**
+     * Build a server SSLContext from a local keystore holding the LB's certificate and private key
+     *
+     * @param keyStore Path of the keystore file
+     * @param keyStoreType PKCS12 or JKS
+     * @param password Password of the keystore and the key
+     * @param sessionCacheSize Sessions kept for resumption, 0 for no limit
+     * @param sessionTimeoutS How long a session can be resumed for
+     * @return Context ready to create server engines from
+     * @throws IOException if the keystore could not be read or holds no usable key
+     */
+    public static SSLContext loadContext(Path keyStore, String keyStoreType, char[] password, int sessionCacheSize, int sessionTimeoutS)
+            throws IOException {
+        try (InputStream in = Files.newInputStream(keyStore)) {
+            final KeyStore store = KeyStore.getInstance(keyStoreType);
+            store.load(in, password);
+
+            final KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            keyManagers.init(store, password);
+
+            final SSLContext context = SSLContext.getInstance("TLS");
+            context.init(keyManagers.getKeyManagers(), null, null);
+
+            final SSLSessionContext sessions = context.getServerSessionContext();
+            sessions.setSessionCacheSize(sessionCacheSize);
+            sessions.setSessionTimeout(sessionTimeoutS);
+            return context;
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Unable to load keystore " + keyStore + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Run the server side of the handshake on an accepted connection, on the calling thread
+     *
+     * @param channel Accepted client channel in blocking mode, closed if the handshake times out
+     * @return Channel reading and writing plaintext
+     * @throws IOException if the handshake failed or timed out, the caller closes the channel
+     */
+    public TlsChannel handshake(SocketChannel channel) throws IOException {
+        return handshake(channel, null);
+    }
+
+    /**
+     * Same as handshake(SocketChannel) for a connection some of whose bytes have already been read, e.g. along with a
+     * PROXY header
+     *
+     * @param channel Accepted client channel in blocking mode, closed if the handshake times out
+     * @param received Bytes already read from the channel between position and limit, consumed. May be null.
+     * @return Channel reading and writing plaintext
+     * @throws IOException if the handshake failed or timed out, the caller closes the channel
+     */
+    public TlsChannel handshake(SocketChannel channel, ByteBuffer received) throws IOException {
+        final SSLEngine engine = sslContext.createSSLEngine();
+        engine.setUseClientMode(false);
+        final TlsChannel tlsChannel = new TlsChannel(channel, engine, handshakeExecutor);
+        if (received != null) {
+            tlsChannel.unread(received);
+        }
+
+        final Timeout timeout = timer != null && handshakeTimeoutMs > 0
+                ? timer.newTimeout(() -> closeChannel(channel), handshakeTimeoutMs, TimeUnit.MILLISECONDS) : null;
+        final long startedAt = System.currentTimeMillis();
+        try {
+            tlsChannel.handshake();
+        } catch (IOException e) {
+            failedHandshakes.increment();
+            if (Log.isDebugEnabled()) {
+                Log.debug("TLS handshake with %s failed (%s)", channel, e.getMessage());
+            }
+            throw e;
+        } finally {
+            if (timeout != null) {
+                timeout.cancel();
+            }
+        }
+
+        // A resumed session was created by an earlier handshake
+        if (tlsChannel.getSession().getCreationTime() < startedAt) {
+            resumedHandshakes.increment();
+        } else {
+            fullHandshakes.increment();
+        }
+        return tlsChannel;
+    }
+
+    @Override
+    public void close() {
+        handshakeExecutor.shutdownNow();
+    }
+}
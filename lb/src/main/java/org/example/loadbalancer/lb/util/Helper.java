@@ -1,8 +1,11 @@
 package org.example.loadbalancer.lb.util;
 
+import org.example.loadbalancer.lb.tls.TlsChannel;
+
 import java.io.Closeable;
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.channels.ByteChannel;
 import java.nio.channels.SocketChannel;
 
 /*
@@ -15,6 +18,42 @@ public class Helper {
         return new InetSocketAddress(parts[0], Integer.parseInt(parts[1]));
     }
 
+    /**
+     * @param targetServer Server in the form <HOST>:<PORT>[:<WEIGHT>]
+     * @return The host name or IP, not resolved
+     */
+    public static String getServerHost(String targetServer) {
+        return targetServer.split( ":" )[0];
+    }
+
+    /**
+     * @param targetServer Server in the form <HOST>:<PORT>[:<WEIGHT>]
+     * @return The port
+     */
+    public static int getServerPort(String targetServer) {
+        return Integer.parseInt(targetServer.split( ":" )[1]);
+    }
+
+    /**
+     * @param targetServer Server in the form <HOST>:<PORT>[:<WEIGHT>]
+     * @return The weight, or 1 if none was given
+     */
+    public static int getServerWeight(String targetServer) {
+        String[] parts = targetServer.split( ":" );
+        return parts.length > 2 ? Integer.parseInt(parts[2]) : 1;
+    }
+
+    /**
+     * @param address Socket address, may be null
+     * @return IP:PORT without the host name, or "-" for null
+     */
+    public static String formatAddress(InetSocketAddress address) {
+        if (address == null) {
+            return "-";
+        }
+        return (address.getAddress() != null ? address.getAddress().getHostAddress() : address.getHostString()) + ":" + address.getPort();
+    }
+
     public static void closeChannel(Closeable socketChannel) {
         if (socketChannel != null) {
             try {
@@ -25,6 +64,19 @@ public class Helper {
         }
     }
 
+    /**
+     * Half-close a client or backend channel, TLS channels send close_notify first
+     *
+     * @param channel SocketChannel or TlsChannel
+     */
+    public static void shutdownOutput(ByteChannel channel) throws IOException {
+        if (channel instanceof TlsChannel tlsChannel) {
+            tlsChannel.shutdownOutput();
+        } else {
+            ((SocketChannel) channel).shutdownOutput();
+        }
+    }
+
     public static String getRemoteAddress(SocketChannel socketChannel) {
         try {
             return socketChannel.getRemoteAddress().toString();
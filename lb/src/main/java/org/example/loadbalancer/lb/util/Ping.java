@@ -3,36 +3,37 @@ package org.example.loadbalancer.lb.util;
 import org.example.loadbalancer.lb.LoadBalancerPing;
 
 import java.io.IOException;
-import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.net.Socket;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.UnresolvedAddressException;
 
+/*
+ * TCP connect check. ICMP is blocked or slow in most containers and only proves the host is up, so we go straight to a
+ * non-blocking connect on the server's port and give up as soon as the timeout runs out, a black-holed host costs
+ * timeoutMs and no more.
+ */
 public class Ping implements LoadBalancerPing {
 
     @Override
     public boolean pingServer(InetSocketAddress server, int timeoutMs) {
-        try {
-            final InetAddress address = InetAddress.getByName(server.getHostName());
-            if (address == null) {
-                return false;
-            }
+        try (final SocketChannel channel = SocketChannel.open();
+             final Selector selector = Selector.open()) {
 
-            if (address.isReachable(timeoutMs)) {
-                // IP reachable, now check port
-                return checkPort(server, address);
+            channel.configureBlocking(false);
+            if (channel.connect(server)) {
+                return true;
             }
-        } catch (IOException e) {
-            return false;
-        }
 
-        return false;
-    }
-
-    private static boolean checkPort(InetSocketAddress server, InetAddress address) {
-        try (final Socket socket = new Socket(address, server.getPort())) {
-            return true;
-        } catch (IOException e) {
+            channel.register(selector, SelectionKey.OP_CONNECT);
+            if (selector.select(timeoutMs) == 0) {
+                // Timed out, nothing answered the SYN
+                return false;
+            }
+            return channel.finishConnect();
+        } catch (IOException | UnresolvedAddressException e) {
             return false;
         }
     }
-}
\ No newline at end of file
+}
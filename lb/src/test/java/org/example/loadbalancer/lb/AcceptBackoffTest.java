@@ -0,0 +1,50 @@
+package org.example.loadbalancer.lb;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AcceptBackoffTest {
+
+    @Test
+    void shouldDoubleDelayUpToMaxAndResetOnSuccess() {
+        final AcceptBackoff backoff = new AcceptBackoff(() -> 0);
+
+        long expected = AcceptBackoff.MIN_DELAY_MS;
+        for (int i = 0; i < 20; i++) {
+            assertEquals(expected, backoff.failed());
+            expected = Math.min(expected * 2, AcceptBackoff.MAX_DELAY_MS);
+        }
+        assertEquals(AcceptBackoff.MAX_DELAY_MS, backoff.failed());
+
+        backoff.succeeded();
+        assertEquals(AcceptBackoff.MIN_DELAY_MS, backoff.failed());
+    }
+
+    @Test
+    void shouldLogOncePerWindowWithFailureCount() {
+        final AtomicLong now = new AtomicLong(1_000);
+        final AcceptBackoff backoff = new AcceptBackoff(now::get);
+
+        // The first failure is always logged
+        backoff.failed();
+        assertEquals(1, backoff.takeFailuresToLog());
+
+        // The rest of the window is quiet, however fast accept() fails
+        for (int i = 0; i < 50; i++) {
+            backoff.failed();
+            assertEquals(0, backoff.takeFailuresToLog());
+            now.addAndGet(TimeUnit.MILLISECONDS.toNanos(10));
+        }
+
+        // Once the window is over the next line reports everything since the last one
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(AcceptBackoff.MAX_DELAY_MS));
+        backoff.failed();
+        assertEquals(51, backoff.takeFailuresToLog());
+        backoff.failed();
+        assertEquals(0, backoff.takeFailuresToLog());
+    }
+}
@@ -0,0 +1,74 @@
+package org.example.loadbalancer.lb;
+
+import org.example.loadbalancer.lb.resolver.BackendResolver;
+import org.example.loadbalancer.lb.socket.BackendConnectionPool;
+import org.example.loadbalancer.lb.strategy.LoadBalancerStrategyType;
+import org.example.loadbalancer.lb.strategy.algorithms.RoundRobinLoadBalancerStrategy;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BackendUpdaterTest {
+
+    @Test
+    void shouldKeepTheLastGoodListWhenAnUpdateIsMalformed() throws Exception {
+        final LoadBalancerConfig config = new LoadBalancerConfig();
+        config.setLoadBalancerStrategyType(LoadBalancerStrategyType.ROUND_ROBIN);
+        config.setServers(List.of(endpoint(8050)));
+        config.setServerWeights(Map.of(endpoint(8050), 1));
+        final LoadBalancer lb = new LoadBalancer(config, new RoundRobinLoadBalancerStrategy(config.getServers()), null);
+        lb.setLoadBalancerPing((server, timeoutMs) -> true);
+
+        try (BackendResolver resolver = new BackendResolver(30_000, host -> new InetAddress[]{InetAddress.getLoopbackAddress()});
+             BackendConnectionPool pool = new BackendConnectionPool(config.getServers(), 0, 1000, 60_000)) {
+            final BackendUpdater updater = new BackendUpdater(lb, pool, resolver, "backend:8050", config.getServers(), List.of());
+
+            // No port, a port that isn't a number and a weight that isn't one
+            for (String spec : List.of("backend:8050,backend", "backend:80x0", "backend:8051:three")) {
+                updater.update(spec);
+                assertEquals(List.of(endpoint(8050)), config.getServers(), spec);
+            }
+
+            // A DNS refresh resolves the list that was last applied, not the rejected one
+            updater.refresh();
+            assertEquals(List.of(endpoint(8050)), config.getServers());
+
+            updater.update("backend:8050,backend:8051:3");
+            assertEquals(List.of(endpoint(8050), endpoint(8051)), config.getServers());
+            assertEquals(Integer.valueOf(3), config.getServerWeights().get(endpoint(8051)));
+        }
+    }
+
+    @Test
+    void shouldLeaveServersAnotherListenerUsesInThePool() throws Exception {
+        final LoadBalancerConfig config = new LoadBalancerConfig();
+        config.setLoadBalancerStrategyType(LoadBalancerStrategyType.ROUND_ROBIN);
+        config.setServers(List.of(endpoint(8050), endpoint(8051)));
+        config.setServerWeights(Map.of(endpoint(8050), 1, endpoint(8051), 1));
+        final LoadBalancer lb = new LoadBalancer(config, new RoundRobinLoadBalancerStrategy(config.getServers()), null);
+        lb.setLoadBalancerPing((server, timeoutMs) -> true);
+
+        // 8051 is also in another listener's pool
+        try (BackendResolver resolver = new BackendResolver(30_000, host -> new InetAddress[]{InetAddress.getLoopbackAddress()});
+             BackendConnectionPool pool = new BackendConnectionPool(List.of(endpoint(8050), endpoint(8051), endpoint(8051)), 0, 1000, 60_000)) {
+            final BackendUpdater updater = new BackendUpdater(lb, pool, resolver, "backend:8050,backend:8051", config.getServers(), List.of());
+
+            updater.update("backend:8050");
+            updater.refresh();
+            assertEquals(List.of(endpoint(8050)), config.getServers());
+
+            // Only the other listener's user is left
+            assertTrue(pool.removeServer(endpoint(8051)));
+            assertTrue(pool.removeServer(endpoint(8050)));
+        }
+    }
+
+    private static InetSocketAddress endpoint(int port) {
+        return new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+    }
+}
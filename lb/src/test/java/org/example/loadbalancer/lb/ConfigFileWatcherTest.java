@@ -0,0 +1,97 @@
+package org.example.loadbalancer.lb;
+
+import org.example.loadbalancer.lb.resolver.BackendResolver;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConfigFileWatcherTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void shouldOnlyReportActualChanges() throws Exception {
+        final Path file = tempDir.resolve("lb.properties");
+        Files.writeString(file, "servers=localhost:8050\n");
+        final List<String> changes = new CopyOnWriteArrayList<>();
+
+        try (ConfigFileWatcher watcher = new ConfigFileWatcher(file, properties -> changes.add(properties.getProperty("servers")))) {
+            assertEquals("localhost:8050", watcher.getCurrent().getProperty("servers"));
+
+            // Same contents, different formatting
+            Files.writeString(file, "# comment\nservers = localhost:8050\n");
+            assertFalse(watcher.reload());
+
+            Files.writeString(file, "servers=localhost:8050,localhost:8051\n");
+            assertTrue(watcher.reload());
+            assertEquals(List.of("localhost:8050,localhost:8051"), changes);
+
+            // A missing file keeps the last good contents
+            Files.delete(file);
+            assertFalse(watcher.reload());
+            assertEquals("localhost:8050,localhost:8051", watcher.getCurrent().getProperty("servers"));
+        }
+    }
+
+    @Test
+    void shouldKeepWatchingAfterAMalformedReload() throws Exception {
+        final Path file = tempDir.resolve("lb.properties");
+        Files.writeString(file, "servers=localhost:8050\n");
+        final List<String> applied = new CopyOnWriteArrayList<>();
+
+        try (BackendResolver resolver = new BackendResolver(30_000, host -> new InetAddress[]{InetAddress.getLoopbackAddress()});
+             ConfigFileWatcher watcher = new ConfigFileWatcher(file, properties -> {
+                 Main.parseServers(properties.getProperty("servers"), resolver, new HashMap<>());
+                 applied.add(properties.getProperty("servers"));
+             })) {
+            watcher.start();
+
+            // No port, the listener throws and the last good contents stay current
+            Files.writeString(file, "servers=localhost:8050,localhost\n");
+            Thread.sleep(500);
+            assertEquals(List.of(), applied);
+            assertEquals("localhost:8050", watcher.getCurrent().getProperty("servers"));
+
+            // The watcher thread is still there for the fixed file
+            Files.writeString(file, "servers=localhost:8050,localhost:8051\n");
+            for (int i = 0; i < 500 && applied.isEmpty(); i++) {
+                Thread.sleep(10);
+            }
+            assertEquals(List.of("localhost:8050,localhost:8051"), applied);
+            assertEquals("localhost:8050,localhost:8051", watcher.getCurrent().getProperty("servers"));
+        }
+    }
+
+    @Test
+    void shouldPickUpFileRenamedIntoPlace() throws Exception {
+        final Path file = tempDir.resolve("lb.properties");
+        Files.writeString(file, "servers=localhost:8050\n");
+        final List<Properties> changes = new CopyOnWriteArrayList<>();
+
+        try (ConfigFileWatcher watcher = new ConfigFileWatcher(file, changes::add)) {
+            watcher.start();
+
+            // Written next to it and moved over it, as editors and config management tools do
+            final Path next = tempDir.resolve("lb.properties.tmp");
+            Files.writeString(next, "servers=localhost:8051\n");
+            Files.move(next, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            for (int i = 0; i < 500 && changes.isEmpty(); i++) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, changes.size());
+            assertEquals("localhost:8051", changes.getFirst().getProperty("servers"));
+        }
+    }
+}
@@ -1,10 +1,12 @@
 package org.example.loadbalancer.lb;
 
+import org.example.loadbalancer.lb.socket.RelayOutcome;
 import org.example.loadbalancer.lb.socket.SocketHandler;
 import org.example.loadbalancer.lb.socket.SocketHandlerThreadAbstractFactory;
 import org.example.loadbalancer.lb.strategy.LoadBalancerStrategy;
 import org.example.loadbalancer.lb.strategy.LoadBalancerStrategyType;
 import org.example.loadbalancer.lb.strategy.algorithms.RoundRobinLoadBalancerStrategy;
+import org.example.loadbalancer.lb.strategy.algorithms.WeightedRoundRobinLoadBalancerStrategy;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
 
@@ -13,7 +15,9 @@ import java.io.PrintWriter;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 
 import static org.example.loadbalancer.lb.util.Helper.getInetSocketAddress;
@@ -35,7 +39,7 @@ class LoadBalancerTest {
         final LoadBalancerPing mockPing = mock(LoadBalancerPing.class);
 
         // set their expectations
-        when(mockThread.runThread()).thenReturn(true);
+        when(mockThread.runThread()).thenReturn(RelayOutcome.COMPLETED);
         when(mockFactory.createSocketHandlerThread(any(Socket.class), any(InetSocketAddress.class), anyInt())).thenReturn(mockThread);
         when(mockPing.pingServer(any(InetSocketAddress.class), anyInt())).thenReturn(true);
 
@@ -60,6 +64,28 @@ class LoadBalancerTest {
         assertEquals("/127.0.0.1:8051", captor.getAllValues().get(1).toString());
     }
 
+    @Test
+    void shouldApplyWeightChangesToTheRunningStrategy() {
+        final LoadBalancerConfig config = getLoadBalancerConfig();
+        config.setLoadBalancerStrategyType(LoadBalancerStrategyType.WEIGHTED_ROUND_ROBIN);
+        final InetSocketAddress first = config.getServers().get(0);
+        final InetSocketAddress second = config.getServers().get(1);
+        config.setServerWeights(Map.of(first, 1, second, 1));
+        final WeightedRoundRobinLoadBalancerStrategy strategy = new WeightedRoundRobinLoadBalancerStrategy(config.getServers(), config.getServerWeights());
+        final LoadBalancer lb = new LoadBalancer(config, strategy, null);
+
+        lb.updateServers(config.getServers(), Map.of(first, 1, second, 3));
+
+        // Set on the strategy that is running rather than on a new one
+        assertEquals(3, strategy.getWeight(second));
+        assertEquals(Map.of(first, 1, second, 3), config.getServerWeights());
+        final Map<InetSocketAddress, Integer> picks = new HashMap<>();
+        for (int i = 0; i < 4; i++) {
+            picks.merge(strategy.selectDestinationServer(), 1, Integer::sum);
+        }
+        assertEquals(Map.of(first, 1, second, 3), picks);
+    }
+
     private static void writeToPort(int port) {
         try (final Socket socket = new Socket("localhost", port)) {
             PrintWriter writer = new PrintWriter(socket.getOutputStream(), true);
@@ -0,0 +1,139 @@
+package org.example.loadbalancer.lb;
+
+import org.example.loadbalancer.lb.resolver.BackendResolver;
+import org.example.loadbalancer.lb.socket.RelayMode;
+import org.example.loadbalancer.lb.strategy.LoadBalancerStrategyType;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MainTest {
+
+    @Test
+    void shouldGiveEveryListenerItsOwnPool() throws Exception {
+        final Properties properties = properties("""
+                listener.web.bind=0.0.0.0:8443
+                listener.web.mode=http
+                listener.web.tls=true
+                listener.web.pool=api
+                listener.dns.bind=[::1]:5353
+                listener.dns.mode=udp
+                pool.api.servers=backend:8050:3,backend:8051
+                pool.api.strategy=least_connections
+                pool.dns.servers=backend:53
+                """);
+        final LoadBalancerConfig defaults = new LoadBalancerConfig();
+        defaults.setTlsKeyStorePath("lb.p12");
+        defaults.setIdleTimeoutMs(1234);
+        final List<Listener> listeners = new ArrayList<>();
+
+        try (BackendResolver resolver = resolver()) {
+            assertTrue(Main.configureListeners(defaults, properties, resolver, listeners));
+        }
+
+        assertEquals(2, listeners.size());
+        // Sorted by name
+        final LoadBalancerConfig dns = listeners.get(0).getConfig();
+        assertEquals("dns", dns.getListenerName());
+        assertEquals("::1", dns.getBindAddress());
+        assertEquals(5353, dns.getPort());
+        assertEquals(RelayMode.UDP, dns.getRelayMode());
+        assertEquals(LoadBalancerStrategyType.ROUND_ROBIN, dns.getLoadBalancerStrategyType());
+        assertEquals(List.of(endpoint(53)), dns.getServers());
+        assertNull(dns.getTlsKeyStorePath());
+        assertEquals("pool.dns.servers", listeners.get(0).getServersProperty());
+
+        final LoadBalancerConfig web = listeners.get(1).getConfig();
+        assertEquals("0.0.0.0", web.getBindAddress());
+        assertEquals(8443, web.getPort());
+        assertEquals(RelayMode.HTTP, web.getRelayMode());
+        assertEquals(LoadBalancerStrategyType.LEAST_CONNECTIONS, web.getLoadBalancerStrategyType());
+        assertEquals(List.of(endpoint(8050), endpoint(8051)), web.getServers());
+        assertEquals(Integer.valueOf(3), web.getServerWeights().get(endpoint(8050)));
+        assertEquals("lb.p12", web.getTlsKeyStorePath());
+        assertEquals("backend:8050:3,backend:8051", listeners.get(1).getServerSpec());
+        // Everything else comes from the default listener, which is left as it was
+        assertEquals(1234, web.getIdleTimeoutMs());
+        assertEquals("default", defaults.getListenerName());
+        assertEquals("localhost", defaults.getBindAddress());
+    }
+
+    @Test
+    void shouldRejectMisconfiguredListeners() throws Exception {
+        try (BackendResolver resolver = resolver()) {
+            assertFalse(Main.configureListeners(new LoadBalancerConfig(), properties("listener.a.bind=::1:80\npool.a.servers=backend:80"),
+                    resolver, new ArrayList<>()));
+            assertFalse(Main.configureListeners(new LoadBalancerConfig(), properties("listener.a.bind=80\nlistener.a.mode=ftp\npool.a.servers=backend:80"),
+                    resolver, new ArrayList<>()));
+            assertFalse(Main.configureListeners(new LoadBalancerConfig(), properties("listener.a.bind=80\nlistener.a.pool=missing"),
+                    resolver, new ArrayList<>()));
+        }
+    }
+
+    @Test
+    void shouldPickTheStrategyFromTheConfigOrTheWeights() {
+        final LoadBalancerConfig config = new LoadBalancerConfig();
+        assertTrue(Main.configureStrategy(config, null));
+        assertEquals(LoadBalancerStrategyType.ROUND_ROBIN, config.getLoadBalancerStrategyType());
+
+        config.setServerWeights(Map.of(endpoint(8050), 1, endpoint(8051), 3));
+        assertTrue(Main.configureStrategy(config, null));
+        assertEquals(LoadBalancerStrategyType.WEIGHTED_ROUND_ROBIN, config.getLoadBalancerStrategyType());
+
+        // Set explicitly it wins over the weights
+        assertTrue(Main.configureStrategy(config, " least_connections"));
+        assertEquals(LoadBalancerStrategyType.LEAST_CONNECTIONS, config.getLoadBalancerStrategyType());
+
+        assertFalse(Main.configureStrategy(config, "fastest"));
+    }
+
+    @Test
+    void shouldRefuseMalformedServers() throws Exception {
+        try (BackendResolver resolver = resolver()) {
+            for (String spec : List.of("backend", "backend:http", "backend:80:x", "backend:70000", "backend:80:-1")) {
+                assertThrows(IllegalArgumentException.class, () -> Main.parseServers("backend:81," + spec, resolver, new HashMap<>()), spec);
+            }
+            assertFalse(Main.configureListeners(new LoadBalancerConfig(), properties("listener.a.bind=80\npool.a.servers=backend:80,backend"),
+                    resolver, new ArrayList<>()));
+        }
+    }
+
+    @Test
+    void shouldParseBindAddresses() {
+        final LoadBalancerConfig config = new LoadBalancerConfig();
+        assertTrue(Main.configureBind(config, "9000"));
+        assertEquals("localhost", config.getBindAddress());
+        assertEquals(9000, config.getPort());
+
+        assertTrue(Main.configureBind(config, "[::]:9001"));
+        assertEquals("::", config.getBindAddress());
+        assertEquals(9001, config.getPort());
+
+        assertFalse(Main.configureBind(config, "host:port"));
+        assertFalse(Main.configureBind(config, "host:70000"));
+    }
+
+    private static Properties properties(String contents) throws IOException {
+        final Properties properties = new Properties();
+        properties.load(new StringReader(contents));
+        return properties;
+    }
+
+    private static BackendResolver resolver() {
+        return new BackendResolver(30_000, host -> new InetAddress[]{InetAddress.getLoopbackAddress()});
+    }
+
+    private static InetSocketAddress endpoint(int port) {
+        return new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+    }
+}
@@ -0,0 +1,122 @@
+package org.example.loadbalancer.lb.admission;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.example.loadbalancer.lb.util.Helper.getInetSocketAddress;
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdmissionControllerTest {
+
+    @Test
+    void shouldLimitConnectionsPerClient() throws Exception {
+        final AdmissionController admission = new AdmissionController(0, 2, 0, 0, 0);
+        final InetAddress client = InetAddress.getByName("10.0.0.1");
+        final InetAddress other = InetAddress.getByName("10.0.0.2");
+
+        assertEquals(Admission.ADMITTED, admission.admit(client));
+        assertEquals(Admission.ADMITTED, admission.admit(client));
+        assertEquals(Admission.CLIENT_LIMITED, admission.admit(client));
+        assertEquals(Admission.ADMITTED, admission.admit(other));
+        assertEquals(2, admission.getClientConnections(client));
+
+        admission.releaseClient(client);
+        assertEquals(Admission.ADMITTED, admission.admit(client));
+
+        // Counters for clients that have gone away are dropped
+        admission.releaseClient(other);
+        assertEquals(0, admission.getClientConnections(other));
+    }
+
+    @Test
+    void shouldShedOverAcceptRate() throws Exception {
+        final AdmissionController admission = new AdmissionController(0, 0, 0, 1, 2);
+        final InetAddress client = InetAddress.getByName("10.0.0.1");
+
+        assertEquals(Admission.ADMITTED, admission.admit(client));
+        assertEquals(Admission.ADMITTED, admission.admit(client));
+        assertEquals(Admission.RATE_LIMITED, admission.admit(client));
+    }
+
+    @Test
+    void shouldSkipBackendsAtTheirCap() {
+        final AdmissionController admission = new AdmissionController(0, 0, 1, 0, 0);
+        final InetSocketAddress server = getInetSocketAddress("127.0.0.1:8050");
+
+        assertTrue(admission.tryAcquireBackend(server));
+        assertFalse(admission.tryAcquireBackend(server));
+        assertEquals(1, admission.getBackendConnections(server));
+
+        admission.releaseBackend(server);
+        assertTrue(admission.tryAcquireBackend(server));
+    }
+
+    @Test
+    void shouldWaitForASlotAtTheConnectionLimit() throws Exception {
+        final AdmissionController admission = new AdmissionController(1, 0, 0, 0, 0);
+        assertFalse(admission.awaitConnectionSlot());
+
+        final CountDownLatch acquired = new CountDownLatch(1);
+        final Thread acceptor = Thread.ofVirtual().start(() -> {
+            try {
+                assertTrue(admission.awaitConnectionSlot());
+                acquired.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+        admission.releaseConnectionSlot();
+        assertTrue(acquired.await(1, TimeUnit.SECONDS));
+        acceptor.join();
+        assertEquals(1, admission.getOpenConnections());
+    }
+
+    @Test
+    void shouldNeverExceedLimitsUnderContention() throws Exception {
+        final int limit = 8;
+        final AdmissionController admission = new AdmissionController(0, limit, limit, 0, 0);
+        final InetAddress client = InetAddress.getByName("10.0.0.1");
+        final InetSocketAddress server = getInetSocketAddress("127.0.0.1:8050");
+        final AtomicInteger clientsHeld = new AtomicInteger();
+        final AtomicInteger backendsHeld = new AtomicInteger();
+        final AtomicInteger overLimit = new AtomicInteger();
+
+        final List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            threads.add(Thread.ofPlatform().start(() -> {
+                for (int j = 0; j < 10_000; j++) {
+                    if (admission.admit(client) == Admission.ADMITTED) {
+                        if (clientsHeld.incrementAndGet() > limit) {
+                            overLimit.incrementAndGet();
+                        }
+                        clientsHeld.decrementAndGet();
+                        admission.releaseClient(client);
+                    }
+                    if (admission.tryAcquireBackend(server)) {
+                        if (backendsHeld.incrementAndGet() > limit) {
+                            overLimit.incrementAndGet();
+                        }
+                        backendsHeld.decrementAndGet();
+                        admission.releaseBackend(server);
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(0, overLimit.get());
+        assertEquals(0, admission.getClientConnections(client));
+        assertEquals(0, admission.getBackendConnections(server));
+    }
+}
@@ -0,0 +1,36 @@
+package org.example.loadbalancer.lb.admission;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenBucketTest {
+
+    @Test
+    void shouldAllowBurstThenRefillAtRate() {
+        final TokenBucket bucket = new TokenBucket(10, 3);
+        final long now = System.nanoTime();
+
+        assertTrue(bucket.tryAcquire(now));
+        assertTrue(bucket.tryAcquire(now));
+        assertTrue(bucket.tryAcquire(now));
+        assertFalse(bucket.tryAcquire(now));
+
+        // One token every 100ms
+        assertFalse(bucket.tryAcquire(now + TimeUnit.MILLISECONDS.toNanos(50)));
+        assertTrue(bucket.tryAcquire(now + TimeUnit.MILLISECONDS.toNanos(100)));
+        assertFalse(bucket.tryAcquire(now + TimeUnit.MILLISECONDS.toNanos(100)));
+    }
+
+    @Test
+    void shouldNotBankMoreThanBurstWhenIdle() {
+        final TokenBucket bucket = new TokenBucket(10, 2);
+        final long later = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+
+        assertTrue(bucket.tryAcquire(later));
+        assertTrue(bucket.tryAcquire(later));
+        assertFalse(bucket.tryAcquire(later));
+    }
+}
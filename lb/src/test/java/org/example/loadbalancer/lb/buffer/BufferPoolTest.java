@@ -0,0 +1,65 @@
+package org.example.loadbalancer.lb.buffer;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BufferPoolTest {
+
+    @Test
+    void shouldRoundUpToSizeClass() {
+        final BufferPool pool = new BufferPool(128 * 1024, 4);
+
+        assertEquals(4 * 1024, pool.acquire(1).capacity());
+        assertEquals(8 * 1024, pool.acquire(5000).capacity());
+        assertEquals(128 * 1024, pool.acquire(128 * 1024).capacity());
+        assertTrue(pool.acquire(1024).isDirect());
+    }
+
+    @Test
+    void shouldReuseReleasedBuffers() {
+        final BufferPool pool = new BufferPool(64 * 1024, 4);
+
+        final ByteBuffer first = pool.acquire(64 * 1024);
+        first.put((byte) 1);
+        pool.release(first);
+
+        final ByteBuffer second = pool.acquire(64 * 1024);
+        assertSame(first, second);
+        assertEquals(0, second.position());
+
+        assertEquals(1, pool.getHits());
+        assertEquals(1, pool.getMisses());
+        assertEquals(1, pool.getOutstanding());
+    }
+
+    @Test
+    void shouldNotPoolOversizedOrForeignBuffers() {
+        final BufferPool pool = new BufferPool(16 * 1024, 4);
+
+        final ByteBuffer oversized = pool.acquire(1024 * 1024);
+        assertEquals(1024 * 1024, oversized.capacity());
+        pool.release(oversized);
+        pool.release(ByteBuffer.allocate(16 * 1024));
+
+        assertEquals(0, pool.getPooled());
+        assertEquals(-1, pool.getOutstanding());
+    }
+
+    @Test
+    void shouldDropBuffersWhenClassIsFull() {
+        final BufferPool pool = new BufferPool(4 * 1024, 2);
+
+        final ByteBuffer a = pool.acquire(4096);
+        final ByteBuffer b = pool.acquire(4096);
+        final ByteBuffer c = pool.acquire(4096);
+        pool.release(a);
+        pool.release(b);
+        pool.release(c);
+
+        assertEquals(2, pool.getPooled());
+        assertEquals(0, pool.getOutstanding());
+    }
+}
@@ -0,0 +1,158 @@
+package org.example.loadbalancer.lb.health;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.example.loadbalancer.lb.util.Helper.getInetSocketAddress;
+import static org.junit.jupiter.api.Assertions.*;
+
+class HealthCheckerTest {
+
+    @Test
+    void shouldApplyRiseAndFallCounts() {
+        final InetSocketAddress server = getInetSocketAddress("localhost:8050");
+        final Set<InetSocketAddress> down = ConcurrentHashMap.newKeySet();
+        final List<Boolean> transitions = new ArrayList<>();
+
+        try (HealthChecker checker = new HealthChecker(List.of(server), (address, timeoutMs) -> !down.contains(address), 1000, 100, 2, 3)) {
+            checker.addListener((address, healthy) -> transitions.add(healthy));
+
+            checker.check(server);
+            assertTrue(checker.isHealthy(server));
+
+            // Takes 3 failures in a row to go down
+            down.add(server);
+            checker.check(server);
+            checker.check(server);
+            assertTrue(checker.isHealthy(server));
+            checker.check(server);
+            assertFalse(checker.isHealthy(server));
+            assertEquals(0, checker.getHealthyCount());
+
+            // And 2 successes in a row to come back
+            down.remove(server);
+            checker.check(server);
+            assertFalse(checker.isHealthy(server));
+            checker.check(server);
+            assertTrue(checker.isHealthy(server));
+            assertEquals(1, checker.getHealthyCount());
+
+            assertEquals(List.of(false, true), transitions);
+        }
+    }
+
+    @Test
+    void shouldDecideOnFirstCheck() {
+        final InetSocketAddress server = getInetSocketAddress("localhost:8050");
+
+        try (HealthChecker checker = new HealthChecker(List.of(server), (address, timeoutMs) -> false, 1000, 100, 2, 3)) {
+            assertTrue(checker.isHealthy(server));
+            checker.check(server);
+            assertFalse(checker.isHealthy(server));
+        }
+    }
+
+    @Test
+    void shouldProbeAllServersConcurrently() {
+        final List<InetSocketAddress> servers = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            servers.add(getInetSocketAddress("localhost:" + (8050 + i)));
+        }
+
+        // Every probe hangs for its full timeout, as it would for a black-holed host
+        try (HealthChecker checker = new HealthChecker(servers, (address, timeoutMs) -> {
+            try {
+                Thread.sleep(timeoutMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return false;
+        }, 1000, 200, 2, 3)) {
+
+            final long start = System.nanoTime();
+            checker.checkAll();
+            final long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+            assertEquals(0, checker.getHealthyCount());
+            assertTrue(elapsedMs < 20 * 200 / 2, "Sweep took " + elapsedMs + "ms");
+        }
+    }
+
+    @Test
+    void shouldCheckInTheBackground() throws InterruptedException {
+        final InetSocketAddress server = getInetSocketAddress("localhost:8050");
+
+        try (HealthChecker checker = new HealthChecker(List.of(server), (address, timeoutMs) -> false, 20, 10, 2, 1)) {
+            checker.start();
+            for (int i = 0; i < 100 && checker.isHealthy(server); i++) {
+                Thread.sleep(10);
+            }
+            assertFalse(checker.isHealthy(server));
+        }
+    }
+
+    @Test
+    void shouldProbeAddedServerBeforeCountingIt() {
+        final InetSocketAddress server = getInetSocketAddress("localhost:8050");
+        final InetSocketAddress added = getInetSocketAddress("localhost:8051");
+        final List<Boolean> transitions = new ArrayList<>();
+
+        try (HealthChecker checker = new HealthChecker(List.of(server), (address, timeoutMs) -> !address.equals(added), 1000, 100, 2, 3)) {
+            checker.addListener((address, healthy) -> transitions.add(healthy));
+
+            checker.addServer(added);
+            assertFalse(checker.isHealthy(added));
+            assertEquals(1, checker.getHealthyCount());
+            assertEquals(List.of(false), transitions);
+        }
+    }
+
+    @Test
+    void shouldForgetRemovedServer() throws InterruptedException {
+        final InetSocketAddress server = getInetSocketAddress("localhost:8050");
+        final InetSocketAddress removed = getInetSocketAddress("localhost:8051");
+        final Set<InetSocketAddress> probed = ConcurrentHashMap.newKeySet();
+
+        try (HealthChecker checker = new HealthChecker(List.of(server, removed), (address, timeoutMs) -> probed.add(address), 20, 10, 2, 3)) {
+            checker.removeServer(removed);
+            assertFalse(checker.isHealthy(removed));
+            assertEquals(1, checker.getHealthyCount());
+
+            // Its scheduled checks stop too
+            checker.start();
+            Thread.sleep(100);
+            assertEquals(Set.of(server), probed);
+        }
+    }
+
+    @Test
+    void shouldKeepCheckingServerUntilItsLastUserRemovesIt() {
+        final InetSocketAddress shared = getInetSocketAddress("localhost:8050");
+        final InetSocketAddress added = getInetSocketAddress("localhost:8051");
+
+        // Two listeners' pools both hold the shared server
+        try (HealthChecker checker = new HealthChecker(List.of(shared, shared), (address, timeoutMs) -> true, 1000, 100, 2, 3)) {
+            assertEquals(1, checker.getHealthyCount());
+            assertTrue(checker.isChecking(shared));
+
+            assertTrue(checker.addServer(added));
+            assertFalse(checker.addServer(added));
+            assertEquals(2, checker.getHealthyCount());
+
+            assertFalse(checker.removeServer(shared));
+            assertTrue(checker.isHealthy(shared));
+            assertTrue(checker.removeServer(shared));
+            assertFalse(checker.isChecking(shared));
+            assertFalse(checker.removeServer(shared));
+
+            assertFalse(checker.removeServer(added));
+            assertTrue(checker.removeServer(added));
+            assertEquals(0, checker.getHealthyCount());
+        }
+    }
+}
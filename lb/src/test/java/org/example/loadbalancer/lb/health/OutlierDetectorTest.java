@@ -0,0 +1,236 @@
+package org.example.loadbalancer.lb.health;
+
+import org.example.loadbalancer.lb.LoadBalancerConfig;
+import org.example.loadbalancer.lb.socket.RelayOutcome;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.example.loadbalancer.lb.util.Helper.getInetSocketAddress;
+import static org.junit.jupiter.api.Assertions.*;
+
+class OutlierDetectorTest {
+
+    @Test
+    void shouldEjectAfterConsecutiveConnectFailures() {
+        final List<InetSocketAddress> servers = getServers(2);
+        final List<Boolean> transitions = new ArrayList<>();
+        final OutlierDetector detector = new OutlierDetector(servers, getConfig());
+        detector.addListener((server, healthy) -> transitions.add(healthy));
+
+        for (int i = 0; i < 4; i++) {
+            detector.record(servers.get(0), RelayOutcome.BACKEND_CONNECT_FAILED);
+        }
+        assertFalse(detector.isEjected(servers.get(0)));
+
+        detector.record(servers.get(0), RelayOutcome.BACKEND_CONNECT_FAILED);
+        assertTrue(detector.isEjected(servers.get(0)));
+        assertFalse(detector.isEjected(servers.get(1)));
+        assertEquals(1, detector.getEjectedCount());
+        assertEquals(List.of(false), transitions);
+    }
+
+    @Test
+    void shouldIgnoreClientFailures() {
+        final List<InetSocketAddress> servers = getServers(2);
+        final OutlierDetector detector = new OutlierDetector(servers, getConfig());
+
+        for (int i = 0; i < 100; i++) {
+            detector.record(servers.get(0), RelayOutcome.CLIENT_ERROR);
+            detector.record(servers.get(0), RelayOutcome.ABORTED);
+        }
+        assertFalse(detector.isEjected(servers.get(0)));
+    }
+
+    @Test
+    void shouldEjectOnErrorRate() {
+        final List<InetSocketAddress> servers = getServers(2);
+        final OutlierDetector detector = new OutlierDetector(servers, getConfig());
+
+        // Below the minimum number of requests nothing happens
+        for (int i = 0; i < 9; i++) {
+            detector.record(servers.get(0), RelayOutcome.BACKEND_ERROR);
+            detector.record(servers.get(0), RelayOutcome.COMPLETED);
+        }
+        assertFalse(detector.isEjected(servers.get(0)));
+
+        // 10 of 20 failed
+        detector.record(servers.get(0), RelayOutcome.COMPLETED);
+        detector.record(servers.get(0), RelayOutcome.BACKEND_ERROR);
+        assertTrue(detector.isEjected(servers.get(0)));
+    }
+
+    @Test
+    void shouldNotEjectMoreThanMaxPercent() {
+        final List<InetSocketAddress> servers = getServers(4);
+        final OutlierDetector detector = new OutlierDetector(servers, getConfig());
+
+        for (InetSocketAddress server : servers) {
+            for (int i = 0; i < 5; i++) {
+                detector.record(server, RelayOutcome.BACKEND_CONNECT_FAILED);
+            }
+        }
+
+        // 50% of 4 servers
+        assertEquals(2, detector.getEjectedCount());
+        assertTrue(detector.isEjected(servers.get(0)));
+        assertTrue(detector.isEjected(servers.get(1)));
+        assertFalse(detector.isEjected(servers.get(2)));
+        assertFalse(detector.isEjected(servers.get(3)));
+    }
+
+    @Test
+    void shouldRestoreAfterSuccessfulTrial() throws InterruptedException {
+        final List<InetSocketAddress> servers = getServers(2);
+        final List<Boolean> transitions = new ArrayList<>();
+        final OutlierDetector detector = new OutlierDetector(servers, getConfig());
+        detector.addListener((server, healthy) -> transitions.add(healthy));
+
+        assertNull(detector.pollTrial(server -> true));
+        ejectByConnectFailures(detector, servers.get(0));
+
+        // Still inside the ejection time
+        assertNull(detector.pollTrial(server -> true));
+        Thread.sleep(60);
+
+        // Not eligible, e.g. health checks say it is down
+        assertNull(detector.pollTrial(server -> false));
+
+        // Exactly one trial at a time
+        final OutlierDetector.Trial trial = detector.pollTrial(server -> true);
+        assertEquals(servers.get(0), trial.getServer());
+        assertNull(detector.pollTrial(server -> true));
+
+        // A client failure proves nothing, the trial is handed out again
+        detector.record(trial, RelayOutcome.CLIENT_ERROR);
+        final OutlierDetector.Trial retried = detector.pollTrial(server -> true);
+        assertEquals(servers.get(0), retried.getServer());
+
+        // The first trial is over, only the one in flight counts
+        detector.record(trial, RelayOutcome.BACKEND_ERROR);
+        assertEquals(List.of(false), transitions);
+
+        detector.record(retried, RelayOutcome.COMPLETED);
+        assertFalse(detector.isEjected(servers.get(0)));
+        assertEquals(0, detector.getEjectedCount());
+        assertEquals(List.of(false, true), transitions);
+    }
+
+    @Test
+    void shouldLeaveTrialToTheTrialConnection() throws InterruptedException {
+        final List<InetSocketAddress> servers = getServers(2);
+        final OutlierDetector detector = new OutlierDetector(servers, getConfig());
+
+        ejectByConnectFailures(detector, servers.get(0));
+        Thread.sleep(60);
+        final OutlierDetector.Trial trial = detector.pollTrial(server -> true);
+        assertNotNull(trial);
+
+        // Relays started before the ejection finishing while the trial is in flight, either way round
+        detector.record(servers.get(0), RelayOutcome.COMPLETED);
+        assertTrue(detector.isEjected(servers.get(0)));
+        detector.record(servers.get(0), RelayOutcome.BACKEND_ERROR);
+        assertTrue(detector.isEjected(servers.get(0)));
+        assertNull(detector.pollTrial(server -> true));
+
+        detector.record(trial, RelayOutcome.COMPLETED);
+        assertFalse(detector.isEjected(servers.get(0)));
+    }
+
+    @Test
+    void shouldHandOutReleasedTrialAgain() throws InterruptedException {
+        final List<InetSocketAddress> servers = getServers(2);
+        final OutlierDetector detector = new OutlierDetector(servers, getConfig());
+
+        ejectByConnectFailures(detector, servers.get(0));
+        Thread.sleep(60);
+
+        // The LB found the server at its connection cap and sent the connection elsewhere
+        final OutlierDetector.Trial refused = detector.pollTrial(server -> true);
+        detector.releaseTrial(refused);
+        assertTrue(detector.isEjected(servers.get(0)));
+
+        // Later traffic still gets to try it, and the released trial can't end the new one
+        final OutlierDetector.Trial trial = detector.pollTrial(server -> true);
+        assertEquals(servers.get(0), trial.getServer());
+        detector.releaseTrial(refused);
+        detector.record(refused, RelayOutcome.BACKEND_ERROR);
+        assertNull(detector.pollTrial(server -> true));
+
+        detector.record(trial, RelayOutcome.COMPLETED);
+        assertFalse(detector.isEjected(servers.get(0)));
+        assertEquals(0, detector.getEjectedCount());
+    }
+
+    @Test
+    void shouldBackOffAfterFailedTrial() throws InterruptedException {
+        final List<InetSocketAddress> servers = getServers(2);
+        final OutlierDetector detector = new OutlierDetector(servers, getConfig());
+
+        ejectByConnectFailures(detector, servers.get(0));
+        Thread.sleep(60);
+        final OutlierDetector.Trial trial = detector.pollTrial(server -> true);
+        assertEquals(servers.get(0), trial.getServer());
+        detector.record(trial, RelayOutcome.BACKEND_CONNECT_FAILED);
+        assertTrue(detector.isEjected(servers.get(0)));
+
+        // Second ejection is 100ms rather than 50ms
+        Thread.sleep(60);
+        assertNull(detector.pollTrial(server -> true));
+        Thread.sleep(60);
+        assertEquals(servers.get(0), detector.pollTrial(server -> true).getServer());
+        assertEquals(1, detector.getEjectedCount());
+    }
+
+    @Test
+    void shouldFollowAddedAndRemovedServers() {
+        final List<InetSocketAddress> servers = getServers(4);
+        final OutlierDetector detector = new OutlierDetector(servers.subList(0, 2), getConfig());
+
+        // 50% of 2 servers is 1
+        ejectByConnectFailures(detector, servers.get(0));
+        for (int i = 0; i < 5; i++) {
+            detector.record(servers.get(1), RelayOutcome.BACKEND_CONNECT_FAILED);
+        }
+        assertFalse(detector.isEjected(servers.get(1)));
+
+        // 50% of 4 servers is 2
+        detector.addServer(servers.get(2));
+        detector.addServer(servers.get(3));
+        detector.record(servers.get(1), RelayOutcome.BACKEND_CONNECT_FAILED);
+        assertTrue(detector.isEjected(servers.get(1)));
+        assertEquals(2, detector.getEjectedCount());
+
+        // A removed server gives its slot back and stragglers are ignored
+        detector.removeServer(servers.get(0));
+        assertFalse(detector.isEjected(servers.get(0)));
+        assertEquals(1, detector.getEjectedCount());
+        detector.record(servers.get(0), RelayOutcome.BACKEND_CONNECT_FAILED);
+        assertFalse(detector.isEjected(servers.get(0)));
+    }
+
+    private static void ejectByConnectFailures(OutlierDetector detector, InetSocketAddress server) {
+        for (int i = 0; i < 5; i++) {
+            detector.record(server, RelayOutcome.BACKEND_CONNECT_FAILED);
+        }
+        assertTrue(detector.isEjected(server));
+    }
+
+    private static LoadBalancerConfig getConfig() {
+        final LoadBalancerConfig config = new LoadBalancerConfig();
+        config.setOutlierMinRequests(20);
+        config.setOutlierBaseEjectionMs(50);
+        config.setOutlierMaxEjectionMs(1000);
+        return config;
+    }
+
+    private static List<InetSocketAddress> getServers(int count) {
+        final List<InetSocketAddress> servers = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            servers.add(getInetSocketAddress("localhost:" + (8050 + i)));
+        }
+        return servers;
+    }
+}
@@ -0,0 +1,68 @@
+package org.example.loadbalancer.lb.http;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChunkedScannerTest {
+
+    @Test
+    void shouldFindEndOfBodyScannedInPieces() {
+        final String body = "5\r\nhello\r\n1A;name=value\r\n" + "x".repeat(26) + "\r\n0\r\n\r\n";
+        final ByteBuffer buffer = buffer(body + "GET /next");
+        final ChunkedScanner scanner = new ChunkedScanner();
+
+        int position = 0;
+        while (!scanner.isDone()) {
+            position = scanner.scan(buffer, position, Math.min(position + 3, buffer.limit()));
+            assertFalse(scanner.isInvalid());
+        }
+        assertEquals(body.length(), position);
+    }
+
+    @Test
+    void shouldSkipTrailers() {
+        final String body = "3\r\nabc\r\n0\r\nChecksum: 1234\r\nOther: x\r\n\r\n";
+        final ByteBuffer buffer = buffer(body + "leftover");
+        final ChunkedScanner scanner = new ChunkedScanner();
+
+        assertEquals(body.length(), scanner.scan(buffer, 0, buffer.limit()));
+        assertTrue(scanner.isDone());
+    }
+
+    @Test
+    void shouldRejectBrokenFraming() {
+        assertInvalid("5\nhello\r\n0\r\n\r\n");
+        assertInvalid("5\r\nhelloX\r\n0\r\n\r\n");
+        assertInvalid("zz\r\n");
+        assertInvalid("1000000000000000\r\n");
+    }
+
+    @Test
+    void shouldStartOverAfterReset() {
+        final ChunkedScanner scanner = new ChunkedScanner();
+        final ByteBuffer first = buffer("0\r\n\r\n");
+        scanner.scan(first, 0, first.limit());
+        assertTrue(scanner.isDone());
+
+        scanner.reset();
+        final ByteBuffer second = buffer("2\r\nhi\r\n");
+        assertEquals(second.limit(), scanner.scan(second, 0, second.limit()));
+        assertFalse(scanner.isDone());
+    }
+
+    private static void assertInvalid(String body) {
+        final ChunkedScanner scanner = new ChunkedScanner();
+        final ByteBuffer buffer = buffer(body);
+        scanner.scan(buffer, 0, buffer.limit());
+        assertTrue(scanner.isInvalid(), body);
+    }
+
+    private static ByteBuffer buffer(String message) {
+        final byte[] bytes = message.getBytes(StandardCharsets.ISO_8859_1);
+        return ByteBuffer.wrap(bytes);
+    }
+}
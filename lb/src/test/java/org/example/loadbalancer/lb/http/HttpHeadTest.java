@@ -0,0 +1,188 @@
+package org.example.loadbalancer.lb.http;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HttpHeadTest {
+
+    @Test
+    void shouldParseRequestArrivingByteByByte() {
+        final String request = "GET /api/users?id=1 HTTP/1.1\r\nHost: Example.com:8080\r\nContent-Length: 5\r\nX-Empty:\r\n\r\nhello";
+        final ByteBuffer buffer = buffer(request);
+        final HttpHead head = new HttpHead(true);
+
+        final int headLength = request.indexOf("hello");
+        for (int end = 0; end < headLength; end++) {
+            assertEquals(HttpHead.Result.INCOMPLETE, head.parse(buffer, end));
+        }
+        assertEquals(HttpHead.Result.COMPLETE, head.parse(buffer, headLength));
+
+        assertEquals(headLength, head.getHeadLength());
+        assertEquals(headLength - 2, head.getHeaderEnd());
+        assertEquals("Example.com", head.getHost(buffer));
+        assertEquals("/api/users", head.getPath(buffer));
+        assertEquals(5, head.getContentLength());
+        assertEquals("", head.getHeader(buffer, "x-empty"));
+        assertEquals(3, head.getFieldCount());
+        assertTrue(head.hasBody());
+        assertTrue(head.isKeepAlive());
+        assertFalse(head.isHeadRequest(buffer));
+    }
+
+    @Test
+    void shouldTakeHostFromAbsoluteTarget() {
+        final ByteBuffer buffer = buffer("HEAD http://api.example.com:81/v1/items HTTP/1.1\r\nHost: other.example.com\r\n\r\n");
+        final HttpHead head = new HttpHead(true);
+
+        assertEquals(HttpHead.Result.COMPLETE, head.parse(buffer, buffer.limit()));
+        assertEquals("api.example.com", head.getHost(buffer));
+        assertEquals("/v1/items", head.getPath(buffer));
+        assertTrue(head.isHeadRequest(buffer));
+        assertFalse(head.hasBody());
+    }
+
+    @Test
+    void shouldTellIdempotentMethods() {
+        for (String method : List.of("GET", "HEAD", "OPTIONS", "TRACE", "PUT", "DELETE")) {
+            final ByteBuffer buffer = buffer(method + " / HTTP/1.1\r\nHost: a\r\n\r\n");
+            final HttpHead head = new HttpHead(true);
+            assertEquals(HttpHead.Result.COMPLETE, head.parse(buffer, buffer.limit()));
+            assertTrue(head.isIdempotent(buffer), method);
+        }
+        for (String method : List.of("POST", "PATCH", "get", "GETS")) {
+            final ByteBuffer buffer = buffer(method + " / HTTP/1.1\r\nHost: a\r\n\r\n");
+            final HttpHead head = new HttpHead(true);
+            assertEquals(HttpHead.Result.COMPLETE, head.parse(buffer, buffer.limit()));
+            assertFalse(head.isIdempotent(buffer), method);
+        }
+    }
+
+    @Test
+    void shouldFollowConnectionRulesOfEachVersion() {
+        assertFalse(parse("GET / HTTP/1.0\r\n\r\n").isKeepAlive());
+        assertTrue(parse("GET / HTTP/1.0\r\nConnection: Keep-Alive\r\n\r\n").isKeepAlive());
+        assertFalse(parse("GET / HTTP/1.1\r\nHost: a\r\nConnection: foo, close\r\n\r\n").isKeepAlive());
+        assertTrue(parse("GET / HTTP/1.1\r\nHost: a\r\nConnection: Upgrade\r\nUpgrade: websocket\r\n\r\n").isUpgrade());
+    }
+
+    @Test
+    void shouldRejectAmbiguousFraming() {
+        assertInvalid(400, "POST / HTTP/1.1\r\nHost: a\r\nContent-Length: 5\r\nTransfer-Encoding: chunked\r\n\r\n");
+        assertInvalid(400, "POST / HTTP/1.1\r\nHost: a\r\nContent-Length: 5\r\nContent-Length: 6\r\n\r\n");
+        assertInvalid(400, "POST / HTTP/1.1\r\nHost: a\r\nContent-Length: -1\r\n\r\n");
+        assertInvalid(400, "POST / HTTP/1.1\r\nHost: a\r\nContent-Length : 5\r\n\r\n");
+        assertInvalid(400, "GET / HTTP/1.1\r\nHost: a\r\nX-Folded: a\r\n b\r\n\r\n");
+        assertInvalid(501, "POST / HTTP/1.1\r\nHost: a\r\nTransfer-Encoding: gzip\r\n\r\n");
+        assertInvalid(501, "POST / HTTP/1.1\r\nHost: a\r\nTransfer-Encoding: chunked\r\nTransfer-Encoding: gzip\r\n\r\n");
+
+        // The same length twice is harmless
+        assertEquals(5, parse("POST / HTTP/1.1\r\nHost: a\r\nContent-Length: 5\r\ncontent-length: 5\r\n\r\n").getContentLength());
+        assertTrue(parse("POST / HTTP/1.1\r\nHost: a\r\nTransfer-Encoding: gzip, Chunked\r\n\r\n").isChunked());
+    }
+
+    @Test
+    void shouldRejectBadRequests() {
+        assertInvalid(400, "GET / HTTP/1.1\r\n\r\n");
+        assertInvalid(400, "GET  / HTTP/1.1\r\nHost: a\r\n\r\n");
+        assertInvalid(400, "GET / FTP/1.1\r\nHost: a\r\n\r\n");
+        assertInvalid(505, "GET / HTTP/1.2\r\nHost: a\r\n\r\n");
+        assertInvalid(501, "CONNECT a:443 HTTP/1.1\r\nHost: a\r\n\r\n");
+    }
+
+    @Test
+    void shouldRejectOversizedHeads() {
+        final HttpHead head = new HttpHead(true);
+        final ByteBuffer buffer = buffer("GET / HTTP/1.1\r\nX-Big: " + "a".repeat(HttpHead.MAX_HEAD_BYTES) + "\r\n\r\n");
+        assertEquals(HttpHead.Result.INVALID, head.parse(buffer, HttpHead.MAX_HEAD_BYTES));
+        assertEquals(431, head.getErrorStatus());
+
+        final StringBuilder many = new StringBuilder("GET / HTTP/1.1\r\nHost: a\r\n");
+        for (int i = 0; i < HttpHead.MAX_HEADERS; i++) {
+            many.append("X-").append(i).append(": 1\r\n");
+        }
+        assertInvalid(431, many.append("\r\n").toString());
+    }
+
+    @Test
+    void shouldSkipEmptyLinesBeforeRequest() {
+        final HttpHead head = new HttpHead(true);
+        final ByteBuffer buffer = buffer("\r\nGET /x HTTP/1.1\r\nHost: a\r\n\r\n");
+        assertEquals(HttpHead.Result.COMPLETE, head.parse(buffer, buffer.limit()));
+        assertEquals("/x", head.getPath(buffer));
+    }
+
+    @Test
+    void shouldTellMethodAfterEmptyLines() {
+        final HttpHead head = new HttpHead(true);
+        final ByteBuffer buffer = buffer("\r\n\r\nHEAD / HTTP/1.1\r\nHost: a\r\n\r\n");
+        assertEquals(HttpHead.Result.COMPLETE, head.parse(buffer, buffer.limit()));
+        assertTrue(head.isHeadRequest(buffer));
+        assertTrue(head.isIdempotent(buffer));
+    }
+
+    @Test
+    void shouldParseResponses() {
+        final HttpHead ok = new HttpHead(false);
+        final ByteBuffer buffer = buffer("HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nhi");
+        assertEquals(HttpHead.Result.COMPLETE, ok.parse(buffer, buffer.limit()));
+        assertEquals(200, ok.getStatus());
+        assertEquals(2, ok.getContentLength());
+        assertFalse(ok.isCloseDelimited());
+        assertTrue(ok.isBodiless(true));
+
+        final HttpHead untilClose = new HttpHead(false);
+        final ByteBuffer old = buffer("HTTP/1.0 200 OK\n\n");
+        assertEquals(HttpHead.Result.COMPLETE, untilClose.parse(old, old.limit()));
+        assertTrue(untilClose.isCloseDelimited());
+        assertFalse(untilClose.isKeepAlive());
+
+        final HttpHead noContent = new HttpHead(false);
+        final ByteBuffer empty = buffer("HTTP/1.1 204 No Content\r\n\r\n");
+        assertEquals(HttpHead.Result.COMPLETE, noContent.parse(empty, empty.limit()));
+        assertTrue(noContent.isBodiless(false));
+
+        final HttpHead broken = new HttpHead(false);
+        final ByteBuffer garbage = buffer("HTTP/1.1 2x0 OK\r\n\r\n");
+        assertEquals(HttpHead.Result.INVALID, broken.parse(garbage, garbage.limit()));
+        assertEquals(502, broken.getErrorStatus());
+    }
+
+    @Test
+    void shouldResetForNextMessage() {
+        final HttpHead head = parse("POST / HTTP/1.1\r\nHost: a\r\nContent-Length: 5\r\nExpect: 100-continue\r\n\r\n");
+        assertTrue(head.isExpectContinue());
+
+        head.reset();
+        final ByteBuffer next = buffer("GET /next HTTP/1.1\r\nHost: b\r\n\r\n");
+        assertEquals(HttpHead.Result.COMPLETE, head.parse(next, next.limit()));
+        assertEquals(-1, head.getContentLength());
+        assertFalse(head.isExpectContinue());
+        assertEquals("b", head.getHost(next));
+    }
+
+    private static HttpHead parse(String message) {
+        final HttpHead head = new HttpHead(true);
+        final ByteBuffer buffer = buffer(message);
+        assertEquals(HttpHead.Result.COMPLETE, head.parse(buffer, buffer.limit()));
+        return head;
+    }
+
+    private static void assertInvalid(int status, String message) {
+        final HttpHead head = new HttpHead(true);
+        final ByteBuffer buffer = buffer(message);
+        assertEquals(HttpHead.Result.INVALID, head.parse(buffer, buffer.limit()), message);
+        assertEquals(status, head.getErrorStatus(), message);
+    }
+
+    private static ByteBuffer buffer(String message) {
+        final byte[] bytes = message.getBytes(StandardCharsets.ISO_8859_1);
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes).flip();
+        return buffer;
+    }
+}
@@ -0,0 +1,53 @@
+package org.example.loadbalancer.lb.http;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HttpRouterTest {
+
+    private final HttpRoute api = new HttpRoute("API.example.com", "/", List.of(server(8051)));
+    private final HttpRoute apiV2 = new HttpRoute("api.example.com", "/v2", List.of(server(8052)));
+    private final HttpRoute assets = new HttpRoute(null, "/static", List.of(server(8053)));
+    private final HttpRoute any = new HttpRoute(null, "/", List.of(server(8054)));
+
+    @Test
+    void shouldPreferHostThenLongestPrefix() {
+        final HttpRouter router = new HttpRouter(List.of(any, assets, api, apiV2));
+
+        assertSame(apiV2, route(router, "GET /v2/users HTTP/1.1\r\nHost: api.example.com\r\n\r\n"));
+        assertSame(api, route(router, "GET /v1/users HTTP/1.1\r\nHost: Api.Example.Com:443\r\n\r\n"));
+        // Host routes win over path routes for any host
+        assertSame(api, route(router, "GET /static/app.js HTTP/1.1\r\nHost: api.example.com\r\n\r\n"));
+        assertSame(assets, route(router, "GET /static/app.js HTTP/1.1\r\nHost: www.example.com\r\n\r\n"));
+        assertSame(any, route(router, "GET /?q=1 HTTP/1.1\r\nHost: www.example.com\r\n\r\n"));
+        assertSame(any, route(router, "GET / HTTP/1.0\r\n\r\n"));
+    }
+
+    @Test
+    void shouldReturnNullWithoutMatch() {
+        final HttpRouter router = new HttpRouter(List.of(api, assets));
+
+        assertNull(route(router, "GET /index.html HTTP/1.1\r\nHost: www.example.com\r\n\r\n"));
+        // The query isn't part of the path
+        assertNull(route(router, "GET /?/static HTTP/1.1\r\nHost: www.example.com\r\n\r\n"));
+        assertTrue(new HttpRouter(List.of()).isEmpty());
+    }
+
+    private static HttpRoute route(HttpRouter router, String request) {
+        final byte[] bytes = request.getBytes(StandardCharsets.US_ASCII);
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        final HttpHead head = new HttpHead(true);
+        assertEquals(HttpHead.Result.COMPLETE, head.parse(buffer, bytes.length));
+        return router.route(buffer, head);
+    }
+
+    private static InetSocketAddress server(int port) {
+        return InetSocketAddress.createUnresolved("localhost", port);
+    }
+}
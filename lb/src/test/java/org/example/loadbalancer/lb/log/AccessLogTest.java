@@ -0,0 +1,92 @@
+package org.example.loadbalancer.lb.log;
+
+import org.example.loadbalancer.lb.socket.RelayOutcome;
+import org.example.loadbalancer.lb.socket.RelayStats;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.example.loadbalancer.lb.util.Helper.getInetSocketAddress;
+import static org.junit.jupiter.api.Assertions.*;
+
+class AccessLogTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void shouldWriteOneLinePerRelay() throws Exception {
+        final Path file = tempDir.resolve("access.log");
+        final InetSocketAddress client = getInetSocketAddress("127.0.0.1:40000");
+        final InetSocketAddress backend = getInetSocketAddress("127.0.0.1:8050");
+
+        try (AccessLog accessLog = new AccessLog(file, 16)) {
+            assertTrue(accessLog.log(client, backend, new RelayStats(), RelayOutcome.COMPLETED, System.nanoTime()));
+            assertTrue(accessLog.log(null, backend, new RelayStats(), RelayOutcome.BACKEND_CONNECT_FAILED, System.nanoTime()));
+        }
+
+        final List<String> lines = Files.readAllLines(file);
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(0).contains(" client=127.0.0.1:40000 backend=127.0.0.1:8050 outcome=COMPLETED bytes_in=0 bytes_out=0 "));
+        assertTrue(lines.get(1).contains(" client=- backend=127.0.0.1:8050 outcome=BACKEND_CONNECT_FAILED "));
+    }
+
+    @Test
+    void shouldDropWhenRingIsFull() throws Exception {
+        final InetSocketAddress backend = getInetSocketAddress("127.0.0.1:8050");
+
+        try (AccessLog accessLog = new AccessLog(tempDir.resolve("access.log"), 2)) {
+            assertTrue(accessLog.log(null, backend, new RelayStats(), RelayOutcome.COMPLETED, System.nanoTime()));
+            assertTrue(accessLog.log(null, backend, new RelayStats(), RelayOutcome.COMPLETED, System.nanoTime()));
+            assertFalse(accessLog.log(null, backend, new RelayStats(), RelayOutcome.COMPLETED, System.nanoTime()));
+            assertEquals(1, accessLog.getDropped());
+
+            // Draining frees the slots up again
+            assertEquals(2, accessLog.drain());
+            assertTrue(accessLog.log(null, backend, new RelayStats(), RelayOutcome.COMPLETED, System.nanoTime()));
+            assertEquals(1, accessLog.drain());
+            assertEquals(3, accessLog.getWritten());
+        }
+    }
+
+    @Test
+    void shouldWriteEverythingFromConcurrentRelays() throws Exception {
+        final Path file = tempDir.resolve("access.log");
+        final InetSocketAddress backend = getInetSocketAddress("127.0.0.1:8050");
+        final int threads = 4;
+        final int perThread = 1000;
+
+        try (AccessLog accessLog = new AccessLog(file, 64)) {
+            accessLog.start();
+
+            final List<Thread> relays = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                relays.add(Thread.ofVirtual().start(() -> {
+                    for (int j = 0; j < perThread; j++) {
+                        // Spin rather than drop, the small ring makes the writer work to keep up
+                        while (!accessLog.log(null, backend, new RelayStats(), RelayOutcome.COMPLETED, System.nanoTime())) {
+                            Thread.onSpinWait();
+                        }
+                    }
+                }));
+            }
+            for (Thread relay : relays) {
+                relay.join();
+            }
+        }
+
+        assertEquals(threads * perThread, Files.readAllLines(file).size());
+    }
+
+    @Test
+    void shouldIgnoreRecordsWhenDisabled() {
+        final AccessLog accessLog = AccessLog.disabled();
+        assertFalse(accessLog.isEnabled());
+        assertFalse(accessLog.log(null, getInetSocketAddress("127.0.0.1:8050"), new RelayStats(), RelayOutcome.COMPLETED, System.nanoTime()));
+    }
+}
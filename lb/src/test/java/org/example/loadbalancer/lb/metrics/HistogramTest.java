@@ -0,0 +1,74 @@
+package org.example.loadbalancer.lb.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HistogramTest {
+
+    @Test
+    void shouldPlaceEveryValueInsideItsBucket() {
+        for (long value = 0; value < 100_000; value++) {
+            final int index = Histogram.bucketIndex(value);
+            assertTrue(value <= Histogram.bucketUpperBound(index), "value " + value);
+            assertTrue(index == 0 || value > Histogram.bucketUpperBound(index - 1), "value " + value);
+        }
+        assertEquals(Histogram.BUCKETS - 1, Histogram.bucketIndex(Histogram.MAX_VALUE));
+        assertEquals(Histogram.MAX_VALUE, Histogram.bucketUpperBound(Histogram.BUCKETS - 1));
+    }
+
+    @Test
+    void shouldKeepRelativeErrorWithinOneSubBucket() {
+        for (long value = Histogram.SUB_BUCKETS; value < 10_000_000; value = value * 3 / 2) {
+            final long upperBound = Histogram.bucketUpperBound(Histogram.bucketIndex(value));
+            assertTrue(upperBound - value <= value / Histogram.SUB_BUCKETS, "value " + value);
+        }
+    }
+
+    @Test
+    void shouldReportPercentiles() {
+        final Histogram histogram = new Histogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500_500, histogram.getSum());
+        assertEquals(1000, histogram.getMax());
+        assertEquals(500, histogram.getValueAtPercentile(50), 500 / Histogram.SUB_BUCKETS);
+        assertEquals(990, histogram.getValueAtPercentile(99), 990 / Histogram.SUB_BUCKETS);
+        assertEquals(1000, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    void shouldClampOutOfRangeValues() {
+        final Histogram histogram = new Histogram();
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+
+        assertEquals(2, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        assertEquals(Histogram.MAX_VALUE, histogram.getMax());
+    }
+
+    @Test
+    void shouldCountEveryRecordFromConcurrentThreads() throws InterruptedException {
+        final Histogram histogram = new Histogram();
+        final List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            threads.add(Thread.ofVirtual().start(() -> {
+                for (int j = 0; j < 10_000; j++) {
+                    histogram.record(j);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(80_000, histogram.getCount());
+    }
+}
@@ -0,0 +1,63 @@
+package org.example.loadbalancer.lb.metrics;
+
+import org.example.loadbalancer.lb.admission.Admission;
+import org.example.loadbalancer.lb.socket.RelayOutcome;
+import org.example.loadbalancer.lb.socket.RelayStats;
+import org.example.loadbalancer.lb.strategy.BackendStats;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+
+import static org.example.loadbalancer.lb.util.Helper.getInetSocketAddress;
+import static org.junit.jupiter.api.Assertions.*;
+
+class LoadBalancerMetricsTest {
+
+    @Test
+    void shouldRecordConnectionsAndRelays() {
+        final InetSocketAddress server = getInetSocketAddress("127.0.0.1:8050");
+        final BackendStats backendStats = new BackendStats();
+        final LoadBalancerMetrics metrics = new LoadBalancerMetrics(new MetricsRegistry(), List.of(server), backendStats);
+
+        metrics.connectionAccepted();
+        metrics.connectionAccepted();
+        metrics.connectionRejected();
+        metrics.connectionShed(Admission.RATE_LIMITED);
+        metrics.acceptPaused();
+        backendStats.get(server).connectionOpened();
+        metrics.relayFinished(null, server, new RelayStats(), RelayOutcome.BACKEND_CONNECT_FAILED, System.nanoTime());
+        // Unknown backends are ignored
+        metrics.relayFinished(null, getInetSocketAddress("127.0.0.1:9999"), new RelayStats(), RelayOutcome.COMPLETED, System.nanoTime());
+
+        final String text = metrics.getRegistry().toPrometheusText();
+        assertTrue(text.contains("lb_connections_accepted_total 2\n"));
+        assertTrue(text.contains("lb_connections_rejected_total 1\n"));
+        assertTrue(text.contains("lb_connections_shed_total{reason=\"RATE_LIMITED\"} 1\n"));
+        assertTrue(text.contains("lb_connections_shed_total{reason=\"CLIENT_LIMITED\"} 0\n"));
+        assertTrue(text.contains("lb_accept_pauses_total 1\n"));
+        assertTrue(text.contains("lb_connections_active 1\n"));
+        assertTrue(text.contains("lb_relays_total{backend=\"127.0.0.1:8050\",outcome=\"BACKEND_CONNECT_FAILED\"} 1\n"));
+        assertTrue(text.contains("lb_relays_total{backend=\"127.0.0.1:8050\",outcome=\"COMPLETED\"} 0\n"));
+        assertTrue(text.contains("lb_relay_duration_seconds_count{backend=\"127.0.0.1:8050\"} 1\n"));
+        // A failed connect has no connect time
+        assertTrue(text.contains("lb_backend_connect_seconds_count{backend=\"127.0.0.1:8050\"} 0\n"));
+        assertFalse(text.contains("127.0.0.1:9999"));
+    }
+
+    @Test
+    void shouldCountHealthTransitions() {
+        final InetSocketAddress server = getInetSocketAddress("127.0.0.1:8050");
+        final LoadBalancerMetrics metrics = new LoadBalancerMetrics(new MetricsRegistry(), List.of(server), new BackendStats());
+
+        metrics.serverHealthChanged(server, false);
+        // Repeats are not transitions
+        metrics.serverHealthChanged(server, false);
+        metrics.serverHealthChanged(server, true);
+
+        final String text = metrics.getRegistry().toPrometheusText();
+        assertTrue(text.contains("lb_backend_health_transitions_total{backend=\"127.0.0.1:8050\",state=\"down\"} 1\n"));
+        assertTrue(text.contains("lb_backend_health_transitions_total{backend=\"127.0.0.1:8050\",state=\"up\"} 1\n"));
+        assertTrue(text.contains("lb_backend_healthy{backend=\"127.0.0.1:8050\"} 1\n"));
+    }
+}
@@ -0,0 +1,53 @@
+package org.example.loadbalancer.lb.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricsRegistryTest {
+
+    @Test
+    void shouldWriteCountersAndGauges() {
+        final MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("lb_accepted_total", "Accepted").add(3);
+        registry.gauge("lb_active", "Active", () -> 7, "backend", "127.0.0.1:8050");
+
+        final String text = registry.toPrometheusText();
+        assertTrue(text.contains("# HELP lb_accepted_total Accepted\n# TYPE lb_accepted_total counter\nlb_accepted_total 3\n"));
+        assertTrue(text.contains("# TYPE lb_active gauge\nlb_active{backend=\"127.0.0.1:8050\"} 7\n"));
+    }
+
+    @Test
+    void shouldReturnSameCounterForSameLabels() {
+        final MetricsRegistry registry = new MetricsRegistry();
+        final Counter counter = registry.counter("lb_relays_total", "Relays", "outcome", "COMPLETED");
+
+        assertSame(counter, registry.counter("lb_relays_total", "Relays", "outcome", "COMPLETED"));
+        assertNotSame(counter, registry.counter("lb_relays_total", "Relays", "outcome", "ABORTED"));
+        assertThrows(IllegalArgumentException.class, () -> registry.gauge("lb_relays_total", "Relays", () -> 0));
+    }
+
+    @Test
+    void shouldWriteCumulativeHistogramBuckets() {
+        final MetricsRegistry registry = new MetricsRegistry();
+        final Histogram histogram = registry.histogram("lb_duration_seconds", "Duration", 1e-6, "backend", "b1");
+        histogram.record(10);
+        histogram.record(100);
+        histogram.record(100_000);
+
+        final String text = registry.toPrometheusText();
+        assertTrue(text.contains("# TYPE lb_duration_seconds histogram\n"));
+        // 15us and 127us are the first two bounds written
+        assertTrue(text.contains("lb_duration_seconds_bucket{backend=\"b1\",le=\"" + (15 * 1e-6) + "\"} 1\n"));
+        assertTrue(text.contains("lb_duration_seconds_bucket{backend=\"b1\",le=\"" + (127 * 1e-6) + "\"} 2\n"));
+        assertTrue(text.contains("lb_duration_seconds_bucket{backend=\"b1\",le=\"+Inf\"} 3\n"));
+        assertTrue(text.contains("lb_duration_seconds_count{backend=\"b1\"} 3\n"));
+        assertTrue(text.contains("lb_duration_seconds_sum{backend=\"b1\"} " + (100_110 * 1e-6) + "\n"));
+    }
+
+    @Test
+    void shouldEscapeLabelValues() {
+        assertEquals("name=\"a\\\"b\\\\c\\nd\"", MetricsRegistry.formatLabels("name", "a\"b\\c\nd"));
+        assertThrows(IllegalArgumentException.class, () -> MetricsRegistry.formatLabels("name"));
+    }
+}
@@ -0,0 +1,32 @@
+package org.example.loadbalancer.lb.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricsServerTest {
+
+    @Test
+    void shouldServeMetrics() throws Exception {
+        final MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("lb_accepted_total", "Accepted").increment();
+
+        try (MetricsServer server = new MetricsServer(new InetSocketAddress("localhost", 0), registry);
+             HttpClient client = HttpClient.newHttpClient()) {
+            server.start();
+
+            final HttpResponse<String> response = client.send(HttpRequest.newBuilder(URI.create("http://localhost:" + server.getPort() + "/metrics")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+
+            assertEquals(200, response.statusCode());
+            assertTrue(response.headers().firstValue("Content-Type").orElse("").startsWith("text/plain; version=0.0.4"));
+            assertTrue(response.body().contains("lb_accepted_total 1\n"));
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package org.example.loadbalancer.lb.proxy;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProxyHeaderTest {
+
+    private static final byte[] V2_SIGNATURE = {0x0D, 0x0A, 0x0D, 0x0A, 0x00, 0x0D, 0x0A, 0x51, 0x55, 0x49, 0x54, 0x0A};
+
+    @Test
+    void shouldEncodeV1LineInFrontOfPayload() throws Exception {
+        final ByteBuffer buffer = ByteBuffer.allocate(256);
+        final int start = ProxyHeader.encode(ProxyProtocolVersion.V1, address("192.0.2.1", 56324), address("198.51.100.1", 443), buffer, 200);
+
+        assertEquals("PROXY TCP4 192.0.2.1 198.51.100.1 56324 443\r\n", ascii(buffer, start, 200));
+        // Position and limit are left alone
+        assertEquals(0, buffer.position());
+        assertEquals(256, buffer.limit());
+
+        final ProxyHeader header = ProxyHeader.decode(buffer, start, 200);
+        assertEquals(200 - start, header.getLength());
+        assertEquals(address("192.0.2.1", 56324), header.getSource());
+        assertEquals(address("198.51.100.1", 443), header.getDestination());
+    }
+
+    @Test
+    void shouldRoundTripBothVersionsAndFamilies() throws Exception {
+        final List<InetSocketAddress[]> pairs = List.of(
+                new InetSocketAddress[]{address("10.1.2.3", 1), address("10.3.2.1", 65535)},
+                new InetSocketAddress[]{address("2001:db8::1", 40000), address("2001:db8:0:0:1:0:0:2", 443)},
+                new InetSocketAddress[]{address("fe80::1:2:3:4", 1234), address("::1", 80)});
+
+        for (ProxyProtocolVersion version : List.of(ProxyProtocolVersion.V1, ProxyProtocolVersion.V2)) {
+            for (InetSocketAddress[] pair : pairs) {
+                final ByteBuffer buffer = ByteBuffer.allocateDirect(ProxyHeader.MAX_V1_LENGTH);
+                final int start = ProxyHeader.encode(version, pair[0], pair[1], buffer, ProxyHeader.MAX_V1_LENGTH);
+                final ProxyHeader header = ProxyHeader.decode(buffer, start, ProxyHeader.MAX_V1_LENGTH);
+
+                assertEquals(ProxyHeader.MAX_V1_LENGTH - start, header.getLength(), version + " " + pair[0]);
+                assertEquals(pair[0], header.getSource(), version + " " + pair[0]);
+                assertEquals(pair[1], header.getDestination(), version + " " + pair[0]);
+            }
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocate(128);
+        final int start = ProxyHeader.encode(ProxyProtocolVersion.V2, address("2001:db8::1", 1), address("2001:db8::2", 2), buffer, 128);
+        assertEquals(16 + 36, 128 - start);
+        assertEquals(0x21, buffer.get(start + 12));
+        assertEquals(0x21, buffer.get(start + 13));
+    }
+
+    @Test
+    void shouldMapMixedFamiliesToIpv6() throws Exception {
+        final ByteBuffer buffer = ByteBuffer.allocate(128);
+        final int start = ProxyHeader.encode(ProxyProtocolVersion.V1, address("192.0.2.1", 5000), address("2001:db8::2", 443), buffer, 128);
+
+        assertEquals("PROXY TCP6 0:0:0:0:0:ffff:c000:201 2001:db8:0:0:0:0:0:2 5000 443\r\n", ascii(buffer, start, 128));
+        // InetAddress turns a mapped address back into an IPv4 one
+        assertEquals(address("192.0.2.1", 5000), ProxyHeader.decode(buffer, start, 128).getSource());
+    }
+
+    @Test
+    void shouldSendHeaderWithoutAddressesForUnknownClients() throws Exception {
+        final ByteBuffer buffer = ByteBuffer.allocate(128);
+        int start = ProxyHeader.encode(ProxyProtocolVersion.V1, null, address("10.0.0.1", 80), buffer, 128);
+        assertEquals("PROXY UNKNOWN\r\n", ascii(buffer, start, 128));
+        assertNull(ProxyHeader.decode(buffer, start, 128).getSource());
+
+        start = ProxyHeader.encode(ProxyProtocolVersion.V2, null, address("10.0.0.1", 80), buffer, 128);
+        assertEquals(16, 128 - start);
+        // LOCAL command
+        assertEquals(0x20, buffer.get(start + 12));
+        final ProxyHeader header = ProxyHeader.decode(buffer, start, 128);
+        assertEquals(16, header.getLength());
+        assertNull(header.getSource());
+        assertNull(header.getDestination());
+    }
+
+    @Test
+    void shouldParseV1Ipv6Forms() throws Exception {
+        assertV1("PROXY TCP6 ::1 2001:DB8::10:1 1 65535\r\n", address("::1", 1), address("2001:db8::10:1", 65535));
+        assertV1("PROXY TCP6 ::ffff:192.0.2.1 1:2:3:4:5:6:7:8 80 8080\r\n", address("192.0.2.1", 80), address("1:2:3:4:5:6:7:8", 8080));
+        assertV1("PROXY TCP6 1:: 0:0:0:0:0:0:1.2.3.4 80 8080\r\n", address("1::", 80), address("::1.2.3.4", 8080));
+        assertV1("PROXY TCP6 1:2:3:4:5:6::8 ffff:: 80 8080\r\n", address("1:2:3:4:5:6:0:8", 80), address("ffff::", 8080));
+        // Whatever follows UNKNOWN is ignored
+        assertV1("PROXY UNKNOWN 1.2.3.4 ignored\r\n", null, null);
+    }
+
+    @Test
+    void shouldNeedMoreBytesUntilHeaderIsWhole() throws Exception {
+        for (ProxyProtocolVersion version : List.of(ProxyProtocolVersion.V1, ProxyProtocolVersion.V2)) {
+            final ByteBuffer buffer = ByteBuffer.allocate(256);
+            final int start = ProxyHeader.encode(version, address("2001:db8::1", 1), address("2001:db8::2", 2), buffer, 200);
+            // The client's first bytes follow the header
+            buffer.put(200, "GET /".getBytes(StandardCharsets.US_ASCII));
+
+            for (int end = start; end < 200; end++) {
+                assertNull(ProxyHeader.decode(buffer, start, end), version + " " + (end - start));
+            }
+            assertEquals(200 - start, ProxyHeader.decode(buffer, start, 200).getLength());
+            assertEquals(200 - start, ProxyHeader.decode(buffer, start, 205).getLength());
+        }
+    }
+
+    @Test
+    void shouldRejectInvalidHeaders() {
+        final List<String> invalid = List.of(
+                "GET / HTTP/1.1\r\n",
+                "PROXY\r\n",
+                "PROXY TCP5 1.2.3.4 5.6.7.8 1 2\r\n",
+                "PROXY TCP4 1.2.3.4 5.6.7.8 80\r\n",
+                "PROXY TCP4 1.2.3.256 5.6.7.8 1 2\r\n",
+                "PROXY TCP4 1.2.3 5.6.7.8 1 2\r\n",
+                "PROXY TCP4 1.2.3.4 5.6.7.8 1 65536\r\n",
+                "PROXY TCP4 1.2.3.4 5.6.7.8 1 2 \r\n",
+                "PROXY TCP4 1.2.3.4 5.6.7.8 1 2\n",
+                "PROXY TCP6 1::2::3 ::1 1 2\r\n",
+                "PROXY TCP6 1:2:3:4:5:6:7:8:9 ::1 1 2\r\n",
+                "PROXY TCP6 1:2:3:4:5:6:7 ::1 1 2\r\n",
+                "PROXY TCP6 1:2:3:4:5:6:7:8:: ::1 1 2\r\n",
+                "PROXY TCP6 12345:: ::1 1 2\r\n",
+                "PROXY TCP4 " + "1".repeat(120) + "\r\n");
+
+        for (String header : invalid) {
+            final ByteBuffer buffer = ByteBuffer.wrap(header.getBytes(StandardCharsets.US_ASCII));
+            assertThrows(ProtocolException.class, () -> ProxyHeader.decode(buffer, 0, buffer.limit()), header);
+        }
+
+        // Version 1 in a v2 header
+        final ByteBuffer v2 = ByteBuffer.allocate(64).put(V2_SIGNATURE).put((byte) 0x11).put((byte) 0x11).putShort((short) 12);
+        assertThrows(ProtocolException.class, () -> ProxyHeader.decode(v2, 0, 16));
+        // Too short for its family's addresses
+        v2.put(12, (byte) 0x21).putShort(14, (short) 8);
+        assertThrows(ProtocolException.class, () -> ProxyHeader.decode(v2, 0, 24));
+    }
+
+    @Test
+    void shouldSkipV2Tlvs() throws Exception {
+        final ByteBuffer buffer = ByteBuffer.allocate(128)
+                .put(V2_SIGNATURE).put((byte) 0x21).put((byte) 0x11).putShort((short) (12 + 7))
+                .put(InetAddress.getByName("192.0.2.1").getAddress()).put(InetAddress.getByName("192.0.2.2").getAddress())
+                .putShort((short) 40000).putShort((short) 443)
+                // PP2_TYPE_AUTHORITY "a.co"
+                .put((byte) 0x02).putShort((short) 4).put("a.co".getBytes(StandardCharsets.US_ASCII))
+                .put("payload".getBytes(StandardCharsets.US_ASCII));
+
+        assertNull(ProxyHeader.decode(buffer, 0, 34));
+        final ProxyHeader header = ProxyHeader.decode(buffer, 0, buffer.position());
+        assertEquals(16 + 12 + 7, header.getLength());
+        assertEquals(address("192.0.2.1", 40000), header.getSource());
+        assertEquals(address("192.0.2.2", 443), header.getDestination());
+    }
+
+    @Test
+    void shouldFailHeadersThatCannotFitInTheBuffer() {
+        final ByteBuffer v2 = ByteBuffer.allocate(64).put(V2_SIGNATURE).put((byte) 0x21).put((byte) 0x11).putShort((short) 1000);
+        assertThrows(ProtocolException.class, () -> ProxyHeader.decode(v2, 0, 16));
+
+        // A full buffer still short of a whole header
+        final ByteBuffer v1 = ByteBuffer.wrap("PROXY TCP4 1.2.3.4".getBytes(StandardCharsets.US_ASCII));
+        assertThrows(ProtocolException.class, () -> ProxyHeader.decode(v1, 0, v1.limit()));
+    }
+
+    @Test
+    void shouldReadHeaderFromStreamsAndChannels() throws Exception {
+        final byte[] bytes = "PROXY TCP4 192.0.2.1 192.0.2.2 1 2\r\nhello".getBytes(StandardCharsets.US_ASCII);
+
+        final ByteBuffer heap = ByteBuffer.allocate(128).position(10);
+        ProxyHeader header = ProxyHeader.read(new ByteArrayInputStream(bytes), heap);
+        assertEquals(bytes.length - 5, header.getLength());
+        // Bytes past the header are kept, right after it
+        assertEquals(10 + bytes.length, heap.position());
+        assertEquals("hello", ascii(heap, 10 + header.getLength(), heap.position()));
+
+        final ByteBuffer direct = ByteBuffer.allocateDirect(128);
+        header = ProxyHeader.read(Channels.newChannel(new ByteArrayInputStream(bytes)), direct);
+        assertEquals(address("192.0.2.1", 1), header.getSource());
+        assertEquals(bytes.length, direct.position());
+
+        final byte[] truncated = "PROXY TCP4 192.0.2.1".getBytes(StandardCharsets.US_ASCII);
+        assertThrows(EOFException.class, () -> ProxyHeader.read(new ByteArrayInputStream(truncated), ByteBuffer.allocate(128)));
+    }
+
+    private static void assertV1(String line, InetSocketAddress source, InetSocketAddress destination) throws ProtocolException {
+        final ByteBuffer buffer = ByteBuffer.wrap(line.getBytes(StandardCharsets.US_ASCII));
+        final ProxyHeader header = ProxyHeader.decode(buffer, 0, buffer.limit());
+        assertEquals(line.length(), header.getLength(), line);
+        assertEquals(source, header.getSource(), line);
+        assertEquals(destination, header.getDestination(), line);
+    }
+
+    private static InetSocketAddress address(String host, int port) throws UnknownHostException {
+        return new InetSocketAddress(InetAddress.getByName(host), port);
+    }
+
+    private static String ascii(ByteBuffer buffer, int start, int end) {
+        final byte[] bytes = new byte[end - start];
+        buffer.get(start, bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+}
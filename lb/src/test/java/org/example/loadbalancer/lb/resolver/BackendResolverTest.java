@@ -0,0 +1,105 @@
+package org.example.loadbalancer.lb.resolver;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BackendResolverTest {
+
+    private static InetAddress address(String ip) throws UnknownHostException {
+        return InetAddress.getByName(ip);
+    }
+
+    @Test
+    void shouldExpandEveryAddressIntoAnEndpoint() throws Exception {
+        final NameService dns = host -> new InetAddress[]{address("10.0.0.1"), address("10.0.0.2")};
+
+        try (BackendResolver resolver = new BackendResolver(30_000, dns)) {
+            final List<InetSocketAddress> endpoints = resolver.resolve("backend", 8050);
+
+            assertEquals(List.of(new InetSocketAddress(address("10.0.0.1"), 8050), new InetSocketAddress(address("10.0.0.2"), 8050)), endpoints);
+            for (InetSocketAddress endpoint : endpoints) {
+                assertFalse(endpoint.isUnresolved());
+            }
+        }
+    }
+
+    @Test
+    void shouldOnlyLookUpOnce() throws Exception {
+        final AtomicInteger lookups = new AtomicInteger();
+        final NameService dns = host -> {
+            lookups.incrementAndGet();
+            return new InetAddress[]{address("10.0.0.1")};
+        };
+
+        try (BackendResolver resolver = new BackendResolver(30_000, dns)) {
+            resolver.resolve("backend", 8050);
+            resolver.resolve("backend", 8051);
+            assertEquals(1, lookups.get());
+        }
+    }
+
+    @Test
+    void shouldThrowForUnknownHost() {
+        final NameService dns = host -> {
+            throw new UnknownHostException(host);
+        };
+
+        try (BackendResolver resolver = new BackendResolver(30_000, dns)) {
+            assertThrows(UnknownHostException.class, () -> resolver.resolve("nowhere", 8050));
+            assertEquals(List.of(), resolver.getAddresses("nowhere"));
+        }
+    }
+
+    @Test
+    void shouldKeepLastAnswerWhenRefreshFails() throws Exception {
+        final Map<String, InetAddress[]> records = new ConcurrentHashMap<>();
+        records.put("backend", new InetAddress[]{address("10.0.0.1")});
+        final NameService dns = host -> {
+            final InetAddress[] answer = records.get(host);
+            if (answer == null) {
+                throw new UnknownHostException(host);
+            }
+            return answer;
+        };
+
+        try (BackendResolver resolver = new BackendResolver(30_000, dns)) {
+            resolver.resolve("backend", 8050);
+
+            records.remove("backend");
+            resolver.refresh("backend");
+            assertEquals(List.of(address("10.0.0.1")), resolver.getAddresses("backend"));
+        }
+    }
+
+    @Test
+    void shouldOnlyNotifyWhenAddressesChange() throws Exception {
+        final Map<String, InetAddress[]> records = new ConcurrentHashMap<>();
+        records.put("backend", new InetAddress[]{address("10.0.0.1"), address("10.0.0.2")});
+        final List<List<InetAddress>> changes = new ArrayList<>();
+
+        try (BackendResolver resolver = new BackendResolver(30_000, records::get)) {
+            resolver.addListener((host, addresses) -> changes.add(addresses));
+            resolver.resolve("backend", 8050);
+
+            // Same set in a different order, e.g. round-robin DNS
+            records.put("backend", new InetAddress[]{address("10.0.0.2"), address("10.0.0.1")});
+            resolver.refresh("backend");
+            assertTrue(changes.isEmpty());
+
+            records.put("backend", new InetAddress[]{address("10.0.0.3")});
+            resolver.refresh("backend");
+            assertEquals(List.of(List.of(address("10.0.0.3"))), changes);
+            assertEquals(List.of(address("10.0.0.3")), resolver.getAddresses("backend"));
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package org.example.loadbalancer.lb.socket;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BackendConnectionPoolTest {
+
+    @Test
+    void shouldHandOutWarmConnections() throws Exception {
+        try (ServerSocket backend = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            acceptAll(backend);
+            final InetSocketAddress target = new InetSocketAddress(InetAddress.getLoopbackAddress(), backend.getLocalPort());
+
+            try (BackendConnectionPool pool = new BackendConnectionPool(List.of(target), 2, 1000, 30_000)) {
+                pool.start();
+                waitForIdle(pool, target, 2);
+
+                try (SocketChannel channel = pool.acquire(target)) {
+                    assertTrue(channel.isConnected());
+                    assertTrue(channel.isBlocking());
+                    assertTrue(channel.socket().getTcpNoDelay());
+                }
+                assertEquals(1, pool.getHits());
+
+                // Topped back up in the background
+                waitForIdle(pool, target, 2);
+            }
+        }
+    }
+
+    @Test
+    void shouldDropConnectionsTheBackendClosedOrSpokeOn() throws Exception {
+        try (ServerSocket backend = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            final List<Socket> accepted = acceptAll(backend);
+            final InetSocketAddress target = new InetSocketAddress(InetAddress.getLoopbackAddress(), backend.getLocalPort());
+
+            try (BackendConnectionPool pool = new BackendConnectionPool(List.of(target), 2, 1000, 30_000)) {
+                pool.start();
+                waitForIdle(pool, target, 2);
+
+                // One connection closed by the backend, the other sent a banner
+                for (int i = 0; i < 200 && accepted.size() < 2; i++) {
+                    Thread.sleep(10);
+                }
+                accepted.get(0).close();
+                accepted.get(1).getOutputStream().write("220 ready\r\n".getBytes());
+                Thread.sleep(50);
+
+                assertNull(pool.poll(target));
+                assertEquals(0, pool.getHits());
+                assertEquals(1, pool.getMisses());
+            }
+        }
+    }
+
+    @Test
+    void shouldConnectOnDemandWhenUnpooled() throws Exception {
+        try (ServerSocket backend = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            acceptAll(backend);
+            final InetSocketAddress target = new InetSocketAddress(InetAddress.getLoopbackAddress(), backend.getLocalPort());
+
+            final BackendConnectionPool pool = BackendConnectionPool.unpooled();
+            assertNull(pool.poll(target));
+            try (SocketChannel channel = pool.acquire(target)) {
+                assertTrue(channel.isConnected());
+                assertTrue(channel.socket().getTcpNoDelay());
+            }
+            assertEquals(0, pool.getIdle(target));
+        }
+    }
+
+    @Test
+    void shouldThrowWhenBackendIsDown() throws Exception {
+        final InetSocketAddress target;
+        try (ServerSocket unused = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            target = new InetSocketAddress(InetAddress.getLoopbackAddress(), unused.getLocalPort());
+        }
+
+        try (BackendConnectionPool pool = new BackendConnectionPool(List.of(target), 1, 500, 30_000)) {
+            pool.start();
+            assertThrows(IOException.class, () -> pool.acquire(target));
+            assertEquals(0, pool.getIdle(target));
+        }
+    }
+
+    @Test
+    void shouldKeepReleasedConnectionsUpToMaxIdle() throws Exception {
+        try (ServerSocket backend = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            acceptAll(backend);
+            final InetSocketAddress target = new InetSocketAddress(InetAddress.getLoopbackAddress(), backend.getLocalPort());
+
+            try (BackendConnectionPool pool = new BackendConnectionPool(List.of(target), 0, 1, 1000, 30_000)) {
+                final SocketChannel first = pool.acquire(target);
+                final SocketChannel second = pool.acquire(target);
+
+                assertTrue(pool.release(target, first));
+                assertFalse(pool.release(target, second));
+                assertFalse(second.isOpen());
+                assertEquals(1, pool.getIdle(target));
+
+                // Handed out again rather than connecting
+                assertSame(first, pool.poll(target));
+                assertEquals(1, pool.getHits());
+
+                pool.removeServer(target);
+                assertFalse(pool.release(target, first));
+                assertFalse(first.isOpen());
+            }
+        }
+    }
+
+    @Test
+    void shouldKeepPoolingServersOtherPoolsStillUse() throws Exception {
+        try (ServerSocket backend = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            acceptAll(backend);
+            final InetSocketAddress target = new InetSocketAddress(InetAddress.getLoopbackAddress(), backend.getLocalPort());
+
+            // Two listeners' pools start out with it, a third adds it on a reload
+            try (BackendConnectionPool pool = new BackendConnectionPool(List.of(target, target), 0, 1, 1000, 30_000)) {
+                pool.addServer(target);
+                assertTrue(pool.release(target, pool.acquire(target)));
+
+                assertFalse(pool.removeServer(target));
+                assertFalse(pool.removeServer(target));
+                assertEquals(1, pool.getIdle(target));
+
+                // The last one out closes the idle connections
+                assertTrue(pool.removeServer(target));
+                assertEquals(0, pool.getIdle(target));
+                assertFalse(pool.removeServer(target));
+            }
+        }
+    }
+
+    private static void waitForIdle(BackendConnectionPool pool, InetSocketAddress target, int idle) throws InterruptedException {
+        for (int i = 0; i < 200 && pool.getIdle(target) < idle; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(idle, pool.getIdle(target));
+    }
+
+    private static List<Socket> acceptAll(ServerSocket backend) {
+        final List<Socket> accepted = new CopyOnWriteArrayList<>();
+        CompletableFuture.runAsync(() -> {
+            while (!backend.isClosed()) {
+                try {
+                    accepted.add(backend.accept());
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        });
+        return accepted;
+    }
+}
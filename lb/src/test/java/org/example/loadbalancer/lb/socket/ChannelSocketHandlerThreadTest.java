@@ -0,0 +1,139 @@
+package org.example.loadbalancer.lb.socket;
+
+import org.example.loadbalancer.lb.buffer.BufferPool;
+import org.example.loadbalancer.lb.proxy.ProxyProtocol;
+import org.example.loadbalancer.lb.proxy.ProxyProtocolVersion;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChannelSocketHandlerThreadTest {
+
+    @Test
+    void shouldRelayAndReturnBuffersToPool() throws Exception {
+        final BufferPool bufferPool = new BufferPool(4096, 8);
+        final byte[] payload = new byte[100_000];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) (i * 31);
+        }
+
+        try (ServerSocket echoServer = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+             ServerSocketChannel lbChannel = ServerSocketChannel.open()) {
+
+            CompletableFuture.runAsync(() -> {
+                try (Socket socket = echoServer.accept()) {
+                    socket.getInputStream().transferTo(socket.getOutputStream());
+                } catch (IOException e) {
+                    // test will fail on the client side
+                }
+            });
+
+            lbChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            final InetSocketAddress target = new InetSocketAddress(InetAddress.getLoopbackAddress(), echoServer.getLocalPort());
+
+            try (Socket client = new Socket(InetAddress.getLoopbackAddress(), lbChannel.socket().getLocalPort())) {
+                final ChannelSocketHandlerThread handler = new ChannelSocketHandlerThread(lbChannel.socket().accept(), target, 4096, bufferPool);
+                final CompletableFuture<RelayOutcome> relay = CompletableFuture.supplyAsync(handler::runThread);
+
+                // write from another thread, the echo starts replying before we have finished sending
+                CompletableFuture.runAsync(() -> {
+                    try {
+                        client.getOutputStream().write(payload);
+                        client.shutdownOutput();
+                    } catch (IOException e) {
+                        // test will fail on the read below
+                    }
+                });
+
+                final byte[] echoed = client.getInputStream().readAllBytes();
+
+                assertEquals(RelayOutcome.COMPLETED, relay.join());
+                assertArrayEquals(payload, echoed);
+                assertEquals(payload.length, handler.getRelayStats().getBytesFromClient());
+                assertEquals(payload.length, handler.getRelayStats().getBytesFromServer());
+            }
+        }
+
+        assertEquals(0, bufferPool.getOutstanding());
+        // One pump can finish and hand its buffer back before the other starts, so count allocations rather than 2
+        assertEquals(bufferPool.getMisses(), bufferPool.getPooled());
+    }
+
+    @Test
+    void shouldSendProxyHeaderAheadOfClientBytes() throws Exception {
+        final BufferPool bufferPool = new BufferPool(4096, 8);
+
+        try (ServerSocket echoServer = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+             ServerSocketChannel lbChannel = ServerSocketChannel.open()) {
+
+            CompletableFuture.runAsync(() -> {
+                try (Socket socket = echoServer.accept()) {
+                    socket.getInputStream().transferTo(socket.getOutputStream());
+                } catch (IOException e) {
+                    // test will fail on the client side
+                }
+            });
+
+            lbChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            final InetSocketAddress target = new InetSocketAddress(InetAddress.getLoopbackAddress(), echoServer.getLocalPort());
+
+            try (Socket client = new Socket(InetAddress.getLoopbackAddress(), lbChannel.socket().getLocalPort())) {
+                final ChannelSocketHandlerThread handler = new ChannelSocketHandlerThread(lbChannel.socket().accept(), target, 4096, bufferPool, null,
+                        BackendConnectionPool.unpooled(), RelayTimeouts.none(), null, new ProxyProtocol(ProxyProtocolVersion.V1, false));
+                final CompletableFuture<RelayOutcome> relay = CompletableFuture.supplyAsync(handler::runThread);
+
+                client.getOutputStream().write("hello".getBytes(StandardCharsets.US_ASCII));
+                client.shutdownOutput();
+
+                assertEquals("PROXY TCP4 127.0.0.1 127.0.0.1 " + client.getLocalPort() + " " + lbChannel.socket().getLocalPort() + "\r\nhello",
+                        new String(client.getInputStream().readAllBytes(), StandardCharsets.US_ASCII));
+                assertEquals(RelayOutcome.COMPLETED, relay.join());
+                // Without a header from the client there is no other client to report
+                assertNull(handler.getClientAddress());
+            }
+        }
+
+        assertEquals(0, bufferPool.getOutstanding());
+    }
+
+    @Test
+    void shouldCloseClientsWithoutProxyHeaderBeforeConnecting() throws Exception {
+        final BufferPool bufferPool = new BufferPool(4096, 8);
+        final InetSocketAddress closed;
+        try (ServerSocket unused = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            closed = new InetSocketAddress(InetAddress.getLoopbackAddress(), unused.getLocalPort());
+        }
+
+        try (ServerSocketChannel lbChannel = ServerSocketChannel.open()) {
+            lbChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+            try (Socket client = new Socket(InetAddress.getLoopbackAddress(), lbChannel.socket().getLocalPort())) {
+                final ChannelSocketHandlerThread handler = new ChannelSocketHandlerThread(lbChannel.socket().accept(), closed, 4096, bufferPool, null,
+                        BackendConnectionPool.unpooled(), RelayTimeouts.none(), null, new ProxyProtocol(ProxyProtocolVersion.V2, true));
+                final CompletableFuture<RelayOutcome> relay = CompletableFuture.supplyAsync(handler::runThread);
+
+                client.getOutputStream().write("GET / HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+
+                // Trying the backend would have failed to connect
+                assertEquals(RelayOutcome.CLIENT_ERROR, relay.join());
+            }
+        }
+
+        assertEquals(0, bufferPool.getOutstanding());
+    }
+
+    @Test
+    void shouldRejectSocketWithoutChannel() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new ChannelSocketHandlerThread(new Socket(), new InetSocketAddress(InetAddress.getLoopbackAddress(), 1), 4096, new BufferPool(4096, 1)));
+    }
+}
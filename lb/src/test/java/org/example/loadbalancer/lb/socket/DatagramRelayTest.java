@@ -0,0 +1,241 @@
+package org.example.loadbalancer.lb.socket;
+
+import org.example.loadbalancer.lb.metrics.MetricsRegistry;
+import org.example.loadbalancer.lb.strategy.BackendStats;
+import org.example.loadbalancer.lb.timer.HashedWheelTimer;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DatagramRelayTest {
+
+    @Test
+    void shouldKeepEveryFlowOnItsBackend() throws Exception {
+        try (EchoBackend a = new EchoBackend();
+             EchoBackend b = new EchoBackend();
+             DatagramChannel lbChannel = bind();
+             DatagramSocket client1 = client();
+             DatagramSocket client2 = client()) {
+
+            final RecordingSelector selector = new RecordingSelector(a.address(), b.address());
+            final MetricsRegistry registry = new MetricsRegistry();
+            final DatagramRelay relay = new DatagramRelay(lbChannel, selector, new BackendStats(), selector, RelayTimeouts.none(), 0, 0, 4, registry);
+            final CompletableFuture<Void> running = CompletableFuture.runAsync(relay);
+
+            for (int i = 0; i < 3; i++) {
+                assertEquals(a.port() + " one" + i, exchange(client1, lbChannel, "one" + i));
+                assertEquals(b.port() + " two" + i, exchange(client2, lbChannel, "two" + i));
+            }
+            assertEquals(2, selector.selected.get());
+
+            relay.shutdown();
+            running.join();
+            assertEquals(List.of(RelayOutcome.ABORTED, RelayOutcome.ABORTED), selector.outcomes);
+            assertEquals(24, selector.bytesFromClient.get());
+            assertTrue(registry.toPrometheusText().contains("lb_udp_datagrams_total{direction=\"to_backend\"} 6\n"));
+            assertTrue(registry.toPrometheusText().contains("lb_udp_datagrams_total{direction=\"to_client\"} 6\n"));
+        }
+    }
+
+    @Test
+    void shouldCloseIdleFlows() throws Exception {
+        try (EchoBackend backend = new EchoBackend();
+             DatagramChannel lbChannel = bind();
+             DatagramSocket client = client();
+             HashedWheelTimer timer = new HashedWheelTimer(10, 64)) {
+            timer.start();
+
+            final RecordingSelector selector = new RecordingSelector(backend.address());
+            final DatagramRelay relay = new DatagramRelay(lbChannel, selector, new BackendStats(), selector, new RelayTimeouts(timer, 0, 0, 0),
+                    100, 0, 4, new MetricsRegistry());
+            final CompletableFuture<Void> running = CompletableFuture.runAsync(relay);
+
+            assertEquals(backend.port() + " first", exchange(client, lbChannel, "first"));
+            // Going idle is how a flow ends normally
+            waitFor(() -> selector.outcomes.size() == 1);
+            assertEquals(RelayOutcome.COMPLETED, selector.outcomes.getFirst());
+
+            // The same client starts a new flow
+            assertEquals(backend.port() + " second", exchange(client, lbChannel, "second"));
+            assertEquals(2, selector.selected.get());
+
+            relay.shutdown();
+            running.join();
+        }
+    }
+
+    @Test
+    void shouldFailFlowsToClosedPorts() throws Exception {
+        final InetSocketAddress closed;
+        try (DatagramSocket unused = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            closed = new InetSocketAddress(InetAddress.getLoopbackAddress(), unused.getLocalPort());
+        }
+
+        try (DatagramChannel lbChannel = bind();
+             DatagramSocket client = client()) {
+            final RecordingSelector selector = new RecordingSelector(closed);
+            final DatagramRelay relay = new DatagramRelay(lbChannel, selector, new BackendStats(), selector, RelayTimeouts.none(), 0, 0, 4,
+                    new MetricsRegistry());
+            final CompletableFuture<Void> running = CompletableFuture.runAsync(relay);
+
+            send(client, lbChannel, "hello");
+            waitFor(() -> selector.outcomes.size() == 1);
+            assertEquals(RelayOutcome.BACKEND_CONNECT_FAILED, selector.outcomes.getFirst());
+
+            relay.shutdown();
+            running.join();
+        }
+    }
+
+    @Test
+    void shouldDrainOpenFlowsWithoutTakingNewOnes() throws Exception {
+        try (EchoBackend backend = new EchoBackend();
+             DatagramChannel lbChannel = bind();
+             DatagramSocket client1 = client();
+             DatagramSocket client2 = client()) {
+
+            final RecordingSelector selector = new RecordingSelector(backend.address());
+            final RelayTimeouts timeouts = new RelayTimeouts(null, 0, 0, 0);
+            final MetricsRegistry registry = new MetricsRegistry();
+            final DatagramRelay relay = new DatagramRelay(lbChannel, selector, new BackendStats(), selector, timeouts, 0, 0, 4, registry);
+            final CompletableFuture<Void> running = CompletableFuture.runAsync(relay);
+
+            assertEquals(backend.port() + " before", exchange(client1, lbChannel, "before"));
+            relay.stopNewFlows();
+
+            // The open flow still works, a new client gets nothing
+            assertEquals(backend.port() + " during", exchange(client1, lbChannel, "during"));
+            send(client2, lbChannel, "new");
+            client2.setSoTimeout(200);
+            assertThrows(SocketTimeoutException.class, () -> client2.receive(new DatagramPacket(new byte[64], 64)));
+            assertFalse(running.isDone());
+
+            // The relay returns once the last flow is closed
+            assertEquals(1, timeouts.abortAll());
+            running.join();
+            assertEquals(List.of(RelayOutcome.ABORTED), selector.outcomes);
+            assertTrue(registry.toPrometheusText().contains("lb_udp_datagrams_dropped_total{reason=\"draining\"} 1\n"));
+            // A dropped datagram isn't also counted as relayed
+            assertTrue(registry.toPrometheusText().contains("lb_udp_datagrams_total{direction=\"to_backend\"} 2\n"));
+            assertTrue(registry.toPrometheusText().contains("lb_udp_datagrams_total{direction=\"to_client\"} 2\n"));
+        }
+    }
+
+    private static DatagramChannel bind() throws IOException {
+        final DatagramChannel channel = DatagramChannel.open();
+        channel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        return channel;
+    }
+
+    private static DatagramSocket client() throws IOException {
+        final DatagramSocket socket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        socket.setSoTimeout(5000);
+        return socket;
+    }
+
+    private static void send(DatagramSocket client, DatagramChannel lbChannel, String message) throws IOException {
+        final byte[] bytes = message.getBytes(StandardCharsets.US_ASCII);
+        client.send(new DatagramPacket(bytes, bytes.length, lbChannel.getLocalAddress()));
+    }
+
+    private static String exchange(DatagramSocket client, DatagramChannel lbChannel, String message) throws IOException {
+        send(client, lbChannel, message);
+        final DatagramPacket reply = new DatagramPacket(new byte[1024], 1024);
+        client.receive(reply);
+        // Replies come from the address the client sent to
+        assertEquals(lbChannel.getLocalAddress(), reply.getSocketAddress());
+        return new String(reply.getData(), 0, reply.getLength(), StandardCharsets.US_ASCII);
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting");
+            Thread.sleep(10);
+        }
+    }
+
+    /*
+     * Hands out its backends round-robin and remembers how every flow ended
+     */
+    private static class RecordingSelector implements FlowSelector, RelayListener {
+
+        private final InetSocketAddress[] servers;
+        private final AtomicInteger selected = new AtomicInteger();
+        private final List<RelayOutcome> outcomes = new CopyOnWriteArrayList<>();
+        private final AtomicInteger bytesFromClient = new AtomicInteger();
+
+        private RecordingSelector(InetSocketAddress... servers) {
+            this.servers = servers;
+        }
+
+        @Override
+        public SelectedBackend select(InetSocketAddress clientAddress) {
+            return new SelectedBackend(servers[selected.getAndIncrement() % servers.length]);
+        }
+
+        @Override
+        public void finished(SelectedBackend backend, RelayOutcome outcome) {
+            outcomes.add(outcome);
+        }
+
+        @Override
+        public void relayFinished(InetSocketAddress client, InetSocketAddress backend, RelayStats stats, RelayOutcome outcome, long startedAt) {
+            bytesFromClient.addAndGet((int) stats.getBytesFromClient());
+        }
+    }
+
+    /*
+     * UDP backend answering every datagram with its port and the datagram
+     */
+    private static class EchoBackend implements AutoCloseable {
+
+        private final DatagramSocket socket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+
+        private EchoBackend() throws IOException {
+            Thread.ofVirtual().start(this::serve);
+        }
+
+        private InetSocketAddress address() {
+            return new InetSocketAddress(InetAddress.getLoopbackAddress(), socket.getLocalPort());
+        }
+
+        private int port() {
+            return socket.getLocalPort();
+        }
+
+        private void serve() {
+            final DatagramPacket packet = new DatagramPacket(new byte[1024], 1024);
+            try {
+                while (true) {
+                    packet.setLength(1024);
+                    socket.receive(packet);
+                    final byte[] reply = (port() + " " + new String(packet.getData(), 0, packet.getLength(), StandardCharsets.US_ASCII))
+                            .getBytes(StandardCharsets.US_ASCII);
+                    socket.send(new DatagramPacket(reply, reply.length, packet.getSocketAddress()));
+                }
+            } catch (IOException e) {
+                // Closed
+            }
+        }
+
+        @Override
+        public void close() {
+            socket.close();
+        }
+    }
+}
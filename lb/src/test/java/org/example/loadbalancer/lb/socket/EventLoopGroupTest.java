@@ -0,0 +1,279 @@
+package org.example.loadbalancer.lb.socket;
+
+import org.example.loadbalancer.lb.buffer.BufferPool;
+import org.example.loadbalancer.lb.proxy.ProxyHeader;
+import org.example.loadbalancer.lb.proxy.ProxyProtocol;
+import org.example.loadbalancer.lb.proxy.ProxyProtocolVersion;
+import org.example.loadbalancer.lb.strategy.BackendStats;
+import org.example.loadbalancer.lb.timer.HashedWheelTimer;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EventLoopGroupTest {
+
+    @Test
+    void shouldRelayConcurrentConnectionsAcrossLoops() throws Exception {
+        final BufferPool bufferPool = new BufferPool(4096, 16);
+        final byte[] payload = new byte[200_000];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) (i * 7);
+        }
+
+        try (ServerSocket echoServer = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+             ServerSocketChannel lbChannel = ServerSocketChannel.open();
+             EventLoopGroup group = new EventLoopGroup(2, bufferPool, 4096)) {
+
+            CompletableFuture.runAsync(() -> echoConnections(echoServer));
+
+            lbChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            final InetSocketAddress target = new InetSocketAddress(InetAddress.getLoopbackAddress(), echoServer.getLocalPort());
+
+            final List<CompletableFuture<RelayOutcome>> relays = new ArrayList<>();
+            final List<CompletableFuture<byte[]>> replies = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                final Socket client = new Socket(InetAddress.getLoopbackAddress(), lbChannel.socket().getLocalPort());
+                relays.add(group.register(lbChannel.accept(), target));
+                replies.add(CompletableFuture.supplyAsync(() -> sendAndReadAll(client, payload)));
+            }
+
+            for (int i = 0; i < 4; i++) {
+                assertArrayEquals(payload, replies.get(i).join());
+                assertEquals(RelayOutcome.COMPLETED, relays.get(i).join());
+            }
+        }
+
+        assertEquals(0, bufferPool.getOutstanding());
+    }
+
+    @Test
+    void shouldReportConnectFailureWhenBackendIsDown() throws Exception {
+        final InetSocketAddress target;
+        try (ServerSocket unused = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            target = new InetSocketAddress(InetAddress.getLoopbackAddress(), unused.getLocalPort());
+        }
+
+        try (ServerSocketChannel lbChannel = ServerSocketChannel.open();
+             EventLoopGroup group = new EventLoopGroup(1, new BufferPool(4096, 1), 4096)) {
+            lbChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+            try (Socket ignored = new Socket(InetAddress.getLoopbackAddress(), lbChannel.socket().getLocalPort())) {
+                assertEquals(RelayOutcome.BACKEND_CONNECT_FAILED, group.register(lbChannel.accept(), target).join());
+            }
+        }
+    }
+
+    @Test
+    void shouldCloseRelayWhenIdle() throws Exception {
+        final BufferPool bufferPool = new BufferPool(4096, 4);
+
+        try (ServerSocket echoServer = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+             ServerSocketChannel lbChannel = ServerSocketChannel.open();
+             HashedWheelTimer timer = new HashedWheelTimer(10, 64);
+             EventLoopGroup group = new EventLoopGroup(1, bufferPool, 4096, new BackendStats(), BackendConnectionPool.unpooled(),
+                     RelayListener.NONE, new RelayTimeouts(timer, 1000, 200, 0))) {
+            timer.start();
+            CompletableFuture.runAsync(() -> echoConnections(echoServer));
+
+            lbChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            final InetSocketAddress target = new InetSocketAddress(InetAddress.getLoopbackAddress(), echoServer.getLocalPort());
+
+            try (Socket client = new Socket(InetAddress.getLoopbackAddress(), lbChannel.socket().getLocalPort())) {
+                final CompletableFuture<RelayOutcome> relay = group.register(lbChannel.accept(), target);
+
+                client.getOutputStream().write(1);
+                assertEquals(1, client.getInputStream().read());
+
+                // Nothing more is sent either way
+                assertEquals(RelayOutcome.TIMED_OUT, relay.join());
+                assertEquals(-1, client.getInputStream().read());
+                assertEquals(0, timer.getPending());
+            }
+        }
+
+        assertEquals(0, bufferPool.getOutstanding());
+    }
+
+    @Test
+    void shouldRelayOverWarmBackendConnection() throws Exception {
+        final BufferPool bufferPool = new BufferPool(4096, 4);
+        final byte[] payload = new byte[10_000];
+
+        try (ServerSocket echoServer = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+             ServerSocketChannel lbChannel = ServerSocketChannel.open()) {
+
+            CompletableFuture.runAsync(() -> echoConnections(echoServer));
+
+            lbChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            final InetSocketAddress target = new InetSocketAddress(InetAddress.getLoopbackAddress(), echoServer.getLocalPort());
+
+            try (BackendConnectionPool backendPool = new BackendConnectionPool(List.of(target), 1, 1000, 30_000);
+                 EventLoopGroup group = new EventLoopGroup(1, bufferPool, 4096, new BackendStats(), backendPool)) {
+                backendPool.start();
+                for (int i = 0; i < 200 && backendPool.getIdle(target) < 1; i++) {
+                    Thread.sleep(10);
+                }
+
+                final Socket client = new Socket(InetAddress.getLoopbackAddress(), lbChannel.socket().getLocalPort());
+                final CompletableFuture<RelayOutcome> relay = group.register(lbChannel.accept(), target);
+
+                assertArrayEquals(payload, sendAndReadAll(client, payload));
+                assertEquals(RelayOutcome.COMPLETED, relay.join());
+                assertEquals(1, backendPool.getHits());
+            }
+        }
+    }
+
+    @Test
+    void shouldKeepRunningWhenARelayThrows() throws Exception {
+        final BufferPool bufferPool = new BufferPool(4096, 4);
+        final AtomicInteger finished = new AtomicInteger();
+
+        try (ServerSocket echoServer = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+             ServerSocketChannel lbChannel = ServerSocketChannel.open()) {
+
+            CompletableFuture.runAsync(() -> echoConnections(echoServer));
+
+            lbChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            final InetSocketAddress target = new InetSocketAddress(InetAddress.getLoopbackAddress(), echoServer.getLocalPort());
+
+            // A buggy listener, called from inside the first relay's handling on the loop thread
+            final RelayListener listener = (client, backend, stats, outcome, startedAt) -> {
+                if (finished.getAndIncrement() == 0) {
+                    throw new IllegalStateException("listener bug");
+                }
+            };
+
+            try (EventLoopGroup group = new EventLoopGroup(1, bufferPool, 4096, new BackendStats(), BackendConnectionPool.unpooled(), listener)) {
+                for (int i = 0; i < 2; i++) {
+                    try (Socket client = new Socket(InetAddress.getLoopbackAddress(), lbChannel.socket().getLocalPort())) {
+                        final CompletableFuture<RelayOutcome> relay = group.register(lbChannel.accept(), target);
+                        final byte[] payload = ("relay " + i).getBytes(StandardCharsets.US_ASCII);
+                        assertArrayEquals(payload, sendAndReadAll(client, payload));
+                        assertEquals(RelayOutcome.COMPLETED, relay.get(5, TimeUnit.SECONDS));
+                    }
+                }
+                assertEquals(1, group.getRelayErrors());
+            }
+        }
+
+        assertEquals(2, finished.get());
+        assertEquals(0, bufferPool.getOutstanding());
+    }
+
+    @Test
+    void shouldReadProxyHeaderInPiecesAndSendOurs() throws Exception {
+        final BufferPool bufferPool = new BufferPool(4096, 4);
+        final CompletableFuture<InetSocketAddress> reported = new CompletableFuture<>();
+
+        try (ServerSocket echoServer = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+             ServerSocketChannel lbChannel = ServerSocketChannel.open()) {
+
+            CompletableFuture.runAsync(() -> echoConnections(echoServer));
+
+            lbChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            final InetSocketAddress target = new InetSocketAddress(InetAddress.getLoopbackAddress(), echoServer.getLocalPort());
+
+            try (EventLoopGroup group = new EventLoopGroup(1, bufferPool, 4096, new BackendStats(), BackendConnectionPool.unpooled(),
+                    (client, backend, stats, outcome, startedAt) -> reported.complete(client), RelayTimeouts.none());
+                 Socket client = new Socket(InetAddress.getLoopbackAddress(), lbChannel.socket().getLocalPort())) {
+                client.setTcpNoDelay(true);
+                final CompletableFuture<RelayOutcome> relay = group.register(lbChannel.accept(), target,
+                        new ProxyProtocol(ProxyProtocolVersion.V1, true));
+
+                // Nothing may reach the backend before the header is whole
+                final OutputStream out = client.getOutputStream();
+                out.write("PROXY TCP6 2001:db8::7 2001:db8::1 ".getBytes(StandardCharsets.US_ASCII));
+                Thread.sleep(50);
+                out.write("51000 443\r\nhello".getBytes(StandardCharsets.US_ASCII));
+                client.shutdownOutput();
+
+                assertEquals("PROXY TCP6 2001:db8:0:0:0:0:0:7 2001:db8:0:0:0:0:0:1 51000 443\r\nhello",
+                        new String(client.getInputStream().readAllBytes(), StandardCharsets.US_ASCII));
+                assertEquals(RelayOutcome.COMPLETED, relay.join());
+            }
+        }
+
+        // The listener runs just after the relay's future completes
+        assertEquals(new InetSocketAddress(InetAddress.getByName("2001:db8::7"), 51000), reported.get(1, TimeUnit.SECONDS));
+        assertEquals(0, bufferPool.getOutstanding());
+    }
+
+    @Test
+    void shouldSendProxyHeaderAsSoonAsConnected() throws Exception {
+        final BufferPool bufferPool = new BufferPool(4096, 4);
+
+        try (ServerSocket backend = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+             ServerSocketChannel lbChannel = ServerSocketChannel.open()) {
+
+            lbChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            final InetSocketAddress target = new InetSocketAddress(InetAddress.getLoopbackAddress(), backend.getLocalPort());
+
+            try (EventLoopGroup group = new EventLoopGroup(1, bufferPool, 4096, new BackendStats(), BackendConnectionPool.unpooled());
+                 Socket client = new Socket(InetAddress.getLoopbackAddress(), lbChannel.socket().getLocalPort())) {
+                final CompletableFuture<RelayOutcome> relay = group.register(lbChannel.accept(), target,
+                        new ProxyProtocol(ProxyProtocolVersion.V2, false));
+
+                // Server-speaks-first protocols get the header before the client has said anything
+                try (Socket accepted = backend.accept()) {
+                    final ByteBuffer header = ByteBuffer.wrap(accepted.getInputStream().readNBytes(16 + 12));
+                    assertEquals(new InetSocketAddress(InetAddress.getLoopbackAddress(), client.getLocalPort()),
+                            ProxyHeader.decode(header, 0, header.limit()).getSource());
+                }
+                client.close();
+                relay.join();
+            }
+        }
+
+        assertEquals(0, bufferPool.getOutstanding());
+    }
+
+    private static byte[] sendAndReadAll(Socket client, byte[] payload) {
+        try (client) {
+            CompletableFuture.runAsync(() -> {
+                try {
+                    client.getOutputStream().write(payload);
+                    client.shutdownOutput();
+                } catch (IOException e) {
+                    // test will fail on the read below
+                }
+            });
+            return client.getInputStream().readAllBytes();
+        } catch (IOException e) {
+            return new byte[0];
+        }
+    }
+
+    private static void echoConnections(ServerSocket echoServer) {
+        while (!echoServer.isClosed()) {
+            try {
+                final Socket socket = echoServer.accept();
+                Thread.ofVirtual().start(() -> {
+                    try (socket) {
+                        socket.getInputStream().transferTo(socket.getOutputStream());
+                        socket.shutdownOutput();
+                    } catch (IOException e) {
+                        // test will fail on the client side
+                    }
+                });
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package org.example.loadbalancer.lb.socket;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FlowTableTest {
+
+    @Test
+    void shouldPutGetAndRemove() throws Exception {
+        final FlowTable<String> table = new FlowTable<>(4);
+        final InetSocketAddress a = address(1, 5000);
+        final InetSocketAddress b = address(1, 5001);
+
+        assertNull(table.put(a, "a"));
+        assertNull(table.put(b, "b"));
+        assertEquals("a", table.get(a));
+        // Any equal address finds it, not just the instance it was put with
+        assertEquals("b", table.get(address(1, 5001)));
+        assertNull(table.get(address(2, 5000)));
+
+        assertEquals("a", table.put(a, "a2"));
+        assertEquals(2, table.size());
+        assertEquals("a2", table.remove(a));
+        assertNull(table.remove(a));
+        assertNull(table.get(a));
+        assertEquals("b", table.get(b));
+        assertEquals(List.of("b"), table.values());
+    }
+
+    @Test
+    void shouldMatchHashMapThroughGrowthAndRemovals() throws Exception {
+        final FlowTable<Integer> table = new FlowTable<>(1);
+        final Map<InetSocketAddress, Integer> expected = new HashMap<>();
+        final List<InetSocketAddress> addresses = new ArrayList<>();
+        // Few hosts and neighbouring ports, like the clients of a busy service behind NAT
+        for (int host = 0; host < 8; host++) {
+            for (int port = 40000; port < 40500; port++) {
+                addresses.add(address(host, port));
+            }
+        }
+
+        final Random random = new Random(42);
+        for (int i = 0; i < 50_000; i++) {
+            final InetSocketAddress address = addresses.get(random.nextInt(addresses.size()));
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(address), table.remove(address));
+            } else {
+                assertEquals(expected.put(address, i), table.put(address, i));
+            }
+        }
+
+        assertEquals(expected.size(), table.size());
+        for (InetSocketAddress address : addresses) {
+            assertEquals(expected.get(address), table.get(address));
+        }
+        assertEquals(expected.size(), table.values().size());
+    }
+
+    private static InetSocketAddress address(int host, int port) throws UnknownHostException {
+        return new InetSocketAddress(InetAddress.getByAddress(new byte[]{10, 0, 0, (byte) host}), port);
+    }
+}
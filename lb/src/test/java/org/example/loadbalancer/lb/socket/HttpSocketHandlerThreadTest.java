@@ -0,0 +1,449 @@
+package org.example.loadbalancer.lb.socket;
+
+import org.example.loadbalancer.lb.buffer.BufferPool;
+import org.example.loadbalancer.lb.http.BackendSelector;
+import org.example.loadbalancer.lb.http.HttpHead;
+import org.example.loadbalancer.lb.proxy.ProxyHeader;
+import org.example.loadbalancer.lb.proxy.ProxyProtocol;
+import org.example.loadbalancer.lb.proxy.ProxyProtocolVersion;
+import org.example.loadbalancer.lb.strategy.BackendStats;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HttpSocketHandlerThreadTest {
+
+    @Test
+    void shouldRouteEveryRequestAndReuseBackendConnections() throws Exception {
+        try (TestBackend a = new TestBackend(false);
+             TestBackend b = new TestBackend(false);
+             ServerSocketChannel lbChannel = bind();
+             BackendConnectionPool pool = new BackendConnectionPool(List.of(a.address(), b.address()), 0, 4, 1000, 30_000)) {
+
+            // /b goes to b, everything else to a
+            final RecordingSelector selector = new RecordingSelector(head -> head.startsWith("/b") ? b.address() : a.address());
+            final BufferPool bufferPool = new BufferPool(4096, 8);
+
+            try (Socket client = connect(lbChannel)) {
+                final HttpSocketHandlerThread handler = new HttpSocketHandlerThread(lbChannel.socket().accept(), selector, 4096, bufferPool,
+                        new BackendStats(), pool, RelayListener.NONE, RelayTimeouts.none());
+                final CompletableFuture<RelayOutcome> relay = CompletableFuture.supplyAsync(handler::runThread);
+
+                final OutputStream out = client.getOutputStream();
+                final InputStream in = client.getInputStream();
+
+                out.write("GET /a/1 HTTP/1.1\r\nHost: example.com\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+                assertEquals(a.port() + " GET /a/1 127.0.0.1 ", readResponse(in));
+
+                // Pipelined, the second request arrives before the first is answered
+                out.write(("POST /b/2 HTTP/1.1\r\nHost: example.com\r\nContent-Length: 4\r\n\r\nbody"
+                        + "GET /a/3 HTTP/1.1\r\nHost: example.com\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                assertEquals(b.port() + " POST /b/2 127.0.0.1 body", readResponse(in));
+                assertEquals(a.port() + " GET /a/3 127.0.0.1 ", readResponse(in));
+
+                client.shutdownOutput();
+                assertEquals(RelayOutcome.COMPLETED, relay.join());
+            }
+
+            assertEquals(List.of(RelayOutcome.COMPLETED, RelayOutcome.COMPLETED, RelayOutcome.COMPLETED), selector.outcomes);
+            // The second request to a went over the connection the first one left in the pool
+            assertEquals(1, a.connections.get());
+            assertEquals(1, pool.getIdle(a.address()));
+            assertEquals(1, pool.getIdle(b.address()));
+            assertEquals(0, bufferPool.getOutstanding());
+        }
+    }
+
+    @Test
+    void shouldKeepConnectionsAfterBodilessResponses() throws Exception {
+        try (TestBackend backend = new TestBackend(false);
+             ServerSocketChannel lbChannel = bind();
+             BackendConnectionPool pool = new BackendConnectionPool(List.of(backend.address()), 0, 4, 1000, 30_000)) {
+
+            final RecordingSelector selector = new RecordingSelector(head -> backend.address());
+            final BufferPool bufferPool = new BufferPool(4096, 8);
+
+            try (Socket client = connect(lbChannel)) {
+                final HttpSocketHandlerThread handler = new HttpSocketHandlerThread(lbChannel.socket().accept(), selector, 4096, bufferPool,
+                        new BackendStats(), pool, RelayListener.NONE, RelayTimeouts.none());
+                final CompletableFuture<RelayOutcome> relay = CompletableFuture.supplyAsync(handler::runThread);
+
+                client.setSoTimeout(5000);
+                final OutputStream out = client.getOutputStream();
+                final InputStream in = client.getInputStream();
+
+                // Neither Content-Length nor chunked, yet there is no body running until close
+                out.write("GET /not-modified HTTP/1.1\r\nHost: example.com\r\nIf-None-Match: \"v1\"\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+                final String head = readUntil(in, "\r\n\r\n");
+                assertTrue(head.startsWith("HTTP/1.1 304 "), head);
+                assertFalse(head.contains("Connection: close"), head);
+
+                out.write("GET /a/2 HTTP/1.1\r\nHost: example.com\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+                assertEquals(backend.port() + " GET /a/2 127.0.0.1 ", readResponse(in));
+
+                client.shutdownOutput();
+                assertEquals(RelayOutcome.COMPLETED, relay.join());
+            }
+
+            assertEquals(List.of(RelayOutcome.COMPLETED, RelayOutcome.COMPLETED), selector.outcomes);
+            // Both requests went over the one client connection and the one backend connection
+            assertEquals(1, backend.connections.get());
+            assertEquals(1, pool.getIdle(backend.address()));
+            assertEquals(0, bufferPool.getOutstanding());
+        }
+    }
+
+    @Test
+    void shouldForwardChunkedResponses() throws Exception {
+        try (TestBackend backend = new TestBackend(true);
+             ServerSocketChannel lbChannel = bind()) {
+
+            final RecordingSelector selector = new RecordingSelector(head -> backend.address());
+            try (Socket client = connect(lbChannel)) {
+                final HttpSocketHandlerThread handler = new HttpSocketHandlerThread(lbChannel.socket().accept(), selector, 4096,
+                        new BufferPool(4096, 8), new BackendStats());
+                final CompletableFuture<RelayOutcome> relay = CompletableFuture.supplyAsync(handler::runThread);
+
+                final OutputStream out = client.getOutputStream();
+                out.write("GET /first HTTP/1.1\r\nHost: example.com\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+                assertEquals(backend.port() + " GET /first 127.0.0.1 ", readResponse(client.getInputStream()));
+                out.write("GET /second HTTP/1.1\r\nHost: example.com\r\nConnection: close\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+                assertEquals(backend.port() + " GET /second 127.0.0.1 ", readResponse(client.getInputStream()));
+
+                // Connection: close ends the relay without waiting for the client
+                assertEquals(RelayOutcome.COMPLETED, relay.join());
+                assertEquals(-1, client.getInputStream().read());
+            }
+            assertEquals(2, selector.outcomes.size());
+        }
+    }
+
+    @Test
+    void shouldForwardForClientNamedByProxyHeader() throws Exception {
+        try (TestBackend backend = new TestBackend(false);
+             ServerSocketChannel lbChannel = bind()) {
+
+            final RecordingSelector selector = new RecordingSelector(head -> backend.address());
+            final List<InetSocketAddress> clients = new CopyOnWriteArrayList<>();
+            final BufferPool bufferPool = new BufferPool(4096, 8);
+            final InetSocketAddress proxiedClient = new InetSocketAddress(InetAddress.getByName("2001:db8::7"), 51000);
+
+            try (Socket client = connect(lbChannel)) {
+                final HttpSocketHandlerThread handler = new HttpSocketHandlerThread(lbChannel.socket().accept(), selector, 4096, bufferPool,
+                        new BackendStats(), BackendConnectionPool.unpooled(), (clientAddress, server, stats, outcome, startedAt) -> clients.add(clientAddress),
+                        RelayTimeouts.none(), null, new ProxyProtocol(ProxyProtocolVersion.NONE, true));
+                final CompletableFuture<RelayOutcome> relay = CompletableFuture.supplyAsync(handler::runThread);
+
+                // The header and the first request are sent together
+                final byte[] request = "GET /first HTTP/1.1\r\nHost: example.com\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+                final ByteBuffer bytes = ByteBuffer.allocate(ProxyHeader.MAX_V1_LENGTH + request.length).put(ProxyHeader.MAX_V1_LENGTH, request);
+                final int start = ProxyHeader.encode(ProxyProtocolVersion.V2, proxiedClient, new InetSocketAddress(InetAddress.getByName("2001:db8::1"), 80),
+                        bytes, ProxyHeader.MAX_V1_LENGTH);
+                client.getOutputStream().write(bytes.array(), start, bytes.capacity() - start);
+                assertEquals(backend.port() + " GET /first 2001:db8:0:0:0:0:0:7 ", readResponse(client.getInputStream()));
+
+                client.shutdownOutput();
+                assertEquals(RelayOutcome.COMPLETED, relay.join());
+            }
+            assertEquals(List.of(proxiedClient), clients);
+            assertEquals(0, bufferPool.getOutstanding());
+        }
+    }
+
+    @Test
+    void shouldAnswerErrorsWithoutBackend() throws Exception {
+        try (ServerSocketChannel lbChannel = bind()) {
+            final RecordingSelector selector = new RecordingSelector(head -> null);
+
+            try (Socket client = connect(lbChannel)) {
+                final HttpSocketHandlerThread handler = new HttpSocketHandlerThread(lbChannel.socket().accept(), selector, 4096,
+                        new BufferPool(4096, 8), new BackendStats());
+                final CompletableFuture<RelayOutcome> relay = CompletableFuture.supplyAsync(handler::runThread);
+
+                client.getOutputStream().write("GET / HTTP/1.1\r\nHost: example.com\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+                assertTrue(new String(client.getInputStream().readAllBytes(), StandardCharsets.US_ASCII).startsWith("HTTP/1.1 503 "));
+                assertEquals(RelayOutcome.COMPLETED, relay.join());
+            }
+
+            try (Socket client = connect(lbChannel)) {
+                final HttpSocketHandlerThread handler = new HttpSocketHandlerThread(lbChannel.socket().accept(), selector, 4096,
+                        new BufferPool(4096, 8), new BackendStats());
+                final CompletableFuture<RelayOutcome> relay = CompletableFuture.supplyAsync(handler::runThread);
+
+                client.getOutputStream().write("POST / HTTP/1.1\r\nHost: a\r\nContent-Length: 3\r\nTransfer-Encoding: chunked\r\n\r\n"
+                        .getBytes(StandardCharsets.US_ASCII));
+                assertTrue(new String(client.getInputStream().readAllBytes(), StandardCharsets.US_ASCII).startsWith("HTTP/1.1 400 "));
+                assertEquals(RelayOutcome.CLIENT_ERROR, relay.join());
+            }
+
+            // Only the first request got as far as picking a backend
+            assertEquals(1, selector.selected.get());
+        }
+    }
+
+    @Test
+    void shouldOnlyResendIdempotentRequestsOnStaleConnections() throws Exception {
+        try (OneRequestBackend backend = new OneRequestBackend();
+             ServerSocketChannel lbChannel = bind();
+             BackendConnectionPool pool = new BackendConnectionPool(List.of(backend.address()), 0, 4, 1000, 30_000)) {
+
+            final RecordingSelector selector = new RecordingSelector(head -> backend.address());
+            final BufferPool bufferPool = new BufferPool(4096, 8);
+
+            // The backend takes the second request on a connection and closes it without an answer
+            try (Socket client = connect(lbChannel)) {
+                final HttpSocketHandlerThread handler = new HttpSocketHandlerThread(lbChannel.socket().accept(), selector, 4096, bufferPool,
+                        new BackendStats(), pool, RelayListener.NONE, RelayTimeouts.none());
+                final CompletableFuture<RelayOutcome> relay = CompletableFuture.supplyAsync(handler::runThread);
+
+                // A replayed POST would be answered and leave the connection open
+                client.setSoTimeout(5000);
+                final OutputStream out = client.getOutputStream();
+                out.write("GET /1 HTTP/1.1\r\nHost: example.com\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+                assertEquals("GET /1", readResponse(client.getInputStream()));
+                out.write("GET /2 HTTP/1.1\r\nHost: example.com\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+                assertEquals("GET /2", readResponse(client.getInputStream()));
+
+                // The POST may have been acted on, it must not be sent again
+                out.write("POST /3 HTTP/1.1\r\nHost: example.com\r\nContent-Length: 0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+                assertTrue(new String(client.getInputStream().readAllBytes(), StandardCharsets.US_ASCII).startsWith("HTTP/1.1 502 "));
+                assertEquals(RelayOutcome.BACKEND_ERROR, relay.join());
+            }
+
+            // The GET was sent again on a new connection, the POST only the once
+            assertEquals(List.of("GET /1", "GET /2", "GET /2", "POST /3"), backend.requests);
+            assertEquals(2, backend.connections.get());
+            assertEquals(List.of(RelayOutcome.COMPLETED, RelayOutcome.COMPLETED, RelayOutcome.BACKEND_ERROR), selector.outcomes);
+            assertEquals(0, bufferPool.getOutstanding());
+        }
+    }
+
+    private static ServerSocketChannel bind() throws IOException {
+        final ServerSocketChannel channel = ServerSocketChannel.open();
+        channel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        return channel;
+    }
+
+    private static Socket connect(ServerSocketChannel lbChannel) throws IOException {
+        return new Socket(InetAddress.getLoopbackAddress(), lbChannel.socket().getLocalPort());
+    }
+
+    /**
+     * Read one response with either a Content-Length or a chunked body
+     *
+     * @return The body, with chunked framing taken out
+     */
+    private static String readResponse(InputStream in) throws IOException {
+        final String head = readUntil(in, "\r\n\r\n");
+        assertTrue(head.startsWith("HTTP/1.1 200 "), head);
+
+        if (head.contains("Transfer-Encoding: chunked")) {
+            final StringBuilder body = new StringBuilder();
+            int size;
+            while ((size = Integer.parseInt(readUntil(in, "\r\n").trim(), 16)) > 0) {
+                body.append(new String(in.readNBytes(size), StandardCharsets.US_ASCII));
+                readUntil(in, "\r\n");
+            }
+            readUntil(in, "\r\n");
+            return body.toString();
+        }
+
+        final int start = head.indexOf("Content-Length: ") + "Content-Length: ".length();
+        final int length = Integer.parseInt(head.substring(start, head.indexOf("\r\n", start)));
+        return new String(in.readNBytes(length), StandardCharsets.US_ASCII);
+    }
+
+    private static String readUntil(InputStream in, String end) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) >= 0) {
+            bytes.write(b);
+            if (bytes.toString(StandardCharsets.US_ASCII).endsWith(end)) {
+                break;
+            }
+        }
+        return bytes.toString(StandardCharsets.US_ASCII);
+    }
+
+    /*
+     * Picks backends with a function of the request path and remembers how every request ended
+     */
+    private static class RecordingSelector implements BackendSelector {
+
+        private final Function<String, InetSocketAddress> route;
+        private final List<RelayOutcome> outcomes = new CopyOnWriteArrayList<>();
+        private final AtomicInteger selected = new AtomicInteger();
+
+        private RecordingSelector(Function<String, InetSocketAddress> route) {
+            this.route = route;
+        }
+
+        @Override
+        public SelectedBackend select(ByteBuffer buffer, HttpHead head, InetSocketAddress clientAddress) {
+            selected.incrementAndGet();
+            final InetSocketAddress server = route.apply(head.getPath(buffer));
+            return server != null ? new SelectedBackend(server) : null;
+        }
+
+        @Override
+        public void finished(SelectedBackend backend, RelayOutcome outcome) {
+            outcomes.add(outcome);
+        }
+    }
+
+    /*
+     * Keep-alive HTTP backend that answers the first bodiless request on a connection with its request line, then reads
+     * the next one and closes the connection without answering, like a backend dropping an idle connection just as the
+     * request arrives
+     */
+    private static class OneRequestBackend implements AutoCloseable {
+
+        private final ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        private final List<String> requests = new CopyOnWriteArrayList<>();
+        private final AtomicInteger connections = new AtomicInteger();
+
+        private OneRequestBackend() throws IOException {
+            Thread.ofVirtual().start(this::acceptLoop);
+        }
+
+        private InetSocketAddress address() {
+            return new InetSocketAddress(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort());
+        }
+
+        private void acceptLoop() {
+            try {
+                while (true) {
+                    final Socket socket = serverSocket.accept();
+                    connections.incrementAndGet();
+                    Thread.ofVirtual().start(() -> serve(socket));
+                }
+            } catch (IOException e) {
+                // Closed
+            }
+        }
+
+        private void serve(Socket socket) {
+            try (socket) {
+                final String first = requestLine(readUntil(socket.getInputStream(), "\r\n\r\n"));
+                requests.add(first);
+                socket.getOutputStream().write(("HTTP/1.1 200 OK\r\nContent-Length: " + first.length() + "\r\n\r\n" + first)
+                        .getBytes(StandardCharsets.US_ASCII));
+
+                final String head = readUntil(socket.getInputStream(), "\r\n\r\n");
+                if (!head.isEmpty()) {
+                    requests.add(requestLine(head));
+                }
+            } catch (IOException e) {
+                // Client went away
+            }
+        }
+
+        private static String requestLine(String head) {
+            return head.substring(0, head.lastIndexOf(' ', head.indexOf("\r\n")));
+        }
+
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+        }
+    }
+
+    /*
+     * Keep-alive HTTP backend answering every request with its port, method, path, X-Forwarded-For and body, except
+     * /not-modified which gets a 304 without Content-Length
+     */
+    private static class TestBackend implements AutoCloseable {
+
+        private final ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        private final boolean chunked;
+        private final AtomicInteger connections = new AtomicInteger();
+
+        private TestBackend(boolean chunked) throws IOException {
+            this.chunked = chunked;
+            Thread.ofVirtual().start(this::acceptLoop);
+        }
+
+        private InetSocketAddress address() {
+            return new InetSocketAddress(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort());
+        }
+
+        private int port() {
+            return serverSocket.getLocalPort();
+        }
+
+        private void acceptLoop() {
+            try {
+                while (true) {
+                    final Socket socket = serverSocket.accept();
+                    connections.incrementAndGet();
+                    Thread.ofVirtual().start(() -> serve(socket));
+                }
+            } catch (IOException e) {
+                // Closed
+            }
+        }
+
+        private void serve(Socket socket) {
+            try (socket) {
+                final InputStream in = socket.getInputStream();
+                final OutputStream out = socket.getOutputStream();
+                while (true) {
+                    final String head = readUntil(in, "\r\n\r\n");
+                    if (head.isEmpty()) {
+                        return;
+                    }
+
+                    final String[] requestLine = head.substring(0, head.indexOf("\r\n")).split(" ");
+                    String forwardedFor = "";
+                    int contentLength = 0;
+                    for (String line : head.split("\r\n")) {
+                        if (line.startsWith("X-Forwarded-For: ")) {
+                            forwardedFor = line.substring("X-Forwarded-For: ".length());
+                        } else if (line.startsWith("Content-Length: ")) {
+                            contentLength = Integer.parseInt(line.substring("Content-Length: ".length()));
+                        }
+                    }
+                    final String body = port() + " " + requestLine[0] + " " + requestLine[1] + " " + forwardedFor + " "
+                            + new String(in.readNBytes(contentLength), StandardCharsets.US_ASCII);
+
+                    if (requestLine[1].equals("/not-modified")) {
+                        out.write("HTTP/1.1 304 Not Modified\r\nETag: \"v1\"\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+                    } else if (chunked) {
+                        final int half = body.length() / 2;
+                        out.write(("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n"
+                                + Integer.toHexString(half) + "\r\n" + body.substring(0, half) + "\r\n"
+                                + Integer.toHexString(body.length() - half) + "\r\n" + body.substring(half) + "\r\n0\r\n\r\n")
+                                .getBytes(StandardCharsets.US_ASCII));
+                    } else {
+                        out.write(("HTTP/1.1 200 OK\r\nContent-Length: " + body.length() + "\r\n\r\n" + body).getBytes(StandardCharsets.US_ASCII));
+                    }
+                    out.flush();
+                }
+            } catch (IOException e) {
+                // Client went away
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package org.example.loadbalancer.lb.socket;
+
+import org.example.loadbalancer.lb.strategy.BackendStats;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.example.loadbalancer.lb.util.Helper.getInetSocketAddress;
+import static org.junit.jupiter.api.Assertions.*;
+
+class RelayStatsTest {
+
+    @Test
+    void shouldOnlyRecordConnectLatencyOfRealConnects() {
+        final BackendStats.ServerStats server = new BackendStats().get(getInetSocketAddress("127.0.0.1:8050"));
+
+        final RelayStats connected = new RelayStats(server);
+        connected.connected(System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(5), false);
+        assertTrue(connected.getConnectNanos() >= TimeUnit.MILLISECONDS.toNanos(5));
+        final double estimate = server.getLatencyEstimateNanos();
+
+        // A pool hit took no time to "connect", it must not make the server look faster
+        final RelayStats warm = new RelayStats(server);
+        warm.connected(System.nanoTime(), true);
+        assertEquals(0, warm.getConnectNanos());
+        assertTrue(server.getLatencyEstimateNanos() > estimate * 0.99);
+    }
+}
@@ -0,0 +1,318 @@
+package org.example.loadbalancer.lb.socket;
+
+import org.example.loadbalancer.lb.proxy.ProxyHeader;
+import org.example.loadbalancer.lb.proxy.ProxyProtocol;
+import org.example.loadbalancer.lb.proxy.ProxyProtocolVersion;
+import org.example.loadbalancer.lb.timer.HashedWheelTimer;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamingSocketHandlerThreadTest {
+
+    @Test
+    void shouldRelayMoreThanOneBufferInBothDirections() throws Exception {
+        final byte[] payload = new byte[64 * 1024];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) i;
+        }
+
+        try (ServerSocket echoServer = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+             ServerSocketChannel lbChannel = ServerSocketChannel.open()) {
+
+            // Echo everything back until the client half-closes
+            CompletableFuture.runAsync(() -> echo(echoServer));
+
+            lbChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            final InetSocketAddress target = new InetSocketAddress(InetAddress.getLoopbackAddress(), echoServer.getLocalPort());
+
+            try (Socket client = new Socket(InetAddress.getLoopbackAddress(), lbChannel.socket().getLocalPort())) {
+                // use a small buffer so the payload needs many reads
+                final StreamingSocketHandlerThread handler = new StreamingSocketHandlerThread(lbChannel.socket().accept(), target, 1024);
+                final CompletableFuture<RelayOutcome> relay = CompletableFuture.supplyAsync(handler::runThread);
+
+                client.getOutputStream().write(payload);
+                client.shutdownOutput();
+
+                final byte[] echoed = client.getInputStream().readAllBytes();
+
+                assertEquals(RelayOutcome.COMPLETED, relay.join());
+                assertArrayEquals(payload, echoed);
+                assertEquals(payload.length, handler.getRelayStats().getBytesFromClient());
+                assertEquals(payload.length, handler.getRelayStats().getBytesFromServer());
+            }
+        }
+    }
+
+    @Test
+    void shouldReplaceClientProxyHeaderWithOurs() throws Exception {
+        try (ServerSocket echoServer = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+             ServerSocketChannel lbChannel = ServerSocketChannel.open()) {
+
+            CompletableFuture.runAsync(() -> echo(echoServer));
+
+            lbChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            final InetSocketAddress target = new InetSocketAddress(InetAddress.getLoopbackAddress(), echoServer.getLocalPort());
+
+            try (Socket client = new Socket(InetAddress.getLoopbackAddress(), lbChannel.socket().getLocalPort())) {
+                final StreamingSocketHandlerThread handler = new StreamingSocketHandlerThread(lbChannel.socket().accept(), target, 1024, null,
+                        BackendConnectionPool.unpooled(), RelayTimeouts.none(), new ProxyProtocol(ProxyProtocolVersion.V2, true));
+                final CompletableFuture<RelayOutcome> relay = CompletableFuture.supplyAsync(handler::runThread);
+
+                final byte[] sent = "PROXY TCP4 203.0.113.7 192.0.2.10 51000 443\r\nhello".getBytes(StandardCharsets.US_ASCII);
+                client.getOutputStream().write(sent);
+                client.shutdownOutput();
+
+                // The backend gets a v2 header for the client the v1 one named, then the client's bytes
+                final byte[] echoed = client.getInputStream().readAllBytes();
+                final ProxyHeader header = ProxyHeader.decode(ByteBuffer.wrap(echoed), 0, echoed.length);
+                assertEquals(16 + 12, header.getLength());
+                assertEquals(new InetSocketAddress(InetAddress.getByName("203.0.113.7"), 51000), header.getSource());
+                assertEquals(new InetSocketAddress(InetAddress.getByName("192.0.2.10"), 443), header.getDestination());
+                assertEquals("hello", new String(echoed, header.getLength(), echoed.length - header.getLength(), StandardCharsets.US_ASCII));
+
+                assertEquals(RelayOutcome.COMPLETED, relay.join());
+                assertEquals(header.getSource(), handler.getClientAddress());
+                assertEquals(sent.length, handler.getRelayStats().getBytesFromClient());
+            }
+        }
+    }
+
+    @Test
+    void shouldBlameClientWithoutProxyHeader() throws Exception {
+        try (ServerSocket echoServer = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+             ServerSocketChannel lbChannel = ServerSocketChannel.open()) {
+
+            CompletableFuture.runAsync(() -> echo(echoServer));
+
+            lbChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            final InetSocketAddress target = new InetSocketAddress(InetAddress.getLoopbackAddress(), echoServer.getLocalPort());
+
+            try (Socket client = new Socket(InetAddress.getLoopbackAddress(), lbChannel.socket().getLocalPort())) {
+                final StreamingSocketHandlerThread handler = new StreamingSocketHandlerThread(lbChannel.socket().accept(), target, 1024, null,
+                        BackendConnectionPool.unpooled(), RelayTimeouts.none(), new ProxyProtocol(ProxyProtocolVersion.NONE, true));
+                final CompletableFuture<RelayOutcome> relay = CompletableFuture.supplyAsync(handler::runThread);
+
+                client.getOutputStream().write("GET / HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+
+                assertEquals(RelayOutcome.CLIENT_ERROR, relay.join());
+                assertNull(handler.getClientAddress());
+            }
+        }
+    }
+
+    @Test
+    void shouldReportConnectFailureWhenBackendIsDown() throws Exception {
+        final InetSocketAddress target;
+        try (ServerSocket unused = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            target = new InetSocketAddress(InetAddress.getLoopbackAddress(), unused.getLocalPort());
+        }
+
+        try (ServerSocketChannel lbChannel = ServerSocketChannel.open()) {
+            lbChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+            try (Socket ignored = new Socket(InetAddress.getLoopbackAddress(), lbChannel.socket().getLocalPort())) {
+                final StreamingSocketHandlerThread handler = new StreamingSocketHandlerThread(lbChannel.socket().accept(), target, 1024);
+                assertEquals(RelayOutcome.BACKEND_CONNECT_FAILED, handler.runThread());
+            }
+        }
+    }
+
+    @Test
+    void shouldCloseRelayWhenIdle() throws Exception {
+        try (ServerSocket backend = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+             ServerSocketChannel lbChannel = ServerSocketChannel.open();
+             HashedWheelTimer timer = new HashedWheelTimer(10, 64)) {
+            timer.start();
+
+            // Backend never answers
+            CompletableFuture.runAsync(() -> {
+                try (Socket socket = backend.accept()) {
+                    socket.getInputStream().transferTo(OutputStream.nullOutputStream());
+                } catch (IOException e) {
+                    // expected once the relay closes
+                }
+            });
+
+            lbChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            final InetSocketAddress target = new InetSocketAddress(InetAddress.getLoopbackAddress(), backend.getLocalPort());
+
+            try (Socket client = new Socket(InetAddress.getLoopbackAddress(), lbChannel.socket().getLocalPort())) {
+                final StreamingSocketHandlerThread handler = new StreamingSocketHandlerThread(lbChannel.socket().accept(), target, 1024, null,
+                        BackendConnectionPool.unpooled(), new RelayTimeouts(timer, 1000, 200, 0));
+                final CompletableFuture<RelayOutcome> relay = CompletableFuture.supplyAsync(handler::runThread);
+
+                // Activity pushes the idle deadline back
+                for (int i = 0; i < 4; i++) {
+                    client.getOutputStream().write(1);
+                    Thread.sleep(100);
+                }
+                assertFalse(relay.isDone());
+
+                assertEquals(RelayOutcome.TIMED_OUT, relay.join());
+                assertEquals(-1, client.getInputStream().read());
+                assertEquals(0, timer.getPending());
+            }
+        }
+    }
+
+    @Test
+    void shouldAbortRelaysToBackend() throws Exception {
+        try (ServerSocket backend = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+             ServerSocketChannel lbChannel = ServerSocketChannel.open()) {
+
+            // Backend never answers
+            CompletableFuture.runAsync(() -> {
+                try (Socket socket = backend.accept()) {
+                    socket.getInputStream().transferTo(OutputStream.nullOutputStream());
+                } catch (IOException e) {
+                    // expected once the relay closes
+                }
+            });
+
+            lbChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            final InetSocketAddress target = new InetSocketAddress(InetAddress.getLoopbackAddress(), backend.getLocalPort());
+            // No timer, aborting doesn't need one
+            final RelayTimeouts timeouts = new RelayTimeouts(null, 0, 0, 0);
+
+            try (Socket client = new Socket(InetAddress.getLoopbackAddress(), lbChannel.socket().getLocalPort())) {
+                final StreamingSocketHandlerThread handler = new StreamingSocketHandlerThread(lbChannel.socket().accept(), target, 1024, null,
+                        BackendConnectionPool.unpooled(), timeouts);
+                final CompletableFuture<RelayOutcome> relay = CompletableFuture.supplyAsync(handler::runThread);
+
+                client.getOutputStream().write(1);
+                assertEquals(0, timeouts.abort(new InetSocketAddress(InetAddress.getLoopbackAddress(), 1)));
+                int aborted = 0;
+                for (int i = 0; i < 100 && aborted == 0; i++) {
+                    Thread.sleep(10);
+                    aborted = timeouts.abort(target);
+                }
+                assertEquals(1, aborted);
+
+                assertEquals(RelayOutcome.ABORTED, relay.join());
+                assertEquals(-1, client.getInputStream().read());
+                assertEquals(0, timeouts.abortAll());
+            }
+        }
+    }
+
+    @Test
+    void shouldCloseBusyRelayAtMaxLifetime() throws Exception {
+        try (ServerSocket echoServer = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+             ServerSocketChannel lbChannel = ServerSocketChannel.open();
+             HashedWheelTimer timer = new HashedWheelTimer(10, 64)) {
+            timer.start();
+            CompletableFuture.runAsync(() -> echo(echoServer));
+
+            lbChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            final InetSocketAddress target = new InetSocketAddress(InetAddress.getLoopbackAddress(), echoServer.getLocalPort());
+
+            try (Socket client = new Socket(InetAddress.getLoopbackAddress(), lbChannel.socket().getLocalPort())) {
+                final StreamingSocketHandlerThread handler = new StreamingSocketHandlerThread(lbChannel.socket().accept(), target, 1024, null,
+                        BackendConnectionPool.unpooled(), new RelayTimeouts(timer, 1000, 0, 200));
+                final CompletableFuture<RelayOutcome> relay = CompletableFuture.supplyAsync(handler::runThread);
+
+                // Never idle, keep writing until the LB closes on us
+                try {
+                    while (!relay.isDone()) {
+                        client.getOutputStream().write(1);
+                        Thread.sleep(10);
+                    }
+                } catch (IOException e) {
+                    // closed by the LB
+                }
+
+                assertEquals(RelayOutcome.TIMED_OUT, relay.join());
+            }
+        }
+    }
+
+    @Test
+    void shouldBlameClientWhenClientResets() throws Exception {
+        try (ServerSocket backend = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+             ServerSocketChannel lbChannel = ServerSocketChannel.open()) {
+
+            // Backend just waits for the client to finish
+            CompletableFuture.runAsync(() -> {
+                try (Socket socket = backend.accept()) {
+                    socket.getInputStream().transferTo(OutputStream.nullOutputStream());
+                } catch (IOException e) {
+                    // expected once the relay closes
+                }
+            });
+
+            lbChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            final InetSocketAddress target = new InetSocketAddress(InetAddress.getLoopbackAddress(), backend.getLocalPort());
+
+            final Socket client = new Socket(InetAddress.getLoopbackAddress(), lbChannel.socket().getLocalPort());
+            final StreamingSocketHandlerThread handler = new StreamingSocketHandlerThread(lbChannel.socket().accept(), target, 1024);
+            final CompletableFuture<RelayOutcome> relay = CompletableFuture.supplyAsync(handler::runThread);
+
+            client.getOutputStream().write(new byte[]{1, 2, 3});
+            Thread.sleep(100);
+
+            // linger 0 makes close() send a RST rather than a FIN
+            client.setSoLinger(true, 0);
+            client.close();
+
+            assertEquals(RelayOutcome.CLIENT_ERROR, relay.join());
+        }
+    }
+
+    @Test
+    void shouldBlameBackendWhenBackendResets() throws Exception {
+        try (ServerSocket backend = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+             ServerSocketChannel lbChannel = ServerSocketChannel.open()) {
+
+            // Backend resets the connection as soon as the first bytes arrive
+            CompletableFuture.runAsync(() -> {
+                try {
+                    final Socket socket = backend.accept();
+                    socket.getInputStream().read();
+                    socket.setSoLinger(true, 0);
+                    socket.close();
+                } catch (IOException e) {
+                    // test will fail on the outcome
+                }
+            });
+
+            lbChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            final InetSocketAddress target = new InetSocketAddress(InetAddress.getLoopbackAddress(), backend.getLocalPort());
+
+            try (Socket client = new Socket(InetAddress.getLoopbackAddress(), lbChannel.socket().getLocalPort())) {
+                final StreamingSocketHandlerThread handler = new StreamingSocketHandlerThread(lbChannel.socket().accept(), target, 1024);
+                final CompletableFuture<RelayOutcome> relay = CompletableFuture.supplyAsync(handler::runThread);
+
+                client.getOutputStream().write(new byte[]{1, 2, 3});
+
+                assertEquals(RelayOutcome.BACKEND_ERROR, relay.join());
+            }
+        }
+    }
+
+    private static void echo(ServerSocket echoServer) {
+        try (Socket socket = echoServer.accept()) {
+            final InputStream in = socket.getInputStream();
+            final OutputStream out = socket.getOutputStream();
+            final ByteArrayOutputStream received = new ByteArrayOutputStream();
+            in.transferTo(received);
+            out.write(received.toByteArray());
+            socket.shutdownOutput();
+        } catch (IOException e) {
+            // test will fail on the client side
+        }
+    }
+}
@@ -1,6 +1,11 @@
 package org.example.loadbalancer.lb.strategy;
 
+import org.example.loadbalancer.lb.strategy.algorithms.ConsistentHashLoadBalancerStrategy;
+import org.example.loadbalancer.lb.strategy.algorithms.LeastConnectionsLoadBalancerStrategy;
+import org.example.loadbalancer.lb.strategy.algorithms.LeastResponseTimeLoadBalancerStrategy;
+import org.example.loadbalancer.lb.strategy.algorithms.PowerOfTwoChoicesLoadBalancerStrategy;
 import org.example.loadbalancer.lb.strategy.algorithms.RandomLoadBalancerStrategy;
+import org.example.loadbalancer.lb.strategy.algorithms.WeightedRoundRobinLoadBalancerStrategy;
 import org.junit.jupiter.api.Test;
 import java.util.List;
 
@@ -15,6 +20,21 @@ class LoadBalancerStrategyFactoryTest {
 
         strategy = LoadBalancerStrategyFactory.createLoadBalancerStrategy(LoadBalancerStrategyType.RANDOM, List.of());
         assertInstanceOf(RandomLoadBalancerStrategy.class, strategy);
+
+        strategy = LoadBalancerStrategyFactory.createLoadBalancerStrategy(LoadBalancerStrategyType.LEAST_CONNECTIONS, List.of(), new BackendStats());
+        assertInstanceOf(LeastConnectionsLoadBalancerStrategy.class, strategy);
+
+        strategy = LoadBalancerStrategyFactory.createLoadBalancerStrategy(LoadBalancerStrategyType.P2C, List.of(), new BackendStats());
+        assertInstanceOf(PowerOfTwoChoicesLoadBalancerStrategy.class, strategy);
+
+        strategy = LoadBalancerStrategyFactory.createLoadBalancerStrategy(LoadBalancerStrategyType.LEAST_RESPONSE_TIME, List.of(), new BackendStats());
+        assertInstanceOf(LeastResponseTimeLoadBalancerStrategy.class, strategy);
+
+        strategy = LoadBalancerStrategyFactory.createLoadBalancerStrategy(LoadBalancerStrategyType.CONSISTENT_HASH, List.of(), new BackendStats());
+        assertInstanceOf(ConsistentHashLoadBalancerStrategy.class, strategy);
+
+        strategy = LoadBalancerStrategyFactory.createLoadBalancerStrategy(LoadBalancerStrategyType.WEIGHTED_ROUND_ROBIN, List.of());
+        assertInstanceOf(WeightedRoundRobinLoadBalancerStrategy.class, strategy);
     }
 
 }
\ No newline at end of file
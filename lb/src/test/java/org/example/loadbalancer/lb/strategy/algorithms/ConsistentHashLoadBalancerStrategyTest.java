@@ -0,0 +1,117 @@
+package org.example.loadbalancer.lb.strategy.algorithms;
+
+import org.example.loadbalancer.lb.strategy.BackendStats;
+import org.example.loadbalancer.lb.strategy.LoadBalancerStrategy;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.example.loadbalancer.lb.util.Helper.getInetSocketAddress;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConsistentHashLoadBalancerStrategyTest {
+
+    @Test
+    void shouldBeStickyPerClientIp() {
+        final LoadBalancerStrategy strategyToTest = new ConsistentHashLoadBalancerStrategy(getServers(4), new BackendStats(), 0);
+
+        for (int i = 0; i < 50; i++) {
+            final InetSocketAddress first = strategyToTest.selectDestinationServer(client(i, 40000));
+            // different source port, same IP
+            assertEquals(first, strategyToTest.selectDestinationServer(client(i, 50000)));
+        }
+    }
+
+    @Test
+    void shouldOnlyMoveClientsOfRemovedServer() {
+        final List<InetSocketAddress> servers = getServers(5);
+        final LoadBalancerStrategy strategyToTest = new ConsistentHashLoadBalancerStrategy(servers, new BackendStats(), 0);
+
+        final Map<Integer, InetSocketAddress> before = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            before.put(i, strategyToTest.selectDestinationServer(client(i, 1234)));
+        }
+
+        final InetSocketAddress removed = servers.get(2);
+        strategyToTest.serverHealthChanged(removed, false);
+
+        int moved = 0;
+        for (int i = 0; i < 1000; i++) {
+            final InetSocketAddress after = strategyToTest.selectDestinationServer(client(i, 1234));
+            assertNotEquals(removed, after);
+            if (!after.equals(before.get(i))) {
+                moved++;
+                assertEquals(removed, before.get(i));
+            }
+        }
+        // roughly a fifth of the clients were on the removed server
+        assertTrue(moved > 100 && moved < 350, "moved " + moved);
+
+        strategyToTest.serverHealthChanged(removed, true);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(before.get(i), strategyToTest.selectDestinationServer(client(i, 1234)));
+        }
+    }
+
+    @Test
+    void shouldSkipOverloadedServerWithBoundedLoads() {
+        final List<InetSocketAddress> servers = getServers(3);
+        final BackendStats stats = new BackendStats();
+        final LoadBalancerStrategy strategyToTest = new ConsistentHashLoadBalancerStrategy(servers, stats, 1.25);
+
+        final InetSocketAddress client = client(7, 1234);
+        final InetSocketAddress home = strategyToTest.selectDestinationServer(client);
+        assertEquals(home, strategyToTest.selectDestinationServer(client));
+
+        for (int i = 0; i < 10; i++) {
+            stats.get(home).connectionOpened();
+        }
+        assertNotEquals(home, strategyToTest.selectDestinationServer(client));
+    }
+
+    @Test
+    void shouldIgnoreOtherPoolsTrafficForBoundedLoads() {
+        final List<InetSocketAddress> servers = getServers(3);
+        final BackendStats stats = new BackendStats();
+        final LoadBalancerStrategy strategyToTest = new ConsistentHashLoadBalancerStrategy(servers, stats, 1.25);
+
+        final InetSocketAddress client = client(7, 1234);
+        final InetSocketAddress home = strategyToTest.selectDestinationServer(client);
+        for (int i = 0; i < 10; i++) {
+            stats.get(home).connectionOpened();
+        }
+
+        // Another listener's busy pool shares the stats, it must not raise this ring's cap
+        final InetSocketAddress other = getInetSocketAddress("127.0.0.1:9000");
+        for (int i = 0; i < 1000; i++) {
+            stats.get(other).connectionOpened();
+        }
+        assertNotEquals(home, strategyToTest.selectDestinationServer(client));
+    }
+
+    @Test
+    void shouldReturnNullWhenNoServersAreHealthy() {
+        final List<InetSocketAddress> servers = getServers(2);
+        final LoadBalancerStrategy strategyToTest = new ConsistentHashLoadBalancerStrategy(servers, new BackendStats(), 0);
+        servers.forEach(server -> strategyToTest.serverHealthChanged(server, false));
+
+        assertNull(strategyToTest.selectDestinationServer(client(1, 1)));
+        assertNull(strategyToTest.selectDestinationServer());
+    }
+
+    private static List<InetSocketAddress> getServers(int count) {
+        final List<InetSocketAddress> servers = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            servers.add(getInetSocketAddress("127.0.0.1:" + (8050 + i)));
+        }
+        return servers;
+    }
+
+    private static InetSocketAddress client(int id, int port) {
+        return getInetSocketAddress("10.0." + (id / 256) + "." + (id % 256) + ":" + port);
+    }
+}
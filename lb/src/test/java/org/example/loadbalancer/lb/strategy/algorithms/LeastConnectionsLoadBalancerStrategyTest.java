@@ -0,0 +1,57 @@
+package org.example.loadbalancer.lb.strategy.algorithms;
+
+import org.example.loadbalancer.lb.strategy.BackendStats;
+import org.example.loadbalancer.lb.strategy.LoadBalancerStrategy;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.example.loadbalancer.lb.util.Helper.getInetSocketAddress;
+import static org.junit.jupiter.api.Assertions.*;
+
+class LeastConnectionsLoadBalancerStrategyTest {
+
+    @Test
+    void shouldPickServerWithFewestConnections() {
+        final List<InetSocketAddress> servers = new ArrayList<>();
+        servers.add(getInetSocketAddress("localhost:8050"));
+        servers.add(getInetSocketAddress("localhost:8051"));
+        servers.add(getInetSocketAddress("localhost:8052"));
+
+        final BackendStats stats = new BackendStats();
+        stats.get(servers.get(0)).connectionOpened();
+        stats.get(servers.get(0)).connectionOpened();
+        stats.get(servers.get(2)).connectionOpened();
+
+        final LoadBalancerStrategy strategyToTest = new LeastConnectionsLoadBalancerStrategy(servers, stats);
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals(8051, strategyToTest.selectDestinationServer().getPort());
+        }
+
+        stats.get(servers.get(1)).connectionOpened();
+        stats.get(servers.get(1)).connectionOpened();
+        stats.get(servers.get(2)).connectionClosed();
+        assertEquals(8052, strategyToTest.selectDestinationServer().getPort());
+    }
+
+    @Test
+    void shouldIgnoreUnhealthyServers() {
+        final List<InetSocketAddress> servers = new ArrayList<>();
+        servers.add(getInetSocketAddress("localhost:8050"));
+        servers.add(getInetSocketAddress("localhost:8051"));
+
+        final BackendStats stats = new BackendStats();
+        stats.get(servers.get(1)).connectionOpened();
+
+        final LoadBalancerStrategy strategyToTest = new LeastConnectionsLoadBalancerStrategy(servers, stats);
+        strategyToTest.serverHealthChanged(servers.get(0), false);
+
+        assertEquals(8051, strategyToTest.selectDestinationServer().getPort());
+
+        strategyToTest.serverHealthChanged(servers.get(1), false);
+        assertNull(strategyToTest.selectDestinationServer());
+    }
+}
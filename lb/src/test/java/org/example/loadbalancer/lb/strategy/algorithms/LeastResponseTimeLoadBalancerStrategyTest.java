@@ -0,0 +1,65 @@
+package org.example.loadbalancer.lb.strategy.algorithms;
+
+import org.example.loadbalancer.lb.strategy.BackendStats;
+import org.example.loadbalancer.lb.strategy.LoadBalancerStrategy;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.example.loadbalancer.lb.util.Helper.getInetSocketAddress;
+import static org.junit.jupiter.api.Assertions.*;
+
+class LeastResponseTimeLoadBalancerStrategyTest {
+
+    @Test
+    void shouldRouteAwayFromServerWhoseLatencyJumps() {
+        final List<InetSocketAddress> servers = new ArrayList<>();
+        servers.add(getInetSocketAddress("localhost:8050"));
+        servers.add(getInetSocketAddress("localhost:8051"));
+
+        final BackendStats stats = new BackendStats(60_000);
+        stats.get(servers.get(0)).recordResponseLatency(1_000_000);
+        stats.get(servers.get(1)).recordResponseLatency(2_000_000);
+
+        final LoadBalancerStrategy strategyToTest = new LeastResponseTimeLoadBalancerStrategy(servers, stats);
+        assertEquals(8050, strategyToTest.selectDestinationServer().getPort());
+
+        // a single slow response replaces the estimate straight away
+        stats.get(servers.get(0)).recordResponseLatency(50_000_000);
+        assertEquals(8051, strategyToTest.selectDestinationServer().getPort());
+    }
+
+    @Test
+    void shouldWeighLatencyByActiveConnections() {
+        final List<InetSocketAddress> servers = new ArrayList<>();
+        servers.add(getInetSocketAddress("localhost:8050"));
+        servers.add(getInetSocketAddress("localhost:8051"));
+
+        final BackendStats stats = new BackendStats(60_000);
+        stats.get(servers.get(0)).recordResponseLatency(1_000_000);
+        stats.get(servers.get(1)).recordResponseLatency(2_000_000);
+        for (int i = 0; i < 3; i++) {
+            stats.get(servers.get(0)).connectionOpened();
+        }
+
+        final LoadBalancerStrategy strategyToTest = new LeastResponseTimeLoadBalancerStrategy(servers, stats);
+
+        // 1ms * 4 connections costs more than 2ms * 1
+        assertEquals(8051, strategyToTest.selectDestinationServer().getPort());
+    }
+
+    @Test
+    void shouldFallBackToConnectionCountWithoutSamples() {
+        final List<InetSocketAddress> servers = new ArrayList<>();
+        servers.add(getInetSocketAddress("localhost:8050"));
+        servers.add(getInetSocketAddress("localhost:8051"));
+
+        final BackendStats stats = new BackendStats();
+        stats.get(servers.get(1)).connectionOpened();
+
+        final LoadBalancerStrategy strategyToTest = new LeastResponseTimeLoadBalancerStrategy(servers, stats);
+        assertEquals(8050, strategyToTest.selectDestinationServer().getPort());
+    }
+}
@@ -0,0 +1,54 @@
+package org.example.loadbalancer.lb.strategy.algorithms;
+
+import org.example.loadbalancer.lb.strategy.BackendStats;
+import org.example.loadbalancer.lb.strategy.LoadBalancerStrategy;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.example.loadbalancer.lb.util.Helper.getInetSocketAddress;
+import static org.junit.jupiter.api.Assertions.*;
+
+class PowerOfTwoChoicesLoadBalancerStrategyTest {
+
+    @Test
+    void shouldNeverPickMostLoadedOfTwoServers() {
+        final List<InetSocketAddress> servers = new ArrayList<>();
+        servers.add(getInetSocketAddress("localhost:8050"));
+        servers.add(getInetSocketAddress("localhost:8051"));
+
+        final BackendStats stats = new BackendStats();
+        stats.get(servers.get(0)).connectionOpened();
+
+        final LoadBalancerStrategy strategyToTest = new PowerOfTwoChoicesLoadBalancerStrategy(servers, stats);
+
+        // with two servers both are always compared, so the busy one is never chosen
+        for (int i = 0; i < 20; i++) {
+            assertEquals(8051, strategyToTest.selectDestinationServer().getPort());
+        }
+    }
+
+    @Test
+    void shouldAvoidLoadedServerAndHandleSingleServer() {
+        final List<InetSocketAddress> servers = new ArrayList<>();
+        servers.add(getInetSocketAddress("localhost:8050"));
+        servers.add(getInetSocketAddress("localhost:8051"));
+        servers.add(getInetSocketAddress("localhost:8052"));
+
+        final BackendStats stats = new BackendStats();
+        for (int i = 0; i < 10; i++) {
+            stats.get(servers.get(2)).connectionOpened();
+        }
+
+        final LoadBalancerStrategy strategyToTest = new PowerOfTwoChoicesLoadBalancerStrategy(servers, stats);
+        for (int i = 0; i < 50; i++) {
+            assertNotEquals(8052, strategyToTest.selectDestinationServer().getPort());
+        }
+
+        strategyToTest.serverHealthChanged(servers.get(0), false);
+        strategyToTest.serverHealthChanged(servers.get(1), false);
+        assertEquals(8052, strategyToTest.selectDestinationServer().getPort());
+    }
+}
@@ -6,6 +6,10 @@ import org.junit.jupiter.api.Test;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.example.loadbalancer.lb.util.Helper.getInetSocketAddress;
@@ -33,4 +37,54 @@ class RoundRobinLoadBalancerStrategyTest {
         assertEquals("localhost", actual.getHostName());
         assertEquals(8050, actual.getPort());
     }
-}
\ No newline at end of file
+
+    @Test
+    void shouldSkipUnhealthyServers() {
+        final List<InetSocketAddress> servers = new ArrayList<>();
+        servers.add(getInetSocketAddress("localhost:8050"));
+        servers.add(getInetSocketAddress("localhost:8051"));
+        servers.add(getInetSocketAddress("localhost:8052"));
+
+        final LoadBalancerStrategy strategyToTest = new RoundRobinLoadBalancerStrategy(servers);
+        strategyToTest.serverHealthChanged(servers.get(1), false);
+
+        for (int i = 0; i < 4; i++) {
+            assertNotEquals(8051, strategyToTest.selectDestinationServer().getPort());
+        }
+
+        strategyToTest.serverHealthChanged(servers.get(0), false);
+        strategyToTest.serverHealthChanged(servers.get(2), false);
+        assertNull(strategyToTest.selectDestinationServer());
+
+        strategyToTest.serverHealthChanged(servers.get(1), true);
+        assertEquals(8051, strategyToTest.selectDestinationServer().getPort());
+    }
+
+    @Test
+    void shouldSpreadEvenlyWhenContended() throws InterruptedException {
+        final List<InetSocketAddress> servers = new ArrayList<>();
+        servers.add(getInetSocketAddress("localhost:8050"));
+        servers.add(getInetSocketAddress("localhost:8051"));
+        servers.add(getInetSocketAddress("localhost:8052"));
+
+        final LoadBalancerStrategy strategyToTest = new RoundRobinLoadBalancerStrategy(servers);
+        final Map<InetSocketAddress, AtomicInteger> counts = new ConcurrentHashMap<>();
+        final int threads = 4;
+        final int selectionsPerThread = 30_000;
+        final CountDownLatch done = new CountDownLatch(threads);
+
+        for (int t = 0; t < threads; t++) {
+            Thread.ofPlatform().start(() -> {
+                for (int i = 0; i < selectionsPerThread; i++) {
+                    counts.computeIfAbsent(strategyToTest.selectDestinationServer(), k -> new AtomicInteger()).incrementAndGet();
+                }
+                done.countDown();
+            });
+        }
+        done.await();
+
+        for (InetSocketAddress server : servers) {
+            assertEquals(threads * selectionsPerThread / servers.size(), counts.get(server).get());
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package org.example.loadbalancer.lb.strategy.algorithms;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.example.loadbalancer.lb.util.Helper.getInetSocketAddress;
+import static org.junit.jupiter.api.Assertions.*;
+
+class WeightedRoundRobinLoadBalancerStrategyTest {
+
+    @Test
+    void shouldInterleaveByWeight() {
+        final List<InetSocketAddress> servers = new ArrayList<>();
+        servers.add(getInetSocketAddress("localhost:8050"));
+        servers.add(getInetSocketAddress("localhost:8051"));
+        servers.add(getInetSocketAddress("localhost:8052"));
+
+        final WeightedRoundRobinLoadBalancerStrategy strategyToTest =
+                new WeightedRoundRobinLoadBalancerStrategy(servers, Map.of(servers.get(0), 5));
+
+        // nginx smooth sequence for 5:1:1
+        final int[] expected = {8050, 8050, 8051, 8050, 8052, 8050, 8050};
+        for (int cycle = 0; cycle < 3; cycle++) {
+            for (int port : expected) {
+                assertEquals(port, strategyToTest.selectDestinationServer().getPort());
+            }
+        }
+    }
+
+    @Test
+    void shouldChangeWeightAtRuntime() {
+        final List<InetSocketAddress> servers = new ArrayList<>();
+        servers.add(getInetSocketAddress("localhost:8050"));
+        servers.add(getInetSocketAddress("localhost:8051"));
+
+        final WeightedRoundRobinLoadBalancerStrategy strategyToTest =
+                new WeightedRoundRobinLoadBalancerStrategy(servers, Map.of(servers.get(0), 3));
+
+        assertEquals(3, countPort(strategyToTest, 8050, 4));
+
+        strategyToTest.setWeight(servers.get(0), 0);
+        assertEquals(0, strategyToTest.getWeight(servers.get(0)));
+        assertEquals(0, countPort(strategyToTest, 8050, 10));
+
+        strategyToTest.setWeight(servers.get(0), 1);
+        assertEquals(5, countPort(strategyToTest, 8050, 10));
+
+        assertThrows(IllegalArgumentException.class, () -> strategyToTest.setWeight(servers.get(0), -1));
+    }
+
+    @Test
+    void shouldScaleDownLargeWeights() {
+        final List<InetSocketAddress> servers = new ArrayList<>();
+        servers.add(getInetSocketAddress("localhost:8050"));
+        servers.add(getInetSocketAddress("localhost:8051"));
+
+        // gcd brings 3000:1000 down to a cycle of 4
+        final WeightedRoundRobinLoadBalancerStrategy strategyToTest = new WeightedRoundRobinLoadBalancerStrategy(servers,
+                Map.of(servers.get(0), 3000, servers.get(1), 1000));
+        assertEquals(3, countPort(strategyToTest, 8050, 4));
+
+        strategyToTest.setWeight(servers.get(0), Integer.MAX_VALUE);
+        assertTrue(countPort(strategyToTest, 8051, WeightedRoundRobinLoadBalancerStrategy.MAX_SEQUENCE_LENGTH) >= 1);
+    }
+
+    @Test
+    void shouldIgnoreUnhealthyServers() {
+        final List<InetSocketAddress> servers = new ArrayList<>();
+        servers.add(getInetSocketAddress("localhost:8050"));
+        servers.add(getInetSocketAddress("localhost:8051"));
+
+        final WeightedRoundRobinLoadBalancerStrategy strategyToTest =
+                new WeightedRoundRobinLoadBalancerStrategy(servers, Map.of(servers.get(0), 5));
+        strategyToTest.serverHealthChanged(servers.get(0), false);
+
+        assertEquals(5, countPort(strategyToTest, 8051, 5));
+
+        strategyToTest.serverHealthChanged(servers.get(1), false);
+        assertNull(strategyToTest.selectDestinationServer());
+
+        strategyToTest.serverHealthChanged(servers.get(0), true);
+        assertEquals(3, countPort(strategyToTest, 8050, 3));
+    }
+
+    private static int countPort(WeightedRoundRobinLoadBalancerStrategy strategy, int port, int selections) {
+        int count = 0;
+        for (int i = 0; i < selections; i++) {
+            if (strategy.selectDestinationServer().getPort() == port) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
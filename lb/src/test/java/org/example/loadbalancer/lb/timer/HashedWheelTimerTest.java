@@ -0,0 +1,85 @@
+package org.example.loadbalancer.lb.timer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HashedWheelTimerTest {
+
+    @Test
+    void shouldRunTaskAfterDelay() throws Exception {
+        try (HashedWheelTimer timer = new HashedWheelTimer(10, 8)) {
+            timer.start();
+            final CountDownLatch ran = new CountDownLatch(1);
+            final long startedAt = System.nanoTime();
+
+            final Timeout timeout = timer.newTimeout(ran::countDown, 50, TimeUnit.MILLISECONDS);
+
+            assertTrue(ran.await(2, TimeUnit.SECONDS));
+            assertTrue(System.nanoTime() - startedAt >= TimeUnit.MILLISECONDS.toNanos(50));
+            assertTrue(timeout.isExpired());
+            assertEquals(0, timer.getPending());
+        }
+    }
+
+    @Test
+    void shouldNotRunCancelledTask() {
+        final HashedWheelTimer timer = new HashedWheelTimer(10, 8);
+        final AtomicInteger runs = new AtomicInteger();
+
+        final Timeout timeout = timer.newTimeout(runs::incrementAndGet, 0, TimeUnit.MILLISECONDS);
+        assertTrue(timeout.cancel());
+        assertFalse(timeout.cancel());
+        assertEquals(0, timer.getPending());
+
+        timer.advance(timer.currentTickDeadline());
+        assertEquals(0, runs.get());
+        assertFalse(timeout.isExpired());
+    }
+
+    @Test
+    void shouldWaitForTheRightRoundOfTheWheel() {
+        // 8 buckets of 10ms, so 250ms goes round the wheel three times
+        final HashedWheelTimer timer = new HashedWheelTimer(10, 8);
+        final AtomicInteger runs = new AtomicInteger();
+        timer.newTimeout(runs::incrementAndGet, 250, TimeUnit.MILLISECONDS);
+
+        int ticks = 0;
+        while (runs.get() == 0 && ticks < 100) {
+            timer.advance(timer.currentTickDeadline());
+            ticks++;
+        }
+        assertEquals(1, runs.get());
+        assertTrue(ticks >= 25 && ticks <= 27, "fired after " + ticks + " ticks");
+    }
+
+    @Test
+    void shouldHandleManyTimeoutsCancellingMost() throws Exception {
+        try (HashedWheelTimer timer = new HashedWheelTimer(5, 64)) {
+            timer.start();
+            final AtomicInteger runs = new AtomicInteger();
+            final List<Timeout> timeouts = new ArrayList<>();
+            for (int i = 0; i < 100_000; i++) {
+                timeouts.add(timer.newTimeout(runs::incrementAndGet, 500 + i % 100, TimeUnit.MILLISECONDS));
+            }
+            // Keep every tenth
+            for (int i = 0; i < timeouts.size(); i++) {
+                if (i % 10 != 0) {
+                    timeouts.get(i).cancel();
+                }
+            }
+
+            for (int i = 0; i < 300 && timer.getPending() > 0; i++) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, timer.getPending());
+            assertEquals(10_000, runs.get());
+        }
+    }
+}
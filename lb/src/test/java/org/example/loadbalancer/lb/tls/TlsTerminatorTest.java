@@ -0,0 +1,198 @@
+package org.example.loadbalancer.lb.tls;
+
+import org.example.loadbalancer.lb.metrics.MetricsRegistry;
+import org.example.loadbalancer.lb.proxy.ProxyHeader;
+import org.example.loadbalancer.lb.timer.HashedWheelTimer;
+import org.junit.jupiter.api.Test;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TlsTerminatorTest {
+
+    private static final String PASSWORD = "changeit";
+
+    @Test
+    void shouldResumeSessionsOnNewConnections() throws Exception {
+        for (String protocol : new String[]{"TLSv1.3", "TLSv1.2"}) {
+            final MetricsRegistry registry = new MetricsRegistry();
+            final SSLContext clientContext = clientContext();
+
+            try (TlsTerminator tls = new TlsTerminator(serverContext(), 1, 8, null, 0, registry);
+                 ServerSocketChannel lbChannel = bind()) {
+                for (int i = 0; i < 3; i++) {
+                    try (SSLSocket client = connect(clientContext, lbChannel, protocol)) {
+                        final CompletableFuture<Void> echo = CompletableFuture.runAsync(() -> echoOnce(tls, lbChannel));
+                        client.getOutputStream().write("hello".getBytes(StandardCharsets.US_ASCII));
+                        assertEquals("hello", new String(client.getInputStream().readNBytes(5), StandardCharsets.US_ASCII));
+                        assertEquals(protocol, client.getSession().getProtocol());
+                        echo.join();
+                    }
+                }
+            }
+
+            // Only the first connection paid for a full handshake
+            final String text = registry.toPrometheusText();
+            assertTrue(text.contains("lb_tls_handshakes_total{result=\"full\"} 1\n"), protocol + "\n" + text);
+            assertTrue(text.contains("lb_tls_handshakes_total{result=\"resumed\"} 2\n"), protocol + "\n" + text);
+        }
+    }
+
+    @Test
+    void shouldHalfCloseEachDirection() throws Exception {
+        try (TlsTerminator tls = new TlsTerminator(serverContext(), 1, 8, null, 0, new MetricsRegistry());
+             ServerSocketChannel lbChannel = bind();
+             SSLSocket client = connect(clientContext(), lbChannel, "TLSv1.3")) {
+
+            final CompletableFuture<TlsChannel> server = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return tls.handshake(lbChannel.accept());
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            client.startHandshake();
+            client.getOutputStream().write("request".getBytes(StandardCharsets.US_ASCII));
+            client.shutdownOutput();
+
+            // The client's close_notify reads as end of stream, the server can still answer
+            final TlsChannel channel = server.join();
+            final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            while (channel.read(buffer) >= 0) {
+                // until end of stream
+            }
+            assertEquals("request", new String(buffer.array(), 0, buffer.position(), StandardCharsets.US_ASCII));
+
+            channel.write(ByteBuffer.wrap("response".getBytes(StandardCharsets.US_ASCII)));
+            channel.shutdownOutput();
+            assertEquals("response", new String(client.getInputStream().readAllBytes(), StandardCharsets.US_ASCII));
+            channel.close();
+        }
+    }
+
+    @Test
+    void shouldCloseClientsThatNeverFinishTheHandshake() throws Exception {
+        final MetricsRegistry registry = new MetricsRegistry();
+        try (HashedWheelTimer timer = new HashedWheelTimer(10, 64);
+             TlsTerminator tls = new TlsTerminator(serverContext(), 1, 8, timer, 100, registry);
+             ServerSocketChannel lbChannel = bind();
+             Socket client = new Socket(InetAddress.getLoopbackAddress(), lbChannel.socket().getLocalPort())) {
+            timer.start();
+
+            // Connected but says nothing
+            final SocketChannel accepted = lbChannel.accept();
+            assertThrows(IOException.class, () -> tls.handshake(accepted));
+            assertFalse(accepted.isOpen());
+            assertEquals(-1, client.getInputStream().read());
+            assertTrue(registry.toPrometheusText().contains("lb_tls_handshakes_total{result=\"failed\"} 1\n"));
+        }
+    }
+
+    @Test
+    void shouldHandshakeWithBytesReadAlongWithProxyHeader() throws Exception {
+        try (TlsTerminator tls = new TlsTerminator(serverContext(), 1, 8, null, 0, new MetricsRegistry());
+             ServerSocketChannel lbChannel = bind();
+             Socket raw = new Socket(InetAddress.getLoopbackAddress(), lbChannel.socket().getLocalPort())) {
+            final SocketChannel accepted = lbChannel.accept();
+
+            // An upstream proxy sends its header in the clear, then the client's TLS follows on the same connection
+            raw.getOutputStream().write("PROXY TCP4 192.0.2.1 192.0.2.2 1 2\r\n".getBytes(StandardCharsets.US_ASCII));
+            final SSLSocket client = (SSLSocket) clientContext().getSocketFactory().createSocket(raw, "localhost", raw.getPort(), true);
+            final CompletableFuture<Void> clientHandshake = CompletableFuture.runAsync(() -> {
+                try {
+                    client.startHandshake();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+
+            // Give the ClientHello time to arrive, so it is read along with the header
+            Thread.sleep(200);
+            final ByteBuffer buffer = ByteBuffer.allocate(4096);
+            final ProxyHeader header = ProxyHeader.read(accepted, buffer);
+            assertTrue(buffer.position() > header.getLength());
+            buffer.flip().position(header.getLength());
+
+            try (TlsChannel channel = tls.handshake(accepted, buffer)) {
+                clientHandshake.join();
+                client.getOutputStream().write("hello".getBytes(StandardCharsets.US_ASCII));
+                final ByteBuffer received = ByteBuffer.allocate(5);
+                while (received.hasRemaining() && channel.read(received) >= 0) {
+                    // until all 5 bytes are in
+                }
+                assertEquals("hello", new String(received.array(), StandardCharsets.US_ASCII));
+            }
+            client.close();
+        }
+    }
+
+    @Test
+    void shouldFailToLoadWithWrongPassword() {
+        assertThrows(IOException.class, () -> TlsTerminator.loadContext(keyStore(), "PKCS12", "wrong".toCharArray(), 0, 60));
+    }
+
+    private static void echoOnce(TlsTerminator tls, ServerSocketChannel lbChannel) {
+        try (TlsChannel channel = tls.handshake(lbChannel.accept())) {
+            final ByteBuffer buffer = ByteBuffer.allocate(5);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // until all 5 bytes are in
+            }
+            buffer.flip();
+            channel.write(buffer);
+        } catch (IOException e) {
+            // test will fail on the client side
+        }
+    }
+
+    private static SSLContext serverContext() throws Exception {
+        return TlsTerminator.loadContext(keyStore(), "PKCS12", PASSWORD.toCharArray(), 0, 60);
+    }
+
+    /**
+     * @return Context trusting the test certificate, with its own session cache so it can resume
+     */
+    private static SSLContext clientContext() throws Exception {
+        final KeyStore trusted = KeyStore.getInstance("PKCS12");
+        try (InputStream in = TlsTerminatorTest.class.getResourceAsStream("/tls/test-keystore.p12")) {
+            trusted.load(in, PASSWORD.toCharArray());
+        }
+        final TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagers.init(trusted);
+
+        final SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, trustManagers.getTrustManagers(), null);
+        return context;
+    }
+
+    private static Path keyStore() throws URISyntaxException {
+        return Path.of(TlsTerminatorTest.class.getResource("/tls/test-keystore.p12").toURI());
+    }
+
+    private static ServerSocketChannel bind() throws IOException {
+        final ServerSocketChannel channel = ServerSocketChannel.open();
+        channel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        return channel;
+    }
+
+    private static SSLSocket connect(SSLContext context, ServerSocketChannel lbChannel, String protocol) throws IOException {
+        final SSLSocket socket = (SSLSocket) context.getSocketFactory().createSocket("localhost", lbChannel.socket().getLocalPort());
+        socket.setEnabledProtocols(new String[]{protocol});
+        return socket;
+    }
+}
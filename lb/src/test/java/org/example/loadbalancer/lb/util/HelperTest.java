@@ -28,6 +28,20 @@ class HelperTest {
         assertEquals(1234, address.getPort());
     }
 
+    @Test
+    void shouldParseServerWeight() {
+        final InetSocketAddress address = getInetSocketAddress("localhost:1234:5");
+        assertEquals(1234, address.getPort());
+        assertEquals(5, getServerWeight("localhost:1234:5"));
+        assertEquals(1, getServerWeight("localhost:1234"));
+    }
+
+    @Test
+    void shouldParseServerHostAndPort() {
+        assertEquals("backend.internal", getServerHost("backend.internal:1234:5"));
+        assertEquals(1234, getServerPort("backend.internal:1234:5"));
+    }
+
     @Test
     void shouldCloseChannelAndNotThrowOnNull() throws IOException {
         assertDoesNotThrow(() -> closeChannel(null));
@@ -0,0 +1,33 @@
+package org.example.loadbalancer.lb.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PingTest {
+
+    @Test
+    void shouldConnectToListeningPort() throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            assertTrue(new Ping().pingServer(new InetSocketAddress("localhost", serverSocket.getLocalPort()), 500));
+        }
+    }
+
+    @Test
+    void shouldFailOnClosedPort() throws IOException {
+        final int port;
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            port = serverSocket.getLocalPort();
+        }
+        assertFalse(new Ping().pingServer(new InetSocketAddress("localhost", port), 500));
+    }
+
+    @Test
+    void shouldFailOnUnresolvedHost() {
+        assertFalse(new Ping().pingServer(InetSocketAddress.createUnresolved("no.such.host.invalid", 80), 500));
+    }
+}
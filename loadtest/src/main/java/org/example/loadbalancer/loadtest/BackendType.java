@@ -0,0 +1,13 @@
+package org.example.loadbalancer.loadtest;
+
+/**
+ * How a TestBackend answers a connection
+ */
+public enum BackendType {
+    // Sends every byte straight back
+    ECHO,
+    // Reads and throws away everything, answers one byte once the client has half-closed
+    SINK,
+    // Like ECHO, but waits before answering
+    SLOW;
+}
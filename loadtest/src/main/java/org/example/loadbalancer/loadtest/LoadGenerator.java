@@ -0,0 +1,164 @@
+package org.example.loadbalancer.loadtest;
+
+import org.example.loadbalancer.lb.metrics.Counter;
+import org.example.loadbalancer.lb.metrics.Histogram;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Open loop connection generator: new connections are started on a fixed schedule, not when earlier ones finish, so
+ * a slow LB gets more concurrent connections the way it would from real clients rather than fewer requests.
+ *
+ * Latency is measured from when a connection was due to start, not from when it actually started. If the generator
+ * itself falls behind, that wait counts against the LB instead of silently disappearing (coordinated omission).
+ *
+ * Each connection runs on its own virtual thread: connect, optionally sit idle for holdMs as a long-lived client,
+ * send the request, half-close and read until the backend closes. A connection that gets nothing back, is reset or
+ * times out counts as failed.
+ */
+public class LoadGenerator {
+
+    private final LoadTestConfig config;
+    private final InetSocketAddress target;
+    private final byte[] request;
+
+    private final Counter started = new Counter();
+    private final Counter completed = new Counter();
+    private final Counter failed = new Counter();
+    private final Counter skipped = new Counter();
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    // Microseconds, excluding the hold of long-lived connections
+    private final Histogram latency = new Histogram();
+    private final AtomicReference<Histogram> intervalLatency = new AtomicReference<>(new Histogram());
+
+    /**
+     * @param config Load shape
+     * @param target LB address
+     */
+    public LoadGenerator(LoadTestConfig config, InetSocketAddress target) {
+        this.config = config;
+        this.target = target;
+        this.request = new byte[config.getRequestBytes()];
+        ThreadLocalRandom.current().nextBytes(request);
+    }
+
+    /**
+     * Start connections at the configured rate until the duration is up, returns without waiting for the last ones
+     */
+    public void run() {
+        final long intervalNanos = TimeUnit.SECONDS.toNanos(1) / config.getRate();
+        final long startNanos = System.nanoTime();
+        final long endNanos = startNanos + TimeUnit.SECONDS.toNanos(config.getDurationS());
+
+        for (long due = startNanos; due < endNanos; due += intervalNanos) {
+            final long wait = due - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+
+            if (inFlight.get() >= config.getMaxConnections()) {
+                skipped.increment();
+                continue;
+            }
+
+            final long dueAt = due;
+            final boolean longLived = ThreadLocalRandom.current().nextInt(100) < config.getLongLivedPercent();
+            inFlight.incrementAndGet();
+            started.increment();
+            Thread.ofVirtual().start(() -> connect(dueAt, longLived));
+        }
+    }
+
+    /**
+     * @param timeoutMs Longest to wait
+     * @return true if every connection finished in time
+     */
+    public boolean awaitInFlight(long timeoutMs) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + timeoutMs;
+        while (inFlight.get() > 0) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(50);
+        }
+        return true;
+    }
+
+    private void connect(long dueAt, boolean longLived) {
+        final int holdMs = longLived ? config.getHoldMs() : 0;
+        try (Socket socket = new Socket()) {
+            socket.connect(target, config.getTimeoutMs());
+            socket.setSoTimeout(config.getTimeoutMs());
+            if (holdMs > 0) {
+                Thread.sleep(holdMs);
+            }
+
+            socket.getOutputStream().write(request);
+            socket.shutdownOutput();
+
+            final InputStream in = socket.getInputStream();
+            final byte[] buffer = new byte[16 * 1024];
+            long received = 0;
+            int len;
+            while ((len = in.read(buffer)) >= 0) {
+                received += len;
+            }
+
+            if (received == 0) {
+                // The LB gave up on every backend and closed on us
+                failed.increment();
+            } else {
+                final long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - dueAt) - TimeUnit.MILLISECONDS.toMicros(holdMs);
+                latency.record(micros);
+                intervalLatency.get().record(micros);
+                completed.increment();
+            }
+        } catch (IOException e) {
+            failed.increment();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return Latency since the last call, a fresh histogram takes over for the next interval
+     */
+    public Histogram swapIntervalLatency() {
+        return intervalLatency.getAndSet(new Histogram());
+    }
+
+    public Histogram getLatency() {
+        return latency;
+    }
+
+    public long getStarted() {
+        return started.get();
+    }
+
+    public long getCompleted() {
+        return completed.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getSkipped() {
+        return skipped.get();
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+}
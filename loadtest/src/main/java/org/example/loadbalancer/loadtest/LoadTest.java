@@ -0,0 +1,140 @@
+package org.example.loadbalancer.loadtest;
+
+import org.example.loadbalancer.lb.LoadBalancerConfig;
+import org.example.loadbalancer.lb.Main;
+import org.example.loadbalancer.lb.strategy.LoadBalancerStrategyType;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// main() entry point for the load test, runs the backends, the LB and the load generator in one JVM
+public class LoadTest {
+
+    // How long the LB gets to start listening
+    private static final long LB_START_TIMEOUT_MS = 10_000;
+
+    public static void main(String[] args) throws Exception {
+        final LoadTestConfig config = LoadTestConfig.parse(args);
+        if (config == null) {
+            System.out.println("Usage: loadtest [rate=N] [durationS=N] [longLivedPercent=N] [holdMs=N] [requestBytes=N] [timeoutMs=N] "
+                    + "[maxConnections=N] [echo=N] [sink=N] [slow=N] [slowMs=N] [failureRate=0..1] [flapMs=N] [lbPort=N] [adminPort=N] "
+                    + "[engine=THREAD_PER_CONNECTION|EVENT_LOOP] [pingMs=N] [reportMs=N]");
+            System.exit(1);
+        }
+
+        final List<TestBackend> backends = startBackends(config);
+
+        final List<InetSocketAddress> servers = new ArrayList<>();
+        final Map<InetSocketAddress, Integer> weights = new HashMap<>();
+        for (TestBackend backend : backends) {
+            servers.add(backend.getAddress());
+            weights.put(backend.getAddress(), 1);
+            System.out.printf("Backend %s %s%n", backend.getAddress(), backend.getType());
+        }
+
+        final LoadBalancerConfig lbConfig = new LoadBalancerConfig();
+        lbConfig.setPort(config.getLbPort());
+        lbConfig.setAdminPort(config.getAdminPort());
+        lbConfig.setLoadBalancerStrategyType(LoadBalancerStrategyType.ROUND_ROBIN);
+        lbConfig.setServers(servers);
+        lbConfig.setServerWeights(weights);
+        lbConfig.setEngineType(config.getEngineType());
+        lbConfig.setBackendPingIntervalMs(config.getPingMs());
+        // One line per connection would measure the disk rather than the LB
+        lbConfig.setAccessLogPath(null);
+
+        Thread.ofPlatform().name("lb").daemon().start(() -> Main.run(lbConfig));
+        final InetSocketAddress target = new InetSocketAddress(InetAddress.getLoopbackAddress(), config.getLbPort());
+        if (!awaitListening(target)) {
+            System.out.printf("Load balancer did not start listening on %s%n", target);
+            System.exit(1);
+        }
+
+        final LoadGenerator generator = new LoadGenerator(config, target);
+        final Reporter reporter = new Reporter(generator, backends);
+        final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2, Thread.ofPlatform().daemon().factory());
+
+        System.out.printf("Starting %d conn/s for %ds, %d%% held open for %dms%n", config.getRate(), config.getDurationS(),
+                config.getLongLivedPercent(), config.getHoldMs());
+        reporter.printHeader();
+        scheduler.scheduleAtFixedRate(reporter::report, config.getReportMs(), config.getReportMs(), TimeUnit.MILLISECONDS);
+        if (config.getFlapMs() > 0) {
+            final TestBackend flapping = backends.get(0);
+            scheduler.scheduleAtFixedRate(() -> flap(flapping), config.getFlapMs(), config.getFlapMs(), TimeUnit.MILLISECONDS);
+        }
+
+        generator.run();
+
+        // Let the last connections, long-lived ones included, finish before the totals
+        final boolean drained = generator.awaitInFlight(config.getHoldMs() + 2L * config.getTimeoutMs());
+        scheduler.shutdownNow();
+        reporter.report();
+        reporter.printSummary();
+        if (!drained) {
+            System.out.printf("%d connections still in flight%n", generator.getInFlight());
+        }
+
+        for (TestBackend backend : backends) {
+            backend.close();
+        }
+        // The LB never returns from run()
+        System.exit(0);
+    }
+
+    private static List<TestBackend> startBackends(LoadTestConfig config) throws IOException {
+        final List<TestBackend> backends = new ArrayList<>();
+        for (int i = 0; i < config.getEchoBackends(); i++) {
+            backends.add(new TestBackend(BackendType.ECHO, 0, config.getFailureRate()));
+        }
+        for (int i = 0; i < config.getSinkBackends(); i++) {
+            backends.add(new TestBackend(BackendType.SINK, 0, config.getFailureRate()));
+        }
+        for (int i = 0; i < config.getSlowBackends(); i++) {
+            backends.add(new TestBackend(BackendType.SLOW, config.getSlowMs(), config.getFailureRate()));
+        }
+
+        for (TestBackend backend : backends) {
+            backend.start();
+        }
+        return backends;
+    }
+
+    private static void flap(TestBackend backend) {
+        if (backend.isRunning()) {
+            backend.stop();
+            System.out.printf("Stopped backend %s%n", backend.getAddress());
+            return;
+        }
+
+        try {
+            backend.start();
+            System.out.printf("Started backend %s%n", backend.getAddress());
+        } catch (IOException e) {
+            System.out.printf("Unable to restart backend %s (%s)%n", backend.getAddress(), e.getMessage());
+        }
+    }
+
+    private static boolean awaitListening(InetSocketAddress target) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + LB_START_TIMEOUT_MS;
+        while (System.currentTimeMillis() < deadline) {
+            try (Socket probe = new Socket()) {
+                probe.connect(target, 1000);
+                // Close without sending anything, the LB sees an empty connection
+                probe.shutdownOutput();
+                return true;
+            } catch (IOException e) {
+                Thread.sleep(100);
+            }
+        }
+        return false;
+    }
+}
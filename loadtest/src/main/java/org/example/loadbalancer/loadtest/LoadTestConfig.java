@@ -0,0 +1,197 @@
+package org.example.loadbalancer.loadtest;
+
+import org.example.loadbalancer.lb.socket.EngineType;
+
+/*
+ * Load test settings, parsed from key=value arguments. Anything not given keeps the default below.
+ */
+public class LoadTestConfig {
+
+    // New connections started per second, the generator keeps to this whatever the latency
+    private int rate = 1000;
+    private int durationS = 60;
+    // Share of connections that stay open for holdMs before sending anything
+    private int longLivedPercent = 10;
+    private int holdMs = 5000;
+    private int requestBytes = 512;
+    private int timeoutMs = 5000;
+    // Connections in flight before new starts are skipped, keeps a stalled LB from exhausting file descriptors
+    private int maxConnections = 20_000;
+
+    private int echoBackends = 2;
+    private int sinkBackends = 1;
+    private int slowBackends = 1;
+    private int slowMs = 100;
+    // Share of backend connections reset straight after accept, 0 to 1
+    private double failureRate = 0;
+    // Stop or start the first backend this often, 0 leaves it up
+    private int flapMs = 0;
+
+    private int lbPort = 18080;
+    private int adminPort = 0;
+    private EngineType engineType = EngineType.THREAD_PER_CONNECTION;
+    private int pingMs = 1000;
+
+    private int reportMs = 1000;
+
+    /**
+     * @param args key=value pairs, e.g. rate=5000 durationS=30 flapMs=2000
+     * @return The config, null if an argument was not understood
+     */
+    public static LoadTestConfig parse(String[] args) {
+        final LoadTestConfig config = new LoadTestConfig();
+        for (String arg : args) {
+            final int equals = arg.indexOf('=');
+            if (equals <= 0) {
+                System.out.printf("Expected key=value but got %s%n", arg);
+                return null;
+            }
+
+            final String key = arg.substring(0, equals);
+            final String value = arg.substring(equals + 1);
+            try {
+                switch (key) {
+                    case "rate":
+                        config.rate = Integer.parseInt(value);
+                        break;
+                    case "durationS":
+                        config.durationS = Integer.parseInt(value);
+                        break;
+                    case "longLivedPercent":
+                        config.longLivedPercent = Integer.parseInt(value);
+                        break;
+                    case "holdMs":
+                        config.holdMs = Integer.parseInt(value);
+                        break;
+                    case "requestBytes":
+                        config.requestBytes = Integer.parseInt(value);
+                        break;
+                    case "timeoutMs":
+                        config.timeoutMs = Integer.parseInt(value);
+                        break;
+                    case "maxConnections":
+                        config.maxConnections = Integer.parseInt(value);
+                        break;
+                    case "echo":
+                        config.echoBackends = Integer.parseInt(value);
+                        break;
+                    case "sink":
+                        config.sinkBackends = Integer.parseInt(value);
+                        break;
+                    case "slow":
+                        config.slowBackends = Integer.parseInt(value);
+                        break;
+                    case "slowMs":
+                        config.slowMs = Integer.parseInt(value);
+                        break;
+                    case "failureRate":
+                        config.failureRate = Double.parseDouble(value);
+                        break;
+                    case "flapMs":
+                        config.flapMs = Integer.parseInt(value);
+                        break;
+                    case "lbPort":
+                        config.lbPort = Integer.parseInt(value);
+                        break;
+                    case "adminPort":
+                        config.adminPort = Integer.parseInt(value);
+                        break;
+                    case "engine":
+                        config.engineType = EngineType.valueOf(value);
+                        break;
+                    case "pingMs":
+                        config.pingMs = Integer.parseInt(value);
+                        break;
+                    case "reportMs":
+                        config.reportMs = Integer.parseInt(value);
+                        break;
+
+                    default:
+                        System.out.printf("Unknown setting %s%n", key);
+                        return null;
+                }
+            } catch (IllegalArgumentException e) {
+                System.out.printf("Invalid value for %s: %s%n", key, value);
+                return null;
+            }
+        }
+
+        if (config.rate <= 0 || config.echoBackends + config.sinkBackends + config.slowBackends == 0) {
+            System.out.println("Need a positive rate and at least one backend");
+            return null;
+        }
+        return config;
+    }
+
+    public int getRate() {
+        return rate;
+    }
+
+    public int getDurationS() {
+        return durationS;
+    }
+
+    public int getLongLivedPercent() {
+        return longLivedPercent;
+    }
+
+    public int getHoldMs() {
+        return holdMs;
+    }
+
+    public int getRequestBytes() {
+        return requestBytes;
+    }
+
+    public int getTimeoutMs() {
+        return timeoutMs;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public int getEchoBackends() {
+        return echoBackends;
+    }
+
+    public int getSinkBackends() {
+        return sinkBackends;
+    }
+
+    public int getSlowBackends() {
+        return slowBackends;
+    }
+
+    public int getSlowMs() {
+        return slowMs;
+    }
+
+    public double getFailureRate() {
+        return failureRate;
+    }
+
+    public int getFlapMs() {
+        return flapMs;
+    }
+
+    public int getLbPort() {
+        return lbPort;
+    }
+
+    public int getAdminPort() {
+        return adminPort;
+    }
+
+    public EngineType getEngineType() {
+        return engineType;
+    }
+
+    public int getPingMs() {
+        return pingMs;
+    }
+
+    public int getReportMs() {
+        return reportMs;
+    }
+}
@@ -0,0 +1,101 @@
+package org.example.loadbalancer.loadtest;
+
+import com.sun.management.UnixOperatingSystemMXBean;
+import org.example.loadbalancer.lb.metrics.Histogram;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.List;
+
+/*
+ * Prints one line per interval: connections started, completed, failed and skipped, throughput, latency percentiles
+ * of the connections that finished in the interval, connections in flight, open file descriptors and heap in use.
+ *
+ * The LB, the backends and the generator share one JVM, so file descriptors and heap are for all three together.
+ * Every connection through the LB holds four descriptors, client and backend side of each end.
+ */
+public class Reporter {
+
+    private final LoadGenerator generator;
+    private final List<TestBackend> backends;
+    private final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+    private final long startedAt = System.nanoTime();
+    private long lastReportAt = startedAt;
+    private long lastCompleted = 0;
+    private long maxOpenFiles = 0;
+    private long maxHeapBytes = 0;
+
+    public Reporter(LoadGenerator generator, List<TestBackend> backends) {
+        this.generator = generator;
+        this.backends = backends;
+    }
+
+    public void printHeader() {
+        System.out.printf("%7s %9s %9s %7s %7s %8s %9s %9s %9s %9s %8s %7s %8s %s%n", "time_s", "started", "completed",
+                "failed", "skipped", "conn/s", "p50_ms", "p99_ms", "p99.9_ms", "max_ms", "inflight", "fds", "heap_mb", "backends");
+    }
+
+    /**
+     * Print the line for the interval since the last call
+     */
+    public synchronized void report() {
+        final long now = System.nanoTime();
+        final long completed = generator.getCompleted();
+        final double seconds = (now - lastReportAt) / 1e9;
+        final double rate = seconds > 0 ? (completed - lastCompleted) / seconds : 0;
+        lastReportAt = now;
+        lastCompleted = completed;
+
+        final long openFiles = getOpenFiles();
+        final long heapBytes = memory.getHeapMemoryUsage().getUsed();
+        maxOpenFiles = Math.max(maxOpenFiles, openFiles);
+        maxHeapBytes = Math.max(maxHeapBytes, heapBytes);
+
+        final Histogram interval = generator.swapIntervalLatency();
+        System.out.printf("%7.1f %9d %9d %7d %7d %8.0f %9.2f %9.2f %9.2f %9.2f %8d %7d %8d %s%n",
+                (now - startedAt) / 1e9, generator.getStarted(), completed, generator.getFailed(), generator.getSkipped(), rate,
+                millis(interval, 50), millis(interval, 99), millis(interval, 99.9), interval.getMax() / 1000.0,
+                generator.getInFlight(), openFiles, heapBytes >> 20, formatBackends());
+    }
+
+    /**
+     * Print totals over the whole run
+     */
+    public synchronized void printSummary() {
+        final Histogram latency = generator.getLatency();
+        final double seconds = (System.nanoTime() - startedAt) / 1e9;
+
+        System.out.println();
+        System.out.printf("Started %d, completed %d, failed %d, skipped %d in %.1fs (%.0f conn/s)%n", generator.getStarted(),
+                generator.getCompleted(), generator.getFailed(), generator.getSkipped(), seconds, generator.getCompleted() / seconds);
+        System.out.printf("Latency ms p50 %.2f, p90 %.2f, p99 %.2f, p99.9 %.2f, max %.2f%n", millis(latency, 50), millis(latency, 90),
+                millis(latency, 99), millis(latency, 99.9), latency.getMax() / 1000.0);
+        System.out.printf("Peak open files %d, peak heap %dMB%n", maxOpenFiles, maxHeapBytes >> 20);
+        for (TestBackend backend : backends) {
+            System.out.printf("Backend %s %s accepted %d, reset %d%n", backend.getAddress(), backend.getType(), backend.getAccepted(),
+                    backend.getReset());
+        }
+    }
+
+    private String formatBackends() {
+        final StringBuilder up = new StringBuilder();
+        for (TestBackend backend : backends) {
+            up.append(backend.isRunning() ? '+' : '-');
+        }
+        return up.toString();
+    }
+
+    private long getOpenFiles() {
+        if (os instanceof UnixOperatingSystemMXBean) {
+            return ((UnixOperatingSystemMXBean) os).getOpenFileDescriptorCount();
+        }
+        return -1;
+    }
+
+    private static double millis(Histogram histogram, double percentile) {
+        return histogram.getValueAtPercentile(percentile) / 1000.0;
+    }
+}
@@ -0,0 +1,145 @@
+package org.example.loadbalancer.loadtest;
+
+import org.example.loadbalancer.lb.metrics.Counter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.example.loadbalancer.lb.util.Helper.closeChannel;
+
+/*
+ * In-process backend server for load tests, one virtual thread per connection.
+ *
+ * A share of the connections can be reset straight after they are accepted (failureRate), and the backend can be
+ * stopped and started again on the same port to make it flap. While stopped its port refuses connections, which is
+ * what the LB's health checks and outlier detection see when a real server goes away.
+ */
+public class TestBackend implements AutoCloseable {
+
+    private static final int CHUNK_SIZE = 16 * 1024;
+
+    private final BackendType type;
+    private final int latencyMs;
+    private final double failureRate;
+
+    private final Counter accepted = new Counter();
+    private final Counter reset = new Counter();
+
+    private volatile ServerSocket serverSocket;
+    private int port = 0;
+
+    /**
+     * @param type How connections are answered
+     * @param latencyMs Wait before a SLOW backend answers
+     * @param failureRate Share of connections reset as soon as they are accepted, 0 to 1
+     */
+    public TestBackend(BackendType type, int latencyMs, double failureRate) {
+        this.type = type;
+        this.latencyMs = latencyMs;
+        this.failureRate = failureRate;
+    }
+
+    /**
+     * Start listening, on a free port the first time and on the same port after a stop()
+     *
+     * @throws IOException If the port can't be bound
+     */
+    public synchronized void start() throws IOException {
+        if (serverSocket != null) {
+            return;
+        }
+
+        final ServerSocket socket = new ServerSocket();
+        socket.setReuseAddress(true);
+        socket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 4096);
+        port = socket.getLocalPort();
+        serverSocket = socket;
+        Thread.ofVirtual().name("backend-" + port).start(() -> acceptLoop(socket));
+    }
+
+    /**
+     * Stop listening, connections already accepted carry on
+     */
+    public synchronized void stop() {
+        closeChannel(serverSocket);
+        serverSocket = null;
+    }
+
+    public synchronized boolean isRunning() {
+        return serverSocket != null;
+    }
+
+    public InetSocketAddress getAddress() {
+        return new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+    }
+
+    public BackendType getType() {
+        return type;
+    }
+
+    public long getAccepted() {
+        return accepted.get();
+    }
+
+    public long getReset() {
+        return reset.get();
+    }
+
+    @Override
+    public void close() {
+        stop();
+    }
+
+    private void acceptLoop(ServerSocket socket) {
+        while (!socket.isClosed()) {
+            try {
+                final Socket client = socket.accept();
+                accepted.increment();
+                Thread.ofVirtual().start(() -> answer(client));
+            } catch (IOException e) {
+                // Stopped
+            }
+        }
+    }
+
+    private void answer(Socket socket) {
+        try (socket) {
+            if (failureRate > 0 && ThreadLocalRandom.current().nextDouble() < failureRate) {
+                // Close with a RST rather than a FIN
+                reset.increment();
+                socket.setSoLinger(true, 0);
+                return;
+            }
+
+            final InputStream in = socket.getInputStream();
+            final OutputStream out = socket.getOutputStream();
+            final byte[] chunk = new byte[CHUNK_SIZE];
+            boolean answered = false;
+            int len;
+            while ((len = in.read(chunk)) >= 0) {
+                if (type == BackendType.SINK) {
+                    continue;
+                }
+                if (type == BackendType.SLOW && !answered) {
+                    Thread.sleep(latencyMs);
+                }
+                out.write(chunk, 0, len);
+                answered = true;
+            }
+
+            if (type == BackendType.SINK) {
+                out.write(1);
+            }
+        } catch (IOException e) {
+            // The LB or the client went away
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}